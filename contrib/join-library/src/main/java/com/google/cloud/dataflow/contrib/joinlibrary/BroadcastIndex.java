@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Google Cloud Dataflow join-library Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.contrib.joinlibrary;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hash index of the values of a broadcast side of a join by their key.
+ *
+ * <p>A key with a single value maps to the value itself, so that an index of a table with unique
+ * keys needs no list per key.
+ */
+final class BroadcastIndex<K, V> {
+
+  /**
+   * Indexes by the tag of the side input view they were built from and the side input window.
+   * Workers deserialize a new {@code DoFn} for every bundle, so indexes are shared by all the
+   * instances in the JVM to build each one once per worker. Values are soft, so indexes may be
+   * reclaimed under memory pressure and are then built again when next used.
+   */
+  private static final Cache<KV<TupleTag<?>, BoundedWindow>, BroadcastIndex<?, ?>> INDEXES =
+      CacheBuilder.newBuilder().softValues().build();
+
+  /** The values of a key with more than one value. */
+  private static final class MultipleValues<V> extends ArrayList<V> {
+    private static final long serialVersionUID = 0;
+  }
+
+  private final Map<K, Object> index = new HashMap<>();
+
+  /**
+   * Returns the index of the side input with the given view tag in the given side input window,
+   * building it from the values returned by {@code values} if it is not cached.
+   */
+  static <K, V> BroadcastIndex<K, V> of(
+      TupleTag<?> viewTag, BoundedWindow window, final Callable<Iterable<KV<K, V>>> values) {
+    try {
+      @SuppressWarnings("unchecked")
+      BroadcastIndex<K, V> index = (BroadcastIndex<K, V>) INDEXES.get(
+          KV.<TupleTag<?>, BoundedWindow>of(viewTag, window),
+          new Callable<BroadcastIndex<?, ?>>() {
+            @Override
+            public BroadcastIndex<?, ?> call() throws Exception {
+              return new BroadcastIndex<>(values.call());
+            }
+          });
+      return index;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private BroadcastIndex(Iterable<KV<K, V>> values) {
+    for (KV<K, V> kv : values) {
+      K key = kv.getKey();
+      if (!index.containsKey(key)) {
+        index.put(key, kv.getValue());
+        continue;
+      }
+      Object existing = index.get(key);
+      if (existing instanceof MultipleValues) {
+        @SuppressWarnings("unchecked")
+        MultipleValues<V> multiple = (MultipleValues<V>) existing;
+        multiple.add(kv.getValue());
+      } else {
+        @SuppressWarnings("unchecked")
+        V first = (V) existing;
+        MultipleValues<V> multiple = new MultipleValues<>();
+        multiple.add(first);
+        multiple.add(kv.getValue());
+        index.put(key, multiple);
+      }
+    }
+  }
+
+  /**
+   * Returns the values with the given key, which is empty if there are none.
+   */
+  List<V> get(K key) {
+    Object values = index.get(key);
+    if (values instanceof MultipleValues) {
+      @SuppressWarnings("unchecked")
+      List<V> multiple = (MultipleValues<V>) values;
+      return multiple;
+    } else if (values != null || index.containsKey(key)) {
+      @SuppressWarnings("unchecked")
+      V value = (V) values;
+      return Collections.singletonList(value);
+    } else {
+      return Collections.emptyList();
+    }
+  }
+}
@@ -19,17 +19,29 @@ package com.google.cloud.dataflow.contrib.joinlibrary;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.View;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.join.CoGbkResult;
 import com.google.cloud.dataflow.sdk.transforms.join.CoGroupByKey;
 import com.google.cloud.dataflow.sdk.transforms.join.KeyedPCollectionTuple;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.common.base.Preconditions;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 /**
  * Utility class with different versions of joins. All methods join two collections of
  * key/value pairs (KV).
+ *
+ * <p>The {@code broadcast} joins do not shuffle either collection. The smaller collection is
+ * broadcast to every worker as a side input, where it is indexed by key once per window and
+ * probed with each element of the larger collection. They are only suitable when the smaller
+ * collection fits in the memory of a worker, and when its keys have an {@code equals} and
+ * {@code hashCode} consistent with their encoding.
  */
 public class Join {
 
@@ -115,8 +127,11 @@ public class Join {
           Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
           Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
 
+          // Checked once rather than per left value, as finding the first value of a hot key
+          // may require scanning past the values of the other side.
+          boolean hasRightValues = rightValuesIterable.iterator().hasNext();
           for (V1 leftValue : leftValuesIterable) {
-            if (rightValuesIterable.iterator().hasNext()) {
+            if (hasRightValues) {
               for (V2 rightValue : rightValuesIterable) {
                 c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
               }
@@ -168,8 +183,9 @@ public class Join {
           Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
           Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
 
+          boolean hasLeftValues = leftValuesIterable.iterator().hasNext();
           for (V2 rightValue : rightValuesIterable) {
-            if (leftValuesIterable.iterator().hasNext()) {
+            if (hasLeftValues) {
               for (V1 leftValue : leftValuesIterable) {
                 c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
               }
@@ -183,4 +199,162 @@ public class Join {
                            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
                                       ((KvCoder) rightCollection.getCoder()).getValueCoder())));
   }
+
+  /**
+   * Inner join of two collections of KV elements, broadcasting the right collection.
+   * @param leftCollection Left side collection to join.
+   * @param rightCollection Right side collection to join, which must fit in memory.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastInnerJoin(
+    final PCollection<KV<K, V1>> leftCollection, final PCollection<KV<K, V2>> rightCollection)
+  {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+
+    final PCollectionView<Iterable<KV<K, V2>>> rightView =
+      rightCollection.apply(View.<KV<K, V2>>asIterable());
+
+    return leftCollection.apply(ParDo.withSideInputs(rightView).of(
+      new BroadcastJoinFn<K, V1, V2, KV<K, KV<V1, V2>>>(rightView) {
+        @Override
+        public void processElement(ProcessContext c) {
+          KV<K, V1> e = c.element();
+
+          for (V2 rightValue : index(c).get(e.getKey())) {
+            c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
+          }
+        }
+      }))
+      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Left Outer Join of two collections of KV elements, broadcasting the right collection.
+   * @param leftCollection Left side collection to join.
+   * @param rightCollection Right side collection to join, which must fit in memory.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastLeftOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V2 nullValue) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+
+    final PCollectionView<Iterable<KV<K, V2>>> rightView =
+      rightCollection.apply(View.<KV<K, V2>>asIterable());
+
+    return leftCollection.apply(ParDo.withSideInputs(rightView).of(
+      new BroadcastJoinFn<K, V1, V2, KV<K, KV<V1, V2>>>(rightView) {
+        @Override
+        public void processElement(ProcessContext c) {
+          KV<K, V1> e = c.element();
+
+          List<V2> rightValues = index(c).get(e.getKey());
+          if (rightValues.isEmpty()) {
+            c.output(KV.of(e.getKey(), KV.of(e.getValue(), nullValue)));
+          }
+          for (V2 rightValue : rightValues) {
+            c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
+          }
+        }
+      }))
+      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Right Outer Join of two collections of KV elements, broadcasting the left collection.
+   * @param leftCollection Left side collection to join, which must fit in memory.
+   * @param rightCollection Right side collection to join.
+   * @param nullValue Value to use as null value when left side do not match right side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Keys that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastRightOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V1 nullValue) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+
+    final PCollectionView<Iterable<KV<K, V1>>> leftView =
+      leftCollection.apply(View.<KV<K, V1>>asIterable());
+
+    return rightCollection.apply(ParDo.withSideInputs(leftView).of(
+      new BroadcastJoinFn<K, V2, V1, KV<K, KV<V1, V2>>>(leftView) {
+        @Override
+        public void processElement(ProcessContext c) {
+          KV<K, V2> e = c.element();
+
+          List<V1> leftValues = index(c).get(e.getKey());
+          if (leftValues.isEmpty()) {
+            c.output(KV.of(e.getKey(), KV.of(nullValue, e.getValue())));
+          }
+          for (V1 leftValue : leftValues) {
+            c.output(KV.of(e.getKey(), KV.of(leftValue, e.getValue())));
+          }
+        }
+      }))
+      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * A {@link DoFn} that looks up the elements of one collection in a broadcast side input. The
+   * side input is indexed once per worker and side input window, see {@link BroadcastIndex#of}.
+   * Each instance also keeps the index of the last window it used, to skip the cache lookup for
+   * as long as its elements fall in that window.
+   */
+  private abstract static class BroadcastJoinFn<K, V, IndexedV, OutputT>
+      extends DoFn<KV<K, V>, OutputT> implements DoFn.RequiresWindowAccess {
+    private final PCollectionView<Iterable<KV<K, IndexedV>>> view;
+
+    private transient BoundedWindow indexWindow;
+    private transient BroadcastIndex<K, IndexedV> index;
+
+    BroadcastJoinFn(PCollectionView<Iterable<KV<K, IndexedV>>> view) {
+      this.view = view;
+    }
+
+    /**
+     * Returns the index of the side input in the window of the element being processed.
+     */
+    BroadcastIndex<K, IndexedV> index(final ProcessContext c) {
+      BoundedWindow window =
+          view.getWindowingStrategyInternal().getWindowFn().getSideInputWindow(c.window());
+      if (index == null || !window.equals(indexWindow)) {
+        index = BroadcastIndex.of(view.getTagInternal(), window,
+            new Callable<Iterable<KV<K, IndexedV>>>() {
+              @Override
+              public Iterable<KV<K, IndexedV>> call() {
+                return c.sideInput(view);
+              }
+            });
+        indexWindow = window;
+      }
+      return index;
+    }
+  }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import com.google.cloud.dataflow.sdk.io.AvroSource.AvroReader;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for reading a file of {@link GenericRecord}s with many fields with an
+ * {@link AvroSource}, with and without {@link AvroSource#withObjectReuse}. Run with
+ * {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AvroSourceBenchmark {
+  private static final int NUM_RECORDS = 10000;
+
+  @Param({"10", "100"})
+  public int numFields;
+
+  @Param({"false", "true"})
+  public boolean objectReuse;
+
+  private File file;
+  private AvroSource<GenericRecord> source;
+
+  @Setup
+  public void setUp() throws Exception {
+    // Alternate string and long fields.
+    SchemaBuilder.FieldAssembler<Schema> fields = SchemaBuilder.record("Wide").fields();
+    for (int i = 0; i < numFields; i++) {
+      if (i % 2 == 0) {
+        fields = fields.requiredString("field" + i);
+      } else {
+        fields = fields.requiredLong("field" + i);
+      }
+    }
+    Schema schema = fields.endRecord();
+
+    file = File.createTempFile("AvroSourceBenchmark", ".avro");
+    try (DataFileWriter<GenericRecord> writer =
+        new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(schema))) {
+      writer.setCodec(CodecFactory.deflateCodec(1));
+      writer.create(schema, file);
+      for (int r = 0; r < NUM_RECORDS; r++) {
+        GenericRecord record = new GenericData.Record(schema);
+        for (int i = 0; i < numFields; i++) {
+          record.put(i, i % 2 == 0 ? "value " + r + " of field " + i : (long) r * i);
+        }
+        writer.append(record);
+      }
+    }
+
+    AvroSource<GenericRecord> fileSource = AvroSource.from(file.getPath()).withSchema(schema);
+    if (objectReuse) {
+      fileSource = fileSource.withObjectReuse();
+    }
+    source = fileSource.createForSubrangeOfFile(file.getPath(), 0, file.length());
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void read(Blackhole blackhole) throws Exception {
+    try (AvroReader<GenericRecord> reader = source.createSingleFileReader(null)) {
+      for (boolean more = reader.start(); more; more = reader.advance()) {
+        blackhole.consume(reader.getCurrent());
+      }
+    }
+  }
+}
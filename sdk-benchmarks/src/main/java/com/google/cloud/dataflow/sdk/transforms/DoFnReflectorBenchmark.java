@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.transforms;
+
+import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.values.PCollectionView;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for invoking the {@link DoFnWithContext.ProcessElement} method of a
+ * {@link DoFnWithContext} directly, through {@link Method#invoke}, and through the
+ * {@link DoFnReflector} used to run it, reporting the time per element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DoFnReflectorBenchmark {
+  private IdentityFn fn;
+  private StubProcessContext context;
+  private Method processElement;
+  private DoFnReflector reflector;
+
+  @Setup
+  public void setUp() throws Exception {
+    fn = new IdentityFn();
+    context = new StubProcessContext(fn, "element");
+    processElement = IdentityFn.class.getMethod(
+        "processElement", DoFnWithContext.ProcessContext.class);
+    reflector = DoFnReflector.of(IdentityFn.class);
+  }
+
+  @Benchmark
+  public String direct() {
+    fn.processElement(context);
+    return context.output;
+  }
+
+  @Benchmark
+  public String reflective() throws Exception {
+    processElement.invoke(fn, context);
+    return context.output;
+  }
+
+  @Benchmark
+  public String reflector() {
+    reflector.invokeProcessElement(fn, context, null);
+    return context.output;
+  }
+
+  /** Outputs each element as is. */
+  public static class IdentityFn extends DoFnWithContext<String, String> {
+    private static final long serialVersionUID = 0;
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      c.output(c.element());
+    }
+  }
+
+  /** A context that holds a single element and keeps the last output. */
+  private static class StubProcessContext extends DoFnWithContext<String, String>.ProcessContext {
+    private final String element;
+    private String output;
+
+    StubProcessContext(DoFnWithContext<String, String> fn, String element) {
+      fn.super();
+      this.element = element;
+    }
+
+    @Override
+    public String element() {
+      return element;
+    }
+
+    @Override
+    public void output(String output) {
+      this.output = output;
+    }
+
+    @Override
+    public <T> T sideInput(PCollectionView<T> view) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant timestamp() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PipelineOptions getPipelineOptions() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void outputWithTimestamp(String output, Instant timestamp) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void sideOutput(TupleTag<T> tag, T output) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void sideOutputWithTimestamp(TupleTag<T> tag, T output, Instant timestamp) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
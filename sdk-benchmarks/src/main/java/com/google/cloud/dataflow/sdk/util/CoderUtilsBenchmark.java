@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarLongCoder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link CoderUtils#encodeToByteArray} and {@link CoderUtils#decodeFromByteArray}
+ * with the coders most elements of a pipeline go through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CoderUtilsBenchmark {
+  /**
+   * A record encoded by {@link AvroCoder}.
+   */
+  public static class Record {
+    String name;
+    long count;
+    double score;
+
+    public Record() {}
+
+    public Record(String name, long count, double score) {
+      this.name = name;
+      this.count = count;
+      this.score = score;
+    }
+  }
+
+  @Param({"StringUtf8", "VarLong", "Kv", "Avro", "FullWindowedValue"})
+  public String coderName;
+
+  private Coder<Object> coder;
+  private Object value;
+  private byte[] encoded;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  @Setup
+  public void setUp() throws Exception {
+    String string = "The quick brown fox jumps over the lazy dog";
+    switch (coderName) {
+      case "StringUtf8":
+        coder = (Coder) StringUtf8Coder.of();
+        value = string;
+        break;
+      case "VarLong":
+        coder = (Coder) VarLongCoder.of();
+        value = 1234567890123L;
+        break;
+      case "Kv":
+        coder = (Coder) KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of());
+        value = KV.of(string, 1234567890123L);
+        break;
+      case "Avro":
+        coder = (Coder) AvroCoder.of(Record.class);
+        value = new Record(string, 1234567890123L, 0.5);
+        break;
+      case "FullWindowedValue":
+        coder = (Coder) WindowedValue.getFullCoder(
+            KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of()), IntervalWindow.getCoder());
+        Instant timestamp = new Instant(1234567890123L);
+        value = WindowedValue.of(
+            KV.of(string, 1234567890123L),
+            timestamp,
+            new IntervalWindow(timestamp, Duration.standardMinutes(1)),
+            PaneInfo.NO_FIRING);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown coder " + coderName);
+    }
+    encoded = CoderUtils.encodeToByteArray(coder, value);
+  }
+
+  @Benchmark
+  public byte[] encode() throws Exception {
+    return CoderUtils.encodeToByteArray(coder, value);
+  }
+
+  @Benchmark
+  public Object decode() throws Exception {
+    return CoderUtils.decodeFromByteArray(coder, encoded);
+  }
+}
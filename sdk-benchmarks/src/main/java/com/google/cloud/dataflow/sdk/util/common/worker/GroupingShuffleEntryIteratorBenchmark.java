@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import com.google.cloud.dataflow.sdk.runners.worker.ByteArrayShufflePosition;
+import com.google.common.primitives.Ints;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Benchmarks for {@link GroupingShuffleEntryIterator} reading sorted shuffle entries from
+ * in-memory batches through a {@link BatchingShuffleEntryReader}, reporting the time per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GroupingShuffleEntryIteratorBenchmark {
+  private static final int NUM_ENTRIES = 100000;
+  private static final int BATCH_SIZE = 1000;
+
+  /** The number of values of each key. */
+  @Param({"1", "100"})
+  public int valuesPerKey;
+
+  private final List<ShuffleBatchReader.Batch> batches = new ArrayList<>();
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    List<ShuffleEntry> entries = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      byte[] key = String.format("key%08d", i / valuesPerKey).getBytes(StandardCharsets.UTF_8);
+      byte[] value = new byte[32];
+      random.nextBytes(value);
+      entries.add(new ShuffleEntry(key, new byte[0], value));
+      if (entries.size() == BATCH_SIZE || i == NUM_ENTRIES - 1) {
+        int next = batches.size() + 1;
+        batches.add(new ShuffleBatchReader.Batch(
+            entries,
+            i == NUM_ENTRIES - 1 ? null : ByteArrayShufflePosition.of(Ints.toByteArray(next))));
+        entries = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_ENTRIES)
+  public void iterate(final Blackhole blackhole) {
+    ShuffleEntryReader reader = new BatchingShuffleEntryReader(new ShuffleBatchReader() {
+      @Override
+      public Batch read(
+          @Nullable ShufflePosition startPosition, @Nullable ShufflePosition endPosition) {
+        return batches.get(startPosition == null
+            ? 0 : Ints.fromByteArray(((ByteArrayShufflePosition) startPosition).getPosition()));
+      }
+    });
+    GroupingShuffleEntryIterator iterator = new GroupingShuffleEntryIterator(
+        reader.read(null, null)) {
+      @Override
+      protected void notifyElementRead(long byteSize) {
+        blackhole.consume(byteSize);
+      }
+    };
+    while (iterator.hasNext()) {
+      KeyGroupedShuffleEntries group = iterator.next();
+      blackhole.consume(group.key);
+      for (ShuffleEntry entry : group.values) {
+        blackhole.consume(entry.getValue());
+      }
+    }
+  }
+}
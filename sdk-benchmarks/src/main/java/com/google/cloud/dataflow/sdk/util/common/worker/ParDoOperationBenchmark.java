@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.ElementByteSizeObservableCoder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for chains of {@link ParDoOperation ParDoOperations} connected by
+ * {@link OutputReceiver OutputReceivers} with output counters, as in a fused map task, reporting
+ * the time per input element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParDoOperationBenchmark {
+  private static final int NUM_ELEMENTS = 10000;
+
+  /** The number of fused ParDo operations. */
+  @Param({"1", "4", "16"})
+  public int chainLength;
+
+  /** Whether the output counters observe the encoded size of the elements. */
+  @Param({"true", "false"})
+  public boolean countBytes;
+
+  private final List<WindowedValue<String>> elements = new ArrayList<>(NUM_ELEMENTS);
+  private CounterSet counterSet;
+  private StateSampler stateSampler;
+
+  @Setup
+  public void setUp() {
+    counterSet = new CounterSet();
+    stateSampler = new StateSampler("benchmark-", counterSet.getAddCounterMutator());
+    for (int i = 0; i < NUM_ELEMENTS; i++) {
+      elements.add(WindowedValue.valueInGlobalWindow("element" + i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    stateSampler.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_ELEMENTS)
+  public void process(final Blackhole blackhole) throws Exception {
+    Receiver sink = new Receiver() {
+      @Override
+      public void process(Object outputElem) {
+        blackhole.consume(outputElem);
+      }
+    };
+
+    // Built from the last operation back, each one's receiver feeding the one after it.
+    List<ParDoOperation> operations = new ArrayList<>(chainLength);
+    Receiver next = sink;
+    for (int i = chainLength - 1; i >= 0; i--) {
+      OutputReceiver receiver = new OutputReceiver();
+      receiver.addOutputCounter(new DataflowOutputCounter(
+          "ParDo" + i + ".out",
+          countBytes
+              ? new ElementByteSizeObservableCoder<>(WindowedValue.getFullCoder(
+                  StringUtf8Coder.of(), GlobalWindow.Coder.INSTANCE))
+              : null,
+          counterSet.getAddCounterMutator()));
+      receiver.addOutput(next);
+      ParDoOperation operation = new ParDoOperation(
+          "ParDo" + i, new IdentityParDoFn(), new OutputReceiver[] {receiver},
+          "benchmark-", counterSet.getAddCounterMutator(), stateSampler);
+      operations.add(0, operation);
+      next = operation;
+    }
+
+    // Operations are started from the end of the chain, as MapTaskExecutor does.
+    for (int i = chainLength - 1; i >= 0; i--) {
+      operations.get(i).start();
+    }
+    ParDoOperation first = operations.get(0);
+    for (WindowedValue<String> element : elements) {
+      first.process(element);
+    }
+    for (ParDoOperation operation : operations) {
+      operation.finish();
+    }
+  }
+
+  /**
+   * Outputs each element unchanged.
+   */
+  private static class IdentityParDoFn implements ParDoFn {
+    private Receiver receiver;
+
+    @Override
+    public void startBundle(Receiver... receivers) {
+      receiver = receivers[0];
+    }
+
+    @Override
+    public void processElement(Object elem) throws Exception {
+      receiver.process(elem);
+    }
+
+    @Override
+    public void finishBundle() {}
+  }
+}
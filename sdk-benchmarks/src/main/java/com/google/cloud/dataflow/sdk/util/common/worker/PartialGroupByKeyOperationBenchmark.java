@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarLongCoder;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.CoderSizeEstimator;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.PairInfo;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.WindowingCoderGroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.WindowingCoderGroupingKeyEncoder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.Combiner;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.EvictionPolicy;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.LruEvictionPolicy;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.TinyLfuEvictionPolicy;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link PartialGroupByKeyOperation} with each of its grouping tables and
+ * eviction policies, reporting the time per input element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PartialGroupByKeyOperationBenchmark {
+  private static final int NUM_ELEMENTS = 100000;
+
+  /**
+   * The size of the grouping table, small enough that entries are evicted with many keys, or
+   * with few keys when their values are buffered.
+   */
+  private static final long MAX_GROUPING_TABLE_BYTES = 256 << 10;
+
+  /**
+   * Which grouping table the operation uses: buffering or combining, keyed by the structural
+   * values of the keys or by their encodings.
+   */
+  @Param({"BUFFERING", "COMBINING", "BYTE_KEYED_BUFFERING", "BYTE_KEYED_COMBINING"})
+  public String table;
+
+  @Param({"DEFAULT", "LRU", "TINY_LFU"})
+  public String evictionPolicy;
+
+  /** The number of distinct keys, drawn from a skewed distribution. */
+  @Param({"100", "100000"})
+  public int numKeys;
+
+  private final Coder<String> keyCoder = StringUtf8Coder.of();
+  private final Coder<Long> valueCoder = VarLongCoder.of();
+  private List<WindowedValue<KV<String, Long>>> elements;
+  private CounterSet counterSet;
+  private StateSampler stateSampler;
+
+  @Setup
+  public void setUp() {
+    counterSet = new CounterSet();
+    stateSampler = new StateSampler("benchmark-", counterSet.getAddCounterMutator());
+    Random random = new Random(0);
+    elements = new ArrayList<>(NUM_ELEMENTS);
+    for (int i = 0; i < NUM_ELEMENTS; i++) {
+      // Squaring a uniform number makes low keys much more frequent than high ones.
+      double uniform = random.nextDouble();
+      int key = (int) (uniform * uniform * numKeys);
+      elements.add(WindowedValue.valueInGlobalWindow(KV.of("key" + key, (long) i)));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    stateSampler.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_ELEMENTS)
+  public void process(final Blackhole blackhole) throws Exception {
+    OutputReceiver receiver = new OutputReceiver();
+    receiver.addOutput(new Receiver() {
+      @Override
+      public void process(Object outputElem) {
+        blackhole.consume(outputElem);
+      }
+    });
+
+    GroupingKeyCreator<?> groupingKeyCreator = table.startsWith("BYTE_KEYED")
+        ? new WindowingCoderGroupingKeyEncoder<String>(keyCoder, GlobalWindow.Coder.INSTANCE)
+        : new WindowingCoderGroupingKeyCreator<String>(keyCoder);
+    PartialGroupByKeyOperation operation = new PartialGroupByKeyOperation(
+        "PartialGroupByKey",
+        groupingKeyCreator,
+        new CoderSizeEstimator<>(WindowedValue.getValueOnlyCoder(keyCoder)),
+        new CoderSizeEstimator<>(valueCoder),
+        0.001 /*sizeEstimatorSampleRate*/,
+        table.endsWith("COMBINING") ? new SummingCombiner() : null,
+        PairInfo.create(),
+        new OutputReceiver[] {receiver},
+        "benchmark-",
+        counterSet.getAddCounterMutator(),
+        stateSampler);
+    operation.setMaxGroupingTableBytes(MAX_GROUPING_TABLE_BYTES);
+    operation.setGroupingTableEvictionPolicy(createEvictionPolicy());
+
+    operation.start();
+    for (WindowedValue<KV<String, Long>> element : elements) {
+      operation.process(element);
+    }
+    operation.finish();
+  }
+
+  private EvictionPolicy createEvictionPolicy() {
+    switch (evictionPolicy) {
+      case "LRU":
+        return new LruEvictionPolicy();
+      case "TINY_LFU":
+        return new TinyLfuEvictionPolicy();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Sums long values. Its accumulators are sized with the value coder, as the worker's are.
+   */
+  private static class SummingCombiner implements Combiner<Object, Long, Long, Long> {
+    @Override
+    public Long createAccumulator(Object key) {
+      return 0L;
+    }
+
+    @Override
+    public Long add(Object key, Long accumulator, Long value) {
+      return accumulator + value;
+    }
+
+    @Override
+    public Long merge(Object key, Iterable<Long> accumulators) {
+      long sum = 0;
+      for (Long accumulator : accumulators) {
+        sum += accumulator;
+      }
+      return sum;
+    }
+
+    @Override
+    public Long extract(Object key, Long accumulator) {
+      return accumulator;
+    }
+  }
+}
@@ -40,8 +40,7 @@ public class JAXBCoder<T> extends AtomicCoder<T> {
   private static final long serialVersionUID = 0L;
 
   private final Class<T> jaxbClass;
-  private transient Marshaller jaxbMarshaller = null;
-  private transient Unmarshaller jaxbUnmarshaller = null;
+  private transient volatile JAXBContext jaxbContext = null;
 
   public Class<T> getJAXBClass() {
     return jaxbClass;
@@ -60,15 +59,23 @@ public class JAXBCoder<T> extends AtomicCoder<T> {
     return new JAXBCoder<>(jaxbClass);
   }
 
+  /**
+   * Returns the {@link JAXBContext} for the JAXB class. The context is thread-safe and is created
+   * once, but the marshallers and unmarshallers it creates are not, so a coder that may be used
+   * from several threads creates a fresh one for each call.
+   */
+  private JAXBContext getJAXBContext() throws JAXBException {
+    if (jaxbContext == null) {
+      jaxbContext = JAXBContext.newInstance(jaxbClass);
+    }
+    return jaxbContext;
+  }
+
   @Override
   public void encode(T value, OutputStream outStream, Context context)
       throws CoderException, IOException {
     try {
-      if (jaxbMarshaller == null) {
-        JAXBContext jaxbContext = JAXBContext.newInstance(jaxbClass);
-        jaxbMarshaller = jaxbContext.createMarshaller();
-      }
-
+      Marshaller jaxbMarshaller = getJAXBContext().createMarshaller();
       jaxbMarshaller.marshal(value, outStream);
     } catch (JAXBException e) {
       throw new CoderException(e);
@@ -78,11 +85,7 @@ public class JAXBCoder<T> extends AtomicCoder<T> {
   @Override
   public T decode(InputStream inStream, Context context) throws CoderException, IOException {
     try {
-      if (jaxbUnmarshaller == null) {
-        JAXBContext jaxbContext = JAXBContext.newInstance(jaxbClass);
-        jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-      }
-
+      Unmarshaller jaxbUnmarshaller = getJAXBContext().createUnmarshaller();
       @SuppressWarnings("unchecked")
       T obj = (T) jaxbUnmarshaller.unmarshal(inStream);
       return obj;
@@ -18,9 +18,13 @@ package com.google.cloud.dataflow.sdk.io;
 
 import com.google.cloud.dataflow.sdk.annotations.Experimental;
 import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.cloud.dataflow.sdk.util.ReadAheadQueue;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.common.base.Preconditions;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileConstants;
@@ -41,9 +45,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
+import javax.annotation.Nullable;
+
 // JAVADOCSTYLE OFF
 /**
  * A {@code FileBasedSource} for reading Avro-format files.
@@ -136,6 +144,13 @@ public class AvroSource<T> extends BlockBasedSource<T> {
   // The object container file's 16-byte sync marker.
   private final byte[] syncMarker;
 
+  // The number of blocks that readers read and decompress ahead of the block being consumed, or
+  // zero to read each block when it is needed.
+  private final int readAheadBlocks;
+
+  // Whether readers decode the records of a block into the same object.
+  private final boolean reuseRecords;
+
   // Default output coder, lazily initialized.
   private transient AvroCoder<T> coder = null;
 
@@ -145,7 +160,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public static <T> Read.Bounded<T> readFromFileWithClass(String filePattern, Class<T> clazz) {
     return Read.from(new AvroSource<T>(filePattern, DEFAULT_MIN_BUNDLE_SIZE,
-        ReflectData.get().getSchema(clazz).toString(), clazz, null, null));
+        ReflectData.get().getSchema(clazz).toString(), clazz, null, null, 0, false));
   }
 
   /**
@@ -155,7 +170,8 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public static AvroSource<GenericRecord> from(String fileNameOrPattern) {
     return new AvroSource<>(
-        fileNameOrPattern, DEFAULT_MIN_BUNDLE_SIZE, null, GenericRecord.class, null, null);
+        fileNameOrPattern, DEFAULT_MIN_BUNDLE_SIZE, null, GenericRecord.class, null, null, 0,
+        false);
   }
 
   /**
@@ -163,8 +179,8 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    * conform to the given schema.
    */
   public AvroSource<GenericRecord> withSchema(String schema) {
-    return new AvroSource<>(
-        getFileOrPatternSpec(), getMinBundleSize(), schema, GenericRecord.class, codec, syncMarker);
+    return new AvroSource<>(getFileOrPatternSpec(), getMinBundleSize(), schema,
+        GenericRecord.class, codec, syncMarker, readAheadBlocks, reuseRecords);
   }
 
   /**
@@ -173,7 +189,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public AvroSource<GenericRecord> withSchema(Schema schema) {
     return new AvroSource<>(getFileOrPatternSpec(), getMinBundleSize(), schema.toString(),
-        GenericRecord.class, codec, syncMarker);
+        GenericRecord.class, codec, syncMarker, readAheadBlocks, reuseRecords);
   }
 
   /**
@@ -182,7 +198,8 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public <X> AvroSource<X> withSchema(Class<X> clazz) {
     return new AvroSource<X>(getFileOrPatternSpec(), getMinBundleSize(),
-        ReflectData.get().getSchema(clazz).toString(), clazz, codec, syncMarker);
+        ReflectData.get().getSchema(clazz).toString(), clazz, codec, syncMarker,
+        readAheadBlocks, reuseRecords);
   }
 
   /**
@@ -190,26 +207,62 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    * Refer to {@link OffsetBasedSource} for a description of {@code minBundleSize} and its use.
    */
   public AvroSource<T> withMinBundleSize(long minBundleSize) {
-    return new AvroSource<T>(
-        getFileOrPatternSpec(), minBundleSize, schema, type, codec, syncMarker);
+    return new AvroSource<T>(getFileOrPatternSpec(), minBundleSize, schema, type, codec,
+        syncMarker, readAheadBlocks, reuseRecords);
+  }
+
+  /**
+   * Returns an {@code AvroSource} that's like this one but whose readers read and decompress up
+   * to the given number of blocks in a background thread while the current block is being
+   * consumed, so that reading and decompressing overlap with processing the records. Zero, the
+   * default, reads each block when the previous one has been consumed.
+   *
+   * <p>Read-ahead uses memory for the decompressed contents of up to {@code numBlocks + 2}
+   * blocks per reader, and does not change which records are read, split points or progress.
+   */
+  public AvroSource<T> withReadAhead(int numBlocks) {
+    Preconditions.checkArgument(numBlocks >= 0, "numBlocks must be non-negative");
+    return new AvroSource<T>(getFileOrPatternSpec(), getMinBundleSize(), schema, type, codec,
+        syncMarker, numBlocks, reuseRecords);
+  }
+
+  /**
+   * Returns an {@code AvroSource} that's like this one but whose readers decode all records of a
+   * block into the same object instead of allocating a new one per record, which saves most of
+   * the garbage produced by reading records with many fields.
+   *
+   * <p>The record returned by {@link AvroReader#getCurrent} is then only valid until the next call
+   * to {@code advance()}, which overwrites its fields. A consumer that keeps records beyond that,
+   * for example by adding them to a collection, must use {@link AvroReader#getCurrentCopy}
+   * instead. In particular, this mode must not be used with {@link Read#from}, since runners
+   * may keep the records they read.
+   */
+  public AvroSource<T> withObjectReuse() {
+    return new AvroSource<T>(getFileOrPatternSpec(), getMinBundleSize(), schema, type, codec,
+        syncMarker, readAheadBlocks, true);
   }
 
   private AvroSource(String fileNameOrPattern, long minBundleSize, String schema, Class<T> type,
-      String codec, byte[] syncMarker) {
+      String codec, byte[] syncMarker, int readAheadBlocks, boolean reuseRecords) {
     super(fileNameOrPattern, minBundleSize);
     this.schema = schema;
     this.codec = codec;
     this.syncMarker = syncMarker;
     this.type = type;
+    this.readAheadBlocks = readAheadBlocks;
+    this.reuseRecords = reuseRecords;
   }
 
   private AvroSource(String fileName, long minBundleSize, long startOffset, long endOffset,
-      String schema, Class<T> type, String codec, byte[] syncMarker) {
+      String schema, Class<T> type, String codec, byte[] syncMarker, int readAheadBlocks,
+      boolean reuseRecords) {
     super(fileName, minBundleSize, startOffset, endOffset);
     this.schema = schema;
     this.codec = codec;
     this.syncMarker = syncMarker;
     this.type = type;
+    this.readAheadBlocks = readAheadBlocks;
+    this.reuseRecords = reuseRecords;
   }
 
   @Override
@@ -318,8 +371,8 @@ public class AvroSource<T> extends BlockBasedSource<T> {
         schema = metadata.schema;
       }
     }
-    return new AvroSource<T>(
-        fileName, getMinBundleSize(), start, end, schema, type, codec, syncMarker);
+    return new AvroSource<T>(fileName, getMinBundleSize(), start, end, schema, type, codec,
+        syncMarker, readAheadBlocks, reuseRecords);
   }
 
   @Override
@@ -353,6 +406,14 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     return codec;
   }
 
+  int getReadAheadBlocks() {
+    return readAheadBlocks;
+  }
+
+  boolean getObjectReuse() {
+    return reuseRecords;
+  }
+
   /**
    * A {@link BlockBasedSource.Block} of Avro records. Visible for testing.
    * @param <T> The type of records stored in the block.
@@ -374,6 +435,9 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     // A BinaryDecoder used by the reader to decode records.
     private final BinaryDecoder decoder;
 
+    // Whether each record is decoded into the object of the previous one.
+    private final boolean reuseRecords;
+
     /**
      * Decodes a byte array as an InputStream. The byte array may be compressed using some
      * codec. Reads from the returned stream will result in decompressed bytes.
@@ -413,10 +477,22 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     AvroBlock(byte[] data, long numRecords, AvroSource<T> source) throws IOException {
       this.numRecords = numRecords;
       this.reader = source.getDefaultOutputCoder().createDatumReader();
+      this.reuseRecords = source.getObjectReuse();
       this.decoder =
           DecoderFactory.get().binaryDecoder(decodeAsInputStream(data, source.getCodec()), null);
     }
 
+    /**
+     * Creates a block from the first {@code length} bytes of {@code decompressed}, which are the
+     * block's records after decompression with the source's codec.
+     */
+    AvroBlock(byte[] decompressed, int length, long numRecords, AvroSource<T> source) {
+      this.numRecords = numRecords;
+      this.reader = source.getDefaultOutputCoder().createDatumReader();
+      this.reuseRecords = source.getObjectReuse();
+      this.decoder = DecoderFactory.get().binaryDecoder(decompressed, 0, length, null);
+    }
+
     @Override
     public T getCurrentRecord() {
       return currentRecord;
@@ -427,7 +503,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       if (currentRecordIndex >= numRecords) {
         return false;
       }
-      currentRecord = reader.read(null, decoder);
+      currentRecord = reader.read(reuseRecords ? currentRecord : null, decoder);
       currentRecordIndex++;
       return true;
     }
@@ -477,6 +553,15 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     // Decoder to decode binary-encoded values from the buffer.
     private BinaryDecoder decoder;
 
+    // The following fields are only used when the source reads ahead. The stream is then read by
+    // the read-ahead thread, which produces the blocks in file order, followed by a block without
+    // data at the end of the file.
+    private ReadAheadQueue<DecompressedBlock> readAheadQueue;
+    // Buffers of consumed blocks, reused to decompress later blocks.
+    private final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+    // The read-ahead block being consumed.
+    private DecompressedBlock currentReadAheadBlock;
+
     public AvroReader(AvroSource<T> source) {
       super(source);
     }
@@ -486,20 +571,79 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       return (AvroSource<T>) super.getCurrentSource();
     }
 
+    /**
+     * Returns a copy of the current record that stays valid after the reader advances, which
+     * consumers of a source configured with {@link AvroSource#withObjectReuse} must use to keep
+     * records. Otherwise equivalent to {@link #getCurrent}.
+     */
+    public T getCurrentCopy() throws NoSuchElementException {
+      T current = getCurrent();
+      if (!getCurrentSource().getObjectReuse()) {
+        return current;
+      }
+      try {
+        return CoderUtils.clone(getCurrentSource().getDefaultOutputCoder(), current);
+      } catch (CoderException e) {
+        throw new RuntimeException("Error copying record " + current, e);
+      }
+    }
+
     @Override
     public boolean readNextBlock() throws IOException {
+      if (readAheadQueue != null) {
+        return readNextBlockAhead();
+      }
+      BlockData block = readBlockData();
+      currentBlockOffset = block.offset;
+      if (block.data == null) {
+        return false;
+      }
+      currentBlock = new AvroBlock<>(block.data, block.numRecords, getCurrentSource());
+      currentBlockSizeBytes = block.size;
+      return true;
+    }
+
+    /**
+     * Takes the next block from the read-ahead thread.
+     */
+    private boolean readNextBlockAhead() throws IOException {
+      if (currentReadAheadBlock != null && currentReadAheadBlock.pooled) {
+        bufferPool.offer(currentReadAheadBlock.buffer);
+      }
+      currentReadAheadBlock = null;
+      DecompressedBlock next = readAheadQueue.take();
+      if (next == null) {
+        // The reader already stopped at the previous block.
+        return false;
+      }
+      currentBlockOffset = next.block.offset;
+      if (next.block.data == null) {
+        return false;
+      }
+      currentBlock = new AvroBlock<>(
+          next.buffer, next.length, next.block.numRecords, getCurrentSource());
+      currentBlockSizeBytes = next.block.size;
+      currentReadAheadBlock = next;
+      return true;
+    }
+
+    /**
+     * Reads the header and the (possibly compressed) data of the next block in the file. At the
+     * end of the file, returns a block without data whose offset is that of the last sync marker.
+     */
+    private BlockData readBlockData() throws IOException {
       // The next block in the file is after the first sync marker that can be read starting from
       // the current offset. First, we seek past the next sync marker, if it exists. After a sync
       // marker is the start of a block. A block begins with the number of records contained in
       // the block, encoded as a long, followed by the size of the block in bytes, encoded as a
       // long. The currentOffset after this method should be last byte after this block, and the
-      // currentBlockOffset should be the start of the sync marker before this block.
+      // offset of the block should be the start of the sync marker before this block.
 
       // Seek to the next sync marker, if one exists.
       currentOffset += advancePastNextSyncMarker(stream, getCurrentSource().getSyncMarker());
 
       // The offset of the current block includes its preceding sync marker.
-      currentBlockOffset = currentOffset - getCurrentSource().getSyncMarker().length;
+      long blockOffset = currentOffset - getCurrentSource().getSyncMarker().length;
 
       // Read a small buffer to parse the block header.
       // We cannot use a BinaryDecoder to do this directly from the stream because a BinaryDecoder
@@ -510,7 +654,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       int read = stream.read(readBuffer);
       // We reached the last sync marker in the file.
       if (read <= 0) {
-        return false;
+        return new BlockData(blockOffset, 0, 0, null);
       }
       decoder = DecoderFactory.get().binaryDecoder(readBuffer, decoder);
       long numRecords = decoder.readLong();
@@ -522,16 +666,70 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       int headerSize = readBuffer.length - decoder.inputStream().available();
       stream.unread(readBuffer, headerSize, read - headerSize);
 
-      // Create the current block by reading blockSize bytes. Block sizes permitted by the Avro
-      // specification are [32, 2^30], so this narrowing is ok.
+      // Read blockSize bytes of block data. Block sizes permitted by the Avro specification are
+      // [32, 2^30], so this narrowing is ok.
       byte[] data = new byte[(int) blockSize];
       stream.read(data);
-      currentBlock = new AvroBlock<>(data, numRecords, getCurrentSource());
-      currentBlockSizeBytes = blockSize;
 
       // Update current offset with the number of bytes we read to get the next block.
       currentOffset += headerSize + blockSize;
-      return true;
+      return new BlockData(blockOffset, numRecords, blockSize, data);
+    }
+
+    /**
+     * Decompresses the data of a block, into a buffer from the pool if one is available.
+     */
+    private DecompressedBlock decompress(BlockData block, String codec) throws IOException {
+      if (codec.equals(DataFileConstants.NULL_CODEC)) {
+        return new DecompressedBlock(block, block.data, block.data.length, false);
+      }
+      byte[] buffer = bufferPool.poll();
+      if (buffer == null) {
+        buffer = new byte[Math.max(2 * block.data.length, 1024)];
+      }
+      int length = 0;
+      try (InputStream decompressed = AvroBlock.decodeAsInputStream(block.data, codec)) {
+        while (true) {
+          if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+          }
+          int read = decompressed.read(buffer, length, buffer.length - length);
+          if (read < 0) {
+            break;
+          }
+          length += read;
+        }
+      }
+      return new DecompressedBlock(block, buffer, length, true);
+    }
+
+    /**
+     * Reads and decompresses blocks ahead of the reader until the end of the file, or until the
+     * first non-empty block that starts at or past the end of the range, at which the reader stops.
+     */
+    private class BlockProducer implements ReadAheadQueue.Producer<DecompressedBlock> {
+      private final long endOffset;
+      private final String codec;
+      private boolean done = false;
+
+      BlockProducer(long endOffset, String codec) {
+        this.endOffset = endOffset;
+        this.codec = codec;
+      }
+
+      @Override
+      public DecompressedBlock next() throws IOException {
+        if (done) {
+          return null;
+        }
+        BlockData block = readBlockData();
+        if (block.data == null) {
+          done = true;
+          return new DecompressedBlock(block, null, 0, false);
+        }
+        done = block.offset >= endOffset && block.numRecords > 0;
+        return decompress(block, codec);
+      }
     }
 
     @Override
@@ -567,6 +765,56 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     protected void startReading(ReadableByteChannel channel) throws IOException {
       stream = createStream(channel);
       currentOffset = getCurrentSource().getStartOffset();
+      int readAheadBlocks = getCurrentSource().getReadAheadBlocks();
+      if (readAheadBlocks > 0) {
+        readAheadQueue = ReadAheadQueue.start(readAheadBlocks, "AvroSource-ReadAhead-%d",
+            new BlockProducer(getCurrentSource().getEndOffset(), getCurrentSource().getCodec()));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Stops the read-ahead thread before the stream it reads is closed.
+      if (readAheadQueue != null) {
+        readAheadQueue.close();
+      }
+      super.close();
+    }
+
+    /**
+     * The position and data of a block in the file.
+     */
+    private static class BlockData {
+      final long offset;
+      final long numRecords;
+      final long size;
+      // The block's data as stored in the file, or null past the last block.
+      @Nullable final byte[] data;
+
+      BlockData(long offset, long numRecords, long size, @Nullable byte[] data) {
+        this.offset = offset;
+        this.numRecords = numRecords;
+        this.size = size;
+        this.data = data;
+      }
+    }
+
+    /**
+     * A block read ahead and decompressed into the first {@code length} bytes of a buffer.
+     */
+    private static class DecompressedBlock {
+      final BlockData block;
+      final byte[] buffer;
+      final int length;
+      // Whether the buffer may be reused once the block has been consumed.
+      final boolean pooled;
+
+      DecompressedBlock(BlockData block, byte[] buffer, int length, boolean pooled) {
+        this.block = block;
+        this.buffer = buffer;
+        this.length = length;
+        this.pooled = pooled;
+      }
     }
 
     /**
@@ -40,6 +40,7 @@ import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.transforms.SerializableFunction;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.util.BigQueryInsertLimits;
 import com.google.cloud.dataflow.sdk.util.BigQueryTableInserter;
 import com.google.cloud.dataflow.sdk.util.BigQueryTableRowIterator;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
@@ -54,7 +55,10 @@ import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
 import com.google.cloud.dataflow.sdk.values.PDone;
 import com.google.cloud.dataflow.sdk.values.PInput;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -72,8 +76,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -957,7 +965,8 @@ public class BigQueryIO {
   /**
    * Implementation of DoFn to perform streaming BigQuery write.
    */
-  private static class StreamingWriteFn
+  @VisibleForTesting
+  static class StreamingWriteFn
       extends DoFn<KV<ShardedKey<String>, TableRowInfo>, Void> {
     private static final long serialVersionUID = 0;
 
@@ -975,6 +984,16 @@ public class BigQueryIO {
     private static Set<String> createdTables =
         Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
+    /**
+     * The limits on the inserts into each table, shared by all the bundles writing to it, keyed
+     * by the table spec and the maximum number of concurrent inserts, so that pipelines with
+     * different options do not share limits. Limits of tables that are no longer written to
+     * expire, so that a pipeline writing to a table per window does not keep limits for every
+     * table it has written to.
+     */
+    private static final Cache<KV<String, Integer>, BigQueryInsertLimits> insertLimits =
+        CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+
     /** Constructor. */
     StreamingWriteFn(TableSchema schema) {
       try {
@@ -1010,8 +1029,8 @@ public class BigQueryIO {
 
       for (String tableSpec : tableRows.keySet()) {
         TableReference tableReference = getOrCreateTable(options, tableSpec);
-        flushRows(client, tableReference, tableRows.get(tableSpec),
-            uniqueIdsForTableRows.get(tableSpec));
+        flushRows(client, options, tableReference, getInsertLimits(options, tableSpec),
+            tableRows.get(tableSpec), uniqueIdsForTableRows.get(tableSpec));
       }
       tableRows.clear();
       uniqueIdsForTableRows.clear();
@@ -1037,12 +1056,30 @@ public class BigQueryIO {
       return tableReference;
     }
 
+    @VisibleForTesting
+    static BigQueryInsertLimits getInsertLimits(BigQueryOptions options, String tableSpec) {
+      final int maxConcurrentInserts = options.getBigQueryMaxConcurrentInsertsPerTable();
+      try {
+        return insertLimits.get(KV.of(tableSpec, maxConcurrentInserts),
+            new Callable<BigQueryInsertLimits>() {
+              @Override
+              public BigQueryInsertLimits call() {
+                return new BigQueryInsertLimits(maxConcurrentInserts);
+              }
+            });
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
     /** Writes the accumulated rows into BigQuery with streaming API. */
-    private void flushRows(Bigquery client, TableReference tableReference,
+    private void flushRows(Bigquery client, BigQueryOptions options,
+        TableReference tableReference, BigQueryInsertLimits limits,
         List<TableRow> tableRows, List<String> uniqueIds) {
       if (!tableRows.isEmpty()) {
         try {
-          BigQueryTableInserter inserter = new BigQueryTableInserter(client, tableReference);
+          BigQueryTableInserter inserter =
+              new BigQueryTableInserter(client, tableReference, options, limits);
           inserter.insertAll(tableRows, uniqueIds);
         } catch (IOException e) {
           throw new RuntimeException(e);
@@ -1180,12 +1217,38 @@ public class BigQueryIO {
    * To avoid calling UUID.randomUUID() for each element, which can be costly,
    * a randomUUID is generated only once per bucket of data. The actual unique
    * id is created by concatenating this randomUUID with a sequential number.
+   *
+   * <p>Rows are spread over at least {@link #MIN_NUM_SHARDS} shards of their table, and over
+   * more when the rate at which rows are tagged is high enough to need more parallelism. The rate
+   * of each table is measured across the bundles and instances of this fn in a JVM, which see
+   * only part of the rows written to the table, so it only ever raises the number of shards above
+   * the minimum.
    */
-  private static class TagWithUniqueIdsAndTable
+  @VisibleForTesting
+  static class TagWithUniqueIdsAndTable
       extends DoFn<TableRow, KV<ShardedKey<String>, TableRowInfo>>
       implements DoFn.RequiresWindowAccess {
     private static final long serialVersionUID = 0;
 
+    /** The number of shards used until the rate of rows has been measured, and at low rates. */
+    static final int MIN_NUM_SHARDS = 50;
+
+    static final int MAX_NUM_SHARDS = 1000;
+
+    /** The rate of rows, in rows per second, for which one more shard is used. */
+    private static final long ROWS_PER_SECOND_PER_SHARD = 200;
+
+    /** The period over which the rate of rows is measured. */
+    static final long RATE_PERIOD_MILLIS = 10000;
+
+    /**
+     * The rate of rows tagged for each table. Instances of this fn are deserialized for each
+     * bundle, so the rate is kept here to be measured over more than one bundle. Rates of tables
+     * that are no longer written to expire.
+     */
+    private static final Cache<String, TableRate> tableRates =
+        CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+
     /** TableSpec to write to. */
     private final String tableSpec;
 
@@ -1223,12 +1286,36 @@ public class BigQueryIO {
       ThreadLocalRandom randomGenerator = ThreadLocalRandom.current();
       String tableSpec = tableSpecFromWindow(
           context.getPipelineOptions().as(BigQueryOptions.class), context.window());
-      // We output on keys 0-50 to ensure that there's enough batching for
-      // BigQuery.
-      context.output(KV.of(ShardedKey.of(tableSpec, randomGenerator.nextInt(0, 50)),
+      int numShards = getTableRate(tableSpec).countRow(System.currentTimeMillis());
+      context.output(KV.of(ShardedKey.of(tableSpec, randomGenerator.nextInt(0, numShards)),
           new TableRowInfo(context.element(), uniqueId)));
     }
 
+    /**
+     * Returns the rate of rows tagged for {@code tableSpec}, shared by all instances of this fn.
+     */
+    @VisibleForTesting
+    static TableRate getTableRate(String tableSpec) {
+      try {
+        return tableRates.get(tableSpec, new Callable<TableRate>() {
+          @Override
+          public TableRate call() {
+            return new TableRate(System.currentTimeMillis());
+          }
+        });
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    /**
+     * Returns the number of shards to use for a rate of {@code rowsPerSecond}.
+     */
+    static int numShardsForRate(long rowsPerSecond) {
+      return (int) Math.max(MIN_NUM_SHARDS,
+          Math.min(MAX_NUM_SHARDS, rowsPerSecond / ROWS_PER_SECOND_PER_SHARD));
+    }
+
     private String tableSpecFromWindow(BigQueryOptions options, BoundedWindow window) {
       if (tableSpec != null) {
         return tableSpec;
@@ -1240,6 +1327,41 @@ public class BigQueryIO {
         return toTableSpec(table);
       }
     }
+
+    /**
+     * Counts the rows tagged for a table, and sets the number of shards from the rate of rows at
+     * the end of each period. Thread-safe.
+     */
+    @VisibleForTesting
+    static class TableRate {
+      private final AtomicLong periodRows = new AtomicLong();
+      private volatile long periodStartMillis;
+      private volatile int numShards = MIN_NUM_SHARDS;
+
+      TableRate(long nowMillis) {
+        this.periodStartMillis = nowMillis;
+      }
+
+      /**
+       * Counts a row tagged at {@code nowMillis}, and returns the number of shards to tag it for.
+       */
+      int countRow(long nowMillis) {
+        periodRows.incrementAndGet();
+        if (nowMillis - periodStartMillis >= RATE_PERIOD_MILLIS) {
+          endPeriod(nowMillis);
+        }
+        return numShards;
+      }
+
+      private synchronized void endPeriod(long nowMillis) {
+        // Another thread may have ended the period in the meanwhile.
+        long elapsedMillis = nowMillis - periodStartMillis;
+        if (elapsedMillis >= RATE_PERIOD_MILLIS) {
+          numShards = numShardsForRate(periodRows.getAndSet(0) * 1000 / elapsedMillis);
+          periodStartMillis = nowMillis;
+        }
+      }
+    }
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -1375,7 +1497,8 @@ public class BigQueryIO {
         }
         LOG.info("Writing to BigQuery table {}", toTableSpec(ref));
 
-        BigQueryTableInserter inserter = new BigQueryTableInserter(client, ref);
+        BigQueryTableInserter inserter = new BigQueryTableInserter(client, ref, options,
+            new BigQueryInsertLimits(options.getBigQueryMaxConcurrentInsertsPerTable()));
         inserter.getOrCreateTable(
             transform.writeDisposition, transform.createDisposition, transform.schema);
         inserter.insertAll(tableRows.get(window));
@@ -34,6 +34,7 @@ import com.google.api.services.datastore.DatastoreV1.Entity;
 import com.google.api.services.datastore.DatastoreV1.Key;
 import com.google.api.services.datastore.DatastoreV1.Key.PathElement;
 import com.google.api.services.datastore.DatastoreV1.Query;
+import com.google.api.services.datastore.DatastoreV1.QueryResultBatch;
 import com.google.api.services.datastore.client.Datastore;
 import com.google.api.services.datastore.client.DatastoreException;
 import com.google.api.services.datastore.client.DatastoreFactory;
@@ -51,20 +52,31 @@ import com.google.cloud.dataflow.sdk.options.GcpOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.transforms.Write;
 import com.google.cloud.dataflow.sdk.util.AttemptBoundedExponentialBackOff;
+import com.google.cloud.dataflow.sdk.util.ReadAheadQueue;
 import com.google.cloud.dataflow.sdk.util.RetryHttpRequestInitializer;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link com.google.cloud.dataflow.sdk.transforms.PTransform}s for reading and writing
@@ -170,7 +182,7 @@ public class DatastoreIO {
    * and {@link DatastoreIO.Source#withQuery}.
    */
   public static Source read() {
-    return new Source(DEFAULT_HOST, null, null);
+    return new Source(DEFAULT_HOST, null, null, 0);
   }
 
   /**
@@ -178,7 +190,7 @@ public class DatastoreIO {
    * against the given dataset.
    */
   public static Read.Bounded<Entity> readFrom(String datasetId, Query query) {
-    return Read.from(new Source(DEFAULT_HOST, datasetId, query));
+    return Read.from(new Source(DEFAULT_HOST, datasetId, query, 0));
   }
 
   /**
@@ -186,7 +198,7 @@ public class DatastoreIO {
    * against the given dataset and host.
    */
   public static Read.Bounded<Entity> readFrom(String host, String datasetId, Query query) {
-    return Read.from(new Source(host, datasetId, query));
+    return Read.from(new Source(host, datasetId, query, 0));
   }
 
   /**
@@ -200,26 +212,50 @@ public class DatastoreIO {
     String datasetId;
     Query query;
 
+    /**
+     * The number of batches of query results that readers fetch ahead of the batch being
+     * consumed, or zero to fetch each batch when the previous one has been consumed.
+     */
+    int readAheadBatches;
+
     /** For testing only. */
     private QuerySplitter mockSplitter;
     private Long mockEstimateSizeBytes;
 
-    private Source(String host, String datasetId, Query query) {
+    private Source(String host, String datasetId, Query query, int readAheadBatches) {
       this.host = host;
       this.datasetId = datasetId;
       this.query = query;
+      this.readAheadBatches = readAheadBatches;
     }
 
     public Source withDataset(String datasetId) {
-      return new Source(host, datasetId, query);
+      return new Source(host, datasetId, query, readAheadBatches);
     }
 
     public Source withQuery(Query query) {
-      return new Source(host, datasetId, query);
+      return new Source(host, datasetId, query, readAheadBatches);
     }
 
     public Source withHost(String host) {
-      return new Source(host, datasetId, query);
+      return new Source(host, datasetId, query, readAheadBatches);
+    }
+
+    /**
+     * Returns a {@link Source} that is like this one, but whose readers query up to the given
+     * number of batches of results in a background thread while the current batch is being
+     * consumed, so that waiting for the Datastore overlaps with processing the entities. Zero,
+     * the default, queries each batch when the previous one has been consumed.
+     *
+     * <p>Read-ahead holds up to {@code numBatches + 1} batches of results in memory per reader,
+     * and does not change which entities are read.
+     */
+    public Source withReadAhead(int numBatches) {
+      Preconditions.checkArgument(numBatches >= 0, "numBatches must be non-negative");
+      Source res = new Source(host, datasetId, query, numBatches);
+      res.mockSplitter = mockSplitter;
+      res.mockEstimateSizeBytes = mockEstimateSizeBytes;
+      return res;
     }
 
     @Override
@@ -325,7 +361,7 @@ public class DatastoreIO {
       }
       List<Source> res = new ArrayList<>();
       for (Query splitQuery : splitQueries) {
-        res.add(new Source(host, datasetId, splitQuery));
+        res.add(new Source(host, datasetId, splitQuery, readAheadBatches));
       }
       return res;
     }
@@ -356,7 +392,7 @@ public class DatastoreIO {
 
     /** For testing only. */
     Source withMockSplitter(QuerySplitter splitter) {
-      Source res = new Source(host, datasetId, query);
+      Source res = new Source(host, datasetId, query, readAheadBatches);
       res.mockSplitter = splitter;
       res.mockEstimateSizeBytes = mockEstimateSizeBytes;
       return res;
@@ -364,7 +400,7 @@ public class DatastoreIO {
 
     /** For testing only. */
     public Source withMockEstimateSizeBytes(Long estimateSizeBytes) {
-      Source res = new Source(host, datasetId, query);
+      Source res = new Source(host, datasetId, query, readAheadBatches);
       res.mockSplitter = mockSplitter;
       res.mockEstimateSizeBytes = estimateSizeBytes;
       return res;
@@ -396,7 +432,7 @@ public class DatastoreIO {
    * <p>For example: {@code p.apply(Write.to(DatastoreIO.sink().withDataset(dataset)));}
    */
   public static Sink sink() {
-    return new Sink(DEFAULT_HOST, null);
+    return new Sink(DEFAULT_HOST, null, 1);
   }
 
   /**
@@ -418,12 +454,13 @@ public class DatastoreIO {
 
     final String host;
     final String datasetId;
+    final int maxConcurrentCommits;
 
     /**
      * Returns a {@link Sink} that is like this one, but will write to the specified dataset.
      */
     public Sink withDataset(String datasetId) {
-      return new Sink(host, datasetId);
+      return new Sink(host, datasetId, maxConcurrentCommits);
     }
 
     /**
@@ -431,15 +468,38 @@ public class DatastoreIO {
      * the {@link DatastoreIO#DEFAULT_HOST default host} will be used.
      */
     public Sink withHost(String host) {
-      return new Sink(host, datasetId);
+      return new Sink(host, datasetId, maxConcurrentCommits);
+    }
+
+    /**
+     * Returns a {@link Sink} that is like this one, but whose writers commit up to the given
+     * number of batches concurrently, rather than waiting for each batch to be committed before
+     * filling the next one. Each batch is still retried on its own.
+     *
+     * <p>Batches may be committed in a different order than they were filled, so if a bundle
+     * contains several entities with the same key, any one of them may be the one written last.
+     */
+    public Sink withMaxConcurrentCommits(int maxConcurrentCommits) {
+      Preconditions.checkArgument(maxConcurrentCommits > 0,
+          "maxConcurrentCommits must be positive");
+      return new Sink(host, datasetId, maxConcurrentCommits);
     }
 
     /**
      * Constructs a Sink with given host and dataset.
      */
     protected Sink(String host, String datasetId) {
+      this(host, datasetId, 1);
+    }
+
+    /**
+     * Constructs a Sink with given host, dataset and maximum number of concurrent commits per
+     * writer.
+     */
+    protected Sink(String host, String datasetId, int maxConcurrentCommits) {
       this.host = host;
       this.datasetId = datasetId;
+      this.maxConcurrentCommits = maxConcurrentCommits;
     }
 
     /**
@@ -508,7 +568,7 @@ public class DatastoreIO {
       }
       Datastore datastore = DatastoreFactory.get().create(builder.build());
 
-      return new DatastoreWriter(this, datastore);
+      return new DatastoreWriter(this, datastore, sink.maxConcurrentCommits);
     }
 
     @Override
@@ -533,14 +593,25 @@ public class DatastoreIO {
    * group, the commit will be retried (up to {@link DatastoreIO#DATASTORE_BATCH_UPDATE_LIMIT}
    * times).
    *
+   * <p>Up to {@link DatastoreIO.Sink#withMaxConcurrentCommits maxConcurrentCommits} batches are
+   * committed at once by a pool of threads of the writer, so that filling the next batch does not
+   * wait for the previous one to be committed.
+   *
    * <p>Visible for testing purposes.
    */
   static class DatastoreWriter extends Writer<Entity, DatastoreWriteResult> {
     private static final Logger LOG = LoggerFactory.getLogger(DatastoreWriter.class);
     private final DatastoreWriteOperation writeOp;
     private final Datastore datastore;
+    private final int maxConcurrentCommits;
     private long totalWritten = 0;
 
+    /** Threads committing batches, if more than one commit may be in flight. */
+    private ThreadPoolExecutor commitExecutor;
+
+    /** The commits in flight, oldest first, each returning the number of entities written. */
+    private final Deque<Future<Integer>> pendingCommits = new ArrayDeque<>();
+
     // Visible for testing.
     final List<Entity> entities = new ArrayList<>();
 
@@ -570,8 +641,15 @@ public class DatastoreIO {
 
     // Visible for testing
     DatastoreWriter(DatastoreWriteOperation writeOp, Datastore datastore) {
+      this(writeOp, datastore, 1);
+    }
+
+    // Visible for testing
+    DatastoreWriter(
+        DatastoreWriteOperation writeOp, Datastore datastore, int maxConcurrentCommits) {
       this.writeOp = writeOp;
       this.datastore = datastore;
+      this.maxConcurrentCommits = maxConcurrentCommits;
     }
 
     @Override
@@ -605,6 +683,12 @@ public class DatastoreIO {
       if (entities.size() > 0) {
         flushBatch();
       }
+      while (!pendingCommits.isEmpty()) {
+        awaitOldestCommit();
+      }
+      if (commitExecutor != null) {
+        commitExecutor.shutdown();
+      }
       return new DatastoreWriteResult(totalWritten);
     }
 
@@ -614,7 +698,64 @@ public class DatastoreIO {
     }
 
     /**
-     * Writes a batch of entities to the Datastore.
+     * Writes the current batch of entities to the Datastore, or hands it to a commit thread if
+     * more than one commit may be in flight, after waiting for the oldest commit if as many as
+     * allowed already are.
+     *
+     * @throws DatastoreException if the commit fails or IOException or InterruptedException if
+     * backing off between retries fails.
+     */
+    private void flushBatch() throws DatastoreException, IOException, InterruptedException {
+      if (maxConcurrentCommits <= 1) {
+        totalWritten += commitWithRetries(entities);
+        entities.clear();
+        return;
+      }
+      while (pendingCommits.size() >= maxConcurrentCommits) {
+        awaitOldestCommit();
+      }
+      if (commitExecutor == null) {
+        // Idle threads time out, so that they do not outlive a writer that is never closed.
+        commitExecutor = new ThreadPoolExecutor(
+            maxConcurrentCommits, maxConcurrentCommits, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("DatastoreWriter-Commit-%d")
+                .build());
+        commitExecutor.allowCoreThreadTimeOut(true);
+      }
+      final List<Entity> batch = new ArrayList<>(entities);
+      entities.clear();
+      pendingCommits.addLast(commitExecutor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return commitWithRetries(batch);
+        }
+      }));
+    }
+
+    /**
+     * Waits for the oldest commit in flight. If it failed, cancels the others and throws the
+     * exception that made it fail.
+     */
+    private void awaitOldestCommit() throws DatastoreException, IOException, InterruptedException {
+      Future<Integer> commit = pendingCommits.removeFirst();
+      try {
+        totalWritten += commit.get();
+      } catch (ExecutionException e) {
+        commitExecutor.shutdownNow();
+        pendingCommits.clear();
+        Throwable cause = e.getCause();
+        Throwables.propagateIfInstanceOf(cause, DatastoreException.class);
+        Throwables.propagateIfInstanceOf(cause, IOException.class);
+        Throwables.propagateIfInstanceOf(cause, InterruptedException.class);
+        throw Throwables.propagate(cause);
+      }
+    }
+
+    /**
+     * Writes a batch of entities to the Datastore, returning the number of entities written.
      *
      * <p>If a commit fails, it will be retried (up to {@link DatastoreWriter#MAX_RETRIES}
      * times).  All entities in the batch will be committed again, even if the commit was partially
@@ -624,8 +765,9 @@ public class DatastoreIO {
      * @throws DatastoreException if the commit fails or IOException or InterruptedException if
      * backing off between retries fails.
      */
-    private void flushBatch() throws DatastoreException, IOException, InterruptedException {
-      LOG.debug("Writing batch of {} entities", entities.size());
+    private int commitWithRetries(List<Entity> batch)
+        throws DatastoreException, IOException, InterruptedException {
+      LOG.debug("Writing batch of {} entities", batch.size());
       Sleeper sleeper = Sleeper.DEFAULT;
       BackOff backoff = new AttemptBoundedExponentialBackOff(MAX_RETRIES, INITIAL_BACKOFF_MILLIS);
 
@@ -633,7 +775,7 @@ public class DatastoreIO {
         // Batch upsert entities.
         try {
           CommitRequest.Builder commitRequest = CommitRequest.newBuilder();
-          commitRequest.getMutationBuilder().addAllUpsert(entities);
+          commitRequest.getMutationBuilder().addAllUpsert(batch);
           commitRequest.setMode(CommitRequest.Mode.NON_TRANSACTIONAL);
           datastore.commit(commitRequest.build());
 
@@ -651,9 +793,8 @@ public class DatastoreIO {
           }
         }
       }
-      totalWritten += entities.size();
-      LOG.debug("Successfully wrote {} entities", entities.size());
-      entities.clear();
+      LOG.debug("Successfully wrote {} entities", batch.size());
+      return batch.size();
     }
   }
 
@@ -694,7 +835,12 @@ public class DatastoreIO {
     /**
      * Current batch of query results.
      */
-    private DatastoreV1.QueryResultBatch currentBatch;
+    private QueryResultBatch currentBatch;
+
+    /**
+     * The batches queried ahead of the reader in order, if reading ahead.
+     */
+    private ReadAheadQueue<QueryResultBatch> readAheadQueue;
 
     /**
      * Maximum number of results to request per query.
@@ -723,22 +869,23 @@ public class DatastoreIO {
 
     @Override
     public boolean start() throws IOException {
+      if (source.readAheadBatches > 0) {
+        readAheadQueue = ReadAheadQueue.start(
+            source.readAheadBatches, "DatastoreReader-ReadAhead-%d", new BatchProducer());
+      }
       return advance();
     }
 
     @Override
     public boolean advance() throws IOException {
-      if (entities == null || (!entities.hasNext() && moreResults)) {
-        try {
-          entities = getIteratorAndMoveCursor();
-        } catch (DatastoreException e) {
-          throw new IOException(e);
+      while (entities == null || !entities.hasNext()) {
+        if (currentBatch != null && !moreResults) {
+          currentEntity = null;
+          return false;
         }
-      }
-
-      if (entities == null || !entities.hasNext()) {
-        currentEntity = null;
-        return false;
+        // May receive a batch of 0 results if the number of records is a multiple
+        // of the request limit.
+        entities = getIteratorAndMoveCursor();
       }
 
       currentEntity = entities.next().getEntity();
@@ -747,7 +894,9 @@ public class DatastoreIO {
 
     @Override
     public void close() throws IOException {
-      // Nothing
+      if (readAheadQueue != null) {
+        readAheadQueue.close();
+      }
     }
 
     @Override
@@ -768,37 +917,65 @@ public class DatastoreIO {
     }
 
     /**
-     * Returns an iterator over the next batch of records for the query
-     * and updates the cursor to get the next batch as needed.
+     * Returns an iterator over the next batch of records for the query, which is either queried
+     * now or taken from the read-ahead thread.
+     */
+    private Iterator<DatastoreV1.EntityResult> getIteratorAndMoveCursor() throws IOException {
+      if (readAheadQueue == null) {
+        try {
+          currentBatch = queryNextBatch(currentBatch);
+        } catch (DatastoreException e) {
+          throw new IOException(e);
+        }
+      } else {
+        // The reader stops at the last batch, so there is always a next one.
+        currentBatch = readAheadQueue.take();
+      }
+      moreResults = mayHaveMoreResults(currentBatch);
+      return currentBatch.getEntityResultList().iterator();
+    }
+
+    /**
+     * Queries the batch of records following the given batch, or the first batch if it is null.
      * Query has specified limit and offset from InputSplit.
      */
-    private Iterator<DatastoreV1.EntityResult> getIteratorAndMoveCursor()
+    private QueryResultBatch queryNextBatch(QueryResultBatch previousBatch)
         throws DatastoreException {
       Query.Builder query = this.source.query.toBuilder().clone();
       query.setLimit(QUERY_LIMIT);
-      if (currentBatch != null && currentBatch.hasEndCursor()) {
-        query.setStartCursor(currentBatch.getEndCursor());
+      if (previousBatch != null && previousBatch.hasEndCursor()) {
+        query.setStartCursor(previousBatch.getEndCursor());
       }
 
       DatastoreV1.RunQueryRequest request =
           DatastoreV1.RunQueryRequest.newBuilder().setQuery(query).build();
       DatastoreV1.RunQueryResponse response = datastore.runQuery(request);
+      return response.getBatch();
+    }
 
-      currentBatch = response.getBatch();
-
+    private static boolean mayHaveMoreResults(QueryResultBatch batch) {
       // MORE_RESULTS_AFTER_LIMIT is not implemented yet:
       // https://groups.google.com/forum/#!topic/gcd-discuss/iNs6M1jA2Vw, so
       // use result count to determine if more results might exist.
-      int numFetch = currentBatch.getEntityResultCount();
-      moreResults = (numFetch == QUERY_LIMIT) || (currentBatch.getMoreResults() == NOT_FINISHED);
+      return batch.getEntityResultCount() == QUERY_LIMIT
+          || batch.getMoreResults() == NOT_FINISHED;
+    }
 
-      // May receive a batch of 0 results if the number of records is a multiple
-      // of the request limit.
-      if (numFetch == 0) {
-        return null;
-      }
+    /**
+     * Queries batches ahead of the reader until the last one, each starting at the cursor where
+     * the previous one ended.
+     */
+    private class BatchProducer implements ReadAheadQueue.Producer<QueryResultBatch> {
+      private QueryResultBatch batch = null;
 
-      return currentBatch.getEntityResultList().iterator();
+      @Override
+      public QueryResultBatch next() throws DatastoreException {
+        if (batch != null && !mayHaveMoreResults(batch)) {
+          return null;
+        }
+        batch = queryNextBatch(batch);
+        return batch;
+      }
     }
   }
 }
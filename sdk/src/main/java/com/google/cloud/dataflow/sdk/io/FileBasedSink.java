@@ -37,13 +37,18 @@ import com.google.cloud.dataflow.sdk.util.Transport;
 import com.google.cloud.dataflow.sdk.util.gcsfs.GcsPath;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
@@ -53,6 +58,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -268,7 +278,8 @@ public abstract class FileBasedSink<T> extends Sink<T> {
 
     /**
      * Finalizes writing by copying temporary output files to their final location and optionally
-     * removing temporary files.
+     * removing temporary files. When temporary files are removed, they are renamed rather than
+     * copied where the file system allows it.
      *
      * <p>Finalization may be overridden by subclass implementations to perform customized
      * finalization (e.g., initiating some operation on output bundles, merging them, etc.).
@@ -289,11 +300,13 @@ public abstract class FileBasedSink<T> extends Sink<T> {
         LOG.debug("Temporary bundle output file {} will be copied.", result.getFilename());
         files.add(result.getFilename());
       }
-      copyToOutputFiles(files, options);
 
-      // Optionally remove temporary files.
+      // Optionally remove temporary files, which can then be renamed instead of copied.
       if (temporaryFileRetention == TemporaryFileRetention.REMOVE) {
+        renameToOutputFiles(files, options);
         removeTemporaryFiles(options);
+      } else {
+        copyToOutputFiles(files, options);
       }
     }
 
@@ -313,6 +326,27 @@ public abstract class FileBasedSink<T> extends Sink<T> {
      */
     protected final List<String> copyToOutputFiles(List<String> filenames, PipelineOptions options)
         throws IOException {
+      return moveToOutputFiles(filenames, options, false);
+    }
+
+    /**
+     * Rename temporary files to final output filenames using the file naming template, copying
+     * them where the file system cannot rename them. Temporary files are named and ordered as in
+     * {@link #copyToOutputFiles}, and may or may not exist afterwards.
+     *
+     * <p>Can be called from subclasses that override {@link FileBasedWriteOperation#finalize} and
+     * remove the temporary files afterwards.
+     *
+     * @param filenames the filenames of temporary files.
+     * @return a list containing the names of final output files.
+     */
+    protected final List<String> renameToOutputFiles(
+        List<String> filenames, PipelineOptions options) throws IOException {
+      return moveToOutputFiles(filenames, options, true);
+    }
+
+    private List<String> moveToOutputFiles(
+        List<String> filenames, PipelineOptions options, boolean rename) throws IOException {
       int numFiles = filenames.size();
       List<String> srcFilenames = new ArrayList<>();
       List<String> destFilenames = generateDestinationFilenames(numFiles);
@@ -322,10 +356,15 @@ public abstract class FileBasedSink<T> extends Sink<T> {
       Collections.sort(srcFilenames);
 
       if (numFiles > 0) {
-        LOG.debug("Copying {} files.", numFiles);
         FileOperations fileOperations =
             FileOperationsFactory.getFileOperations(destFilenames.get(0), options);
-        fileOperations.copy(srcFilenames, destFilenames);
+        if (rename) {
+          LOG.debug("Renaming {} files.", numFiles);
+          fileOperations.rename(srcFilenames, destFilenames);
+        } else {
+          LOG.debug("Copying {} files.", numFiles);
+          fileOperations.copy(srcFilenames, destFilenames);
+        }
       } else {
         LOG.info("No output files to write.");
       }
@@ -572,6 +611,17 @@ public abstract class FileBasedSink<T> extends Sink<T> {
      */
     public void copy(List<String> srcFilenames, List<String> destFilenames) throws IOException;
 
+    /**
+     * Rename a collection of files, or copy those that cannot be renamed, in which case the
+     * source files are left in place.
+     *
+     * <p>The number of source filenames must equal the number of destination filenames.
+     *
+     * @param srcFilenames the source filenames.
+     * @param destFilenames the destination filenames.
+     */
+    public void rename(List<String> srcFilenames, List<String> destFilenames) throws IOException;
+
     /**
      * Remove a collection of files.
      */
@@ -632,6 +682,12 @@ public abstract class FileBasedSink<T> extends Sink<T> {
       batchHelper.flush();
     }
 
+    @Override
+    public void rename(List<String> srcFilenames, List<String> destFilenames) throws IOException {
+      // GCS cannot rename objects.
+      copy(srcFilenames, destFilenames);
+    }
+
     @Override
     public void remove(Collection<String> filenames) throws IOException {
       for (String filename : filenames) {
@@ -660,11 +716,17 @@ public abstract class FileBasedSink<T> extends Sink<T> {
   }
 
   /**
-   * File systems supported by {@link Files}.
+   * File systems supported by {@link Files}. Files are copied, renamed and removed concurrently
+   * on up to {@link #MAX_CONCURRENT_OPERATIONS} threads.
    */
   private static class LocalFileOperations implements FileOperations {
     private static final Logger LOG = LoggerFactory.getLogger(LocalFileOperations.class);
 
+    /**
+     * Maximum number of files operated on at the same time.
+     */
+    private static final int MAX_CONCURRENT_OPERATIONS = 16;
+
     @Override
     public void copy(List<String> srcFilenames, List<String> destFilenames) throws IOException {
       Preconditions.checkArgument(
@@ -672,12 +734,20 @@ public abstract class FileBasedSink<T> extends Sink<T> {
           String.format("Number of source files {} must equal number of destination files {}",
               srcFilenames.size(), destFilenames.size()));
       int numFiles = srcFilenames.size();
+      List<Callable<Void>> operations = new ArrayList<>(numFiles);
       for (int i = 0; i < numFiles; i++) {
-        String src = srcFilenames.get(i);
-        String dst = destFilenames.get(i);
-        LOG.debug("Copying {} to {}", src, dst);
-        copyOne(src, dst);
+        final String src = srcFilenames.get(i);
+        final String dst = destFilenames.get(i);
+        operations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            LOG.debug("Copying {} to {}", src, dst);
+            copyOne(src, dst);
+            return null;
+          }
+        });
       }
+      runConcurrently(operations);
     }
 
     private void copyOne(String source, String destination) throws IOException {
@@ -690,12 +760,58 @@ public abstract class FileBasedSink<T> extends Sink<T> {
       }
     }
 
+    @Override
+    public void rename(List<String> srcFilenames, List<String> destFilenames) throws IOException {
+      Preconditions.checkArgument(
+          srcFilenames.size() == destFilenames.size(),
+          String.format("Number of source files {} must equal number of destination files {}",
+              srcFilenames.size(), destFilenames.size()));
+      int numFiles = srcFilenames.size();
+      List<Callable<Void>> operations = new ArrayList<>(numFiles);
+      for (int i = 0; i < numFiles; i++) {
+        final String src = srcFilenames.get(i);
+        final String dst = destFilenames.get(i);
+        operations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            LOG.debug("Renaming {} to {}", src, dst);
+            renameOne(src, dst);
+            return null;
+          }
+        });
+      }
+      runConcurrently(operations);
+    }
+
+    private void renameOne(String source, String destination) throws IOException {
+      try {
+        // Rename the source file, atomically replacing the existing destination.
+        Files.move(Paths.get(source), Paths.get(destination), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+        // The files are on different file systems, or the file system cannot replace the
+        // destination atomically.
+        LOG.debug("Cannot rename {} to {}, copying it instead.", source, destination);
+        copyOne(source, destination);
+      } catch (NoSuchFileException e) {
+        LOG.debug("{} does not exist.", source);
+        // Suppress exception if file does not exist.
+      }
+    }
+
     @Override
     public void remove(Collection<String> filenames) throws IOException {
-      for (String filename : filenames) {
-        LOG.debug("Removing file {}", filename);
-        removeOne(filename);
+      List<Callable<Void>> operations = new ArrayList<>(filenames.size());
+      for (final String filename : filenames) {
+        operations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            LOG.debug("Removing file {}", filename);
+            removeOne(filename);
+            return null;
+          }
+        });
       }
+      runConcurrently(operations);
     }
 
     private void removeOne(String filename) throws IOException {
@@ -705,6 +821,35 @@ public abstract class FileBasedSink<T> extends Sink<T> {
         LOG.debug("{} does not exist.", filename);
       }
     }
+
+    /**
+     * Runs the operations on a bounded number of threads and waits for all of them, throwing the
+     * exception of the first one that failed.
+     */
+    private void runConcurrently(List<Callable<Void>> operations) throws IOException {
+      if (operations.isEmpty()) {
+        return;
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(
+          Math.min(operations.size(), MAX_CONCURRENT_OPERATIONS),
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("FileBasedSink-LocalFileOperations-%d")
+              .build());
+      try {
+        for (Future<Void> future : executor.invokeAll(operations)) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while operating on files");
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException(e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
   }
 
   /**
@@ -39,6 +39,9 @@ import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
 import com.google.cloud.dataflow.sdk.values.PDone;
 import com.google.cloud.dataflow.sdk.values.PInput;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.joda.time.Duration;
 import org.joda.time.Instant;
@@ -47,12 +50,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -268,6 +287,9 @@ public class PubsubIO {
    * {@link Bound#maxNumRecords} or {@link Bound#maxReadTime} must be set.
    */
   public static class Read {
+    /** The number of concurrent pull requests when reading a bounded number of records. */
+    private static final int DEFAULT_PULL_PARALLELISM = 4;
+
     public static Bound<String> named(String name) {
       return new Bound<>(DEFAULT_PUBSUB_CODER).named(name);
     }
@@ -411,6 +433,8 @@ public class PubsubIO {
       int maxNumRecords;
       /** Stop after reading for this much time. */
       Duration maxReadTime;
+      /** The number of concurrent pull requests when reading a bounded number of records. */
+      int pullParallelism = DEFAULT_PULL_PARALLELISM;
 
       Bound(Coder<T> coder) {
         this.coder = coder;
@@ -418,7 +442,7 @@ public class PubsubIO {
 
       Bound(String name, PubsubSubscription subscription, PubsubTopic topic, String timestampLabel,
           Coder<T> coder, String idLabel,
-          int maxNumRecords, Duration maxReadTime) {
+          int maxNumRecords, Duration maxReadTime, int pullParallelism) {
         super(name);
         if (subscription != null) {
           this.subscription = subscription;
@@ -431,6 +455,7 @@ public class PubsubIO {
         this.idLabel = idLabel;
         this.maxNumRecords = maxNumRecords;
         this.maxReadTime = maxReadTime;
+        this.pullParallelism = pullParallelism;
       }
 
       /**
@@ -439,7 +464,7 @@ public class PubsubIO {
        */
       public Bound<T> named(String name) {
         return new Bound<>(name, subscription, topic, timestampLabel,
-            coder, idLabel, maxNumRecords, maxReadTime);
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -452,7 +477,7 @@ public class PubsubIO {
        */
       public Bound<T> subscription(String subscription) {
         return new Bound<>(name, PubsubSubscription.fromPath(subscription), topic, timestampLabel,
-            coder, idLabel, maxNumRecords, maxReadTime);
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -461,7 +486,7 @@ public class PubsubIO {
        */
       public Bound<T> topic(String topic) {
         return new Bound<>(name, subscription, PubsubTopic.fromPath(topic), timestampLabel,
-            coder, idLabel, maxNumRecords, maxReadTime);
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -470,7 +495,7 @@ public class PubsubIO {
        */
       public Bound<T> timestampLabel(String timestampLabel) {
         return new Bound<>(name, subscription, topic, timestampLabel, coder, idLabel,
-            maxNumRecords, maxReadTime);
+            maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -479,7 +504,7 @@ public class PubsubIO {
        */
       public Bound<T> idLabel(String idLabel) {
         return new Bound<>(name, subscription, topic, timestampLabel, coder, idLabel,
-            maxNumRecords, maxReadTime);
+            maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -492,7 +517,7 @@ public class PubsubIO {
        */
       public <X> Bound<X> withCoder(Coder<X> coder) {
         return new Bound<>(name, subscription, topic, timestampLabel, coder, idLabel,
-            maxNumRecords, maxReadTime);
+            maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -503,7 +528,7 @@ public class PubsubIO {
        */
       public Bound<T> maxNumRecords(int maxNumRecords) {
         return new Bound<>(name, subscription, topic, timestampLabel,
-            coder, idLabel, maxNumRecords, maxReadTime);
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
       }
 
       /**
@@ -514,7 +539,19 @@ public class PubsubIO {
        */
       public Bound<T> maxReadTime(Duration maxReadTime) {
         return new Bound<>(name, subscription, topic, timestampLabel,
-            coder, idLabel, maxNumRecords, maxReadTime);
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
+      }
+
+      /**
+       * Returns a new PubsubIO.Read PTransform that's like this one but that sends up to the
+       * given number of pull requests at a time when reading a bounded {@code PCollection}.
+       * Messages are acknowledged while further messages are pulled. Does not modify the object.
+       */
+      public Bound<T> pullParallelism(int pullParallelism) {
+        Preconditions.checkArgument(pullParallelism > 0,
+            "pullParallelism must be positive, got %s", pullParallelism);
+        return new Bound<>(name, subscription, topic, timestampLabel,
+            coder, idLabel, maxNumRecords, maxReadTime, pullParallelism);
       }
 
       @Override
@@ -577,17 +614,26 @@ public class PubsubIO {
         return maxReadTime;
       }
 
+      public int getPullParallelism() {
+        return pullParallelism;
+      }
+
+      /**
+       * Reads a bounded number of records, or for a bounded time, with
+       * {@link #getPullParallelism} concurrent pull requests. The messages of each response are
+       * acknowledged asynchronously while the next pull request is sent.
+       */
       private class PubsubReader extends DoFn<Void, T> {
         private static final long serialVersionUID = 0L;
-        private static final int DEFAULT_PULL_SIZE = 100;
+        private static final int DEFAULT_PULL_SIZE = 1000;
 
         @Override
         public void processElement(ProcessContext c) throws IOException {
-          Pubsub pubsubClient =
+          final Pubsub pubsubClient =
               Transport.newPubsubClient(c.getPipelineOptions().as(DataflowPipelineOptions.class))
                   .build();
 
-          String subscription;
+          final String subscription;
           if (getSubscription() == null) {
             String topic = getTopic().asV1Beta2Path();
             String[] split = topic.split("/");
@@ -605,42 +651,49 @@ public class PubsubIO {
              subscription = getSubscription().asV1Beta2Path();
           }
 
-          Instant endTime = getMaxReadTime() == null
+          final Instant endTime = getMaxReadTime() == null
               ? new Instant(Long.MAX_VALUE) : Instant.now().plus(getMaxReadTime());
 
-          List<PubsubMessage> messages = new ArrayList<>();
+          final Queue<PubsubMessage> messages = new ConcurrentLinkedQueue<>();
+          // The number of further messages that may be requested, which pull requests reserve
+          // before they are sent, so that no more messages than requested are acknowledged.
+          final AtomicLong unrequested = new AtomicLong(
+              getMaxNumRecords() > 0 ? getMaxNumRecords() : Long.MAX_VALUE);
+          final Queue<Future<?>> acks = new ConcurrentLinkedQueue<>();
+          final ExecutorService executor = Executors.newCachedThreadPool(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("PubsubReader-%d")
+                  .build());
 
           try {
-            while ((getMaxNumRecords() == 0 || messages.size() < getMaxNumRecords())
-                && Instant.now().isBefore(endTime)) {
-              PullRequest pullRequest = new PullRequest().setReturnImmediately(false);
-              if (getMaxNumRecords() > 0) {
-                pullRequest.setMaxMessages(getMaxNumRecords() - messages.size());
-              } else {
-                pullRequest.setMaxMessages(DEFAULT_PULL_SIZE);
-              }
-
-              PullResponse pullResponse =
-                  pubsubClient.projects().subscriptions().pull(subscription, pullRequest).execute();
-              List<String> ackIds = new ArrayList<>();
-              if (pullResponse.getReceivedMessages() != null) {
-                for (ReceivedMessage received : pullResponse.getReceivedMessages()) {
-                  messages.add(received.getMessage());
-                  ackIds.add(received.getAckId());
+            CompletionService<Void> pulls = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < getPullParallelism(); i++) {
+              pulls.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                  pull(pubsubClient, subscription, endTime, unrequested, messages, acks, executor);
+                  return null;
                 }
-              }
-
-              if (ackIds.size() != 0) {
-                AcknowledgeRequest ackRequest = new AcknowledgeRequest().setAckIds(ackIds);
-                pubsubClient.projects()
-                    .subscriptions()
-                    .acknowledge(subscription, ackRequest)
-                    .execute();
-              }
+              });
+            }
+            // Wait for the pulls in the order they complete, so that the first failure is thrown
+            // at once and the remaining pulls are stopped by shutting down the executor.
+            for (int i = 0; i < getPullParallelism(); i++) {
+              pulls.take().get();
             }
-          } catch (IOException e) {
-            throw new RuntimeException("Unexpected exception while reading from Pubsub: ", e);
+            // Acknowledgements are only submitted by pulls, which have all completed.
+            for (Future<?> ack : acks) {
+              ack.get();
+            }
+          } catch (ExecutionException e) {
+            throw new RuntimeException(
+                "Unexpected exception while reading from Pubsub: ", e.getCause());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading from Pubsub: ", e);
           } finally {
+            executor.shutdownNow();
             if (getTopic() != null) {
               try {
                 pubsubClient.projects().subscriptions().delete(subscription).execute();
@@ -668,6 +721,68 @@ public class PubsubIO {
                 timestamp);
           }
         }
+
+        /**
+         * Pulls messages until the end time, until all the messages that may be requested
+         * have been, or until interrupted, submitting the acknowledgement of each response to
+         * {@code executor}.
+         */
+        private void pull(final Pubsub pubsubClient, final String subscription, Instant endTime,
+            AtomicLong unrequested, Queue<PubsubMessage> messages, Queue<Future<?>> acks,
+            ExecutorService executor) throws IOException {
+          while (Instant.now().isBefore(endTime) && !Thread.currentThread().isInterrupted()) {
+            int pullSize = reservePullSize(unrequested);
+            if (pullSize == 0) {
+              return;
+            }
+            PullRequest pullRequest = new PullRequest()
+                .setReturnImmediately(false)
+                .setMaxMessages(pullSize);
+
+            final List<String> ackIds = new ArrayList<>();
+            try {
+              PullResponse pullResponse =
+                  pubsubClient.projects().subscriptions().pull(subscription, pullRequest).execute();
+              if (pullResponse.getReceivedMessages() != null) {
+                for (ReceivedMessage received : pullResponse.getReceivedMessages()) {
+                  messages.add(received.getMessage());
+                  ackIds.add(received.getAckId());
+                }
+              }
+            } finally {
+              // Return the part of the reservation that was not used, also when the pull failed.
+              unrequested.addAndGet(pullSize - ackIds.size());
+            }
+
+            if (ackIds.size() != 0) {
+              acks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                  AcknowledgeRequest ackRequest = new AcknowledgeRequest().setAckIds(ackIds);
+                  pubsubClient.projects()
+                      .subscriptions()
+                      .acknowledge(subscription, ackRequest)
+                      .execute();
+                  return null;
+                }
+              }));
+            }
+          }
+        }
+
+        /**
+         * Reserves up to {@link #DEFAULT_PULL_SIZE} of the messages that may still be requested,
+         * returning how many were reserved.
+         */
+        private int reservePullSize(AtomicLong unrequested) {
+          while (true) {
+            long available = unrequested.get();
+            int pullSize = (int) Math.min(available, DEFAULT_PULL_SIZE);
+            if (pullSize == 0 || unrequested.compareAndSet(available, available - pullSize)) {
+              return pullSize;
+            }
+          }
+        }
       }
     }
   }
@@ -681,6 +796,9 @@ public class PubsubIO {
    */
   // TODO: Support non-String encodings.
   public static class Write {
+    /** The maximum number of publish requests in flight when writing a bounded collection. */
+    private static final int DEFAULT_MAX_CONCURRENT_PUBLISHES = 4;
+
     public static Bound<String> named(String name) {
       return new Bound<>(DEFAULT_PUBSUB_CODER).named(name);
     }
@@ -742,12 +860,15 @@ public class PubsubIO {
       String timestampLabel;
       String idLabel;
       final Coder<T> coder;
+      /** The maximum number of publish requests in flight when writing a bounded collection. */
+      int maxConcurrentPublishes = DEFAULT_MAX_CONCURRENT_PUBLISHES;
 
       Bound(Coder<T> coder) {
         this.coder = coder;
       }
 
-      Bound(String name, PubsubTopic topic, String timestampLabel, String idLabel, Coder<T> coder) {
+      Bound(String name, PubsubTopic topic, String timestampLabel, String idLabel, Coder<T> coder,
+          int maxConcurrentPublishes) {
         super(name);
         if (topic != null) {
           this.topic = topic;
@@ -755,6 +876,7 @@ public class PubsubIO {
         this.timestampLabel = timestampLabel;
         this.idLabel = idLabel;
         this.coder = coder;
+        this.maxConcurrentPublishes = maxConcurrentPublishes;
       }
 
       /**
@@ -762,7 +884,7 @@ public class PubsubIO {
        * name. Does not modify the object.
        */
       public Bound<T> named(String name) {
-        return new Bound<>(name, topic, timestampLabel, idLabel, coder);
+        return new Bound<>(name, topic, timestampLabel, idLabel, coder, maxConcurrentPublishes);
       }
 
       /**
@@ -770,7 +892,8 @@ public class PubsubIO {
        * topic. Does not modify the object.
        */
       public Bound<T> topic(String topic) {
-        return new Bound<>(name, PubsubTopic.fromPath(topic), timestampLabel, idLabel, coder);
+        return new Bound<>(name, PubsubTopic.fromPath(topic), timestampLabel, idLabel, coder,
+            maxConcurrentPublishes);
       }
 
       /**
@@ -778,7 +901,7 @@ public class PubsubIO {
        * to the given PubSub label. Does not modify the object.
        */
       public Bound<T> timestampLabel(String timestampLabel) {
-        return new Bound<>(name, topic, timestampLabel, idLabel, coder);
+        return new Bound<>(name, topic, timestampLabel, idLabel, coder, maxConcurrentPublishes);
       }
 
       /**
@@ -786,7 +909,7 @@ public class PubsubIO {
        * to the given PubSub label. Does not modify the object.
        */
      public Bound<T> idLabel(String idLabel) {
-       return new Bound<>(name, topic, timestampLabel, idLabel, coder);
+       return new Bound<>(name, topic, timestampLabel, idLabel, coder, maxConcurrentPublishes);
       }
 
      /**
@@ -798,7 +921,18 @@ public class PubsubIO {
        * @param <X> the type of the elements of the input PCollection
        */
       public <X> Bound<X> withCoder(Coder<X> coder) {
-        return new Bound<>(name, topic, timestampLabel, idLabel, coder);
+        return new Bound<>(name, topic, timestampLabel, idLabel, coder, maxConcurrentPublishes);
+      }
+
+      /**
+       * Returns a new PubsubIO.Write PTransform that's like this one but that keeps up to the
+       * given number of publish requests in flight when writing a bounded {@code PCollection}.
+       * Does not modify the object.
+       */
+      public Bound<T> maxConcurrentPublishes(int maxConcurrentPublishes) {
+        Preconditions.checkArgument(maxConcurrentPublishes > 0,
+            "maxConcurrentPublishes must be positive, got %s", maxConcurrentPublishes);
+        return new Bound<>(name, topic, timestampLabel, idLabel, coder, maxConcurrentPublishes);
       }
 
       @Override
@@ -832,19 +966,44 @@ public class PubsubIO {
         return coder;
       }
 
+      public int getMaxConcurrentPublishes() {
+        return maxConcurrentPublishes;
+      }
+
+      /**
+       * Publishes messages in batches limited by both their number and their size, keeping up to
+       * {@link #getMaxConcurrentPublishes} publish requests in flight.
+       */
       private class PubsubWriter extends DoFn<T, Void> {
         private static final long serialVersionUID = 0L;
-        private static final int MAX_PUBLISH_BATCH_SIZE = 100;
+        // The maximum number of messages per publish request allowed by the service.
+        private static final int MAX_PUBLISH_BATCH_SIZE = 1000;
+        // The approximate size of the messages to send per publish request.
+        private static final long MAX_PUBLISH_BATCH_BYTE_SIZE = 1 << 20;
         private transient List<PubsubMessage> output;
+        private transient long outputByteSize;
         private transient Pubsub pubsubClient;
-
+        private transient ThreadPoolExecutor publishExecutor;
+        // The publish requests in flight, oldest first.
+        private transient Deque<Future<?>> pendingPublishes;
 
         @Override
         public void startBundle(Context c) {
           this.output = new ArrayList<>();
+          this.outputByteSize = 0;
           this.pubsubClient =
               Transport.newPubsubClient(c.getPipelineOptions().as(DataflowPipelineOptions.class))
                   .build();
+          // Idle threads time out, so that they do not outlive a bundle that fails.
+          this.publishExecutor = new ThreadPoolExecutor(
+              getMaxConcurrentPublishes(), getMaxConcurrentPublishes(), 1, TimeUnit.MINUTES,
+              new LinkedBlockingQueue<Runnable>(),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("PubsubWriter-Publish-%d")
+                  .build());
+          this.publishExecutor.allowCoreThreadTimeOut(true);
+          this.pendingPublishes = new ArrayDeque<>();
         }
 
         @Override
@@ -861,8 +1020,10 @@ public class PubsubIO {
                 getTimestampLabel(), String.valueOf(c.timestamp().getMillis()));
           }
           output.add(message);
+          outputByteSize += byteSize(message);
 
-          if (output.size() >= MAX_PUBLISH_BATCH_SIZE) {
+          if (output.size() >= MAX_PUBLISH_BATCH_SIZE
+              || outputByteSize >= MAX_PUBLISH_BATCH_BYTE_SIZE) {
             publish();
           }
         }
@@ -872,13 +1033,62 @@ public class PubsubIO {
           if (!output.isEmpty()) {
             publish();
           }
+          while (!pendingPublishes.isEmpty()) {
+            awaitOldestPublish();
+          }
+          publishExecutor.shutdown();
         }
 
+        /**
+         * Sends the buffered messages in a publish request, once fewer than
+         * {@link #getMaxConcurrentPublishes} requests are in flight.
+         */
         private void publish() throws IOException {
-          PublishRequest publishRequest = new PublishRequest().setMessages(output);
-          pubsubClient.projects().topics()
-              .publish(getTopic().asV1Beta2Path(), publishRequest).execute();
-          output.clear();
+          while (pendingPublishes.size() >= getMaxConcurrentPublishes()) {
+            awaitOldestPublish();
+          }
+          final PublishRequest publishRequest = new PublishRequest().setMessages(output);
+          output = new ArrayList<>();
+          outputByteSize = 0;
+          pendingPublishes.addLast(publishExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              pubsubClient.projects().topics()
+                  .publish(getTopic().asV1Beta2Path(), publishRequest).execute();
+              return null;
+            }
+          }));
+        }
+
+        private void awaitOldestPublish() throws IOException {
+          Future<?> publish = pendingPublishes.removeFirst();
+          try {
+            publish.get();
+          } catch (ExecutionException e) {
+            // The bundle fails, so the other requests in flight are not needed.
+            for (Future<?> pending : pendingPublishes) {
+              pending.cancel(true);
+            }
+            pendingPublishes.clear();
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while publishing to Pubsub");
+          }
+        }
+
+        /**
+         * Returns the approximate size of the message in a publish request.
+         */
+        private long byteSize(PubsubMessage message) {
+          long size = message.getData() == null ? 0 : message.getData().length();
+          if (message.getAttributes() != null) {
+            for (Map.Entry<String, String> attribute : message.getAttributes().entrySet()) {
+              size += attribute.getKey().length() + attribute.getValue().length();
+            }
+          }
+          return size;
         }
       }
     }
@@ -715,7 +715,7 @@ public class TextIO {
       Read.Bound<T> transform, DirectPipelineRunner.EvaluationContext context) {
     TextReader<T> reader =
         new TextReader<>(transform.filepattern, true, null, null, transform.coder,
-            transform.getCompressionType());
+            transform.getCompressionType(), true /* mapLocalFiles */);
     List<T> elems = ReaderUtils.readElemsFromReader(reader);
     context.setPCollection(context.getOutput(transform), elems);
   }
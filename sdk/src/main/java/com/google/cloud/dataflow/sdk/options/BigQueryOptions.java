@@ -16,6 +16,10 @@
 
 package com.google.cloud.dataflow.sdk.options;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.concurrent.ExecutorService;
+
 /**
  * Properties needed when using BigQuery with the Dataflow SDK.
  */
@@ -28,4 +32,24 @@ public interface BigQueryOptions extends ApplicationNameOptions, GcpOptions,
   @Default.String("bigquery.googleapis.com/cloud_dataflow")
   String getTempDatasetId();
   void setTempDatasetId(String value);
+
+  /**
+   * The ExecutorService instance used to send the requests that insert rows into BigQuery
+   * tables when streaming. The number of concurrent requests to each table is bounded by
+   * {@link #getBigQueryMaxConcurrentInsertsPerTable}.
+   */
+  @JsonIgnore
+  @Description("The ExecutorService instance used to send the requests that insert rows into "
+      + "BigQuery tables when streaming. If unset, the default is to create an ExecutorService "
+      + "with an unbounded number of threads; this is compatible with Google AppEngine.")
+  @Default.InstanceFactory(GcsOptions.ExecutorServiceFactory.class)
+  @Hidden
+  ExecutorService getBigQueryInsertExecutorService();
+  void setBigQueryInsertExecutorService(ExecutorService value);
+
+  @Description("The maximum number of concurrent requests inserting rows into each BigQuery "
+      + "table when streaming.")
+  @Default.Integer(20)
+  int getBigQueryMaxConcurrentInsertsPerTable();
+  void setBigQueryMaxConcurrentInsertsPerTable(int value);
 }
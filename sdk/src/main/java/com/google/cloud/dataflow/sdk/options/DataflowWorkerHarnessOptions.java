@@ -47,4 +47,46 @@ public interface DataflowWorkerHarnessOptions extends DataflowPipelineOptions {
   @Default.Integer(100)
   Integer getWorkerCacheMb();
   void setWorkerCacheMb(Integer value);
+
+  /**
+   * The size of the streaming worker's cache of persistent state, in megabytes.
+   *
+   * <p> The cache lets consecutive work items for a key reuse state without reading it again.
+   * A size of 0 disables the cache.
+   */
+  @Description("The size of the streaming worker's cache of persistent state, in megabytes. "
+      + "A size of 0 disables the cache.")
+  @Default.Integer(100)
+  Integer getWorkerStateCacheMb();
+  void setWorkerStateCacheMb(Integer value);
+
+  /**
+   * Whether the streaming worker prefetches the state of work items before they run.
+   *
+   * <p> The state a work item reads is predicted from the state the previous work item for its
+   * key read.
+   */
+  @Description("Whether the streaming worker prefetches the state of work items before they run.")
+  @Default.Boolean(true)
+  boolean getWorkerStatePrefetch();
+  void setWorkerStatePrefetch(boolean value);
+
+  /**
+   * The policy for choosing which keys to flush when a combiner lifting table is full.
+   */
+  @Description("The policy for choosing which keys to flush when a combiner lifting table is "
+      + "full: DEFAULT (in the table's own order), LRU (least recently used keys first) or "
+      + "TINY_LFU (least frequently used keys first, as estimated by a frequency sketch).")
+  @Default.Enum("DEFAULT")
+  GroupingTableEvictionPolicy getGroupingTableEvictionPolicy();
+  void setGroupingTableEvictionPolicy(GroupingTableEvictionPolicy value);
+
+  /**
+   * Policies for choosing which keys to flush when a combiner lifting table is full.
+   */
+  public enum GroupingTableEvictionPolicy {
+    DEFAULT,
+    LRU,
+    TINY_LFU
+  }
 }
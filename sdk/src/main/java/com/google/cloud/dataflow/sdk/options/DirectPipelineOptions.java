@@ -37,4 +37,34 @@ public interface DirectPipelineOptions extends
       + " If not explicitly specified, a random seed will be generated.")
   Long getDirectPipelineRunnerRandomSeed();
   void setDirectPipelineRunnerRandomSeed(Long value);
+
+  /**
+   * The number of threads the {@link DirectPipelineRunner} uses to evaluate the pipeline.
+   *
+   * <p> With the default of 1, transforms are evaluated one at a time on the calling thread.
+   * With a larger value, independent branches of the pipeline are evaluated concurrently and
+   * the elements of each {@code ParDo} and {@code GroupByKey} are processed in parallel bundles.
+   */
+  @JsonIgnore
+  @Description("The number of threads the DirectPipelineRunner uses to evaluate the pipeline."
+      + " With the default of 1, transforms are evaluated one at a time on the calling thread.")
+  @Default.Integer(1)
+  Integer getDirectPipelineRunnerParallelism();
+  void setDirectPipelineRunnerParallelism(Integer value);
+
+  /**
+   * The amount of memory, in megabytes, that each {@code GroupByKey} evaluated by the
+   * {@link DirectPipelineRunner} may use to buffer its encoded input.
+   *
+   * <p> Past this budget, the buffered input is sorted by key and spilled to temporary files,
+   * and the grouped values are read back from disk as they are iterated. The temporary files
+   * are deleted once the pipeline has been evaluated, after which spilled groups can no longer
+   * be read. If not set, grouping is done entirely in memory.
+   */
+  @JsonIgnore
+  @Description("The amount of memory, in megabytes, that each GroupByKey evaluated by the"
+      + " DirectPipelineRunner may use to buffer its encoded input before spilling to temporary"
+      + " files. If not set, grouping is done entirely in memory.")
+  Integer getDirectPipelineRunnerGroupByKeyMemoryMb();
+  void setDirectPipelineRunnerGroupByKeyMemoryMb(Integer value);
 }
@@ -54,12 +54,17 @@ import com.google.cloud.dataflow.sdk.values.POutput;
 import com.google.cloud.dataflow.sdk.values.PValue;
 import com.google.cloud.dataflow.sdk.values.TypedPValue;
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -68,6 +73,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Executes the operations in the pipeline directly, in this process, without
@@ -75,6 +91,11 @@ import java.util.Random;
  *
  * <p> Throws an exception from {@link #run} if execution fails.
  *
+ * <p> By default transforms are evaluated one at a time. If
+ * {@link DirectPipelineOptions#getDirectPipelineRunnerParallelism} is greater than one,
+ * independent branches of the pipeline are evaluated concurrently, and evaluators may use
+ * {@link EvaluationContext#invokeAll} to process the elements of a transform in parallel.
+ *
  * <p><h3>Permissions</h3>
  * When reading from a Dataflow source or writing to a Dataflow sink using
  * {@code DirectPipelineRunner}, the Cloud Platform account that you configured with the
@@ -367,7 +388,7 @@ public class DirectPipelineRunner
   public EvaluationResults run(Pipeline pipeline) {
     LOG.info("Executing pipeline using the DirectPipelineRunner.");
 
-    Evaluator evaluator = new Evaluator(rand);
+    Evaluator evaluator = new Evaluator(rand, options.getDirectPipelineRunnerParallelism());
     evaluator.run(pipeline);
 
     // Log all counter values for debugging purposes.
@@ -612,6 +633,30 @@ public class DirectPipelineRunner
     <T> T ensureSerializableByCoder(Coder<T> coder,
                                     T data, String errorContext);
 
+    /**
+     * Returns the number of threads available for evaluating transforms, as configured by
+     * {@link DirectPipelineOptions#getDirectPipelineRunnerParallelism}. Evaluators may use
+     * this to decide how many tasks to pass to {@link #invokeAll}.
+     */
+    int getParallelism();
+
+    /**
+     * Runs the given tasks and returns their results, in the same order as the tasks.
+     *
+     * <p> If {@link #getParallelism} is greater than one, the tasks are run concurrently on a
+     * shared fork-join pool, so they must not depend on each other. Otherwise they are run
+     * one after another on the calling thread. If any task fails, its exception is rethrown.
+     */
+    <T> List<T> invokeAll(List<? extends Callable<T>> tasks);
+
+    /**
+     * Registers a resource backing the contents of {@link PCollection}s, such as temporary
+     * files, to be closed once the pipeline has been evaluated, whether or not evaluation
+     * succeeds. The contents can no longer be read from the {@link EvaluationResults} after
+     * that.
+     */
+    void closeAfterEvaluation(Closeable resource);
+
     /**
      * Returns a mutator, which can be used to add additional counters to
      * this EvaluationContext.
@@ -633,9 +678,15 @@ public class DirectPipelineRunner
      * transform (e.g. "s2").
      */
     private final Map<PTransform<?, ?>, String> stepNames = new HashMap<>();
-    private final Map<PValue, Object> store = new HashMap<>();
+    private final ConcurrentMap<PValue, SettableFuture<Object>> store =
+        new ConcurrentHashMap<>();
     private final CounterSet counters = new CounterSet();
-    private AppliedPTransform<?, ?, ?> currentTransform;
+
+    /**
+     * The transform being evaluated by the current thread. Several transforms may be evaluated
+     * at once when evaluating in parallel.
+     */
+    private final ThreadLocal<AppliedPTransform<?, ?, ?>> currentTransform = new ThreadLocal<>();
 
     private Map<Aggregator<?, ?>, Collection<PTransform<?, ?>>> aggregatorSteps = null;
 
@@ -647,19 +698,96 @@ public class DirectPipelineRunner
 
     private Random rand;
 
+    private final int parallelism;
+
+    /**
+     * When evaluating in parallel, the executor that evaluates each primitive transform as a
+     * separate task. Tasks are submitted in topological order and block in {@link #getPValue}
+     * until their inputs have been computed. Null when evaluating sequentially.
+     */
+    private ExecutorService transformExecutor;
+
+    /**
+     * When evaluating in parallel, the pool used by {@link #invokeAll}. Kept separate from
+     * {@link #transformExecutor} so that bundles never wait behind blocked transforms.
+     */
+    private ForkJoinPool bundleExecutor;
+
+    /** The first failure of a transform evaluated by {@link #transformExecutor}. */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /** The outputs of primitive transforms, checked once parallel evaluation completes. */
+    private final List<PValue> primitiveOutputs = new ArrayList<>();
+
+    /** The resources to close once the pipeline has been evaluated. */
+    private final List<Closeable> resources =
+        Collections.synchronizedList(new ArrayList<Closeable>());
+
     public Evaluator() {
       this(new Random());
     }
 
     public Evaluator(Random rand) {
+      this(rand, 1);
+    }
+
+    public Evaluator(Random rand, int parallelism) {
+      checkArgument(parallelism >= 1,
+          "DirectPipelineRunner parallelism must be at least 1, got %s", parallelism);
       this.rand = rand;
+      this.parallelism = parallelism;
     }
 
     public void run(Pipeline pipeline) {
-      pipeline.traverseTopologically(this);
+      try {
+        if (parallelism == 1) {
+          pipeline.traverseTopologically(this);
+        } else {
+          runInParallel(pipeline);
+        }
+      } finally {
+        closeResources();
+      }
       aggregatorSteps = new AggregatorPipelineExtractor(pipeline).getAggregatorSteps();
     }
 
+    private void runInParallel(Pipeline pipeline) {
+      transformExecutor = Executors.newFixedThreadPool(parallelism,
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("DirectPipelineRunner-%d")
+              .build());
+      bundleExecutor = new ForkJoinPool(parallelism);
+      try {
+        try {
+          pipeline.traverseTopologically(this);
+        } catch (RejectedExecutionException e) {
+          // A transform failed and shut down the executor; its failure is rethrown below.
+          if (failure.get() == null) {
+            throw e;
+          }
+        }
+        transformExecutor.shutdown();
+        while (!transformExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOG.debug("Waiting for pipeline evaluation to complete");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while evaluating the pipeline", e);
+      } finally {
+        transformExecutor.shutdownNow();
+        bundleExecutor.shutdownNow();
+      }
+      if (failure.get() != null) {
+        throw Throwables.propagate(failure.get());
+      }
+      // Verify that primitive transform outputs were all computed.
+      transformExecutor = null;
+      for (PValue value : primitiveOutputs) {
+        getPValue(value);
+      }
+    }
+
     @Override
     public DirectPipelineOptions getPipelineOptions() {
       return options;
@@ -667,16 +795,18 @@ public class DirectPipelineRunner
 
     @Override
     public <InputT extends PInput> InputT getInput(PTransform<InputT, ?> transform) {
-      checkArgument(currentTransform != null && currentTransform.getTransform() == transform,
+      AppliedPTransform<?, ?, ?> current = currentTransform.get();
+      checkArgument(current != null && current.getTransform() == transform,
           "can only be called with current transform");
-      return (InputT) currentTransform.getInput();
+      return (InputT) current.getInput();
     }
 
     @Override
     public <OutputT extends POutput> OutputT getOutput(PTransform<?, OutputT> transform) {
-      checkArgument(currentTransform != null && currentTransform.getTransform() == transform,
+      AppliedPTransform<?, ?, ?> current = currentTransform.get();
+      checkArgument(current != null && current.getTransform() == transform,
           "can only be called with current transform");
-      return (OutputT) currentTransform.getOutput();
+      return (OutputT) current.getOutput();
     }
 
     @Override
@@ -691,17 +821,43 @@ public class DirectPipelineRunner
     public void visitTransform(TransformTreeNode node) {
       PTransform<?, ?> transform = node.getTransform();
       fullNames.put(transform, node.getFullName());
-      TransformEvaluator evaluator =
+      final TransformEvaluator evaluator =
           getTransformEvaluator(transform.getClass());
       if (evaluator == null) {
         throw new IllegalStateException(
             "no evaluator registered for " + transform);
       }
-      LOG.debug("Evaluating {}", transform);
-      currentTransform = AppliedPTransform.of(
+      final AppliedPTransform<?, ?, ?> appliedTransform = AppliedPTransform.of(
           node.getFullName(), node.getInput(), node.getOutput(), (PTransform) transform);
-      evaluator.evaluate(transform, this);
-      currentTransform = null;
+      if (transformExecutor == null) {
+        evaluate(evaluator, appliedTransform);
+        return;
+      }
+      transformExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            evaluate(evaluator, appliedTransform);
+          } catch (Throwable t) {
+            // Only the first failure is reported; transforms blocked on the outputs of the
+            // failed transform are interrupted and fail in turn.
+            if (failure.compareAndSet(null, t)) {
+              transformExecutor.shutdownNow();
+            }
+          }
+        }
+      });
+    }
+
+    private void evaluate(
+        TransformEvaluator evaluator, AppliedPTransform<?, ?, ?> appliedTransform) {
+      LOG.debug("Evaluating {}", appliedTransform.getTransform());
+      currentTransform.set(appliedTransform);
+      try {
+        evaluator.evaluate(appliedTransform.getTransform(), this);
+      } finally {
+        currentTransform.remove();
+      }
     }
 
     @Override
@@ -713,9 +869,28 @@ public class DirectPipelineRunner
             "to have a producingTransform");
       }
       if (!producer.isCompositeNode()) {
-        // Verify that primitive transform outputs are already computed.
-        getPValue(value);
+        if (transformExecutor == null) {
+          // Verify that primitive transform outputs are already computed.
+          getPValue(value);
+        } else {
+          primitiveOutputs.add(value);
+        }
+      }
+    }
+
+    /**
+     * Returns the future holding the value of the given PValue, creating it if necessary.
+     */
+    private SettableFuture<Object> getPValueFuture(PValue pvalue) {
+      SettableFuture<Object> future = store.get(pvalue);
+      if (future == null) {
+        SettableFuture<Object> newFuture = SettableFuture.create();
+        future = store.putIfAbsent(pvalue, newFuture);
+        if (future == null) {
+          future = newFuture;
+        }
       }
+      return future;
     }
 
     /**
@@ -723,25 +898,36 @@ public class DirectPipelineRunner
      * Throws an exception if the PValue's value has already been set.
      */
     void setPValue(PValue pvalue, Object contents) {
-      if (store.containsKey(pvalue)) {
+      if (!getPValueFuture(pvalue).set(contents)) {
         throw new IllegalStateException(
             "internal error: setting the value of " + pvalue +
             " more than once");
       }
-      store.put(pvalue, contents);
     }
 
     /**
      * Retrieves the value of the given PValue.
      * Throws an exception if the PValue's value hasn't already been set.
+     *
+     * <p> When evaluating in parallel, waits for the value to be set by the transform
+     * producing it instead.
      */
     Object getPValue(PValue pvalue) {
-      if (!store.containsKey(pvalue)) {
+      SettableFuture<Object> future = getPValueFuture(pvalue);
+      if (transformExecutor == null && !future.isDone()) {
         throw new IllegalStateException(
             "internal error: getting the value of " + pvalue +
             " before it has been computed");
       }
-      return store.get(pvalue);
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(
+            "Interrupted while waiting for the value of " + pvalue, e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
     }
 
     /**
@@ -909,13 +1095,83 @@ public class DirectPipelineRunner
       return value;
     }
 
+    @Override
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    @Override
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+      List<T> results = new ArrayList<>(tasks.size());
+      if (bundleExecutor == null || tasks.size() == 1) {
+        for (Callable<T> task : tasks) {
+          try {
+            results.add(task.call());
+          } catch (Exception e) {
+            throw Throwables.propagate(e);
+          }
+        }
+        return results;
+      }
+      // Exceptions are captured here rather than through the returned futures, which rethrow a
+      // copy of the original exception rather than the original itself.
+      final AtomicReference<Throwable> taskFailure = new AtomicReference<>();
+      List<Callable<T>> capturingTasks = new ArrayList<>(tasks.size());
+      for (final Callable<T> task : tasks) {
+        capturingTasks.add(new Callable<T>() {
+          @Override
+          public T call() {
+            try {
+              return task.call();
+            } catch (Throwable t) {
+              taskFailure.compareAndSet(null, t);
+              return null;
+            }
+          }
+        });
+      }
+      List<Future<T>> futures = bundleExecutor.invokeAll(capturingTasks);
+      if (taskFailure.get() != null) {
+        throw Throwables.propagate(taskFailure.get());
+      }
+      for (Future<T> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while evaluating tasks", e);
+        } catch (ExecutionException e) {
+          throw Throwables.propagate(e.getCause());
+        }
+      }
+      return results;
+    }
+
+    @Override
+    public void closeAfterEvaluation(Closeable resource) {
+      resources.add(resource);
+    }
+
+    private void closeResources() {
+      synchronized (resources) {
+        for (Closeable resource : resources) {
+          try {
+            resource.close();
+          } catch (IOException e) {
+            LOG.warn("Unable to close {} after evaluating the pipeline", resource, e);
+          }
+        }
+        resources.clear();
+      }
+    }
+
     @Override
     public CounterSet.AddCounterMutator getAddCounterMutator() {
       return counters.getAddCounterMutator();
     }
 
     @Override
-    public String getStepName(PTransform<?, ?> transform) {
+    public synchronized String getStepName(PTransform<?, ?> transform) {
       String stepName = stepNames.get(transform);
       if (stepName == null) {
         stepName = "s" + (stepNames.size() + 1);
@@ -35,8 +35,15 @@ import java.io.IOException;
  * query for all rows of a table and then iterates over the result. There is no support for
  * progress reporting because the source is used only in situations where the entire table must be
  * read by each worker (i.e. the source is used as a side input).
+ *
+ * <p>Pages of rows are requested ahead of the rows being read, and the latency of the requests
+ * and the time spent converting rows are reported to counters when the reader is read by an
+ * operation.
  */
 public class BigQueryReader extends Reader<WindowedValue<TableRow>> {
+  /** The number of pages of rows requested ahead of the rows being read. */
+  static final int PREFETCH_PAGES = 2;
+
   final TableReference tableRef;
   final BigQueryOptions bigQueryOptions;
   final Bigquery bigQueryClient;
@@ -101,11 +108,18 @@ public class BigQueryReader extends Reader<WindowedValue<TableRow>> {
     private BigQueryTableRowIterator rowIterator;
 
     public BigQueryReaderIterator(Bigquery bigQueryClient, TableReference tableRef) {
-      rowIterator = new BigQueryTableRowIterator(bigQueryClient, tableRef);
+      this(new BigQueryTableRowIterator(bigQueryClient, tableRef));
     }
 
     public BigQueryReaderIterator(Bigquery bigQueryClient, String query, String projectId) {
-      rowIterator = new BigQueryTableRowIterator(bigQueryClient, query, projectId);
+      this(new BigQueryTableRowIterator(bigQueryClient, query, projectId));
+    }
+
+    private BigQueryReaderIterator(BigQueryTableRowIterator rowIterator) {
+      this.rowIterator = rowIterator.withPrefetch(PREFETCH_PAGES);
+      if (addCounterMutator != null) {
+        rowIterator.withCounters(addCounterMutator, counterOperationName);
+      }
     }
 
     @Override
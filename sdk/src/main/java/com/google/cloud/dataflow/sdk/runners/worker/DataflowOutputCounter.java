@@ -52,8 +52,8 @@ public class DataflowOutputCounter implements ElementCounter {
         new OutputObjectAndByteCounter(elementByteSizeObservable, addCounterMutator);
     objectAndByteCounter.countObject(outputName + OBJECT_COUNTER_NAME);
     objectAndByteCounter.countMeanByte(outputName + MEAN_BYTE_COUNTER_NAME);
-    elementCount =
-        addCounterMutator.addCounter(Counter.longs(outputName + ELEMENT_COUNTER_NAME, SUM));
+    elementCount = addCounterMutator.addCounter(
+        Counter.stripedLongs(outputName + ELEMENT_COUNTER_NAME, SUM));
   }
 
   @Override
@@ -184,47 +184,12 @@ public abstract class FileBasedReader<T> extends Reader<T> {
 
     @Override
     public Progress getProgress() {
-      // Currently we assume that only a offset position and fraction are reported as
-      // current progress. An implementor can override this method to update
-      // other metrics, e.g. report a different completion percentage or remaining time.
-      com.google.api.services.dataflow.model.Position currentPosition =
-          new com.google.api.services.dataflow.model.Position();
-      currentPosition.setByteOffset(offset);
-
-      ApproximateProgress progress = new ApproximateProgress();
-      progress.setPosition(currentPosition);
-
-      // If endOffset is unspecified, we don't know the fraction consumed.
-      if (rangeTracker.getStopPosition() != Long.MAX_VALUE) {
-        progress.setPercentComplete((float) rangeTracker.getFractionConsumed());
-      }
-
-      return cloudProgressToReaderProgress(progress);
+      return getProgressAtOffset(offset, rangeTracker);
     }
 
     @Override
     public DynamicSplitResult requestDynamicSplit(DynamicSplitRequest splitRequest) {
-      checkNotNull(splitRequest);
-
-      // Currently, file-based Reader only supports split at a byte offset.
-      ApproximateProgress splitProgress = splitRequestToApproximateProgress(splitRequest);
-      com.google.api.services.dataflow.model.Position splitPosition = splitProgress.getPosition();
-      if (splitPosition == null) {
-        LOG.warn("FileBasedReader only supports split at a Position. Requested: {}",
-            splitRequest);
-        return null;
-      }
-      Long splitOffset = splitPosition.getByteOffset();
-      if (splitOffset == null) {
-        LOG.warn("FileBasedReader only supports split at byte offset. Requested: {}",
-            splitPosition);
-        return null;
-      }
-      if (rangeTracker.trySplitAtPosition(splitOffset)) {
-        return new DynamicSplitResultWithPosition(cloudPositionToReaderPosition(splitPosition));
-      } else {
-        return null;
-      }
+      return requestDynamicSplitAtOffset(splitRequest, rangeTracker);
     }
 
     /**
@@ -241,6 +206,57 @@ public abstract class FileBasedReader<T> extends Reader<T> {
     }
   }
 
+  /**
+   * Returns the progress of an iterator whose next element starts at the given offset of the
+   * given range.
+   */
+  static Progress getProgressAtOffset(long offset, OffsetRangeTracker rangeTracker) {
+    // Currently we assume that only a offset position and fraction are reported as
+    // current progress. An implementor can override this method to update
+    // other metrics, e.g. report a different completion percentage or remaining time.
+    com.google.api.services.dataflow.model.Position currentPosition =
+        new com.google.api.services.dataflow.model.Position();
+    currentPosition.setByteOffset(offset);
+
+    ApproximateProgress progress = new ApproximateProgress();
+    progress.setPosition(currentPosition);
+
+    // If endOffset is unspecified, we don't know the fraction consumed.
+    if (rangeTracker.getStopPosition() != Long.MAX_VALUE) {
+      progress.setPercentComplete((float) rangeTracker.getFractionConsumed());
+    }
+
+    return cloudProgressToReaderProgress(progress);
+  }
+
+  /**
+   * Splits the range of an iterator at the byte offset of the request, if possible.
+   */
+  static DynamicSplitResult requestDynamicSplitAtOffset(
+      DynamicSplitRequest splitRequest, OffsetRangeTracker rangeTracker) {
+    checkNotNull(splitRequest);
+
+    // Currently, file-based Reader only supports split at a byte offset.
+    ApproximateProgress splitProgress = splitRequestToApproximateProgress(splitRequest);
+    com.google.api.services.dataflow.model.Position splitPosition = splitProgress.getPosition();
+    if (splitPosition == null) {
+      LOG.warn("FileBasedReader only supports split at a Position. Requested: {}",
+          splitRequest);
+      return null;
+    }
+    Long splitOffset = splitPosition.getByteOffset();
+    if (splitOffset == null) {
+      LOG.warn("FileBasedReader only supports split at byte offset. Requested: {}",
+          splitPosition);
+      return null;
+    }
+    if (rangeTracker.trySplitAtPosition(splitOffset)) {
+      return new DynamicSplitResultWithPosition(cloudPositionToReaderPosition(splitPosition));
+    } else {
+      return null;
+    }
+  }
+
   /**
    * Factory interface for creating a decompressing {@link InputStream}.
    */
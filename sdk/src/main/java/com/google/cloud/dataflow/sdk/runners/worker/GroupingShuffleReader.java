@@ -88,7 +88,7 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
   public ReaderIterator<WindowedValue<KV<K, Reiterable<V>>>> iterator() throws IOException {
     Preconditions.checkArgument(shuffleReaderConfig != null);
     return iterator(new BatchingShuffleEntryReader(
-        new ChunkingShuffleBatchReader(new ApplianceShuffleReader(shuffleReaderConfig))));
+        new ChunkingShuffleBatchReader(LocalShuffle.createReader(shuffleReaderConfig))));
   }
 
   private void initCoder(Coder<WindowedValue<KV<K, Iterable<V>>>> coder) throws Exception {
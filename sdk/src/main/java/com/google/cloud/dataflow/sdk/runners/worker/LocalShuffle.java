@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.util.Preconditions;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * A shuffle dataset stored in a local directory, read and written by {@link LocalShuffleReader}
+ * and {@link LocalShuffleWriter}.
+ *
+ * <p>It lets the shuffle readers and sinks of a {@code MapTask} run without the native shuffle
+ * library, for example to test or benchmark a whole pipeline in a single JVM. A dataset is
+ * selected by passing the configuration returned by {@link #createConfig} wherever the service
+ * would pass an opaque shuffle reader or writer configuration.
+ */
+public final class LocalShuffle {
+  private static final byte[] CONFIG_PREFIX = "local-shuffle:".getBytes(UTF_8);
+
+  private LocalShuffle() {}
+
+  /**
+   * Returns the shuffle reader and writer configuration for a dataset stored in the given
+   * directory.
+   */
+  public static byte[] createConfig(File datasetDirectory) {
+    byte[] path = datasetDirectory.getAbsolutePath().getBytes(UTF_8);
+    byte[] config = Arrays.copyOf(CONFIG_PREFIX, CONFIG_PREFIX.length + path.length);
+    System.arraycopy(path, 0, config, CONFIG_PREFIX.length, path.length);
+    return config;
+  }
+
+  /**
+   * Returns whether the given shuffle configuration was created by {@link #createConfig}.
+   */
+  public static boolean isLocalConfig(byte[] shuffleConfig) {
+    return shuffleConfig.length >= CONFIG_PREFIX.length
+        && Arrays.equals(Arrays.copyOf(shuffleConfig, CONFIG_PREFIX.length), CONFIG_PREFIX);
+  }
+
+  /**
+   * Returns the directory of the dataset of a configuration created by {@link #createConfig}.
+   */
+  static File getDatasetDirectory(byte[] shuffleConfig) {
+    Preconditions.checkArgument(isLocalConfig(shuffleConfig),
+        "not a local shuffle configuration");
+    return new File(new String(shuffleConfig, CONFIG_PREFIX.length,
+        shuffleConfig.length - CONFIG_PREFIX.length, UTF_8));
+  }
+
+  /**
+   * Creates a {@link ShuffleReader} for the given configuration: a {@link LocalShuffleReader}
+   * for a local dataset, and an {@link ApplianceShuffleReader} otherwise.
+   */
+  static ShuffleReader createReader(byte[] shuffleReaderConfig) {
+    if (isLocalConfig(shuffleReaderConfig)) {
+      return new LocalShuffleReader(getDatasetDirectory(shuffleReaderConfig));
+    }
+    return new ApplianceShuffleReader(shuffleReaderConfig);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * LocalShuffleReader reads chunks of data from a {@link LocalShuffle} dataset written by
+ * {@link LocalShuffleWriter}.
+ *
+ * <p>The segments of the dataset are memory-mapped the first time it is read, so all writers
+ * must be closed before then. Each read merges the records of all segments in the requested
+ * range in order of position.
+ */
+@ThreadSafe
+final class LocalShuffleReader implements ShuffleReader {
+  /** The size after which a chunk is returned, even if more records are in range. */
+  static final int MAX_CHUNK_BYTES = 1 << 20;
+
+  private static final Comparator<byte[]> POSITION_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final File datasetDirectory;
+  private List<Segment> segments;
+
+  /**
+   * @param datasetDirectory the directory holding the dataset's segments
+   */
+  public LocalShuffleReader(File datasetDirectory) {
+    this.datasetDirectory = datasetDirectory;
+  }
+
+  @Override
+  public ReadChunkResult readIncludingPosition(
+      @Nullable byte[] startPosition, @Nullable byte[] endPosition) throws IOException {
+    PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+    for (Segment segment : getSegments()) {
+      Cursor cursor = new Cursor(segment, segment.lowerBound(startPosition));
+      if (cursor.isInRange(endPosition)) {
+        cursors.add(cursor);
+      }
+    }
+
+    ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    while (!cursors.isEmpty() && chunk.size() < MAX_CHUNK_BYTES) {
+      Cursor cursor = cursors.poll();
+      cursor.segment.copyRecord(cursor.index, chunk);
+      cursor.advance();
+      if (cursor.isInRange(endPosition)) {
+        cursors.add(cursor);
+      }
+    }
+    return new ReadChunkResult(
+        chunk.toByteArray(), cursors.isEmpty() ? null : cursors.peek().position);
+  }
+
+  private synchronized List<Segment> getSegments() throws IOException {
+    if (segments == null) {
+      File[] files = datasetDirectory.listFiles(new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+          return name.endsWith(LocalShuffleWriter.SEGMENT_SUFFIX);
+        }
+      });
+      if (files == null) {
+        throw new IOException("Unable to list shuffle dataset " + datasetDirectory);
+      }
+      List<Segment> mapped = new ArrayList<>();
+      for (File file : files) {
+        mapped.add(new Segment(file));
+      }
+      segments = mapped;
+    }
+    return segments;
+  }
+
+  /**
+   * A memory-mapped segment file, as described in {@link LocalShuffleWriter}.
+   */
+  private static class Segment {
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int indexOffset;
+
+    Segment(File file) throws IOException {
+      try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+        FileChannel channel = input.getChannel();
+        // The mapping stays valid after the channel is closed.
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      long count = buffer.getLong(buffer.limit() - 8);
+      if (count < 0 || count > (buffer.limit() - 8) / 8) {
+        throw new IOException("Corrupt shuffle segment " + file);
+      }
+      recordCount = (int) count;
+      indexOffset = buffer.limit() - 8 - 8 * recordCount;
+    }
+
+    int recordOffset(int index) {
+      return (int) buffer.getLong(indexOffset + 8 * index);
+    }
+
+    /** Returns the position of the record at the given index, which is its first field. */
+    byte[] position(int index) {
+      // Absolute gets on a duplicate keep concurrent reads independent.
+      ByteBuffer record = buffer.duplicate();
+      int offset = recordOffset(index);
+      byte[] position = new byte[record.getInt(offset)];
+      record.position(offset + 4);
+      record.get(position);
+      return position;
+    }
+
+    /** Returns the index of the first record at or after the given position. */
+    int lowerBound(@Nullable byte[] startPosition) {
+      if (startPosition == null) {
+        return 0;
+      }
+      int low = 0;
+      int high = recordCount;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (POSITION_COMPARATOR.compare(position(mid), startPosition) < 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /** Appends the record at the given index, which is already in chunk format. */
+    void copyRecord(int index, ByteArrayOutputStream chunk) {
+      int start = recordOffset(index);
+      int end = index + 1 < recordCount ? recordOffset(index + 1) : indexOffset;
+      byte[] record = new byte[end - start];
+      ByteBuffer source = buffer.duplicate();
+      source.position(start);
+      source.get(record);
+      chunk.write(record, 0, record.length);
+    }
+  }
+
+  /** The next record to read from a segment. */
+  private static class Cursor implements Comparable<Cursor> {
+    private final Segment segment;
+    private int index;
+    private byte[] position;
+
+    Cursor(Segment segment, int index) {
+      this.segment = segment;
+      this.index = index;
+      this.position = index < segment.recordCount ? segment.position(index) : null;
+    }
+
+    void advance() {
+      index++;
+      position = index < segment.recordCount ? segment.position(index) : null;
+    }
+
+    boolean isInRange(@Nullable byte[] endPosition) {
+      return position != null
+          && (endPosition == null || POSITION_COMPARATOR.compare(position, endPosition) < 0);
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      return POSITION_COMPARATOR.compare(position, other.position);
+    }
+  }
+}
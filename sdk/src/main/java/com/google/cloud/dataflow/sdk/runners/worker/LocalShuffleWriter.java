@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static com.google.cloud.dataflow.sdk.runners.worker.ChunkingShuffleBatchReader.getFixedLengthPrefixedByteArray;
+import static com.google.cloud.dataflow.sdk.runners.worker.ChunkingShuffleEntryWriter.putFixedLengthPrefixedByteArray;
+
+import com.google.api.client.util.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * LocalShuffleWriter writes chunks of records to a {@link LocalShuffle} dataset.
+ *
+ * <p>Records are buffered in memory until their size reaches the buffer size, then sorted by
+ * key and secondary key and written to a new segment file of the dataset. A segment holds its
+ * records in the chunk format returned by {@link ShuffleReader#readIncludingPosition}, followed
+ * by an index of the offset of each record:
+ * {@code <record>*<record-offset>*<record-count>} where the offsets and count are 8-byte
+ * big-endian integers.
+ *
+ * <p>The position of a record is the {@link OrderedCode} encoding of its key, secondary key,
+ * segment number and index within the segment, so positions are unique and ordered consistently
+ * with the records.
+ */
+@ThreadSafe
+final class LocalShuffleWriter implements ShuffleWriter {
+  static final String SEGMENT_SUFFIX = ".shuffle";
+  private static final String IN_PROGRESS_SUFFIX = ".tmp";
+
+  /** Estimated memory overhead of one buffered record, beyond its bytes. */
+  private static final long RECORD_OVERHEAD_BYTES = 64;
+
+  private static final Comparator<byte[]> BYTES_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private static final Comparator<Record> RECORD_COMPARATOR = new Comparator<Record>() {
+    @Override
+    public int compare(Record a, Record b) {
+      int result = BYTES_COMPARATOR.compare(a.key, b.key);
+      return result != 0 ? result : BYTES_COMPARATOR.compare(a.secondaryKey, b.secondaryKey);
+    }
+  };
+
+  private final File datasetDirectory;
+  private final long bufferSize;
+
+  private List<Record> buffer = new ArrayList<>();
+  private long bufferedBytes = 0;
+  private boolean closed = false;
+
+  /**
+   * @param datasetDirectory the directory holding the dataset's segments
+   * @param bufferSize the number of bytes of records to sort in memory before writing a segment
+   */
+  public LocalShuffleWriter(File datasetDirectory, long bufferSize) {
+    Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+    this.datasetDirectory = datasetDirectory;
+    this.bufferSize = bufferSize;
+    datasetDirectory.mkdirs();
+  }
+
+  public String getDatasetId() {
+    return datasetDirectory.getPath();
+  }
+
+  @Override
+  public synchronized void write(byte[] chunk) throws IOException {
+    Preconditions.checkState(!closed, "write called after close");
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(chunk));
+    while (input.available() > 0) {
+      Record record = new Record(
+          getFixedLengthPrefixedByteArray(input),
+          getFixedLengthPrefixedByteArray(input),
+          getFixedLengthPrefixedByteArray(input));
+      buffer.add(record);
+      bufferedBytes += record.key.length + record.secondaryKey.length + record.value.length
+          + RECORD_OVERHEAD_BYTES;
+    }
+    if (bufferedBytes >= bufferSize) {
+      writeSegment();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      writeSegment();
+      closed = true;
+    }
+  }
+
+  /**
+   * Sorts the buffered records and writes them to a new segment. The segment is written under a
+   * temporary name and renamed once complete, so readers never see a partial segment.
+   */
+  private void writeSegment() throws IOException {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    // The sort is stable, so records with equal keys keep the order they were written in.
+    Collections.sort(buffer, RECORD_COMPARATOR);
+
+    long segmentNumber = reserveSegmentNumber();
+    File inProgress = segmentFile(segmentNumber, SEGMENT_SUFFIX + IN_PROGRESS_SUFFIX);
+    long[] offsets = new long[buffer.size()];
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(inProgress)))) {
+      for (int i = 0; i < buffer.size(); i++) {
+        Record record = buffer.get(i);
+        offsets[i] = output.size();
+        OrderedCode position = new OrderedCode();
+        position.writeBytes(record.key);
+        position.writeBytes(record.secondaryKey);
+        position.writeNumIncreasing(segmentNumber);
+        position.writeNumIncreasing(i);
+        putFixedLengthPrefixedByteArray(position.getEncodedBytes(), output);
+        putFixedLengthPrefixedByteArray(record.key, output);
+        putFixedLengthPrefixedByteArray(record.secondaryKey, output);
+        putFixedLengthPrefixedByteArray(record.value, output);
+      }
+      for (long offset : offsets) {
+        output.writeLong(offset);
+      }
+      output.writeLong(offsets.length);
+    }
+    File segment = segmentFile(segmentNumber, SEGMENT_SUFFIX);
+    if (!inProgress.renameTo(segment)) {
+      throw new IOException("Unable to rename " + inProgress + " to " + segment);
+    }
+    buffer = new ArrayList<>();
+    bufferedBytes = 0;
+  }
+
+  /**
+   * Reserves a segment number that no other writer of the dataset uses, by atomically creating
+   * the segment's in-progress file.
+   */
+  private long reserveSegmentNumber() throws IOException {
+    for (long segmentNumber = 0; ; segmentNumber++) {
+      if (!segmentFile(segmentNumber, SEGMENT_SUFFIX).exists()
+          && segmentFile(segmentNumber, SEGMENT_SUFFIX + IN_PROGRESS_SUFFIX).createNewFile()) {
+        return segmentNumber;
+      }
+    }
+  }
+
+  private File segmentFile(long segmentNumber, String suffix) {
+    return new File(datasetDirectory, String.format("segment-%010d%s", segmentNumber, suffix));
+  }
+
+  /** A record written to the shuffle. */
+  private static class Record {
+    final byte[] key;
+    final byte[] secondaryKey;
+    final byte[] value;
+
+    Record(byte[] key, byte[] secondaryKey, byte[] value) {
+      this.key = key;
+      this.secondaryKey = secondaryKey;
+      this.value = value;
+    }
+  }
+}
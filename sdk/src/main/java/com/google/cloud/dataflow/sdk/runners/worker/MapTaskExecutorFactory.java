@@ -28,7 +28,10 @@ import com.google.api.services.dataflow.model.PartialGroupByKeyInstruction;
 import com.google.api.services.dataflow.model.ReadInstruction;
 import com.google.api.services.dataflow.model.WriteInstruction;
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.options.DataflowWorkerHarnessOptions;
+import com.google.cloud.dataflow.sdk.options.DataflowWorkerHarnessOptions.GroupingTableEvictionPolicy;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.transforms.Combine;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
@@ -40,6 +43,7 @@ import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
 import com.google.cloud.dataflow.sdk.util.Serializer;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowedValue.FullWindowedValueCoder;
 import com.google.cloud.dataflow.sdk.util.WindowedValue.WindowedValueCoder;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservable;
@@ -52,7 +56,11 @@ import com.google.cloud.dataflow.sdk.util.common.worker.OutputReceiver;
 import com.google.cloud.dataflow.sdk.util.common.worker.ParDoFn;
 import com.google.cloud.dataflow.sdk.util.common.worker.ParDoOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.EvictionPolicy;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyEncoder;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.LruEvictionPolicy;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.TinyLfuEvictionPolicy;
 import com.google.cloud.dataflow.sdk.util.common.worker.ReadOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
 import com.google.cloud.dataflow.sdk.util.common.worker.ReceivingOperation;
@@ -202,7 +210,7 @@ public class MapTaskExecutorFactory {
   }
 
   static PartialGroupByKeyOperation createPartialGroupByKeyOperation(
-      @SuppressWarnings("unused") PipelineOptions options,
+      PipelineOptions options,
       ParallelInstruction instruction,
       @SuppressWarnings("unused") ExecutionContext executionContext,
       List<Operation> priorOperations, String counterPrefix,
@@ -230,16 +238,54 @@ public class MapTaskExecutorFactory {
 
     PartialGroupByKeyOperation operation = new PartialGroupByKeyOperation(
         instruction.getSystemName(),
-        new WindowingCoderGroupingKeyCreator<>(keyCoder),
+        createGroupingKeyCreator(windowedCoder, keyCoder),
         new CoderSizeEstimator<>(WindowedValue.getValueOnlyCoder(keyCoder)),
         new CoderSizeEstimator<>(valueCoder), 0.001 /*sizeEstimatorSampleRate*/, valueCombiner,
         PairInfo.create(), receivers, counterPrefix, addCounterMutator, stateSampler);
+    operation.setGroupingTableEvictionPolicy(createEvictionPolicy(
+        options.as(DataflowWorkerHarnessOptions.class).getGroupingTableEvictionPolicy()));
 
     attachInput(operation, pgbk.getInput(), priorOperations);
 
     return operation;
   }
 
+  /**
+   * Returns the eviction policy for a combiner lifting table, or null for the table's own order.
+   */
+  @Nullable
+  static EvictionPolicy createEvictionPolicy(GroupingTableEvictionPolicy policy) {
+    switch (policy) {
+      case LRU:
+        return new LruEvictionPolicy();
+      case TINY_LFU:
+        return new TinyLfuEvictionPolicy();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns a grouping key creator for keys with the given coder. Keys are grouped by their
+   * encodings when the key and window coders are deterministic, and by their structural values
+   * otherwise.
+   */
+  static <K> GroupingKeyCreator<WindowedValue<K>> createGroupingKeyCreator(
+      Coder<?> windowedCoder, Coder<K> keyCoder) {
+    if (windowedCoder instanceof FullWindowedValueCoder) {
+      Coder<? extends BoundedWindow> windowCoder =
+          ((FullWindowedValueCoder<?>) windowedCoder).getWindowCoder();
+      try {
+        keyCoder.verifyDeterministic();
+        windowCoder.verifyDeterministic();
+        return new WindowingCoderGroupingKeyEncoder<>(keyCoder, windowCoder);
+      } catch (NonDeterministicException e) {
+        // Equal keys may have different encodings, so group by structural value instead.
+      }
+    }
+    return new WindowingCoderGroupingKeyCreator<>(keyCoder);
+  }
+
   @SuppressWarnings({"rawtypes", "unchecked"})
   static ValueCombiner createValueCombiner(PartialGroupByKeyInstruction pgbk) throws Exception {
     if (pgbk.getValueCombiningFn() == null) {
@@ -339,6 +385,38 @@ public class MapTaskExecutorFactory {
     }
   }
 
+  /**
+   * Implements PGBKOp.GroupingKeyEncoder via a deterministic Coder.
+   */
+  public static class WindowingCoderGroupingKeyEncoder<K>
+      implements GroupingKeyEncoder<WindowedValue<K>> {
+
+    private static final Instant ignored = BoundedWindow.TIMESTAMP_MIN_VALUE;
+
+    private final Coder<WindowedValue<K>> coder;
+
+    public WindowingCoderGroupingKeyEncoder(
+        Coder<K> keyCoder, Coder<? extends BoundedWindow> windowCoder) {
+      this.coder = WindowedValue.getFullCoder(keyCoder, windowCoder);
+    }
+
+    @Override
+    public byte[] encodeGroupingKey(WindowedValue<K> key) throws Exception {
+      // Ignore timestamp for grouping purposes.
+      // The PGBK output will inherit the timestamp of one of its inputs.
+      return CoderUtils.encodeToByteArray(coder, WindowedValue.of(
+          key.getValue(),
+          ignored,
+          key.getWindows(),
+          key.getPane()));
+    }
+
+    @Override
+    public Object createGroupingKey(WindowedValue<K> key) throws Exception {
+      return new PartialGroupByKeyOperation.StructuralByteArray(encodeGroupingKey(key));
+    }
+  }
+
   /**
    * Implements PGBKOp.SizeEstimator via Coder.
    */
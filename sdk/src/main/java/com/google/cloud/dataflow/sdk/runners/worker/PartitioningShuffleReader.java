@@ -80,7 +80,7 @@ public class PartitioningShuffleReader<K, V> extends Reader<WindowedValue<KV<K,
   public ReaderIterator<WindowedValue<KV<K, V>>> iterator() throws IOException {
     Preconditions.checkArgument(shuffleReaderConfig != null);
     return iterator(new BatchingShuffleEntryReader(
-        new ChunkingShuffleBatchReader(new ApplianceShuffleReader(shuffleReaderConfig))));
+        new ChunkingShuffleBatchReader(LocalShuffle.createReader(shuffleReaderConfig))));
   }
 
   ReaderIterator<WindowedValue<KV<K, V>>> iterator(ShuffleEntryReader reader) {
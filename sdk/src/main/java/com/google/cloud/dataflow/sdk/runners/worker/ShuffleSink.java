@@ -272,6 +272,11 @@ public class ShuffleSink<T> extends Sink<WindowedValue<T>> {
   @Override
   public SinkWriter<WindowedValue<T>> writer() throws IOException {
     Preconditions.checkArgument(shuffleWriterConfig != null);
+    if (LocalShuffle.isLocalConfig(shuffleWriterConfig)) {
+      LocalShuffleWriter localWriter = new LocalShuffleWriter(
+          LocalShuffle.getDatasetDirectory(shuffleWriterConfig), SHUFFLE_WRITER_BUFFER_SIZE);
+      return writer(new ChunkingShuffleEntryWriter(localWriter), localWriter.getDatasetId());
+    }
     ApplianceShuffleWriter applianceWriter = new ApplianceShuffleWriter(
         shuffleWriterConfig, SHUFFLE_WRITER_BUFFER_SIZE);
     String datasetId = applianceWriter.getDatasetId();
@@ -24,7 +24,7 @@ import com.google.cloud.dataflow.sdk.runners.worker.logging.DataflowWorkerLoggin
 import com.google.cloud.dataflow.sdk.runners.worker.logging.DataflowWorkerLoggingMDC;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.WindmillServerStub;
-import com.google.cloud.dataflow.sdk.util.BoundedQueueExecutor;
+import com.google.cloud.dataflow.sdk.util.KeyAffineExecutor;
 import com.google.cloud.dataflow.sdk.util.StateFetcher;
 import com.google.cloud.dataflow.sdk.util.StreamingModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.Transport;
@@ -35,6 +35,9 @@ import com.google.cloud.dataflow.sdk.util.common.Counter.CounterMean;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.MapTaskExecutor;
 import com.google.cloud.dataflow.sdk.util.common.worker.ReadOperation;
+import com.google.cloud.dataflow.sdk.util.common.worker.StateSampler;
+import com.google.cloud.dataflow.sdk.util.state.WindmillStateCache;
+import com.google.cloud.dataflow.sdk.util.state.WindmillStatePrefetcher;
 import com.google.cloud.dataflow.sdk.util.state.WindmillStateReader;
 import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
@@ -51,6 +54,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -62,13 +66,18 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -81,11 +90,18 @@ public class StreamingDataflowWorker {
   // Maximum number of threads for processing.  Currently each thread processes one key at a time.
   static final int MAX_PROCESSING_THREADS = 300;
   static final long THREAD_EXPIRATION_TIME_SEC = 60;
+  static final int PREFETCH_THREADS = 4;
   // Maximum work units retrieved from Windmill and queued before processing. Limiting this delays
   // retrieving extra work from Windmill without working on it, leading to better
   // prioritization / utilization.
   static final int MAX_WORK_UNITS_QUEUED = 100;
   static final long MAX_COMMIT_BYTES = 32 << 20;
+  // The smallest limit on the size of a commit that slow commits shrink the limit to.
+  static final long MIN_COMMIT_BYTES = 1 << 20;
+  // The commit latency above which the size of commits is reduced.
+  static final long TARGET_COMMIT_LATENCY_MS = 1000;
+  // Maximum number of commits in flight at once.
+  static final int MAX_COMMIT_THREADS = 4;
   static final int DEFAULT_STATUS_PORT = 8081;
   // Memory threshold over which no new work will be processed.
   // Set to a value >= 1 to disable pushback.
@@ -171,6 +187,10 @@ public class StreamingDataflowWorker {
   private final ConcurrentMap<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>>
       outputMap;
   private final ConcurrentMap<String, ConcurrentLinkedQueue<WorkerAndContext>> mapTaskExecutors;
+  // Per computation executors last used by each processing thread, indexed by the thread's index
+  // in the workUnitExecutor, which are reused by the thread before the shared ones.
+  private final ConcurrentMap<String, AtomicReferenceArray<WorkerAndContext>>
+      threadMapTaskExecutors;
   private final ConcurrentMap<String, ActiveWorkForComputation> activeWorkMap;
   // Per computation cache of active readers, keyed by split ID.
   private final ConcurrentMap<String, ConcurrentMap<ByteString, UnboundedSource.UnboundedReader<?>>>
@@ -184,12 +204,25 @@ public class StreamingDataflowWorker {
   private ConcurrentMap<String, String> systemNameToComputationIdMap;
 
   private ThreadFactory threadFactory;
-  private BoundedQueueExecutor workUnitExecutor;
+  private KeyAffineExecutor workUnitExecutor;
   private ExecutorService commitExecutor;
+  private CommitBatchSizer commitBatchSizer =
+      new CommitBatchSizer(MIN_COMMIT_BYTES, MAX_COMMIT_BYTES, TARGET_COMMIT_LATENCY_MS);
+  // The computation that the next commit starts taking requests from, so that no computation's
+  // output is always committed last.
+  private final AtomicInteger nextCommitComputation = new AtomicInteger();
+  private final AtomicLong queuedCommitBytes = new AtomicLong();
+  private final AtomicLong committedBytes = new AtomicLong();
+  private final AtomicInteger activeCommits = new AtomicInteger();
   private WindmillServerStub windmillServer;
   private Thread dispatchThread;
   private AtomicBoolean running;
   private StateFetcher stateFetcher;
+  // Null if state caching is disabled.
+  private WindmillStateCache stateCache;
+  // Null if state prefetching is disabled.
+  private WindmillStatePrefetcher statePrefetcher;
+  private ExecutorService prefetchExecutor;
   private DataflowWorkerHarnessOptions options;
   private long clientId;
   private Server statusServer;
@@ -203,6 +236,7 @@ public class StreamingDataflowWorker {
     this.instructionMap = new ConcurrentHashMap<>();
     this.outputMap = new ConcurrentHashMap<>();
     this.mapTaskExecutors = new ConcurrentHashMap<>();
+    this.threadMapTaskExecutors = new ConcurrentHashMap<>();
     this.activeWorkMap = new ConcurrentHashMap<>();
     this.readerCache = new ConcurrentHashMap<>();
     this.commitCallbacks = new ConcurrentHashMap<>();
@@ -216,16 +250,16 @@ public class StreamingDataflowWorker {
           return t;
         }
       };
-    this.workUnitExecutor = new BoundedQueueExecutor(
-        MAX_PROCESSING_THREADS, THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
-        MAX_WORK_UNITS_QUEUED, threadFactory);
+    this.workUnitExecutor =
+        new KeyAffineExecutor(MAX_PROCESSING_THREADS, THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
+            MAX_WORK_UNITS_QUEUED, threadFactory);
     this.commitExecutor =
         new ThreadPoolExecutor(
-            1,
-            1,
+            MAX_COMMIT_THREADS,
+            MAX_COMMIT_THREADS,
             Long.MAX_VALUE,
             TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>(2),
+            new LinkedBlockingQueue<Runnable>(MAX_COMMIT_THREADS),
             new ThreadFactory() {
               @Override
               public Thread newThread(Runnable r) {
@@ -241,6 +275,14 @@ public class StreamingDataflowWorker {
     this.metricTrackingWindmillServer = new MetricTrackingWindmillServerStub(server);
     this.running = new AtomicBoolean();
     this.stateFetcher = new StateFetcher(metricTrackingWindmillServer);
+    int stateCacheMb = options.getWorkerStateCacheMb();
+    this.stateCache =
+        stateCacheMb > 0 ? new WindmillStateCache(stateCacheMb * 1024L * 1024L) : null;
+    if (options.getWorkerStatePrefetch()) {
+      this.prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, threadFactory);
+      this.statePrefetcher =
+          new WindmillStatePrefetcher(metricTrackingWindmillServer, prefetchExecutor);
+    }
     this.clientId = new Random().nextLong();
     this.lastException = new AtomicReference<>();
 
@@ -256,6 +298,15 @@ public class StreamingDataflowWorker {
     stateNameMap.putAll(nameMap);
   }
 
+  /**
+   * Replaces the {@link CommitBatchSizer} that limits the size of commits. Must be called before
+   * {@link #start}.
+   */
+  // @VisibleForTesting
+  void setCommitBatchSizer(CommitBatchSizer commitBatchSizer) {
+    this.commitBatchSizer = commitBatchSizer;
+  }
+
   public void start() {
     running.set(true);
     dispatchThread = threadFactory.newThread(new Runnable() {
@@ -298,7 +349,19 @@ public class StreamingDataflowWorker {
           workerAndContext.getWorker().close();
         }
       }
+      for (AtomicReferenceArray<WorkerAndContext> threadExecutors
+          : threadMapTaskExecutors.values()) {
+        for (int i = 0; i < threadExecutors.length(); i++) {
+          WorkerAndContext workerAndContext = threadExecutors.getAndSet(i, null);
+          if (workerAndContext != null) {
+            workerAndContext.getWorker().close();
+          }
+        }
+      }
       commitExecutor.shutdown();
+      if (prefetchExecutor != null) {
+        prefetchExecutor.shutdown();
+      }
       if (!commitExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
         throw new RuntimeException("Commit executor did not terminate within 5 minutes");
       }
@@ -329,6 +392,9 @@ public class StreamingDataflowWorker {
       outputMap.put(computationId, new ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>());
       instructionMap.put(computationId, mapTask);
       mapTaskExecutors.put(computationId, new ConcurrentLinkedQueue<WorkerAndContext>());
+      threadMapTaskExecutors.put(
+          computationId,
+          new AtomicReferenceArray<WorkerAndContext>(workUnitExecutor.getNumThreads()));
       activeWorkMap.put(computationId, new ActiveWorkForComputation(workUnitExecutor));
       readerCache.put(
           computationId, new ConcurrentHashMap<ByteString, UnboundedSource.UnboundedReader<?>>());
@@ -388,53 +454,108 @@ public class StreamingDataflowWorker {
         sleep(backoff);
         backoff = Math.min(1000, backoff * 2);
       } while (running.get());
-      for (final Windmill.ComputationWorkItems computationWork : workResponse.getWorkList()) {
-        final String computation = computationWork.getComputationId();
-        if (!instructionMap.containsKey(computation)) {
-          getConfig(computation);
-        }
-        final MapTask mapTask = instructionMap.get(computation);
-        if (mapTask == null) {
-          LOG.warn(
-              "Received work for unknown computation: {}. Known computations are {}",
-              computation, instructionMap.keySet());
-          continue;
-        }
+      dispatchWork(workResponse);
+    }
+    LOG.info("Dispatch done");
+  }
 
-        long watermarkMicros = computationWork.getInputDataWatermark();
-        final Instant inputDataWatermark = new Instant(watermarkMicros / 1000);
-        ActiveWorkForComputation activeWork = activeWorkMap.get(computation);
-        for (final Windmill.WorkItem workItem : computationWork.getWorkList()) {
-          Work work = new Work(workItem.getWorkToken()) {
-              @Override
-              public void run() {
-                process(computation, mapTask, inputDataWatermark, workItem);
-              }
-            };
-          if (activeWork.activateWork(workItem.getKey(), work)) {
-            workUnitExecutor.execute(work);
-          }
+  /**
+   * Schedules the work of a response for processing, and prefetches the state of the work that
+   * is ready to run.
+   */
+  private void dispatchWork(Windmill.GetWorkResponse workResponse) {
+    WindmillStatePrefetcher.Batch prefetchBatch =
+        statePrefetcher == null ? null : statePrefetcher.newBatch();
+    List<Work> readyWork = new ArrayList<>();
+    for (final Windmill.ComputationWorkItems computationWork : workResponse.getWorkList()) {
+      final String computation = computationWork.getComputationId();
+      if (!instructionMap.containsKey(computation)) {
+        getConfig(computation);
+      }
+      final MapTask mapTask = instructionMap.get(computation);
+      if (mapTask == null) {
+        LOG.warn(
+            "Received work for unknown computation: {}. Known computations are {}",
+            computation, instructionMap.keySet());
+        continue;
+      }
+
+      long watermarkMicros = computationWork.getInputDataWatermark();
+      final Instant inputDataWatermark = new Instant(watermarkMicros / 1000);
+      ActiveWorkForComputation activeWork = activeWorkMap.get(computation);
+      for (final Windmill.WorkItem workItem : computationWork.getWorkList()) {
+        final WindmillStatePrefetcher.Prefetch prefetch =
+            prefetchBatch == null ? null : prefetchBatch.add(computation, workItem);
+        Work work = new Work(workItem.getKey(), workItem.getWorkToken()) {
+            @Override
+            public void run() {
+              process(computation, mapTask, inputDataWatermark, workItem, prefetch);
+            }
+          };
+        if (activeWork.activateWork(workItem.getKey(), work)) {
+          readyWork.add(work);
+        } else if (prefetch != null) {
+          // Earlier work for the key has not committed yet, so its state would be stale.
+          prefetch.cancel();
         }
       }
     }
-    LOG.info("Dispatch done");
+    // Start the prefetch first, since executing work may block until earlier work completes.
+    if (prefetchBatch != null) {
+      prefetchBatch.start();
+    }
+    for (Work work : readyWork) {
+      // Running the key's work on the same thread lets it reuse that thread's executor.
+      workUnitExecutor.execute(work.getKey(), work);
+    }
   }
 
   abstract static class Work implements Runnable {
+    private final ByteString key;
     private final long workToken;
-    public Work(long workToken) {
+    public Work(ByteString key, long workToken) {
+      this.key = key;
       this.workToken = workToken;
     }
+    public ByteString getKey() {
+      return key;
+    }
     public long getWorkToken() {
       return workToken;
     }
   }
 
+  /**
+   * Returns an executor for the computation that is not in use, preferring the one last used by
+   * the current thread, or null if there is none.
+   */
+  @Nullable
+  private WorkerAndContext takeWorkerAndContext(String computation) {
+    int thread = workUnitExecutor.getCurrentThreadIndex();
+    if (thread >= 0) {
+      WorkerAndContext workerAndContext =
+          threadMapTaskExecutors.get(computation).getAndSet(thread, null);
+      if (workerAndContext != null) {
+        return workerAndContext;
+      }
+    }
+    return mapTaskExecutors.get(computation).poll();
+  }
+
+  private void releaseWorkerAndContext(String computation, WorkerAndContext workerAndContext) {
+    int thread = workUnitExecutor.getCurrentThreadIndex();
+    if (thread < 0
+        || !threadMapTaskExecutors.get(computation).compareAndSet(thread, null, workerAndContext)) {
+      mapTaskExecutors.get(computation).offer(workerAndContext);
+    }
+  }
+
   private void process(
       final String computation,
       final MapTask mapTask,
       final Instant inputDataWatermark,
-      final Windmill.WorkItem work) {
+      final Windmill.WorkItem work,
+      @Nullable WindmillStatePrefetcher.Prefetch prefetch) {
     LOG.debug("Starting processing for {}:\n{}", computation, work);
 
     Windmill.WorkItemCommitRequest.Builder outputBuilder =
@@ -444,12 +565,13 @@ public class StreamingDataflowWorker {
 
     StreamingModeExecutionContext context = null;
     MapTaskExecutor worker = null;
+    WindmillStateCache.ForKey cachedState = null;
 
     try {
       DataflowWorkerLoggingMDC.setWorkId(
           work.getKey().toStringUtf8() + "-" + Long.toString(work.getWorkToken()));
       DataflowWorkerLoggingMDC.setStageName(computation);
-      WorkerAndContext workerAndContext = mapTaskExecutors.get(computation).poll();
+      WorkerAndContext workerAndContext = takeWorkerAndContext(computation);
       if (workerAndContext == null) {
         context = new StreamingModeExecutionContext(
             stateFetcher, readerCache.get(computation), stateNameMap);
@@ -465,8 +587,14 @@ public class StreamingDataflowWorker {
         context = workerAndContext.getContext();
       }
 
+      // Windmill only provides a cache token if this worker may cache the key's state.
+      if (stateCache != null && work.hasCacheToken()) {
+        cachedState = stateCache.forComputation(computation)
+            .forKey(work.getKey(), work.getCacheToken(), work.getWorkToken());
+      }
       WindmillStateReader stateReader = new WindmillStateReader(
-          metricTrackingWindmillServer, computation, work.getKey(), work.getWorkToken());
+          metricTrackingWindmillServer, computation, work.getKey(), work.getWorkToken(),
+          cachedState, prefetch);
       context.start(work, inputDataWatermark, stateReader, outputBuilder);
 
       for (Long callbackId : context.getReadyCommitCallbackIds()) {
@@ -491,12 +619,19 @@ public class StreamingDataflowWorker {
       buildCounters(worker.getOutputCounters(), outputBuilder);
 
       commitCallbacks.putAll(context.flushState());
+      if (cachedState != null) {
+        cachedState.persist();
+      }
+      if (statePrefetcher != null) {
+        statePrefetcher.recordFetchedTags(stateReader);
+      }
 
-      mapTaskExecutors.get(computation).offer(new WorkerAndContext(worker, context));
+      releaseWorkerAndContext(computation, new WorkerAndContext(worker, context));
       worker = null;
       context = null;
 
       Windmill.WorkItemCommitRequest output = outputBuilder.build();
+      queuedCommitBytes.addAndGet(output.getSerializedSize());
       outputMap.get(computation).add(output);
       scheduleCommit();
 
@@ -512,6 +647,11 @@ public class StreamingDataflowWorker {
 
       t = t instanceof UserCodeException ? t.getCause() : t;
 
+      if (stateCache != null) {
+        // The cached state may include changes of this work item that will never be committed.
+        stateCache.forComputation(computation).invalidate(work.getKey());
+      }
+
       if (isKeyTokenInvalidException(t)) {
         LOG.debug("Execution of work for {} for key {} failed due to token expiration, "
             + "will not retry locally.",
@@ -528,10 +668,12 @@ public class StreamingDataflowWorker {
           // Try again, after some delay and at the end of the queue to avoid a tight loop.
           sleep(10000);
           workUnitExecutor.forceExecute(
+              work.getKey(),
               new Runnable() {
                 @Override
                 public void run() {
-                  process(computation, mapTask, inputDataWatermark, work);
+                  // The prefetched state was already used by the failed attempt.
+                  process(computation, mapTask, inputDataWatermark, work, null);
                 }
               });
         } else {
@@ -550,35 +692,82 @@ public class StreamingDataflowWorker {
     commitExecutor.execute(new Commit());
   }
 
+  /**
+   * Takes queued output of all computations, up to the given size, into a commit request.
+   * Computations take turns adding one work item's output at a time, so a computation with a
+   * lot of output does not delay the commits of the others. Returns null if nothing is queued.
+   */
+  @Nullable
+  private Windmill.CommitWorkRequest nextCommitRequest(long maxCommitBytes) {
+    List<String> computations = new ArrayList<>(outputMap.keySet());
+    if (computations.isEmpty()) {
+      return null;
+    }
+    int first = (nextCommitComputation.getAndIncrement() & Integer.MAX_VALUE)
+        % computations.size();
+    Map<String, Windmill.ComputationCommitWorkRequest.Builder> computationRequests =
+        new LinkedHashMap<>();
+    long remainingCommitBytes = maxCommitBytes;
+    boolean foundOutput = true;
+    while (remainingCommitBytes > 0 && foundOutput) {
+      foundOutput = false;
+      for (int i = 0; i < computations.size() && remainingCommitBytes > 0; i++) {
+        String computation = computations.get((first + i) % computations.size());
+        Windmill.WorkItemCommitRequest request = outputMap.get(computation).poll();
+        if (request == null) {
+          continue;
+        }
+        foundOutput = true;
+        long size = request.getSerializedSize();
+        remainingCommitBytes -= size;
+        queuedCommitBytes.addAndGet(-size);
+        Windmill.ComputationCommitWorkRequest.Builder computationRequest =
+            computationRequests.get(computation);
+        if (computationRequest == null) {
+          computationRequest =
+              Windmill.ComputationCommitWorkRequest.newBuilder().setComputationId(computation);
+          computationRequests.put(computation, computationRequest);
+        }
+        computationRequest.addRequests(request);
+      }
+    }
+    if (computationRequests.isEmpty()) {
+      return null;
+    }
+    Windmill.CommitWorkRequest.Builder commitRequestBuilder =
+        Windmill.CommitWorkRequest.newBuilder();
+    for (Windmill.ComputationCommitWorkRequest.Builder computationRequest
+        : computationRequests.values()) {
+      commitRequestBuilder.addRequests(computationRequest);
+    }
+    return commitRequestBuilder.build();
+  }
+
+  /**
+   * Commits queued output until none is left. Up to {@link #MAX_COMMIT_THREADS} of these run
+   * at once, so a slow commit does not hold up the output of other work.
+   */
   private class Commit implements Runnable {
     @Override
     public void run() {
       while (true) {
-        Windmill.CommitWorkRequest.Builder commitRequestBuilder =
-            Windmill.CommitWorkRequest.newBuilder();
-        long remainingCommitBytes = MAX_COMMIT_BYTES;
-        for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry :
-                 outputMap.entrySet()) {
-          Windmill.ComputationCommitWorkRequest.Builder computationRequestBuilder =
-              Windmill.ComputationCommitWorkRequest.newBuilder();
-          ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest> queue = entry.getValue();
-          while (remainingCommitBytes > 0) {
-            Windmill.WorkItemCommitRequest request = queue.poll();
-            if (request == null) {
-              break;
-            }
-            remainingCommitBytes -= request.getSerializedSize();
-            computationRequestBuilder.addRequests(request);
-          }
-          if (computationRequestBuilder.getRequestsCount() > 0) {
-            computationRequestBuilder.setComputationId(entry.getKey());
-            commitRequestBuilder.addRequests(computationRequestBuilder);
-          }
-        }
-        if (commitRequestBuilder.getRequestsCount() > 0) {
-          Windmill.CommitWorkRequest commitRequest = commitRequestBuilder.build();
+        Windmill.CommitWorkRequest commitRequest =
+            nextCommitRequest(commitBatchSizer.getMaxCommitBytes());
+        if (commitRequest != null) {
           LOG.trace("Commit: {}", commitRequest);
-          commitWork(commitRequest);
+          long commitBytes = commitRequest.getSerializedSize();
+          long startMs = System.currentTimeMillis();
+          activeCommits.incrementAndGet();
+          try {
+            commitWork(commitRequest);
+          } catch (RuntimeException e) {
+            invalidateCachedState(commitRequest);
+            throw e;
+          } finally {
+            activeCommits.decrementAndGet();
+          }
+          commitBatchSizer.recordCommit(commitBytes, System.currentTimeMillis() - startMs);
+          committedBytes.addAndGet(commitBytes);
           for (Windmill.ComputationCommitWorkRequest computationRequest :
               commitRequest.getRequestsList()) {
             ActiveWorkForComputation activeWork =
@@ -607,6 +796,23 @@ public class StreamingDataflowWorker {
     windmillServer.commitWork(request);
   }
 
+  /**
+   * Discards the cached state of every key in a commit that failed, since the cache already
+   * includes the uncommitted changes.
+   */
+  private void invalidateCachedState(Windmill.CommitWorkRequest request) {
+    if (stateCache == null) {
+      return;
+    }
+    for (Windmill.ComputationCommitWorkRequest computationRequest : request.getRequestsList()) {
+      WindmillStateCache.ForComputation computationCache =
+          stateCache.forComputation(computationRequest.getComputationId());
+      for (Windmill.WorkItemCommitRequest workRequest : computationRequest.getRequestsList()) {
+        computationCache.invalidate(workRequest.getKey());
+      }
+    }
+  }
+
   private void getConfig(String computation) {
     Windmill.GetConfigRequest request =
         Windmill.GetConfigRequest.newBuilder().addComputations(computation).build();
@@ -738,15 +944,66 @@ public class StreamingDataflowWorker {
             .setCumulative(true)
             .setIntScalar(usedMemory)
             .setMeanCount(maxMemory);
-    Windmill.ReportStatsResponse response = windmillServer.reportStats(
-        Windmill.ReportStatsRequest.newBuilder()
-            .addCounterUpdates(counterBuilder)
-            .build());
+    Windmill.ReportStatsRequest.Builder request =
+        Windmill.ReportStatsRequest.newBuilder().addCounterUpdates(counterBuilder);
+    request.addCounterUpdates(Windmill.Counter.newBuilder()
+        .setName("dataflow_java_harness_commit_queue_bytes")
+        .setKind(Windmill.Counter.Kind.MAX)
+        .setIntScalar(queuedCommitBytes.get()));
+    request.addCounterUpdates(Windmill.Counter.newBuilder()
+        .setName("dataflow_java_harness_committed_bytes")
+        .setKind(Windmill.Counter.Kind.SUM)
+        .setIntScalar(committedBytes.getAndSet(0)));
+    // Reported even when the cache is disabled, so that the counters exist in every job.
+    request.addCounterUpdates(Windmill.Counter.newBuilder()
+        .setName("dataflow_java_harness_state_cache_hits")
+        .setKind(Windmill.Counter.Kind.SUM)
+        .setIntScalar(stateCache != null ? stateCache.getAndResetHits() : 0L));
+    request.addCounterUpdates(Windmill.Counter.newBuilder()
+        .setName("dataflow_java_harness_state_cache_misses")
+        .setKind(Windmill.Counter.Kind.SUM)
+        .setIntScalar(stateCache != null ? stateCache.getAndResetMisses() : 0L));
+    Windmill.ReportStatsResponse response = windmillServer.reportStats(request.build());
     if (response.getFailed()) {
       LOG.warn("Failed to send periodic counters to windmill.");
     }
   }
 
+  /**
+   * Adapts the maximum size of a commit to the observed commit latency. Slow commits halve the
+   * size, so that output is committed in smaller requests that can be in flight at once. Fast
+   * commits that used most of the allowed size grow it again, up to the maximum.
+   */
+  static class CommitBatchSizer {
+    private final long minCommitBytes;
+    private final long maxCommitBytes;
+    private final long targetLatencyMs;
+    private long currentMaxCommitBytes;
+
+    CommitBatchSizer(long minCommitBytes, long maxCommitBytes, long targetLatencyMs) {
+      this.minCommitBytes = minCommitBytes;
+      this.maxCommitBytes = maxCommitBytes;
+      this.targetLatencyMs = targetLatencyMs;
+      this.currentMaxCommitBytes = maxCommitBytes;
+    }
+
+    public synchronized long getMaxCommitBytes() {
+      return currentMaxCommitBytes;
+    }
+
+    /**
+     * Records that a commit of the given size took the given time.
+     */
+    public synchronized void recordCommit(long commitBytes, long latencyMs) {
+      if (latencyMs > targetLatencyMs) {
+        currentMaxCommitBytes = Math.max(minCommitBytes, currentMaxCommitBytes / 2);
+      } else if (latencyMs <= targetLatencyMs / 2 && commitBytes >= currentMaxCommitBytes / 2) {
+        currentMaxCommitBytes =
+            Math.min(maxCommitBytes, currentMaxCommitBytes + currentMaxCommitBytes / 4);
+      }
+    }
+  }
+
   /**
    * Class representing the state of active work for a computation.
    *
@@ -755,9 +1012,9 @@ public class StreamingDataflowWorker {
    */
   static class ActiveWorkForComputation {
     private Map<ByteString, Queue<Work>> activeWork = new HashMap<>();
-    private BoundedQueueExecutor executor;
+    private KeyAffineExecutor executor;
 
-    ActiveWorkForComputation(BoundedQueueExecutor executor) {
+    ActiveWorkForComputation(KeyAffineExecutor executor) {
       this.executor = executor;
     }
 
@@ -786,7 +1043,7 @@ public class StreamingDataflowWorker {
       Queue<Work> queue = activeWork.get(key);
       queue.poll();
       if (queue.peek() != null) {
-        executor.forceExecute(queue.peek());
+        executor.forceExecute(key, queue.peek());
       } else {
         activeWork.remove(key);
       }
@@ -871,8 +1128,12 @@ public class StreamingDataflowWorker {
     response.println("Worker Threads: " + workUnitExecutor.getPoolSize()
         + "/" + MAX_PROCESSING_THREADS + "<br>");
     response.println("Active Threads: " + workUnitExecutor.getActiveCount() + "<br>");
-    response.println("Work Queue Size: " + workUnitExecutor.getQueue().size()
+    response.println("Work Queue Size: " + workUnitExecutor.getQueuedCount()
         + "/" + MAX_WORK_UNITS_QUEUED + "<br>");
+    response.println("Commit Queue Bytes: " + queuedCommitBytes.get() + "<br>");
+    response.println("Active Commits: " + activeCommits.get()
+        + "/" + MAX_COMMIT_THREADS + "<br>");
+    response.println("Commit Size Limit: " + commitBatchSizer.getMaxCommitBytes() + "<br>");
     response.println("Commit Queues: <ul>");
     for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry
              : outputMap.entrySet()) {
@@ -894,6 +1155,10 @@ public class StreamingDataflowWorker {
     }
     response.println("</ul>");
     metricTrackingWindmillServer.printHtml(response);
+    StateSampler.printHtml(response);
+    if (stateCache != null) {
+      stateCache.printHtml(response);
+    }
   }
 
   private void printResources(PrintWriter response) {
@@ -18,15 +18,24 @@ package com.google.cloud.dataflow.sdk.runners.worker;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.io.TextIO;
+import com.google.cloud.dataflow.sdk.io.range.OffsetRangeTracker;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.FileIOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
+import com.google.cloud.dataflow.sdk.util.common.worker.AbstractBoundedReaderIterator;
 import com.google.cloud.dataflow.sdk.util.common.worker.ProgressTracker;
 import com.google.cloud.dataflow.sdk.util.common.worker.ProgressTrackerGroup;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -35,11 +44,19 @@ import javax.annotation.Nullable;
 /**
  * A source that reads text files.
  *
+ * <p>Uncompressed local files can optionally be read through a {@link MappedByteBuffer}, which
+ * finds line separators several bytes at a time and copies each line only once, into the byte
+ * array the coder decodes. Positions, progress and splitting are the same either way.
+ *
  * @param <T> the type of the elements read from the source
  */
 public class TextReader<T> extends FileBasedReader<T> {
+  /** The size of the part of a file that is mapped at a time. */
+  private static final int MAPPED_WINDOW_SIZE = 64 << 20;
+
   final boolean stripTrailingNewlines;
   final TextIO.CompressionType compressionType;
+  final boolean mapLocalFiles;
 
   public TextReader(String filename, boolean stripTrailingNewlines, @Nullable Long startPosition,
       @Nullable Long endPosition, Coder<T> coder, TextIO.CompressionType compressionType) {
@@ -47,12 +64,30 @@ public class TextReader<T> extends FileBasedReader<T> {
         compressionType);
   }
 
+  /**
+   * @param mapLocalFiles whether to read uncompressed local files through memory mapping
+   */
+  public TextReader(String filename, boolean stripTrailingNewlines, @Nullable Long startPosition,
+      @Nullable Long endPosition, Coder<T> coder, TextIO.CompressionType compressionType,
+      boolean mapLocalFiles) {
+    this(filename, stripTrailingNewlines, startPosition, endPosition, coder, true,
+        compressionType, mapLocalFiles);
+  }
+
   protected TextReader(String filename, boolean stripTrailingNewlines, @Nullable Long startPosition,
       @Nullable Long endPosition, Coder<T> coder, boolean useDefaultBufferSize,
       TextIO.CompressionType compressionType) {
+    this(filename, stripTrailingNewlines, startPosition, endPosition, coder,
+        useDefaultBufferSize, compressionType, false);
+  }
+
+  protected TextReader(String filename, boolean stripTrailingNewlines, @Nullable Long startPosition,
+      @Nullable Long endPosition, Coder<T> coder, boolean useDefaultBufferSize,
+      TextIO.CompressionType compressionType, boolean mapLocalFiles) {
     super(filename, startPosition, endPosition, coder, useDefaultBufferSize);
     this.stripTrailingNewlines = stripTrailingNewlines;
     this.compressionType = compressionType;
+    this.mapLocalFiles = mapLocalFiles;
   }
 
   @Override
@@ -61,6 +96,15 @@ public class TextReader<T> extends FileBasedReader<T> {
     // Position before the first record, so we can find the record beginning.
     final long start = startPosition > 0 ? startPosition - 1 : 0;
 
+    if (canMap(factory, oneFile)) {
+      MappedTextFileIterator iterator = new MappedTextFileIterator(
+          oneFile, stripTrailingNewlines, start, endPosition);
+      if (startPosition > 0) {
+        iterator.hasNextImpl();
+      }
+      return iterator;
+    }
+
     TextFileIterator iterator = newReaderIteratorForRangeWithStrictStart(
         factory, oneFile, stripTrailingNewlines, start, endPosition);
 
@@ -82,11 +126,28 @@ public class TextReader<T> extends FileBasedReader<T> {
     return new TextFileMultiIterator(factory, files.iterator(), stripTrailingNewlines);
   }
 
-  private TextFileIterator newReaderIteratorForFile(
+  private ReaderIterator<T> newReaderIteratorForFile(
       IOChannelFactory factory, String input, boolean stripTrailingNewlines) throws IOException {
+    if (canMap(factory, input)) {
+      return new MappedTextFileIterator(input, stripTrailingNewlines, 0, null);
+    }
     return newReaderIteratorForRangeWithStrictStart(factory, input, stripTrailingNewlines, 0, null);
   }
 
+  /**
+   * Returns whether the file is read by a {@link MappedTextFileIterator}.
+   */
+  private boolean canMap(IOChannelFactory factory, String input) {
+    if (!mapLocalFiles || !(factory instanceof FileIOChannelFactory)) {
+      return false;
+    }
+    TextIO.CompressionType type = compressionType;
+    if (type == TextIO.CompressionType.AUTO) {
+      type = new FilenameBasedStreamFactory(input, type).getCompressionTypeForAuto();
+    }
+    return type == TextIO.CompressionType.UNCOMPRESSED;
+  }
+
   /**
    * Returns a new iterator for lines in the given range in the given
    * file.  Does NOT skip the first line if the range starts in the
@@ -219,6 +280,205 @@ public class TextReader<T> extends FileBasedReader<T> {
     }
   }
 
+  /**
+   * Iterator over the lines of an uncompressed local file that maps the file into memory, a
+   * window of {@link #MAPPED_WINDOW_SIZE} bytes at a time, and reads each line directly from the
+   * mapped buffer. It returns the same elements with the same offsets, progress and splitting
+   * behavior as {@link TextFileIterator}.
+   */
+  class MappedTextFileIterator extends AbstractBoundedReaderIterator<T> {
+    private final String filename;
+    private final boolean stripTrailingNewlines;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    private final OffsetRangeTracker rangeTracker;
+    private final ProgressTracker<Integer> progressTracker;
+    // The offset of the next line in the file.
+    private long offset;
+    // The mapped part of the file, starting at windowStart, or null.
+    private ByteBuffer window;
+    private long windowStart;
+    // The bytes of the next element, valid after hasNextImpl() returned true.
+    private byte[] nextElement;
+
+    MappedTextFileIterator(String filename, boolean stripTrailingNewlines, long startOffset,
+        @Nullable Long endOffset) throws IOException {
+      this(filename, stripTrailingNewlines, startOffset, startOffset, endOffset,
+          new ProgressTrackerGroup<Integer>() {
+            @Override
+            protected void report(Integer lineLength) {
+              notifyElementRead(lineLength.longValue());
+            }
+          }.start());
+    }
+
+    private MappedTextFileIterator(String filename, boolean stripTrailingNewlines,
+        long startOffset, long offset, @Nullable Long endOffset,
+        ProgressTracker<Integer> progressTracker) throws IOException {
+      this.filename = filename;
+      this.stripTrailingNewlines = stripTrailingNewlines;
+      this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+      this.fileSize = channel.size();
+      this.windowSize = useDefaultBufferSize ? MAPPED_WINDOW_SIZE : BUF_SIZE;
+      long stopOffset = (endOffset == null) ? OffsetRangeTracker.OFFSET_INFINITY : endOffset;
+      this.rangeTracker = new OffsetRangeTracker(startOffset, stopOffset);
+      this.offset = offset;
+      this.progressTracker = progressTracker;
+    }
+
+    private MappedTextFileIterator(MappedTextFileIterator it) throws IOException {
+      this(it.filename, it.stripTrailingNewlines, it.rangeTracker.getStartPosition(), it.offset,
+          it.rangeTracker.getStopPosition(), it.progressTracker.copy());
+    }
+
+    @Override
+    public ReaderIterator<T> copy() throws IOException {
+      return new MappedTextFileIterator(this);
+    }
+
+    @Override
+    protected boolean hasNextImpl() throws IOException {
+      long startOffset = offset;
+      byte[] element = readElement(); // As a side effect, updates "offset"
+      if (element != null && rangeTracker.tryReturnRecordAt(true, startOffset)) {
+        nextElement = element;
+        progressTracker.saw((int) (offset - startOffset));
+      } else {
+        nextElement = null;
+      }
+      return nextElement != null;
+    }
+
+    @Override
+    protected T nextImpl() throws IOException {
+      return CoderUtils.decodeFromByteArray(coder, nextElement);
+    }
+
+    /**
+     * Reads a line of text terminated like in {@link TextFileIterator#readElement}.
+     *
+     * @return the line, with any line-termination characters stripped if
+     *     stripTrailingNewlines==true, or {@code null} if the end of the file has been reached
+     */
+    @Nullable
+    private byte[] readElement() throws IOException {
+      if (offset >= fileSize) {
+        return null;
+      }
+      if (window == null || offset < windowStart || offset >= windowStart + window.limit()) {
+        mapWindowAt(offset, windowSize);
+      }
+      int start = (int) (offset - windowStart);
+      int separator = findSeparator(window, start, window.limit());
+      while (separator < 0 && windowStart + window.limit() < fileSize) {
+        // The line continues beyond the window, so map a larger one starting at the line and
+        // continue the search where it stopped.
+        int scanned = window.limit() - start;
+        if (scanned > Integer.MAX_VALUE / 2) {
+          throw new IOException("Line at offset " + offset + " of " + filename + " is too long");
+        }
+        mapWindowAt(offset, Math.max(windowSize, 2 * scanned));
+        start = 0;
+        separator = findSeparator(window, scanned, window.limit());
+      }
+
+      int lineLength;
+      int separatorLength;
+      if (separator < 0) {
+        // The last line of the file has no separator.
+        lineLength = window.limit() - start;
+        separatorLength = 0;
+      } else {
+        lineLength = separator - start;
+        separatorLength = 1;
+        if (window.get(separator) == '\r') {
+          if (separator + 1 == window.limit() && windowStart + window.limit() < fileSize) {
+            // The window ends before the byte that may be a line feed, so map the line again
+            // together with that byte.
+            mapWindowAt(offset, Math.max(windowSize, lineLength + 2));
+            start = 0;
+            separator = lineLength;
+          }
+          if (separator + 1 < window.limit() && window.get(separator + 1) == '\n') {
+            separatorLength = 2;
+          }
+        }
+      }
+
+      int elementLength = stripTrailingNewlines ? lineLength : lineLength + separatorLength;
+      byte[] element = new byte[elementLength];
+      window.position(start);
+      window.get(element);
+      offset += lineLength + separatorLength;
+      return element;
+    }
+
+    /**
+     * Maps up to {@code size} bytes of the file from the given position on.
+     */
+    private void mapWindowAt(long position, int size) throws IOException {
+      window = channel.map(
+          FileChannel.MapMode.READ_ONLY, position, Math.min(size, fileSize - position));
+      windowStart = position;
+    }
+
+    @Override
+    public Progress getProgress() {
+      return getProgressAtOffset(offset, rangeTracker);
+    }
+
+    @Override
+    public DynamicSplitResult requestDynamicSplit(DynamicSplitRequest splitRequest) {
+      return requestDynamicSplitAtOffset(splitRequest, rangeTracker);
+    }
+
+    /**
+     * Returns the end offset of the iterator or Long.MAX_VALUE if unspecified.
+     * The method is called for test ONLY.
+     */
+    long getEndOffset() {
+      return rangeTracker.getStopPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+      window = null;
+      channel.close();
+    }
+  }
+
+  private static final long ONE_BYTES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LINEFEED_BYTES = 0x0A0A0A0A0A0A0A0AL;
+  private static final long CARRIAGE_RETURN_BYTES = 0x0D0D0D0D0D0D0D0DL;
+
+  /**
+   * Returns the index of the first line feed or carriage return in {@code buffer} between the
+   * indices {@code from} and {@code to}, or -1 if there is none. Tests eight bytes at a time for
+   * either separator before looking at individual bytes.
+   */
+  static int findSeparator(ByteBuffer buffer, int from, int to) {
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long word = buffer.getLong(i);
+      if (hasZeroByte(word ^ LINEFEED_BYTES) || hasZeroByte(word ^ CARRIAGE_RETURN_BYTES)) {
+        break;
+      }
+    }
+    for (; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean hasZeroByte(long word) {
+    return ((word - ONE_BYTES) & ~word & HIGH_BITS) != 0;
+  }
+
   /**
    * ScanState encapsulates the state for the current buffer of text
    * being scanned.
@@ -56,7 +56,7 @@ public class UngroupedShuffleReader<T> extends Reader<T> {
   public ReaderIterator<T> iterator() throws IOException {
     Preconditions.checkArgument(shuffleReaderConfig != null);
     return iterator(new BatchingShuffleEntryReader(
-        new ChunkingShuffleBatchReader(new ApplianceShuffleReader(shuffleReaderConfig))));
+        new ChunkingShuffleBatchReader(LocalShuffle.createReader(shuffleReaderConfig))));
   }
 
   ReaderIterator<T> iterator(ShuffleEntryReader reader) {
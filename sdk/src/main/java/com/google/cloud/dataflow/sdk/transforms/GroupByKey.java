@@ -29,6 +29,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.InvalidWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.WindowFn;
+import com.google.cloud.dataflow.sdk.util.ExternalSortGrouper;
 import com.google.cloud.dataflow.sdk.util.GroupAlsoByWindowsDoFn;
 import com.google.cloud.dataflow.sdk.util.ReifyTimestampAndWindowsDoFn;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
@@ -39,6 +40,7 @@ import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,6 +48,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * {@code GroupByKey<K, V>} takes a {@code PCollection<KV<K, V>>},
@@ -480,19 +483,147 @@ public class GroupByKey<K, V>
         });
   }
 
+  /**
+   * Groups the input of a {@link GroupByKeyOnly} by encoded key.
+   *
+   * <p>The input is divided into one contiguous chunk per thread. Each chunk's keys are encoded
+   * and hash-partitioned in parallel; then each partition is grouped in parallel, taking the
+   * values from the chunks in order. When evaluating sequentially, there is a single chunk and a
+   * single partition.
+   *
+   * <p>If a memory budget is configured, the input is grouped by
+   * {@link #evaluateWithSpilling} instead.
+   */
   private static <K, V> void evaluateHelper(
-      GroupByKeyOnly<K, V> transform,
-      DirectPipelineRunner.EvaluationContext context) {
+      final GroupByKeyOnly<K, V> transform,
+      final DirectPipelineRunner.EvaluationContext context) {
+    Integer memoryMb =
+        context.getPipelineOptions().getDirectPipelineRunnerGroupByKeyMemoryMb();
+    if (memoryMb != null) {
+      evaluateWithSpilling(transform, context, memoryMb * 1024L * 1024L);
+      return;
+    }
+
     PCollection<KV<K, V>> input = context.getInput(transform);
 
     List<ValueWithMetadata<KV<K, V>>> inputElems =
         context.getPCollectionValuesWithMetadata(input);
 
-    Coder<K> keyCoder = GroupByKey.getKeyCoder(input.getCoder());
+    final Coder<K> keyCoder = GroupByKey.getKeyCoder(input.getCoder());
+
+    final int numPartitions = context.getParallelism();
+    int chunkSize = Math.max(1, (inputElems.size() + numPartitions - 1) / numPartitions);
+
+    List<Callable<List<List<KV<GroupingKey<K>, V>>>>> encodeTasks = new ArrayList<>();
+    for (int start = 0; start < inputElems.size(); start += chunkSize) {
+      final List<ValueWithMetadata<KV<K, V>>> chunk =
+          inputElems.subList(start, Math.min(start + chunkSize, inputElems.size()));
+      encodeTasks.add(new Callable<List<List<KV<GroupingKey<K>, V>>>>() {
+        @Override
+        public List<List<KV<GroupingKey<K>, V>>> call() {
+          return encodeAndPartition(transform, chunk, keyCoder, numPartitions);
+        }
+      });
+    }
+    final List<List<List<KV<GroupingKey<K>, V>>>> partitionedChunks =
+        context.invokeAll(encodeTasks);
+
+    List<Callable<List<ValueWithMetadata<KV<K, Iterable<V>>>>>> groupTasks = new ArrayList<>();
+    for (int partition = 0; partition < numPartitions; partition++) {
+      final int partitionIndex = partition;
+      groupTasks.add(new Callable<List<ValueWithMetadata<KV<K, Iterable<V>>>>>() {
+        @Override
+        public List<ValueWithMetadata<KV<K, Iterable<V>>>> call() {
+          return groupPartition(partitionedChunks, partitionIndex, context);
+        }
+      });
+    }
 
-    Map<GroupingKey<K>, List<V>> groupingMap = new HashMap<>();
+    List<ValueWithMetadata<KV<K, Iterable<V>>>> outputElems =
+        new ArrayList<>();
+    for (List<ValueWithMetadata<KV<K, Iterable<V>>>> partitionOutput
+        : context.invokeAll(groupTasks)) {
+      outputElems.addAll(partitionOutput);
+    }
+
+    context.setPCollectionValuesWithMetadata(context.getOutput(transform),
+                                             outputElems);
+  }
+
+  /**
+   * Groups the input of a {@link GroupByKeyOnly} with an {@link ExternalSortGrouper}, which
+   * spills sorted runs of encoded elements to temporary files once the buffered input exceeds
+   * {@code memoryBudgetBytes}.
+   *
+   * <p>Groups whose values were spilled read them back from disk each time they are iterated,
+   * and their values are not randomized by the unorderedness testing. The temporary files are
+   * deleted once the pipeline has been evaluated.
+   */
+  private static <K, V> void evaluateWithSpilling(
+      GroupByKeyOnly<K, V> transform,
+      DirectPipelineRunner.EvaluationContext context,
+      long memoryBudgetBytes) {
+    PCollection<KV<K, V>> input = context.getInput(transform);
+    KvCoder<K, V> inputKvCoder = transform.getInputKvCoder(input.getCoder());
+    Coder<K> keyCoder = inputKvCoder.getKeyCoder();
+
+    ExternalSortGrouper<K, V> grouper = new ExternalSortGrouper<>(
+        keyCoder, inputKvCoder.getValueCoder(), memoryBudgetBytes, null /* default tempdir */);
+    context.closeAfterEvaluation(grouper);
+    List<KV<K, Iterable<V>>> groups;
+    try {
+      for (ValueWithMetadata<KV<K, V>> elem : context.getPCollectionValuesWithMetadata(input)) {
+        K key = elem.getValue().getKey();
+        byte[] encodedKey;
+        try {
+          encodedKey = encodeToByteArray(keyCoder, key);
+        } catch (CoderException exn) {
+          throw new IllegalArgumentException(
+              "unable to encode key " + key + " of input to " + transform +
+              " using " + keyCoder,
+              exn);
+        }
+        grouper.add(encodedKey, elem.getValue().getValue());
+      }
+      groups = grouper.groupByKey();
+    } catch (IOException exn) {
+      throw new RuntimeException("unable to group the input to " + transform, exn);
+    }
 
-    for (ValueWithMetadata<KV<K, V>> elem : inputElems) {
+    List<ValueWithMetadata<KV<K, Iterable<V>>>> outputElems =
+        new ArrayList<>(groups.size());
+    for (KV<K, Iterable<V>> group : groups) {
+      K key = group.getKey();
+      Iterable<V> values = group.getValue();
+      if (values instanceof List) {
+        // Values that were not spilled are held in memory and can be randomized in place.
+        @SuppressWarnings("unchecked")
+        List<V> valuesInMemory = (List<V>) values;
+        values = context.randomizeIfUnordered(valuesInMemory, true /* inPlaceAllowed */);
+      }
+      outputElems.add(ValueWithMetadata
+                      .of(WindowedValue.valueInEmptyWindows(KV.<K, Iterable<V>>of(key, values)))
+                      .withKey(key));
+    }
+
+    context.setPCollectionValuesWithMetadata(context.getOutput(transform),
+                                             outputElems);
+  }
+
+  /**
+   * Encodes the key of each element and assigns it to one of {@code numPartitions} partitions
+   * by the hash of its encoded key.
+   */
+  private static <K, V> List<List<KV<GroupingKey<K>, V>>> encodeAndPartition(
+      GroupByKeyOnly<K, V> transform,
+      List<ValueWithMetadata<KV<K, V>>> elems,
+      Coder<K> keyCoder,
+      int numPartitions) {
+    List<List<KV<GroupingKey<K>, V>>> partitions = new ArrayList<>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      partitions.add(new ArrayList<KV<GroupingKey<K>, V>>());
+    }
+    for (ValueWithMetadata<KV<K, V>> elem : elems) {
       K key = elem.getValue().getKey();
       V value = elem.getValue().getValue();
       byte[] encodedKey;
@@ -507,16 +638,34 @@ public class GroupByKey<K, V>
             exn);
       }
       GroupingKey<K> groupingKey = new GroupingKey<>(key, encodedKey);
-      List<V> values = groupingMap.get(groupingKey);
-      if (values == null) {
-        values = new ArrayList<V>();
-        groupingMap.put(groupingKey, values);
+      int partition = (groupingKey.hashCode() & Integer.MAX_VALUE) % numPartitions;
+      partitions.get(partition).add(KV.of(groupingKey, value));
+    }
+    return partitions;
+  }
+
+  /**
+   * Groups the values of one partition across all chunks.
+   */
+  private static <K, V> List<ValueWithMetadata<KV<K, Iterable<V>>>> groupPartition(
+      List<List<List<KV<GroupingKey<K>, V>>>> partitionedChunks,
+      int partition,
+      DirectPipelineRunner.EvaluationContext context) {
+    Map<GroupingKey<K>, List<V>> groupingMap = new HashMap<>();
+
+    for (List<List<KV<GroupingKey<K>, V>>> partitionedChunk : partitionedChunks) {
+      for (KV<GroupingKey<K>, V> elem : partitionedChunk.get(partition)) {
+        List<V> values = groupingMap.get(elem.getKey());
+        if (values == null) {
+          values = new ArrayList<V>();
+          groupingMap.put(elem.getKey(), values);
+        }
+        values.add(elem.getValue());
       }
-      values.add(value);
     }
 
     List<ValueWithMetadata<KV<K, Iterable<V>>>> outputElems =
-        new ArrayList<>();
+        new ArrayList<>(groupingMap.size());
     for (Map.Entry<GroupingKey<K>, List<V>> entry : groupingMap.entrySet()) {
       GroupingKey<K> groupingKey = entry.getKey();
       K key = groupingKey.getKey();
@@ -526,9 +675,7 @@ public class GroupByKey<K, V>
                       .of(WindowedValue.valueInEmptyWindows(KV.<K, Iterable<V>>of(key, values)))
                       .withKey(key));
     }
-
-    context.setPCollectionValuesWithMetadata(context.getOutput(transform),
-                                             outputElems);
+    return outputElems;
   }
 
   private static class GroupingKey<K> {
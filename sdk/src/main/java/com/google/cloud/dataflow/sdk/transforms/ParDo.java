@@ -43,9 +43,11 @@ import com.google.cloud.dataflow.sdk.values.TypedPValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
@@ -1017,11 +1019,9 @@ public class ParDo {
       DirectPipelineRunner.EvaluationContext context) {
     TupleTag<OutputT> mainOutputTag = new TupleTag<>("out");
 
-    DirectModeExecutionContext executionContext = DirectModeExecutionContext.create();
-
     PCollectionTuple outputs = PCollectionTuple.of(mainOutputTag, context.getOutput(transform));
 
-    evaluateHelper(
+    List<DirectModeExecutionContext> executionContexts = evaluateHelper(
         transform.fn,
         context.getStepName(transform),
         context.getInput(transform),
@@ -1029,12 +1029,13 @@ public class ParDo {
         mainOutputTag,
         Collections.<TupleTag<?>>emptyList(),
         outputs,
-        context,
-        executionContext);
+        context);
 
-    context.setPCollectionValuesWithMetadata(
-        context.getOutput(transform),
-        executionContext.getOutput(mainOutputTag));
+    List<DirectPipelineRunner.ValueWithMetadata<OutputT>> output = new ArrayList<>();
+    for (DirectModeExecutionContext executionContext : executionContexts) {
+      output.addAll(executionContext.getOutput(mainOutputTag));
+    }
+    context.setPCollectionValuesWithMetadata(context.getOutput(transform), output);
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -1056,9 +1057,7 @@ public class ParDo {
       BoundMulti<InputT, OutputT> transform,
       DirectPipelineRunner.EvaluationContext context) {
 
-    DirectModeExecutionContext executionContext = DirectModeExecutionContext.create();
-
-    evaluateHelper(
+    List<DirectModeExecutionContext> executionContexts = evaluateHelper(
         transform.fn,
         context.getStepName(transform),
         context.getInput(transform),
@@ -1066,8 +1065,7 @@ public class ParDo {
         transform.mainOutputTag,
         transform.sideOutputTags.getAll(),
         context.getOutput(transform),
-        context,
-        executionContext);
+        context);
 
     for (Map.Entry<TupleTag<?>, PCollection<?>> entry
         : context.getOutput(transform).getAll().entrySet()) {
@@ -1076,38 +1074,81 @@ public class ParDo {
       @SuppressWarnings("unchecked")
       PCollection<Object> pc = (PCollection<Object>) entry.getValue();
 
-      context.setPCollectionValuesWithMetadata(
-          pc,
-          (tag == transform.mainOutputTag
-              ? executionContext.getOutput(tag)
-              : executionContext.getSideOutput(tag)));
+      List<DirectPipelineRunner.ValueWithMetadata<Object>> output = new ArrayList<>();
+      for (DirectModeExecutionContext executionContext : executionContexts) {
+        output.addAll(tag == transform.mainOutputTag
+            ? executionContext.getOutput(tag)
+            : executionContext.getSideOutput(tag));
+      }
+      context.setPCollectionValuesWithMetadata(pc, output);
     }
   }
 
   /**
-   * Evaluates a single-output or multi-output {@link ParDo} directly.
+   * Evaluates a single-output or multi-output {@link ParDo} directly, returning the
+   * {@link DirectModeExecutionContext} holding the outputs of each bundle.
    *
    * <p>This evaluation method is intended for use in testing scenarios; it is designed for clarity
    * and correctness-checking, not speed.
    *
    * <p>Of particular note, this performs best-effort checking that inputs and outputs are not
    * mutated in violation of the requirements upon a {@link DoFn}.
+   *
+   * <p>If the runner is configured to evaluate in parallel, the input is divided into one bundle
+   * per thread, each processed by its own copy of the {@link DoFn}. Elements with the same key
+   * are always placed in the same bundle, so that they share keyed state.
    */
-  private static <InputT, OutputT, ActualInputT extends InputT> void evaluateHelper(
-      DoFn<InputT, OutputT> doFn,
+  private static <InputT, OutputT, ActualInputT extends InputT>
+      List<DirectModeExecutionContext> evaluateHelper(
+          final DoFn<InputT, OutputT> doFn,
+          final String stepName,
+          final PCollection<ActualInputT> input,
+          List<PCollectionView<?>> sideInputs,
+          final TupleTag<OutputT> mainOutputTag,
+          final List<TupleTag<?>> sideOutputTags,
+          final PCollectionTuple outputs,
+          final DirectPipelineRunner.EvaluationContext context) {
+    final SideInputReader sideInputReader = makeSideInputReader(context, sideInputs);
+
+    final List<List<DirectPipelineRunner.ValueWithMetadata<ActualInputT>>> bundles =
+        partitionIntoBundles(
+            context.getPCollectionValuesWithMetadata(input), context.getParallelism());
+
+    List<Callable<DirectModeExecutionContext>> bundleTasks = new ArrayList<>();
+    for (final List<DirectPipelineRunner.ValueWithMetadata<ActualInputT>> bundle : bundles) {
+      bundleTasks.add(new Callable<DirectModeExecutionContext>() {
+        @Override
+        public DirectModeExecutionContext call() {
+          // A DoFn instance is never used by more than one thread at a time, so concurrently
+          // processed bundles each need their own copy.
+          DoFn<InputT, OutputT> fn = bundles.size() == 1
+              ? context.ensureSerializable(doFn)
+              : SerializableUtils.clone(doFn);
+          DirectModeExecutionContext executionContext = DirectModeExecutionContext.create();
+          evaluateBundle(fn, stepName, input, bundle, sideInputReader, mainOutputTag,
+              sideOutputTags, outputs, context, executionContext);
+          return executionContext;
+        }
+      });
+    }
+    return context.invokeAll(bundleTasks);
+  }
+
+  /**
+   * Processes one bundle of a {@link ParDo} with the given {@link DoFn}, recording the outputs
+   * in the given {@link DirectModeExecutionContext}.
+   */
+  private static <InputT, OutputT, ActualInputT extends InputT> void evaluateBundle(
+      DoFn<InputT, OutputT> fn,
       String stepName,
       PCollection<ActualInputT> input,
-      List<PCollectionView<?>> sideInputs,
+      List<DirectPipelineRunner.ValueWithMetadata<ActualInputT>> bundle,
+      SideInputReader sideInputReader,
       TupleTag<OutputT> mainOutputTag,
       List<TupleTag<?>> sideOutputTags,
       PCollectionTuple outputs,
       DirectPipelineRunner.EvaluationContext context,
       DirectModeExecutionContext executionContext) {
-    // TODO: Run multiple shards?
-    DoFn<InputT, OutputT> fn = context.ensureSerializable(doFn);
-
-    SideInputReader sideInputReader = makeSideInputReader(context, sideInputs);
-
     // When evaluating via the DirectPipelineRunner, this output manager checks each output for
     // illegal mutations when the next output comes along. We then verify again after finishBundle()
     // The common case we expect this to catch is a user mutating an input in order to repeatedly
@@ -1132,17 +1173,10 @@ public class ParDo {
 
     fnRunner.startBundle();
 
-    for (DirectPipelineRunner.ValueWithMetadata<ActualInputT> elem
-             : context.getPCollectionValuesWithMetadata(input)) {
-      if (elem.getValue() instanceof KV) {
-        // In case the DoFn needs keyed state, set the implicit keys to the keys
-        // in the input elements.
-        @SuppressWarnings("unchecked")
-        KV<?, ?> kvElem = (KV<?, ?>) elem.getValue();
-        executionContext.setKey(kvElem.getKey());
-      } else {
-        executionContext.setKey(elem.getKey());
-      }
+    for (DirectPipelineRunner.ValueWithMetadata<ActualInputT> elem : bundle) {
+      // In case the DoFn needs keyed state, set the implicit keys to the keys
+      // in the input elements.
+      executionContext.setKey(getStateKey(elem));
 
       // We check the input for mutations only through the call span of processElement.
       // This will miss some cases, but the check is ad hoc and best effort. The common case
@@ -1175,6 +1209,44 @@ public class ParDo {
     outputManager.verifyLatestOutputsUnmodified();
   }
 
+  /**
+   * Returns the key whose state is used while processing the given element: the key of a
+   * {@link KV} element, or else the implicit key of the element.
+   */
+  private static Object getStateKey(DirectPipelineRunner.ValueWithMetadata<?> elem) {
+    if (elem.getValue() instanceof KV) {
+      return ((KV<?, ?>) elem.getValue()).getKey();
+    } else {
+      return elem.getKey();
+    }
+  }
+
+  /**
+   * Divides the elements into at most {@code numBundles} bundles. Elements with a state key
+   * are assigned by the hash of that key; other elements are assigned round-robin. There is
+   * always at least one bundle, so that an empty input still starts and finishes a bundle.
+   */
+  private static <T> List<List<DirectPipelineRunner.ValueWithMetadata<T>>> partitionIntoBundles(
+      List<DirectPipelineRunner.ValueWithMetadata<T>> elems, int numBundles) {
+    numBundles = Math.max(1, Math.min(numBundles, elems.size()));
+    if (numBundles == 1) {
+      return Collections.singletonList(elems);
+    }
+    List<List<DirectPipelineRunner.ValueWithMetadata<T>>> bundles = new ArrayList<>(numBundles);
+    for (int i = 0; i < numBundles; i++) {
+      bundles.add(new ArrayList<DirectPipelineRunner.ValueWithMetadata<T>>());
+    }
+    int next = 0;
+    for (DirectPipelineRunner.ValueWithMetadata<T> elem : elems) {
+      Object key = getStateKey(elem);
+      int bundle = key == null
+          ? next++ % numBundles
+          : (key.hashCode() & Integer.MAX_VALUE) % numBundles;
+      bundles.get(bundle).add(elem);
+    }
+    return bundles;
+  }
+
   private static SideInputReader makeSideInputReader(
       DirectPipelineRunner.EvaluationContext context, List<PCollectionView<?>> sideInputs) {
     PTuple sideInputValues = PTuple.empty();
@@ -27,6 +27,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.PDone;
+import com.google.common.collect.Iterables;
 
 import org.joda.time.Instant;
 
@@ -46,6 +47,12 @@ import java.util.UUID;
  */
 @Experimental(Experimental.Kind.SOURCE_SINK)
 public class Write {
+  /** Name of the aggregator for the time spent finalizing the write, in milliseconds. */
+  public static final String FINALIZE_MSECS_COUNTER = "FinalizeMsecs";
+
+  /** Name of the aggregator for the number of bundle results finalized, e.g. written files. */
+  public static final String FINALIZED_BUNDLES_COUNTER = "FinalizedBundles";
+
   /**
    * Creates a Write transform that writes to the given Sink.
    */
@@ -197,11 +204,19 @@ public class Write {
           .apply("Finalize", ParDo.of(new DoFn<WriteOperation<T, WriteT>, Integer>() {
             private static final long serialVersionUID = 0;
 
+            private final Aggregator<Long, Long> finalizeMsecs =
+                createAggregator(FINALIZE_MSECS_COUNTER, new Sum.SumLongFn());
+            private final Aggregator<Long, Long> finalizedBundles =
+                createAggregator(FINALIZED_BUNDLES_COUNTER, new Sum.SumLongFn());
+
             @Override
             public void processElement(ProcessContext c) throws Exception {
               Iterable<WriteT> results = c.sideInput(resultsView);
               WriteOperation<T, WriteT> writeOperation = c.element();
+              long startMsecs = System.currentTimeMillis();
               writeOperation.finalize(results, c.getPipelineOptions());
+              finalizeMsecs.addValue(System.currentTimeMillis() - startMsecs);
+              finalizedBundles.addValue((long) Iterables.size(results));
             }
           }).withSideInputs(resultsView));
       return PDone.in(input.getPipeline());
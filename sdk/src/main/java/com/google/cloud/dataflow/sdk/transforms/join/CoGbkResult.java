@@ -25,10 +25,14 @@ import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.MapCoder;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.SpillFile;
+import com.google.cloud.dataflow.sdk.util.SpilledValues;
 import com.google.cloud.dataflow.sdk.util.common.Reiterator;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.cloud.dataflow.sdk.values.TupleTagList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 
@@ -38,15 +42,24 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
 /**
  * A row result of a {@link CoGroupByKey}.  This is a tuple of {@link Iterable}s produced for
  * a given key, and these can be accessed in different ways.
@@ -61,8 +74,12 @@ public class CoGbkResult {
 
   private final CoGbkResultSchema schema;
 
+  private int numSpilledTags = 0;
+
   private static final int DEFAULT_IN_MEMORY_ELEMENT_COUNT = 10_000;
 
+  private static final long DEFAULT_MEMORY_BUDGET_BYTES = 32L << 20;
+
   private static final Logger LOG = LoggerFactory.getLogger(CoGbkResult.class);
 
   /**
@@ -79,11 +96,47 @@ public class CoGbkResult {
     this(schema, taggedValues, DEFAULT_IN_MEMORY_ELEMENT_COUNT);
   }
 
-  @SuppressWarnings("unchecked")
   public CoGbkResult(
       CoGbkResultSchema schema,
       Iterable<RawUnionValue> taggedValues,
       int inMemoryElementCount) {
+    this(schema, taggedValues, null, inMemoryElementCount, DEFAULT_MEMORY_BUDGET_BYTES);
+  }
+
+  /**
+   * A row in the PCollection resulting from a CoGroupByKey transform, whose values beyond the
+   * first {@code DEFAULT_IN_MEMORY_ELEMENT_COUNT} are read once and kept encoded.
+   *
+   * @param unionCoder the coder of the tagged values, whose components encode the values of
+   *                   each tag
+   */
+  public CoGbkResult(
+      CoGbkResultSchema schema,
+      Iterable<RawUnionValue> taggedValues,
+      UnionCoder unionCoder) {
+    this(schema, taggedValues, unionCoder, DEFAULT_IN_MEMORY_ELEMENT_COUNT,
+        DEFAULT_MEMORY_BUDGET_BYTES);
+  }
+
+  /**
+   * A row in the PCollection resulting from a CoGroupByKey transform.
+   *
+   * <p>The first {@code inMemoryElementCount} tagged values are kept in memory. If there are
+   * more and {@code unionCoder} is null, the remaining values of each tag are found by iterating
+   * over the remaining tagged values again each time they are read, which requires
+   * {@code taggedValues} to be reiterable. Otherwise the remaining values are read once, encoded
+   * into a buffer per tag, and decoded as they are iterated over. The buffers take at most
+   * {@code memoryBudgetBytes}: once they take more, the largest are moved to temporary files
+   * until at most half of the budget is used, and the later values of their tags are appended to
+   * the files directly. A file is deleted once the values read from it are no longer reachable.
+   */
+  @SuppressWarnings("unchecked")
+  public CoGbkResult(
+      CoGbkResultSchema schema,
+      Iterable<RawUnionValue> taggedValues,
+      @Nullable UnionCoder unionCoder,
+      int inMemoryElementCount,
+      long memoryBudgetBytes) {
     this.schema = schema;
     valueMap = new ArrayList<>();
     for (int unionTag = 0; unionTag < schema.size(); unionTag++) {
@@ -95,23 +148,21 @@ public class CoGbkResult {
     final Iterator<RawUnionValue> taggedIter = taggedValues.iterator();
     int elementCount = 0;
     while (taggedIter.hasNext()) {
-      if (elementCount++ >= inMemoryElementCount && taggedIter instanceof Reiterator) {
+      if (elementCount++ >= inMemoryElementCount
+          && (unionCoder != null || taggedIter instanceof Reiterator)) {
         // Let the tails be lazy.
         break;
       }
       RawUnionValue value = taggedIter.next();
-      // Make sure the given union tag has a corresponding tuple tag in the
-      // schema.
-      int unionTag = value.getUnionTag();
-      if (schema.size() <= unionTag) {
-        throw new IllegalStateException("union tag " + unionTag +
-            " has no corresponding tuple tag in the result schema");
-      }
-      List<Object> valueList = (List<Object>) valueMap.get(unionTag);
+      List<Object> valueList = (List<Object>) valueMap.get(checkUnionTag(value));
       valueList.add(value.getValue());
     }
 
-    if (taggedIter.hasNext()) {
+    if (taggedIter.hasNext() && unionCoder != null) {
+      LOG.info("CoGbkResult has more than " + inMemoryElementCount + " elements, "
+               + "encoding the remaining elements.");
+      encodeTail(taggedIter, unionCoder, memoryBudgetBytes);
+    } else if (taggedIter.hasNext()) {
       // If we get here, there were more elements than we can afford to
       // keep in memory, so we copy the re-iterable of remaining items
       // and append filtered views to each of the sorted lists computed earlier.
@@ -130,6 +181,78 @@ public class CoGbkResult {
     }
   }
 
+  /**
+   * Returns the union tag of the given value, after checking that it has a corresponding tuple
+   * tag in the schema.
+   */
+  private int checkUnionTag(RawUnionValue value) {
+    int unionTag = value.getUnionTag();
+    if (schema.size() <= unionTag) {
+      throw new IllegalStateException("union tag " + unionTag +
+          " has no corresponding tuple tag in the result schema");
+    }
+    return unionTag;
+  }
+
+  /**
+   * Encodes the remaining tagged values into a buffer per tag in a single pass, and appends the
+   * decoded values of each tag to those already in memory. The largest buffers are moved to
+   * temporary files to stay within {@code memoryBudgetBytes}.
+   */
+  @SuppressWarnings("unchecked")
+  private void encodeTail(
+      Iterator<RawUnionValue> tail, UnionCoder unionCoder, long memoryBudgetBytes) {
+    List<EncodedValues<Object>> encodedValues = new ArrayList<>();
+    for (int unionTag = 0; unionTag < schema.size(); unionTag++) {
+      encodedValues.add(new EncodedValues<>(
+          (Coder<Object>) unionCoder.getComponents().get(unionTag)));
+    }
+    long bufferedBytes = 0;
+    try {
+      try {
+        while (tail.hasNext()) {
+          RawUnionValue value = tail.next();
+          bufferedBytes += encodedValues.get(checkUnionTag(value)).add(value.getValue());
+          if (bufferedBytes > memoryBudgetBytes) {
+            // Spill the largest buffers until at most half of the budget is used.
+            List<EncodedValues<Object>> largestFirst = new ArrayList<>(encodedValues);
+            Collections.sort(largestFirst, BY_CAPACITY_DESCENDING);
+            for (EncodedValues<Object> buffered : largestFirst) {
+              if (bufferedBytes <= memoryBudgetBytes / 2 || buffered.capacity() == 0) {
+                break;
+              }
+              LOG.info("Values of a CoGbkResult exceed the memory budget, spilling "
+                       + buffered.size + " values of one tag to a temporary file.");
+              bufferedBytes -= buffered.spill();
+              numSpilledTags++;
+            }
+          }
+        }
+      } finally {
+        for (EncodedValues<Object> values : encodedValues) {
+          values.finishSpilling();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to encode the values of a CoGbkResult", e);
+    }
+
+    for (int unionTag = 0; unionTag < schema.size(); unionTag++) {
+      EncodedValues<Object> values = encodedValues.get(unionTag);
+      if (!values.isEmpty()) {
+        valueMap.set(unionTag, Iterables.concat(valueMap.get(unionTag), values));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tags whose values were spilled to temporary files.
+   */
+  // @VisibleForTesting
+  int getNumSpilledTags() {
+    return numSpilledTags;
+  }
+
   private <T> void updateUnionTag(
       final Reiterator<RawUnionValue> tail, final Boolean[] containsTag,
       int unionTag, final int unionTag0) {
@@ -459,4 +582,148 @@ public class CoGbkResult {
       throw new UnsupportedOperationException();
     }
   }
+
+  private static final Comparator<EncodedValues<?>> BY_CAPACITY_DESCENDING =
+      new Comparator<EncodedValues<?>>() {
+        @Override
+        public int compare(EncodedValues<?> a, EncodedValues<?> b) {
+          return Integer.compare(b.capacity(), a.capacity());
+        }
+      };
+
+  /**
+   * {@link ByteArrayOutputStream} whose contents can be read without copying them.
+   */
+  private static class ReadableByteArrayOutputStream extends ByteArrayOutputStream {
+    private InputStream newInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * Returns the size of the array holding the contents, which grows in steps as it fills.
+     */
+    private int capacity() {
+      return buf.length;
+    }
+  }
+
+  /**
+   * The values of one tag, encoded one after the other in a buffer, or in a temporary file once
+   * spilled, which are decoded each time they are iterated over.
+   */
+  private static class EncodedValues<V> implements Iterable<V> {
+    private final Coder<V> coder;
+    // Null until the first value is added, and again once spilled.
+    @Nullable private ReadableByteArrayOutputStream buffer;
+    private int size = 0;
+
+    // The file the values are appended to once spilled, and the values read from it once done.
+    @Nullable private SpillFile file;
+    @Nullable private OutputStream fileOut;
+    @Nullable private SpilledValues<V> spilled;
+
+    private EncodedValues(Coder<V> coder) {
+      this.coder = coder;
+    }
+
+    /**
+     * Encodes the value into the buffer, or the file once spilled, returning the number of bytes
+     * the capacity of the buffer grew by.
+     */
+    private int add(V value) throws IOException {
+      size++;
+      if (fileOut != null) {
+        SpilledValues.write(CoderUtils.encodeToByteArray(coder, value), fileOut);
+        return 0;
+      }
+      int capacity = capacity();
+      if (buffer == null) {
+        buffer = new ReadableByteArrayOutputStream();
+      }
+      coder.encode(value, buffer, Coder.Context.NESTED);
+      return capacity() - capacity;
+    }
+
+    private int capacity() {
+      return buffer == null ? 0 : buffer.capacity();
+    }
+
+    private boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * Moves the buffered values to a temporary file, which later values are appended to,
+     * returning the capacity of the buffer that is released.
+     */
+    private int spill() throws IOException {
+      int capacity = capacity();
+      file = SpillFile.create("cogbk-", ".values", null);
+      fileOut = new BufferedOutputStream(new FileOutputStream(file.getFile()));
+      for (V value : this) {
+        SpilledValues.write(CoderUtils.encodeToByteArray(coder, value), fileOut);
+      }
+      buffer = null;
+      return capacity;
+    }
+
+    /**
+     * Closes the temporary file, if the values were spilled, so that they are read from it. The
+     * file is deleted once they are no longer reachable.
+     */
+    private void finishSpilling() throws IOException {
+      if (file == null) {
+        return;
+      }
+      try {
+        fileOut.close();
+        spilled = new SpilledValues<>(coder, file, 0, size);
+      } finally {
+        fileOut = null;
+        file.release();
+        file = null;
+      }
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      if (spilled != null) {
+        return spilled.iterator();
+      } else if (buffer == null) {
+        return Collections.emptyIterator();
+      }
+      return new Iterator<V>() {
+        private final InputStream in = buffer.newInputStream();
+        private int remaining = size;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0;
+        }
+
+        @Override
+        public V next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          remaining--;
+          try {
+            return coder.decode(in, Coder.Context.NESTED);
+          } catch (IOException e) {
+            throw new RuntimeException("Unable to decode the values of a CoGbkResult", e);
+          }
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return Iterables.toString(this);
+    }
+  }
 }
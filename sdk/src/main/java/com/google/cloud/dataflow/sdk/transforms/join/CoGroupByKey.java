@@ -129,7 +129,7 @@ public class CoGroupByKey<K> extends
 
     CoGbkResultSchema tupleTags = input.getCoGbkResultSchema();
     PCollection<KV<K, CoGbkResult>> result = groupedTable.apply(
-        ParDo.of(new ConstructCoGbkResultFn<K>(tupleTags))
+        ParDo.of(new ConstructCoGbkResultFn<K>(tupleTags, unionCoder))
           .named("ConstructCoGbkResultFn"));
     result.setCoder(KvCoder.of(keyCoder,
         CoGbkResultCoder.of(tupleTags, unionCoder)));
@@ -191,22 +191,25 @@ public class CoGroupByKey<K> extends
 
   /**
    * A DoFn to construct a CoGbkResult from an input grouped union
-   * table.
+   * table. The values of keys with too many to keep in memory are encoded
+   * per tag in a single pass over the grouped values.
     */
   private static class ConstructCoGbkResultFn<K>
     extends DoFn<KV<K, Iterable<RawUnionValue>>,
                  KV<K, CoGbkResult>> {
 
     private final CoGbkResultSchema schema;
+    private final UnionCoder unionCoder;
 
-    public ConstructCoGbkResultFn(CoGbkResultSchema schema) {
+    public ConstructCoGbkResultFn(CoGbkResultSchema schema, UnionCoder unionCoder) {
       this.schema = schema;
+      this.unionCoder = unionCoder;
     }
 
     @Override
     public void processElement(ProcessContext c) {
       KV<K, Iterable<RawUnionValue>> e = c.element();
-      c.output(KV.of(e.getKey(), new CoGbkResult(schema, e.getValue())));
+      c.output(KV.of(e.getKey(), new CoGbkResult(schema, e.getValue(), unionCoder)));
     }
   }
 }
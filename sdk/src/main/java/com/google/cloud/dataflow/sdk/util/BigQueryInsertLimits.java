@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits on the inserts of rows into a BigQuery table, which may be shared by the
+ * {@link BigQueryTableInserter}s inserting into the same table.
+ *
+ * <p>At most {@code maxConcurrentInserts} insert requests are sent at a time. The size of the
+ * batches of rows sent in each request adapts to the service: it grows additively while requests
+ * succeed within {@link #TARGET_LATENCY_MILLIS}, and is halved when a request fails or takes
+ * longer. Rows rejected by a successful request do not affect the batch size, since they are
+ * rejected for their contents rather than because the service is overloaded.
+ */
+public class BigQueryInsertLimits {
+  /** The size of the batches of rows inserted before any request has completed. */
+  static final long INITIAL_BATCH_SIZE_BYTES = 64 * 1024;
+
+  static final long MIN_BATCH_SIZE_BYTES = 4 * 1024;
+
+  static final long MAX_BATCH_SIZE_BYTES = 1024 * 1024;
+
+  private static final long BATCH_SIZE_INCREMENT_BYTES = 16 * 1024;
+
+  /** The latency of insert requests above which batches are made smaller. */
+  static final long TARGET_LATENCY_MILLIS = 1000;
+
+  private final Semaphore inserts;
+  private long batchSizeBytes = INITIAL_BATCH_SIZE_BYTES;
+
+  /**
+   * Creates limits allowing at most {@code maxConcurrentInserts} concurrent insert requests.
+   */
+  public BigQueryInsertLimits(int maxConcurrentInserts) {
+    Preconditions.checkArgument(maxConcurrentInserts > 0,
+        "maxConcurrentInserts must be positive, got %s", maxConcurrentInserts);
+    this.inserts = new Semaphore(maxConcurrentInserts);
+  }
+
+  /**
+   * Returns the approximate amount of row data to send per insert request.
+   */
+  public synchronized long getBatchSizeBytes() {
+    return batchSizeBytes;
+  }
+
+  /**
+   * Returns the number of rows to send per insert request, out of at most {@code maxRows}. Fewer
+   * rows are sent while batches are smaller than they were initially.
+   */
+  public synchronized int getBatchSizeRows(long maxRows) {
+    long rows = Math.min(maxRows, maxRows * batchSizeBytes / INITIAL_BATCH_SIZE_BYTES);
+    return (int) Math.max(1, rows);
+  }
+
+  /**
+   * Waits until another insert request may be sent.
+   */
+  void acquireInsert() throws InterruptedException {
+    inserts.acquire();
+  }
+
+  /**
+   * Allows another insert request to be sent, once one has completed.
+   */
+  void releaseInsert() {
+    inserts.release();
+  }
+
+  /**
+   * Adapts the batch size to an insert request that completed after {@code latencyMillis}.
+   */
+  synchronized void recordInsert(long latencyMillis) {
+    if (latencyMillis > TARGET_LATENCY_MILLIS) {
+      decreaseBatchSize();
+    } else {
+      batchSizeBytes = Math.min(MAX_BATCH_SIZE_BYTES, batchSizeBytes + BATCH_SIZE_INCREMENT_BYTES);
+    }
+  }
+
+  /**
+   * Adapts the batch size to an insert request that failed.
+   */
+  synchronized void recordFailedInsert() {
+    decreaseBatchSize();
+  }
+
+  private void decreaseBatchSize() {
+    batchSizeBytes = Math.max(MIN_BATCH_SIZE_BYTES, batchSizeBytes / 2);
+  }
+}
@@ -27,13 +27,16 @@ import com.google.api.services.bigquery.model.TableSchema;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.CreateDisposition;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.WriteDisposition;
+import com.google.cloud.dataflow.sdk.options.BigQueryOptions;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,6 +44,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -50,12 +54,12 @@ import javax.annotation.Nullable;
 public class BigQueryTableInserter {
   private static final Logger LOG = LoggerFactory.getLogger(BigQueryTableInserter.class);
 
-  // Approximate amount of table data to upload per InsertAll request.
-  private static final long UPLOAD_BATCH_SIZE_BYTES = 64 * 1024;
-
   // The maximum number of rows to upload per InsertAll request.
   private static final long MAX_ROWS_PER_BATCH = 500;
 
+  // The maximum number of concurrent InsertAll requests of inserters constructed without limits.
+  private static final int DEFAULT_MAX_CONCURRENT_INSERTS = 100;
+
   // The maximum number of times to retry inserting rows into BigQuery.
   private static final int MAX_INSERT_ATTEMPTS = 5;
 
@@ -65,8 +69,20 @@ public class BigQueryTableInserter {
   private final Bigquery client;
   private final TableReference ref;
   private final long maxRowsPerBatch;
+  private final ExecutorService executor;
+  private final BigQueryInsertLimits limits;
 
-  private static final ExecutorService executor = Executors.newFixedThreadPool(100);
+  /**
+   * Executes the inserts of inserters constructed without an executor. Idle threads are not
+   * kept around, so that it costs nothing when every inserter is given an executor.
+   */
+  private static class DefaultExecutorHolder {
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("BigQueryTableInserter-%d")
+            .build());
+  }
 
   /**
    * Constructs a new row inserter.
@@ -75,9 +91,7 @@ public class BigQueryTableInserter {
    * @param ref identifies the table to insert into
    */
   public BigQueryTableInserter(Bigquery client, TableReference ref) {
-    this.client = client;
-    this.ref = ref;
-    this.maxRowsPerBatch = MAX_ROWS_PER_BATCH;
+    this(client, ref, (int) MAX_ROWS_PER_BATCH);
   }
 
   /**
@@ -87,9 +101,33 @@ public class BigQueryTableInserter {
    * @param ref identifies the table to insert into
    */
   public BigQueryTableInserter(Bigquery client, TableReference ref, int maxRowsPerBatch) {
+    this(client, ref, maxRowsPerBatch, DefaultExecutorHolder.DEFAULT_EXECUTOR,
+        new BigQueryInsertLimits(DEFAULT_MAX_CONCURRENT_INSERTS));
+  }
+
+  /**
+   * Constructs a new row inserter sending insert requests on the executor of the given options,
+   * within the given limits.
+   *
+   * @param client a BigQuery client
+   * @param ref identifies the table to insert into
+   * @param options the options whose {@code BigQueryInsertExecutorService} sends insert requests
+   * @param limits the limits on the inserts into the table, which may be shared with other
+   * inserters into the same table
+   */
+  public BigQueryTableInserter(Bigquery client, TableReference ref, BigQueryOptions options,
+      BigQueryInsertLimits limits) {
+    this(client, ref, (int) MAX_ROWS_PER_BATCH, options.getBigQueryInsertExecutorService(),
+        limits);
+  }
+
+  private BigQueryTableInserter(Bigquery client, TableReference ref, int maxRowsPerBatch,
+      ExecutorService executor, BigQueryInsertLimits limits) {
     this.client = client;
     this.ref = ref;
     this.maxRowsPerBatch = maxRowsPerBatch;
+    this.executor = executor;
+    this.limits = limits;
   }
 
   /**
@@ -123,9 +161,11 @@ public class BigQueryTableInserter {
       final List<String> retryIds = (idsToPublish != null) ? new ArrayList<String>() : null;
 
       int strideIndex = 0;
-      // Upload in batches.
+      // Upload in batches, whose size follows the latency and failures of earlier requests.
       List<TableDataInsertAllRequest.Rows> rows = new LinkedList<>();
       int dataSize = 0;
+      long batchSizeBytes = limits.getBatchSizeBytes();
+      int batchSizeRows = limits.getBatchSizeRows(maxRowsPerBatch);
 
       List<Future<?>> futures = new ArrayList<>();
 
@@ -139,7 +179,7 @@ public class BigQueryTableInserter {
         rows.add(out);
 
         dataSize += row.toString().length();
-        if (dataSize >= UPLOAD_BATCH_SIZE_BYTES || rows.size() >= maxRowsPerBatch ||
+        if (dataSize >= batchSizeBytes || rows.size() >= batchSizeRows ||
             i == rowsToPublish.size() - 1) {
           TableDataInsertAllRequest content = new TableDataInsertAllRequest();
           content.setRows(rows);
@@ -152,15 +192,32 @@ public class BigQueryTableInserter {
           final List<TableRow> finalRowsToPublish = rowsToPublish;
           final List<String> finalIdsToPublish = idsToPublish;
 
-          futures.add(executor.submit(new Runnable() {
+          // Bounds the concurrent requests to the table, across all inserters sharing the limits.
+          try {
+            limits.acquireInsert();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to insert rows");
+          }
+          Runnable insertTask = new Runnable() {
               @Override
               public void run() {
+                long startNanos = System.nanoTime();
                 try {
-                  TableDataInsertAllResponse response = insert.execute();
+                  TableDataInsertAllResponse response;
+                  try {
+                    response = insert.execute();
+                  } catch (IOException e) {
+                    limits.recordFailedInsert();
+                    throw e;
+                  }
+                  limits.recordInsert(
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
 
                   List<TableDataInsertAllResponse.InsertErrors> errors = response.getInsertErrors();
+
                   if (errors != null) {
-                    synchronized (this) {
+                    synchronized (allErrors) {
                       allErrors.addAll(errors);
                       for (TableDataInsertAllResponse.InsertErrors error : errors) {
                         if (error.getIndex() == null) {
@@ -177,13 +234,23 @@ public class BigQueryTableInserter {
                   }
                 } catch (IOException e) {
                   throw new RuntimeException(e);
+                } finally {
+                  limits.releaseInsert();
                 }
               }
-            }));
+            };
+          try {
+            futures.add(executor.submit(insertTask));
+          } catch (RuntimeException e) {
+            limits.releaseInsert();
+            throw e;
+          }
 
           dataSize = 0;
           strideIndex = i + 1;
           rows = new LinkedList<>();
+          batchSizeBytes = limits.getBatchSizeBytes();
+          batchSizeRows = limits.getBatchSizeRows(maxRowsPerBatch);
         }
       }
 
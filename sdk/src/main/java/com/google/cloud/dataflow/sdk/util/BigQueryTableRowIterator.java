@@ -36,6 +36,8 @@ import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 
 import org.joda.time.Duration;
 import org.joda.time.format.DateTimeFormat;
@@ -53,13 +55,23 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 /**
  * Iterates over all rows in a table.
+ *
+ * <p>By default, the next page of rows is only requested once the rows of the previous page have
+ * been returned. With {@link #withPrefetch}, pages are requested ahead on a background thread, so
+ * that the round trips to the service overlap with the processing of the rows already read.
  */
 public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(BigQueryTableRowIterator.class);
 
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+      DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").withZoneUTC();
+
   private final Bigquery client;
   private TableReference ref;
   private final String projectId;
@@ -69,6 +81,22 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
   // Set true when the final page is seen from the service.
   private boolean lastPage = false;
 
+  // The number of pages to request ahead of the rows being returned, or 0 not to request ahead.
+  private int prefetchPages = 0;
+  // Whether rows are converted as they are returned, rather than as soon as their page is fetched.
+  private boolean lazyRowDecoding = true;
+  @Nullable private Counter<Long> pageLatencyCounter = null;
+  @Nullable private Counter<Long> rowConversionCounter = null;
+  // The number of rows converted, of which every ROW_CONVERSION_SAMPLE_PERIOD-th is timed.
+  private long rowsConverted = 0;
+
+  // Created when the first page is requested, if prefetching.
+  private ReadAheadQueue<Page> prefetchedPages;
+
+  // Timing every row would cost about as much as converting small rows, so only one row in this
+  // many is timed, and its time is scaled up to estimate the total.
+  private static final int ROW_CONVERSION_SAMPLE_PERIOD = 128;
+
   // The maximum number of times a BigQuery request will be retried
   private static final int MAX_RETRIES = 3;
   // Initial wait time for the backoff implementation
@@ -99,6 +127,43 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
 
   }
 
+  /**
+   * Returns this iterator, requesting up to {@code numPages} pages ahead of the rows being
+   * returned on a background thread. Must be called before the first row is read.
+   */
+  public BigQueryTableRowIterator withPrefetch(int numPages) {
+    Preconditions.checkArgument(numPages >= 0, "numPages must be non-negative");
+    Preconditions.checkState(rowIterator == null, "the iterator has already been started");
+    this.prefetchPages = numPages;
+    return this;
+  }
+
+  /**
+   * Returns this iterator, converting the cells of each row into a {@link TableRow} only when the
+   * row is returned by {@link #next} if {@code lazyRowDecoding} is true, which is the default, or
+   * as soon as the page of the row is fetched otherwise. When prefetching, pages fetched ahead
+   * are then converted on the background thread.
+   */
+  public BigQueryTableRowIterator withLazyRowDecoding(boolean lazyRowDecoding) {
+    Preconditions.checkState(rowIterator == null, "the iterator has already been started");
+    this.lazyRowDecoding = lazyRowDecoding;
+    return this;
+  }
+
+  /**
+   * Returns this iterator, reporting the mean latency of the requests for pages of rows in
+   * milliseconds and the total time spent converting rows in microseconds, estimated from a
+   * sample of the rows, to counters with the given prefix.
+   */
+  public BigQueryTableRowIterator withCounters(
+      CounterSet.AddCounterMutator addCounterMutator, String counterPrefix) {
+    this.pageLatencyCounter = addCounterMutator.addCounter(
+        Counter.longs(counterPrefix + "-BigQueryPageLatencyMillis", Counter.AggregationKind.MEAN));
+    this.rowConversionCounter = addCounterMutator.addCounter(
+        Counter.longs(counterPrefix + "-BigQueryRowConversionMicros", Counter.AggregationKind.SUM));
+    return this;
+  }
+
   @Override
   public boolean hasNext() {
     try {
@@ -131,7 +196,7 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
    * <p> Note that currently integers are encoded as strings to match
    * the behavior of the backend service.
    */
-  private Object getTypedCellValue(TableFieldSchema fieldSchema, Object v) {
+  private static Object getTypedCellValue(TableFieldSchema fieldSchema, Object v) {
     // In the input from the BQ API, atomic types all come in as
     // strings, while on the Dataflow service they have more precise
     // types.
@@ -168,15 +233,14 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
     if (fieldSchema.getType().equals("TIMESTAMP")) {
       // Seconds to milliseconds
       long milliSecs = (new Double(Double.parseDouble((String) v) * 1000)).longValue();
-      DateTimeFormatter formatter =
-          DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").withZoneUTC();
-      return formatter.print(milliSecs) + " UTC";
+      return TIMESTAMP_FORMATTER.print(milliSecs) + " UTC";
     }
 
     return v;
   }
 
-  private TableRow getTypedTableRow(List<TableFieldSchema> fields, Map<String, Object> rawRow) {
+  private static TableRow getTypedTableRow(
+      List<TableFieldSchema> fields, Map<String, Object> rawRow) {
     @SuppressWarnings("unchecked")
     List<Map<String, Object>> cells = (List<Map<String, Object>>) rawRow.get("f");
     Preconditions.checkState(cells.size() == fields.size());
@@ -199,10 +263,26 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
       throw new NoSuchElementException();
     }
 
-    // Embed schema information into the raw row, so that values have an
-    // associated key.  This matches how rows are read when using the
-    // DataflowPipelineRunner.
-    return getTypedTableRow(schema.getFields(), rowIterator.next());
+    if (!lazyRowDecoding) {
+      return rowIterator.next();
+    }
+    return convertRow(rowIterator.next());
+  }
+
+  /**
+   * Embeds schema information into the raw row, so that values have an
+   * associated key.  This matches how rows are read when using the
+   * DataflowPipelineRunner.
+   */
+  private TableRow convertRow(TableRow rawRow) {
+    if (rowConversionCounter == null || rowsConverted++ % ROW_CONVERSION_SAMPLE_PERIOD != 0) {
+      return getTypedTableRow(schema.getFields(), rawRow);
+    }
+    long startNanos = System.nanoTime();
+    TableRow row = getTypedTableRow(schema.getFields(), rawRow);
+    rowConversionCounter.addValue(TimeUnit.NANOSECONDS.toMicros(
+        (System.nanoTime() - startNanos) * ROW_CONVERSION_SAMPLE_PERIOD));
+    return row;
   }
 
   @Override
@@ -321,24 +401,96 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
       open();
     }
 
+    Page page;
+    if (prefetchPages > 0) {
+      if (prefetchedPages == null) {
+        startPrefetch();
+      }
+      // Reading stops at the last page, so there is always a next one.
+      page = prefetchedPages.take();
+    } else {
+      page = fetchPage(pageToken);
+    }
+
+    pageToken = page.result.getPageToken();
+    rowIterator = page.rows.iterator();
+    if (isLastPage(page.result)) {
+      lastPage = true;
+    }
+  }
+
+  /**
+   * Requests the page of rows with the given token, or the first page if it is null.
+   */
+  private Page fetchPage(@Nullable String token) throws IOException, InterruptedException {
     Bigquery.Tabledata.List list =
         client.tabledata().list(ref.getProjectId(), ref.getDatasetId(), ref.getTableId());
-    if (pageToken != null) {
-      list.setPageToken(pageToken);
+    if (token != null) {
+      list.setPageToken(token);
     }
 
+    long startNanos = System.nanoTime();
     TableDataList result =
         executeWithBackOff(list, "Error reading from BigQuery table %s of dataset %s : {}",
             ref.getTableId(), ref.getDatasetId());
+    if (pageLatencyCounter != null) {
+      pageLatencyCounter.addValue(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
 
-    pageToken = result.getPageToken();
-    rowIterator =
-        result.getRows() != null
-            ? result.getRows().iterator() : Collections.<TableRow>emptyIterator();
+    List<TableRow> rows =
+        result.getRows() != null ? result.getRows() : Collections.<TableRow>emptyList();
+    if (!lazyRowDecoding) {
+      List<TableRow> convertedRows = new ArrayList<>(rows.size());
+      for (TableRow rawRow : rows) {
+        convertedRows.add(convertRow(rawRow));
+      }
+      rows = convertedRows;
+    }
+    return new Page(result, rows);
+  }
 
+  private static boolean isLastPage(TableDataList result) {
     // The server may return a page token indefinitely on a zero-length table.
-    if (pageToken == null || result.getTotalRows() != null && result.getTotalRows() == 0) {
-      lastPage = true;
+    return result.getPageToken() == null
+        || result.getTotalRows() != null && result.getTotalRows() == 0;
+  }
+
+  /**
+   * Starts requesting pages on a background thread, which stops after the last page, after a
+   * failure, or once the iterator is closed.
+   */
+  private void startPrefetch() {
+    final String firstPageToken = pageToken;
+    prefetchedPages = ReadAheadQueue.start(
+        prefetchPages, "BigQueryTableRowIterator-Prefetch-%d", new ReadAheadQueue.Producer<Page>() {
+          private String token = firstPageToken;
+          private boolean done = false;
+
+          @Override
+          public Page next() throws IOException, InterruptedException {
+            if (done) {
+              return null;
+            }
+            Page page = fetchPage(token);
+            done = isLastPage(page.result);
+            token = page.result.getPageToken();
+            return page;
+          }
+        });
+  }
+
+  /**
+   * A page of rows returned by the service.
+   */
+  private static class Page {
+    final TableDataList result;
+    // The raw rows of the page, or the converted rows if rows are not decoded lazily.
+    final List<TableRow> rows;
+
+    Page(TableDataList result, List<TableRow> rows) {
+      this.result = result;
+      this.rows = rows;
     }
   }
 
@@ -346,6 +498,9 @@ public class BigQueryTableRowIterator implements Iterator<TableRow>, Closeable {
   public void close() throws IOException {
     // Prevent any further requests.
     lastPage = true;
+    if (prefetchedPages != null) {
+      prefetchedPages.close();
+    }
 
     try {
       // Deleting temporary table and dataset that gets generated when executing a query.
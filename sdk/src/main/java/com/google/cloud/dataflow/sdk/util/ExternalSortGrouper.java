@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Groups values by the encoding of their keys using a bounded amount of memory.
+ *
+ * <p>Keys and values are encoded as they are added. Once the encoded records buffered in memory
+ * exceed the memory budget, they are sorted by encoded key and written to a temporary file as a
+ * sorted run. {@link #groupByKey} merges the runs, at most {@link #MAX_MERGE_FAN_IN} at a time,
+ * into a single file sorted by key and returns one group per distinct key, whose values are
+ * decoded from that file each time they are iterated. If no run was written, the groups are
+ * built in memory instead.
+ *
+ * <p>Temporary files are deleted by {@link #close}, which must be called once the groups are no
+ * longer needed.
+ *
+ * <p>Within a group, values are returned in the order they were added.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ExternalSortGrouper<K, V> implements Closeable {
+
+  /** Estimated memory overhead of one buffered record, beyond its encoded bytes. */
+  private static final long RECORD_OVERHEAD_BYTES = 64;
+
+  /** The maximum number of runs read at once, each of which holds a file open while merging. */
+  static final int MAX_MERGE_FAN_IN = 64;
+
+  private static final Comparator<byte[]> KEY_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final Coder<K> keyCoder;
+  private final Coder<V> valueCoder;
+  private final long memoryBudgetBytes;
+  private final File tempDirectory;
+
+  private List<Record> buffer = new ArrayList<>();
+  private long bufferedBytes = 0;
+  private final List<File> runs = new ArrayList<>();
+  private File mergedFile;
+  private boolean grouped = false;
+
+  /**
+   * Creates a grouper that spills to files in {@code tempDirectory} once more than
+   * {@code memoryBudgetBytes} of encoded records are buffered.
+   */
+  public ExternalSortGrouper(
+      Coder<K> keyCoder, Coder<V> valueCoder, long memoryBudgetBytes, File tempDirectory) {
+    Preconditions.checkArgument(memoryBudgetBytes > 0,
+        "memoryBudgetBytes must be positive, got %s", memoryBudgetBytes);
+    this.keyCoder = keyCoder;
+    this.valueCoder = valueCoder;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.tempDirectory = tempDirectory;
+  }
+
+  /**
+   * Adds the key and value, which are encoded immediately. The encoding of the key
+   * determines which group the value belongs to.
+   */
+  public void add(K key, V value) throws IOException {
+    add(CoderUtils.encodeToByteArray(keyCoder, key), value);
+  }
+
+  /**
+   * Adds the value under the given already-encoded key.
+   */
+  public void add(byte[] encodedKey, V value) throws IOException {
+    Preconditions.checkState(!grouped, "add called after groupByKey");
+    Record record = new Record(encodedKey, CoderUtils.encodeToByteArray(valueCoder, value));
+    buffer.add(record);
+    bufferedBytes += record.key.length + record.value.length + RECORD_OVERHEAD_BYTES;
+    if (bufferedBytes > memoryBudgetBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of sorted runs that have been written to disk.
+   */
+  public int getNumSpilledRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Returns the groups of all the values added, in order of their encoded keys.
+   *
+   * <p>If any records were spilled, the values of each group are read from a temporary file
+   * that is kept until {@link #close} is called. No further values may be added.
+   */
+  public List<KV<K, Iterable<V>>> groupByKey() throws IOException {
+    Preconditions.checkState(!grouped, "groupByKey called more than once");
+    grouped = true;
+    if (runs.isEmpty()) {
+      return groupInMemory();
+    }
+    spill();
+    while (runs.size() > MAX_MERGE_FAN_IN) {
+      mergeRuns();
+    }
+    mergedFile = createTempFile("merged");
+    List<KV<K, Iterable<V>>> groups = new ArrayList<>();
+    try (MergingIterator records = new MergingIterator(runs);
+        CountingOutputStream out = new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(mergedFile)))) {
+      byte[] groupKey = null;
+      long groupStart = 0;
+      int groupSize = 0;
+      while (records.hasNext()) {
+        Record record = records.next();
+        if (groupKey == null || !Arrays.equals(groupKey, record.key)) {
+          if (groupKey != null) {
+            groups.add(makeSpilledGroup(groupKey, groupStart, groupSize));
+          }
+          groupKey = record.key;
+          groupStart = out.getCount();
+          groupSize = 0;
+        }
+        SpilledValues.write(record.value, out);
+        groupSize++;
+      }
+      if (groupKey != null) {
+        groups.add(makeSpilledGroup(groupKey, groupStart, groupSize));
+      }
+    }
+    deleteRuns();
+    return groups;
+  }
+
+  /**
+   * Merges each sequence of up to {@link #MAX_MERGE_FAN_IN} consecutive runs into a single run.
+   * Runs stay in the order their records were added, so values with equal keys do too.
+   */
+  private void mergeRuns() throws IOException {
+    List<File> mergedRuns = new ArrayList<>();
+    try {
+      for (int start = 0; start < runs.size(); start += MAX_MERGE_FAN_IN) {
+        File mergedRun = createTempFile("run");
+        mergedRuns.add(mergedRun);
+        try (MergingIterator records = new MergingIterator(
+                runs.subList(start, Math.min(start + MAX_MERGE_FAN_IN, runs.size())));
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(mergedRun))) {
+          while (records.hasNext()) {
+            Record record = records.next();
+            SpilledValues.write(record.key, out);
+            SpilledValues.write(record.value, out);
+          }
+        }
+      }
+    } catch (IOException e) {
+      for (File mergedRun : mergedRuns) {
+        mergedRun.delete();
+      }
+      throw e;
+    }
+    deleteRuns();
+    runs.addAll(mergedRuns);
+  }
+
+  private void deleteRuns() {
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+  }
+
+  /**
+   * Deletes any temporary files. Iterating the groups of spilled values after this is called
+   * fails.
+   */
+  @Override
+  public void close() {
+    deleteRuns();
+    if (mergedFile != null) {
+      mergedFile.delete();
+      mergedFile = null;
+    }
+  }
+
+  private List<KV<K, Iterable<V>>> groupInMemory() throws IOException {
+    Collections.sort(buffer);
+    List<KV<K, Iterable<V>>> groups = new ArrayList<>();
+    byte[] groupKey = null;
+    List<V> values = null;
+    for (Record record : buffer) {
+      if (groupKey == null || !Arrays.equals(groupKey, record.key)) {
+        groupKey = record.key;
+        values = new ArrayList<>();
+        groups.add(KV.<K, Iterable<V>>of(
+            CoderUtils.decodeFromByteArray(keyCoder, groupKey), values));
+      }
+      values.add(CoderUtils.decodeFromByteArray(valueCoder, record.value));
+    }
+    buffer = new ArrayList<>();
+    bufferedBytes = 0;
+    return groups;
+  }
+
+  private KV<K, Iterable<V>> makeSpilledGroup(byte[] encodedKey, long start, int size)
+      throws IOException {
+    return KV.<K, Iterable<V>>of(
+        CoderUtils.decodeFromByteArray(keyCoder, encodedKey),
+        new SpilledValues<>(valueCoder, mergedFile, start, size));
+  }
+
+  /**
+   * Sorts the buffered records by key and writes them to a new run. The sort is stable, so
+   * values with equal keys stay in the order they were added.
+   */
+  private void spill() throws IOException {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    Collections.sort(buffer);
+    File run = createTempFile("run");
+    runs.add(run);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(run))) {
+      for (Record record : buffer) {
+        SpilledValues.write(record.key, out);
+        SpilledValues.write(record.value, out);
+      }
+    }
+    buffer = new ArrayList<>();
+    bufferedBytes = 0;
+  }
+
+  private File createTempFile(String suffix) throws IOException {
+    return File.createTempFile("groupbykey-", "-" + suffix, tempDirectory);
+  }
+
+  /**
+   * Reads a length-prefixed byte array, or returns null at the end of the stream.
+   */
+  private static byte[] readBytes(InputStream in) throws IOException {
+    int length;
+    try {
+      length = VarInt.decodeInt(in);
+    } catch (EOFException e) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    ByteStreams.readFully(in, bytes);
+    return bytes;
+  }
+
+  /** An encoded key and value. */
+  private static class Record implements Comparable<Record> {
+    private final byte[] key;
+    private final byte[] value;
+
+    private Record(byte[] key, byte[] value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public int compareTo(Record other) {
+      return KEY_COMPARATOR.compare(key, other.key);
+    }
+  }
+
+  /**
+   * Merges sorted runs into a single sequence of records sorted by key. Records with equal keys
+   * are returned in the order of their runs, which is the order they were added.
+   */
+  private static class MergingIterator extends AbstractIterator<Record> implements Closeable {
+    private final List<InputStream> inputs = new ArrayList<>();
+    private final PriorityQueue<RunHead> heads;
+
+    private MergingIterator(List<File> runs) throws IOException {
+      heads = new PriorityQueue<>(Math.max(1, runs.size()));
+      try {
+        for (File run : runs) {
+          InputStream in = new BufferedInputStream(new FileInputStream(run));
+          inputs.add(in);
+          advance(inputs.size() - 1, in);
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    private void advance(int runIndex, InputStream in) throws IOException {
+      byte[] key = readBytes(in);
+      if (key != null) {
+        byte[] value = readBytes(in);
+        if (value == null) {
+          throw new EOFException("Truncated record in sorted run " + runIndex);
+        }
+        heads.add(new RunHead(new Record(key, value), runIndex));
+      }
+    }
+
+    @Override
+    protected Record computeNext() {
+      RunHead head = heads.poll();
+      if (head == null) {
+        return endOfData();
+      }
+      try {
+        advance(head.runIndex, inputs.get(head.runIndex));
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to read sorted run", e);
+      }
+      return head.record;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (InputStream in : inputs) {
+        in.close();
+      }
+    }
+  }
+
+  /** The next record of a sorted run. */
+  private static class RunHead implements Comparable<RunHead> {
+    private final Record record;
+    private final int runIndex;
+
+    private RunHead(Record record, int runIndex) {
+      this.record = record;
+      this.runIndex = runIndex;
+    }
+
+    @Override
+    public int compareTo(RunHead other) {
+      int result = record.compareTo(other.record);
+      return result != 0 ? result : Integer.compare(runIndex, other.runIndex);
+    }
+  }
+}
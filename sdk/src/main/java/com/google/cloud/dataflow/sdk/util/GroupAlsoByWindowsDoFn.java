@@ -21,11 +21,18 @@ import com.google.cloud.dataflow.sdk.transforms.Aggregator;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.Sum;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.util.state.SpillingStateInternals;
+import com.google.cloud.dataflow.sdk.util.state.StateInternals;
 import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.common.base.Preconditions;
 
 import org.joda.time.Instant;
 
+import java.io.IOException;
+import java.util.Collection;
+
 /**
  * DoFn that merges windows and groups elements in those windows, optionally
  * combining values.
@@ -76,10 +83,21 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
             SystemReduceFn.<K, InputT, AccumT, OutputT, W>combining(keyCoder, combineFn));
   }
 
+  /**
+   * Groups the values of each key with a {@link ReduceFnRunner}, advancing the watermark to the
+   * timestamp of each value, so that windows are emitted and their state released as soon as the
+   * timestamp-sorted values pass them. Buffered values are spilled to local disk once they exceed
+   * {@link #MEMORY_BUDGET_BYTES}. Values output from a spilled window are read lazily from its
+   * spill file, which is only deleted once the output is no longer reachable, so they are not
+   * copied into memory.
+   */
   @SystemDoFnInternal
   private static class GABWViaOutputBufferDoFn<K, InputT, OutputT, W extends BoundedWindow>
      extends GroupAlsoByWindowsDoFn<K, InputT, OutputT, W> {
 
+    /** The encoded values of a key buffered in memory before they are spilled to disk. */
+    private static final long MEMORY_BUDGET_BYTES = 32L << 20;
+
     private final Aggregator<Long, Long> droppedDueToClosedWindow =
         createAggregator(ReduceFnRunner.DROPPED_DUE_TO_CLOSED_WINDOW_COUNTER, new Sum.SumLongFn());
     private final Aggregator<Long, Long> droppedDueToLateness =
@@ -106,8 +124,24 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
       // watermark, knowing that we have all data and it is in timestamp order.
       BatchTimerInternals timerInternals = new BatchTimerInternals(Instant.now());
 
+      SpillingStateInternals stateInternals =
+          new SpillingStateInternals(MEMORY_BUDGET_BYTES, null /* default temp directory */);
+      try {
+        processKey(c, key, timerInternals, stateInternals);
+      } finally {
+        // Release the files of any windows that were spilled, which are deleted once no output
+        // reads them.
+        stateInternals.clear();
+      }
+    }
+
+    private void processKey(
+        DoFn<KV<K, Iterable<WindowedValue<InputT>>>, KV<K, OutputT>>.ProcessContext c,
+        K key, BatchTimerInternals timerInternals, SpillingStateInternals stateInternals)
+        throws Exception {
       ReduceFnRunner<K, InputT, OutputT, W> runner = new ReduceFnRunner<>(
-          key, strategy, timerInternals, c.windowingInternals(),
+          key, strategy, timerInternals,
+          new SpillingWindowingInternals<>(c.windowingInternals(), stateInternals),
           droppedDueToClosedWindow, droppedDueToLateness, reduceFnFactory.create(key));
 
       for (WindowedValue<InputT> e : c.element().getValue()) {
@@ -134,4 +168,51 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
       runner.persist();
     }
   }
+
+  /**
+   * {@link WindowingInternals} that forwards to another, but with {@link SpillingStateInternals}.
+   */
+  private static class SpillingWindowingInternals<InputT, OutputT>
+      implements WindowingInternals<InputT, OutputT> {
+    private final WindowingInternals<InputT, OutputT> delegate;
+    private final SpillingStateInternals stateInternals;
+
+    private SpillingWindowingInternals(
+        WindowingInternals<InputT, OutputT> delegate, SpillingStateInternals stateInternals) {
+      this.delegate = delegate;
+      this.stateInternals = stateInternals;
+    }
+
+    @Override
+    public StateInternals stateInternals() {
+      return stateInternals;
+    }
+
+    @Override
+    public void outputWindowedValue(OutputT output, Instant timestamp,
+        Collection<? extends BoundedWindow> windows, PaneInfo pane) {
+      delegate.outputWindowedValue(output, timestamp, windows, pane);
+    }
+
+    @Override
+    public TimerInternals timerInternals() {
+      return delegate.timerInternals();
+    }
+
+    @Override
+    public Collection<? extends BoundedWindow> windows() {
+      return delegate.windows();
+    }
+
+    @Override
+    public PaneInfo pane() {
+      return delegate.pane();
+    }
+
+    @Override
+    public <T> void writePCollectionViewData(
+        TupleTag<?> tag, Iterable<WindowedValue<T>> data, Coder<T> elemCoder) throws IOException {
+      delegate.writePCollectionViewData(tag, data, elemCoder);
+    }
+  }
 }
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+/**
+ * Executor that runs tasks for the same key on the same thread where possible, and blocks on
+ * execute() if too many tasks are queued.
+ *
+ * <p>Each thread has its own deque of tasks. A task submitted with a key is added to the deque of
+ * the thread the key hashes to, so consecutive tasks for a key usually run on the same thread
+ * and find the data they used before in its caches. A thread whose deque is empty steals the
+ * oldest task of another thread's deque, so that a few busy keys cannot leave threads idle.
+ * Idle threads park until a task is queued for a busy thread; they do not poll for work. A thread
+ * that stays idle for the keep-alive time ends, and is started again when it is next needed.
+ *
+ * <p>Tasks for the same key may still run concurrently on different threads; callers that need
+ * tasks for a key to run one at a time must not submit the next one before the previous one
+ * completes.
+ */
+public class KeyAffineExecutor extends AbstractExecutorService {
+  private static final Logger LOG = LoggerFactory.getLogger(KeyAffineExecutor.class);
+
+  private static class ReducableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 0;
+
+    ReducableSemaphore(int permits) {
+      super(permits);
+    }
+
+    @Override
+    public void reducePermits(int permits) {
+      super.reducePermits(permits);
+    }
+  }
+
+  private final Worker[] workers;
+  private final long keepAliveNanos;
+  private final ThreadFactory threadFactory;
+  private final ReducableSemaphore semaphore;
+  private final AtomicInteger nextUnkeyedWorker = new AtomicInteger();
+  private final AtomicInteger activeCount = new AtomicInteger();
+  private final ThreadLocal<Integer> currentWorkerIndex = new ThreadLocal<>();
+  private volatile boolean shutdown = false;
+
+  /**
+   * @param numThreads the number of threads, each of which is started when it is first given a
+   *     task or needed to steal one
+   * @param keepAliveTime the time after which an idle thread ends
+   * @param unit the unit of {@code keepAliveTime}
+   * @param maximumQueueSize the number of queued tasks above which {@link #execute} blocks
+   * @param threadFactory the factory creating the threads
+   */
+  public KeyAffineExecutor(int numThreads, long keepAliveTime, TimeUnit unit,
+      int maximumQueueSize, ThreadFactory threadFactory) {
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+    Preconditions.checkArgument(keepAliveTime > 0, "keepAliveTime must be positive");
+    this.workers = new Worker[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      workers[i] = new Worker(i);
+    }
+    this.keepAliveNanos = unit.toNanos(keepAliveTime);
+    this.threadFactory = threadFactory;
+    this.semaphore = new ReducableSemaphore(maximumQueueSize);
+  }
+
+  /**
+   * Runs the task on the thread for the key, blocking while the queue is full.
+   */
+  public void execute(Object key, Runnable r) {
+    semaphore.acquireUninterruptibly();
+    submit(workerFor(key), r);
+  }
+
+  /**
+   * Runs the task on any thread, blocking while the queue is full.
+   */
+  @Override
+  public void execute(Runnable r) {
+    semaphore.acquireUninterruptibly();
+    submit(nextUnkeyedWorker(), r);
+  }
+
+  /**
+   * Runs the task on the thread for the key, ignoring the queue limit.
+   */
+  public void forceExecute(Object key, Runnable r) {
+    semaphore.reducePermits(1);
+    submit(workerFor(key), r);
+  }
+
+  /**
+   * Runs the task on any thread, ignoring the queue limit.
+   */
+  public void forceExecute(Runnable r) {
+    semaphore.reducePermits(1);
+    submit(nextUnkeyedWorker(), r);
+  }
+
+  /**
+   * Returns the index of the executor's thread calling this method, which is less than the
+   * number of threads, or -1 if it is called from another thread.
+   */
+  public int getCurrentThreadIndex() {
+    Integer index = currentWorkerIndex.get();
+    return index == null ? -1 : index;
+  }
+
+  public int getNumThreads() {
+    return workers.length;
+  }
+
+  /** Returns the number of threads that have been started. */
+  public int getPoolSize() {
+    int started = 0;
+    for (Worker worker : workers) {
+      if (worker.thread != null) {
+        started++;
+      }
+    }
+    return started;
+  }
+
+  /** Returns the number of threads running a task. */
+  public int getActiveCount() {
+    return activeCount.get();
+  }
+
+  /** Returns the number of tasks waiting to run. */
+  public int getQueuedCount() {
+    int queued = 0;
+    for (Worker worker : workers) {
+      queued += worker.tasks.size();
+    }
+    return queued;
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    for (Worker worker : workers) {
+      worker.wake();
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown();
+    List<Runnable> pending = new ArrayList<>();
+    for (Worker worker : workers) {
+      worker.tasks.drainTo(pending);
+      if (worker.thread != null) {
+        worker.thread.interrupt();
+      }
+    }
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    if (!shutdown) {
+      return false;
+    }
+    for (Worker worker : workers) {
+      if (worker.thread != null && worker.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Worker worker : workers) {
+      Thread thread = worker.thread;
+      if (thread == null) {
+        continue;
+      }
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        return isTerminated();
+      }
+      thread.join(remainingMillis);
+    }
+    return isTerminated();
+  }
+
+  private Worker workerFor(Object key) {
+    return workers[(key.hashCode() & Integer.MAX_VALUE) % workers.length];
+  }
+
+  private Worker nextUnkeyedWorker() {
+    return workers[(nextUnkeyedWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+  }
+
+  private void submit(Worker worker, Runnable r) {
+    if (shutdown) {
+      semaphore.release();
+      throw new RejectedExecutionException("Executor has been shut down");
+    }
+    worker.tasks.addLast(r);
+    worker.startOrWake();
+    if (worker.running) {
+      // The owner will not take the task until its current one completes.
+      wakeThief(worker);
+    }
+  }
+
+  /**
+   * Wakes an idle thread, or starts a new one, to steal a task queued for a busy thread instead of
+   * letting the task wait for it.
+   *
+   * @param busy the thread the task is queued for, which is not woken
+   */
+  private void wakeThief(Worker busy) {
+    Worker thief = null;
+    for (Worker other : workers) {
+      if (other == busy) {
+        continue;
+      } else if (other.idle) {
+        thief = other;
+        break;
+      } else if (thief == null && other.thread == null) {
+        thief = other;
+      }
+    }
+    if (thief != null) {
+      thief.startOrWake();
+    }
+  }
+
+  /**
+   * Takes a task from another thread's deque, or returns null if there is none.
+   */
+  @Nullable
+  private Runnable steal(Worker thief) {
+    for (int i = 1; i < workers.length; i++) {
+      Worker victim = workers[(thief.index + i) % workers.length];
+      // Take the oldest task, which has waited longest for its owner.
+      Runnable task = victim.tasks.pollFirst();
+      if (task != null) {
+        if (!victim.tasks.isEmpty()) {
+          // Only one thief is woken per task queued for a busy thread, so pass on the wakeup
+          // while tasks remain.
+          wakeThief(thief);
+        }
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /** A thread and its deque of tasks. */
+  private class Worker implements Runnable {
+    private final int index;
+    // Tasks are added at the end and taken by the owner from the front.
+    private final LinkedBlockingDeque<Runnable> tasks = new LinkedBlockingDeque<>();
+    private volatile Thread thread;
+    private volatile boolean running = false;
+    private volatile boolean idle = false;
+    // Set when the thread is woken, so that it does not end while it may have a task to run.
+    private volatile boolean woken = false;
+
+    Worker(int index) {
+      this.index = index;
+    }
+
+    synchronized void startOrWake() {
+      if (thread == null) {
+        thread = threadFactory.newThread(this);
+        thread.start();
+      } else {
+        woken = true;
+        LockSupport.unpark(thread);
+      }
+    }
+
+    /**
+     * Ends the thread unless it was woken or given a task since it last looked for one, in which
+     * case it must look again. A later {@link #startOrWake} starts a new thread.
+     */
+    synchronized boolean retire() {
+      if (woken || !tasks.isEmpty()) {
+        return false;
+      }
+      thread = null;
+      return true;
+    }
+
+    void wake() {
+      Thread current = thread;
+      if (current != null) {
+        LockSupport.unpark(current);
+      }
+    }
+
+    @Override
+    public void run() {
+      currentWorkerIndex.set(index);
+      long idleSince = System.nanoTime();
+      while (true) {
+        Runnable task = tasks.pollFirst();
+        if (task == null) {
+          task = steal(this);
+        }
+        if (task == null) {
+          if (shutdown) {
+            return;
+          }
+          idle = true;
+          woken = false;
+          // Check again after announcing we are idle: a submit that did not see us idle queued
+          // its task before we look here, and any later submit will unpark us.
+          task = tasks.pollFirst();
+          if (task == null) {
+            task = steal(this);
+          }
+          if (task == null && !shutdown) {
+            long remainingNanos = keepAliveNanos - (System.nanoTime() - idleSince);
+            if (remainingNanos > 0) {
+              LockSupport.parkNanos(this, remainingNanos);
+            } else if (retire()) {
+              idle = false;
+              return;
+            }
+          }
+          idle = false;
+          if (task == null) {
+            continue;
+          }
+        }
+        semaphore.release();
+        running = true;
+        if (!tasks.isEmpty()) {
+          // Tasks submitted before we were running did not find us busy.
+          wakeThief(this);
+        }
+        activeCount.incrementAndGet();
+        try {
+          task.run();
+        } catch (RuntimeException | Error e) {
+          LOG.error("Uncaught exception in task: ", e);
+        } finally {
+          // Clear running before the active count drops, so that a task submitted after
+          // getActiveCount() has seen this thread finish does not wake a thief for it.
+          running = false;
+          activeCount.decrementAndGet();
+          idleSince = System.nanoTime();
+        }
+      }
+    }
+  }
+}
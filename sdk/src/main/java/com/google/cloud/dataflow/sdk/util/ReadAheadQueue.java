@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Produces elements on a background thread ahead of the thread that takes them, handing them over
+ * in order through a bounded queue, so that the consumer does not wait for each element to be
+ * produced.
+ *
+ * <p>The thread stops after the last element, after the first failure to produce one, or once the
+ * queue is closed. A failure is thrown by {@link #take} in place of the element that could not be
+ * produced, and again by every later call.
+ *
+ * <p>Not thread-safe: {@link #take} and {@link #close} must be called by a single thread.
+ *
+ * @param <T> the type of the elements
+ */
+public class ReadAheadQueue<T> implements Closeable {
+  /**
+   * Produces the elements to read ahead. Called by the background thread only.
+   */
+  public interface Producer<T> {
+    /**
+     * Returns the next element, or null once there are no more. An {@link InterruptedException}
+     * stops the thread quietly, since it is only expected once the queue is closed.
+     */
+    @Nullable
+    T next() throws Exception;
+  }
+
+  private final ExecutorService executor;
+  private final BlockingQueue<Slot<T>> queue;
+  private volatile boolean closed = false;
+  // The end or the failure, once taken from the queue.
+  private Slot<T> last = null;
+
+  /**
+   * Starts producing up to {@code capacity} elements ahead of the consumer on a daemon thread
+   * named after {@code threadNameFormat}.
+   */
+  public static <T> ReadAheadQueue<T> start(
+      int capacity, String threadNameFormat, Producer<T> producer) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive, got %s", capacity);
+    ReadAheadQueue<T> queue = new ReadAheadQueue<>(capacity, threadNameFormat);
+    queue.executor.execute(queue.new ProduceTask(producer));
+    return queue;
+  }
+
+  private ReadAheadQueue(int capacity, String threadNameFormat) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat(threadNameFormat)
+        .build());
+  }
+
+  /**
+   * Returns the next element, waiting for it to be produced, or null if there are no more.
+   *
+   * @throws IOException if the producer failed to produce the element. The failure is rethrown as
+   * is if it is an {@link IOException}, an unchecked exception or an {@link Error}, and wrapped
+   * otherwise
+   */
+  @Nullable
+  public T take() throws IOException {
+    Slot<T> slot = last;
+    if (slot == null) {
+      try {
+        slot = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for an element read ahead");
+      }
+    }
+    if (slot.failure != null) {
+      last = slot;
+      Throwables.propagateIfInstanceOf(slot.failure, IOException.class);
+      Throwables.propagateIfPossible(slot.failure);
+      throw new IOException(slot.failure);
+    }
+    if (slot.element == null) {
+      last = slot;
+    }
+    return slot.element;
+  }
+
+  /**
+   * Stops the background thread and waits for it to finish, so that the caller may release what
+   * the producer uses once this returns.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    executor.shutdownNow();
+    // Makes room for an element the thread may be putting if its producer swallowed the interrupt.
+    queue.clear();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the read-ahead thread");
+    }
+  }
+
+  private class ProduceTask implements Runnable {
+    private final Producer<T> producer;
+
+    ProduceTask(Producer<T> producer) {
+      this.producer = producer;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Slot<T> slot;
+        do {
+          try {
+            slot = new Slot<>(producer.next(), null);
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Throwable t) {
+            // Errors are handed over too, or the consumer would wait for the element forever.
+            slot = new Slot<>(null, t);
+          }
+          queue.put(slot);
+        } while (slot.element != null && !closed);
+      } catch (InterruptedException e) {
+        // The queue was closed.
+      }
+    }
+  }
+
+  /**
+   * An element, the end of the elements if both fields are null, or the failure to produce one.
+   */
+  private static class Slot<T> {
+    @Nullable final T element;
+    @Nullable final Throwable failure;
+
+    Slot(@Nullable T element, @Nullable Throwable failure) {
+      this.element = element;
+      this.failure = failure;
+    }
+  }
+}
@@ -37,9 +37,12 @@ import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -138,43 +141,86 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow>
   }
 
   public void processElement(WindowedValue<InputT> value) {
-    Lateness lateness = getLateness(value);
-    if (lateness.isPastAllowedLateness) {
-      // Drop the element in all assigned windows if it is past the allowed lateness limit.
-      droppedDueToLateness.addValue((long) value.getWindows().size());
-      return;
-    }
+    processElements(Collections.singletonList(value));
+  }
 
-    @SuppressWarnings("unchecked")
-    Collection<W> windows = (Collection<W>) value.getWindows();
+  /**
+   * Processes several elements, such as the elements for the key in a bundle, at once.
+   *
+   * <p>The elements are grouped by window, so that the state of each window is prefetched and
+   * checked once, the watermark hold of each window is updated once, and, if the trigger allows
+   * it, the trigger is run once for all the elements in a window.
+   */
+  public void processElements(Iterable<WindowedValue<InputT>> values) {
+    // Group the elements by window, in the order in which the windows are first seen.
+    Map<W, List<WindowedValue<InputT>>> valuesByWindow = new LinkedHashMap<>();
+    for (WindowedValue<InputT> value : values) {
+      if (getLateness(value).isPastAllowedLateness) {
+        // Drop the element in all assigned windows if it is past the allowed lateness limit.
+        droppedDueToLateness.addValue((long) value.getWindows().size());
+        continue;
+      }
+
+      @SuppressWarnings("unchecked")
+      Collection<W> windows = (Collection<W>) value.getWindows();
+      for (W window : windows) {
+        List<WindowedValue<InputT>> windowValues = valuesByWindow.get(window);
+        if (windowValues == null) {
+          windowValues = new ArrayList<>();
+          valuesByWindow.put(window, windowValues);
+        }
+        windowValues.add(value);
+      }
+    }
 
     // Prefetch in each of the windows
-    for (W window : windows) {
-      ReduceFn<K, InputT, OutputT, W>.ProcessValueContext context =
-          contextFactory.forValue(window, value.getValue(), value.getTimestamp());
-      triggerRunner.prefetchForValue(context.state());
+    for (W window : valuesByWindow.keySet()) {
+      triggerRunner.prefetchForValue(contextFactory.base(window).state());
     }
 
     // And process each of the windows
-    for (W window : windows) {
-      ReduceFn<K, InputT, OutputT, W>.ProcessValueContext context =
-          contextFactory.forValue(window, value.getValue(), value.getTimestamp());
-
-      // Check to see if the triggerRunner thinks the window is closed. If so, drop that window.
-      if (triggerRunner.isClosed(context.state())) {
-        droppedDueToClosedWindow.addValue(1L);
-        continue;
+    boolean processValuesTogether = triggerRunner.canProcessValuesTogether();
+    for (Map.Entry<W, List<WindowedValue<InputT>>> entry : valuesByWindow.entrySet()) {
+      if (processValuesTogether || entry.getValue().size() == 1) {
+        processValuesInWindow(entry.getKey(), entry.getValue());
+      } else {
+        // The trigger may fire or finish after any of the values, so run it for each of them.
+        for (WindowedValue<InputT> value : entry.getValue()) {
+          processValuesInWindow(entry.getKey(), Collections.singletonList(value));
+        }
       }
+    }
+  }
 
-      // If this is a new window
-      if (activeWindows.add(window)) {
-        // And schedule cleanup
-        scheduleCleanup(context);
-      }
-      nonEmptyPanes.recordContent(context);
+  /**
+   * Adds the values to the pane of the window, then runs the trigger for the last of them.
+   */
+  private void processValuesInWindow(W window, List<WindowedValue<InputT>> values) {
+    ReduceFn<K, InputT, OutputT, W>.Context windowContext = contextFactory.base(window);
+
+    // Check to see if the triggerRunner thinks the window is closed. If so, drop that window.
+    if (triggerRunner.isClosed(windowContext.state())) {
+      droppedDueToClosedWindow.addValue((long) values.size());
+      return;
+    }
+
+    // If this is a new window
+    if (activeWindows.add(window)) {
+      // And schedule cleanup
+      scheduleCleanup(windowContext);
+    }
+    nonEmptyPanes.recordContent(windowContext);
 
-      // Update the watermark hold since the value will be part of the next pane.
-      watermarkHold.addHold(context, lateness.isLate);
+    ReduceFn<K, InputT, OutputT, W>.ProcessValueContext context = null;
+    Instant holdTo = null;
+    for (WindowedValue<InputT> value : values) {
+      context = contextFactory.forValue(window, value.getValue(), value.getTimestamp());
+
+      Instant valueHoldTo =
+          watermarkHold.holdFor(window, value.getTimestamp(), getLateness(value).isLate);
+      if (holdTo == null || valueHoldTo.isBefore(holdTo)) {
+        holdTo = valueHoldTo;
+      }
 
       // Execute the reduceFn, which will buffer the value as appropriate
       try {
@@ -182,14 +228,17 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow>
       } catch (Exception e) {
         throw wrapMaybeUserException(e);
       }
+    }
 
-      // Run the trigger and handle the result as appropriate
-      try {
-        handleTriggerResult(context, false, triggerRunner.processValue(context));
-      } catch (Exception e) {
-        Throwables.propagateIfPossible(e);
-        throw new RuntimeException("Failed to run trigger", e);
-      }
+    // Update the watermark hold since the values will be part of the next pane.
+    watermarkHold.addHold(windowContext, holdTo);
+
+    // Run the trigger and handle the result as appropriate
+    try {
+      handleTriggerResult(context, false, triggerRunner.processValue(context));
+    } catch (Exception e) {
+      Throwables.propagateIfPossible(e);
+      throw new RuntimeException("Failed to run trigger", e);
     }
   }
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A temporary file that values are spilled to, which may be read by {@link SpilledValues} after
+ * the writer is done with it, such as values that are output after the state they were spilled
+ * from has been cleared.
+ *
+ * <p>The writer calls {@link #release} instead of deleting the file. If no {@link SpilledValues}
+ * was created for the file, it is deleted immediately. Otherwise it is deleted once this object,
+ * which every such {@link SpilledValues} refers to, is no longer reachable. Files that became
+ * unreachable are deleted the next time a file is created or released.
+ */
+public final class SpillFile {
+
+  /** The released files that are read by {@link SpilledValues}, until they are unreachable. */
+  private static final Set<Deletion> PENDING_DELETIONS =
+      Collections.newSetFromMap(new ConcurrentHashMap<Deletion, Boolean>());
+
+  private static final ReferenceQueue<SpillFile> UNREACHABLE = new ReferenceQueue<>();
+
+  private final File file;
+  private volatile boolean read = false;
+
+  /**
+   * Creates a new empty file in {@code directory}, or the default temporary directory if it is
+   * null, whose name starts with {@code prefix} and ends with {@code suffix}.
+   */
+  public static SpillFile create(String prefix, String suffix, @Nullable File directory)
+      throws IOException {
+    deleteUnreachable();
+    return new SpillFile(File.createTempFile(prefix, suffix, directory));
+  }
+
+  private SpillFile(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Marks the file as read by a {@link SpilledValues}, which keeps it from being deleted while
+   * this object is reachable.
+   */
+  void markRead() {
+    read = true;
+  }
+
+  /**
+   * Releases the file from its writer, which must not write to it any more. The file is deleted
+   * now if it has not been read, and otherwise once this object is no longer reachable.
+   */
+  public void release() {
+    if (read) {
+      PENDING_DELETIONS.add(new Deletion(this));
+    } else {
+      file.delete();
+    }
+    deleteUnreachable();
+  }
+
+  /**
+   * Deletes the released files that are no longer reachable.
+   */
+  private static void deleteUnreachable() {
+    Reference<? extends SpillFile> reference;
+    while ((reference = UNREACHABLE.poll()) != null) {
+      Deletion deletion = (Deletion) reference;
+      deletion.file.delete();
+      PENDING_DELETIONS.remove(deletion);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+
+  /** Deletes a file once its {@link SpillFile} is unreachable. */
+  private static class Deletion extends PhantomReference<SpillFile> {
+    private final File file;
+
+    private Deletion(SpillFile spillFile) {
+      super(spillFile, UNREACHABLE);
+      this.file = spillFile.file;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import javax.annotation.Nullable;
+
+/**
+ * Values spilled to a temporary file, which are decoded from the file each time they are
+ * iterated.
+ *
+ * <p>The values are stored one after the other in a range of the file, each encoded with
+ * {@link CoderUtils#encodeToByteArray} and written by {@link #write}. Iterators read the
+ * values in batches of about {@link #READ_BATCH_BYTES}, opening the file for each batch and
+ * closing it before any value is returned, so that iterators which are not exhausted do not
+ * hold on to file handles.
+ *
+ * @param <T> the type of the values
+ */
+public class SpilledValues<T> implements Iterable<T> {
+
+  /** The approximate number of encoded bytes read each time the file is opened. */
+  static final int READ_BATCH_BYTES = 64 << 10;
+
+  private final Coder<T> coder;
+  private final File file;
+  // Keeps the file from being deleted while these values are reachable, if it is owned by one.
+  @Nullable private final SpillFile spillFile;
+  private final long start;
+  private final int size;
+
+  /**
+   * Creates the values of the given coder written to {@code file} by {@code size} calls to
+   * {@link #write}, starting at offset {@code start}.
+   */
+  public SpilledValues(Coder<T> coder, File file, long start, int size) {
+    this(coder, file, null, start, size);
+  }
+
+  /**
+   * Creates the values of the given coder written to {@code spillFile} by {@code size} calls to
+   * {@link #write}, starting at offset {@code start}. The file is not deleted while these values
+   * are reachable, even once it has been released.
+   */
+  public SpilledValues(Coder<T> coder, SpillFile spillFile, long start, int size) {
+    this(coder, spillFile.getFile(), spillFile, start, size);
+    spillFile.markRead();
+  }
+
+  private SpilledValues(
+      Coder<T> coder, File file, @Nullable SpillFile spillFile, long start, int size) {
+    this.coder = coder;
+    this.file = file;
+    this.spillFile = spillFile;
+    this.start = start;
+    this.size = size;
+  }
+
+  /**
+   * Writes an encoded value, preceded by its length, and returns the number of bytes written.
+   */
+  public static int write(byte[] encoded, OutputStream out) throws IOException {
+    VarInt.encode(encoded.length, out);
+    out.write(encoded);
+    return VarInt.getLength(encoded.length) + encoded.length;
+  }
+
+  /**
+   * Returns the number of values.
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new AbstractIterator<T>() {
+      private final Deque<byte[]> batch = new ArrayDeque<>();
+      private long position = start;
+      private int unread = size;
+
+      @Override
+      protected T computeNext() {
+        if (batch.isEmpty()) {
+          if (unread == 0) {
+            return endOfData();
+          }
+          readBatch();
+        }
+        try {
+          return CoderUtils.decodeFromByteArray(coder, batch.removeFirst());
+        } catch (IOException e) {
+          throw new RuntimeException("Unable to decode value spilled to " + file, e);
+        }
+      }
+
+      private void readBatch() {
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+          FileChannel channel = fileIn.getChannel();
+          channel.position(position);
+          InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+          long batchBytes = 0;
+          while (unread > 0 && batchBytes < READ_BATCH_BYTES) {
+            byte[] encoded = new byte[VarInt.decodeInt(in)];
+            ByteStreams.readFully(in, encoded);
+            batch.addLast(encoded);
+            batchBytes += VarInt.getLength(encoded.length) + encoded.length;
+            unread--;
+          }
+          position += batchBytes;
+        } catch (IOException e) {
+          throw new RuntimeException("Unable to read values spilled to " + file, e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "SpilledValues[" + size + " values]";
+  }
+}
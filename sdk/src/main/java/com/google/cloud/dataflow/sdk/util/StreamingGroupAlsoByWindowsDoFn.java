@@ -24,6 +24,9 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.common.base.Preconditions;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * DoFn that merges windows and groups elements in those windows.
  *
@@ -68,6 +71,9 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
 
     private transient ReduceFnRunner<K, InputT, OutputT, W> runner;
 
+    /** The values received since the last timer, which are processed together. */
+    private transient List<WindowedValue<InputT>> bufferedValues;
+
     public StreamingGABWViaWindowSetDoFn(WindowingStrategy<?, W> windowingStrategy,
         SystemReduceFn.Factory<K, InputT, OutputT, W> reduceFnFactory) {
       @SuppressWarnings("unchecked")
@@ -99,6 +105,7 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
       @SuppressWarnings("unchecked")
       K key = (K) c.element().key();
       initForKey(c, key);
+      processBufferedValues();
       runner.onTimer(c.element().getTimer());
     }
 
@@ -106,7 +113,10 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
       K key = c.element().element().getKey();
       initForKey(c, key);
       InputT value = c.element().element().getValue();
-      runner.processElement(
+      if (bufferedValues == null) {
+        bufferedValues = new ArrayList<>();
+      }
+      bufferedValues.add(
           WindowedValue.of(
               value,
               c.timestamp(),
@@ -114,9 +124,18 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
               c.pane()));
     }
 
+    private void processBufferedValues() {
+      if (bufferedValues != null && !bufferedValues.isEmpty()) {
+        runner.processElements(bufferedValues);
+        bufferedValues.clear();
+      }
+    }
+
     @Override
     public void finishBundle(Context c) throws Exception {
       if (runner != null) {
+        processBufferedValues();
+
         // Merge before finishing the bundle in case it causes triggers to fire.
         runner.merge();
         runner.persist();
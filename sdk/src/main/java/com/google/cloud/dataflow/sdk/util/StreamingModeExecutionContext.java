@@ -331,7 +331,8 @@ public class StreamingModeExecutionContext extends DataflowExecutionContext {
      */
     public void start(WindmillStateReader stateReader, Instant inputDataWatermark) {
       boolean useStateFamilies = !stateNameMap.isEmpty();
-      this.stateInternals = new WindmillStateInternals(prefix, useStateFamilies, stateReader);
+      this.stateInternals = new WindmillStateInternals(
+          prefix, useStateFamilies, stateReader, stateReader.getCache());
       this.timerInternals = new WindmillTimerInternals(
           stateFamily, Preconditions.checkNotNull(inputDataWatermark));
     }
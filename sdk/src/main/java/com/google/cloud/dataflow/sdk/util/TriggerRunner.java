@@ -217,6 +217,16 @@ public class TriggerRunner<W extends BoundedWindow> {
     rootTrigger.getSpec().prefetchOnElement(state);
   }
 
+  /**
+   * Returns true if running the trigger for the last of several values in a window has the same
+   * effect as running it for each of them in turn, so that {@link #processValue} only needs to be
+   * called once for a batch of values. This is the case for the {@link DefaultTrigger}, which
+   * never fires on an element and sets the same timer for each of them.
+   */
+  public boolean canProcessValuesTogether() {
+    return rootTrigger.getSpec() instanceof DefaultTrigger;
+  }
+
   private boolean isFinishedSetNeeded() {
     // TODO: If we know that no trigger in the tree will ever finish, we don't need to do the
     // lookup. Right now, we special case this for the DefaultTrigger.
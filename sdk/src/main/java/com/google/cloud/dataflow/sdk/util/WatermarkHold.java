@@ -61,12 +61,27 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
    * dropped.
    */
   public void addHold(ReduceFn<?, ?, ?, W>.ProcessValueContext c, boolean isLate) {
-    Instant holdTo = isLate
-        ? c.window().maxTimestamp().plus(windowingStrategy.getAllowedLateness())
-        : windowingStrategy.getWindowFn().getOutputTime(c.timestamp(), c.window());
+    addHold(c, holdFor(c.window(), c.timestamp(), isLate));
+  }
+
+  /**
+   * Update the watermark hold of the window in {@code c} to include {@code holdTo}, which is
+   * typically the minimum of the {@link #holdFor} times of several values.
+   */
+  public void addHold(ReduceFn<?, ?, ?, W>.Context c, Instant holdTo) {
     c.state().access(DATA_HOLD_TAG).add(holdTo);
   }
 
+  /**
+   * Returns the time to hold the watermark to for a value with the given timestamp in
+   * {@code window}, as described in {@link #addHold(ReduceFn.ProcessValueContext, boolean)}.
+   */
+  public Instant holdFor(W window, Instant timestamp, boolean isLate) {
+    return isLate
+        ? window.maxTimestamp().plus(windowingStrategy.getAllowedLateness())
+        : windowingStrategy.getWindowFn().getOutputTime(timestamp, window);
+  }
+
   /**
    * Get information from the watermark hold for outputting.
    *
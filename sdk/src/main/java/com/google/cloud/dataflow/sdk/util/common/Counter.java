@@ -27,6 +27,7 @@ import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -122,6 +123,31 @@ public abstract class Counter<T> {
     return new LongCounter(name, kind);
   }
 
+  /**
+   * Constructs a new {@link Counter} that aggregates {@link Long} values
+   * according to the desired aggregation kind, for counters that are updated
+   * for every element, possibly by several threads at once. Values are added to
+   * striped cells, which are merged into the aggregate only when it is read, so
+   * that concurrent updates do not contend on a single value. The supported
+   * aggregation kinds are {@link AggregationKind#SUM} and
+   * {@link AggregationKind#MEAN}.
+   *
+   * <p>The sum and count of a {@link AggregationKind#MEAN} counter are kept
+   * together per stripe and updated under the stripe's lock, so that a read
+   * never pairs a sum with the count of different values.
+   *
+   * <p>The returned counter is equal to and compatible with a counter returned
+   * by {@link #longs} with the same name, kind and value.
+   *
+   * @param name the name of the new counter
+   * @param kind the new counter's aggregation kind
+   * @return the newly constructed Counter
+   * @throws IllegalArgumentException if the aggregation kind is not supported
+   */
+  public static Counter<Long> stripedLongs(String name, AggregationKind kind) {
+    return new StripedLongCounter(name, kind);
+  }
+
   /**
    * Constructs a new {@link Counter} that aggregates {@link Double} values
    * according to the desired aggregation kind. The supported aggregation kinds
@@ -293,7 +319,7 @@ public abstract class Counter<T> {
     } else if (o instanceof Counter) {
       Counter<?> that = (Counter<?>) o;
       if (this.name.equals(that.name) && this.kind == that.kind
-          && this.getClass().equals(that.getClass())) {
+          && this.getCounterClass().equals(that.getCounterClass())) {
         if (kind == MEAN) {
           CounterMean<T> thisMean = this.getMean();
           CounterMean<?> thatMean = that.getMean();
@@ -312,9 +338,9 @@ public abstract class Counter<T> {
   public int hashCode() {
     if (kind == MEAN) {
       CounterMean<T> mean = getMean();
-      return Objects.hash(getClass(), name, kind, mean.getAggregate(), mean.getCount());
+      return Objects.hash(getCounterClass(), name, kind, mean.getAggregate(), mean.getCount());
     } else {
-      return Objects.hash(getClass(), name, kind, getAggregate());
+      return Objects.hash(getCounterClass(), name, kind, getAggregate());
     }
   }
 
@@ -325,7 +351,16 @@ public abstract class Counter<T> {
   public boolean isCompatibleWith(Counter<?> that) {
     return this.name.equals(that.name)
         && this.kind == that.kind
-        && this.getClass().equals(that.getClass());
+        && this.getCounterClass().equals(that.getCounterClass());
+  }
+
+  /**
+   * Returns the class that counters must share to be compatible with or equal
+   * to this one. Implementations that only differ in how they store the same
+   * kind of values share it.
+   */
+  Class<?> getCounterClass() {
+    return getClass();
   }
 
 
@@ -520,6 +555,243 @@ public abstract class Counter<T> {
     }
   }
 
+  /**
+   * Implements a {@link Counter} for {@link Long} values that are added
+   * concurrently, see {@link #stripedLongs}.
+   */
+  private static class StripedLongCounter extends Counter<Long> {
+    // Values added since they were last merged, for SUM or for MEAN.
+    @Nullable private final StripedLong unmerged;
+    @Nullable private final StripedLongMean unmergedMean;
+
+    // The merged aggregate and delta, and for MEAN their counts.
+    private long aggregate;
+    private long deltaAggregate;
+    private long count;
+    private long deltaCount;
+
+    /** Initializes a new {@link Counter} for {@link Long} values. */
+    private StripedLongCounter(String name, AggregationKind kind) {
+      super(name, kind);
+      switch (kind) {
+        case SUM:
+          unmerged = new StripedLong();
+          unmergedMean = null;
+          break;
+        case MEAN:
+          unmerged = null;
+          unmergedMean = new StripedLongMean();
+          break;
+        default:
+          throw illegalArgumentException();
+      }
+    }
+
+    @Override
+    Class<?> getCounterClass() {
+      return LongCounter.class;
+    }
+
+    @Override
+    public StripedLongCounter addValue(Long value) {
+      if (unmerged != null) {
+        unmerged.add(value);
+      } else {
+        unmergedMean.add(value);
+      }
+      return this;
+    }
+
+    /**
+     * Merges the values added since the last call into the aggregate and delta.
+     */
+    private void merge() {
+      if (unmerged != null) {
+        long sum = unmerged.sumThenReset();
+        aggregate += sum;
+        deltaAggregate += sum;
+      } else {
+        CounterMean<Long> mean = unmergedMean.meanThenReset();
+        aggregate += mean.getAggregate();
+        deltaAggregate += mean.getAggregate();
+        count += mean.getCount();
+        deltaCount += mean.getCount();
+      }
+    }
+
+    @Override
+    public synchronized Long getAggregate() {
+      merge();
+      return aggregate;
+    }
+
+    @Override
+    public synchronized Long getAndResetDelta() {
+      if (kind == MEAN) {
+        throw illegalArgumentException();
+      }
+      merge();
+      long delta = deltaAggregate;
+      deltaAggregate = 0L;
+      return delta;
+    }
+
+    @Override
+    public synchronized Counter<Long> resetToValue(Long value) {
+      if (kind == MEAN) {
+        throw illegalArgumentException();
+      }
+      unmerged.sumThenReset();
+      aggregate = value;
+      deltaAggregate = value;
+      return this;
+    }
+
+    @Override
+    public synchronized Counter<Long> resetMeanToValue(long elementCount, Long value) {
+      if (kind != MEAN) {
+        throw illegalArgumentException();
+      }
+      if (elementCount < 0) {
+        throw new IllegalArgumentException("elementCount must be non-negative");
+      }
+      unmergedMean.meanThenReset();
+      aggregate = deltaAggregate = value;
+      count = deltaCount = elementCount;
+      return this;
+    }
+
+    @Override
+    public synchronized CounterMean<Long> getAndResetMeanDelta() {
+      if (kind != MEAN) {
+        throw illegalArgumentException();
+      }
+      merge();
+      CounterMean<Long> delta = new LongCounter.LongCounterMean(deltaAggregate, deltaCount);
+      deltaAggregate = 0L;
+      deltaCount = 0L;
+      return delta;
+    }
+
+    @Override
+    public synchronized CounterMean<Long> getMean() {
+      if (kind != MEAN) {
+        throw illegalArgumentException();
+      }
+      merge();
+      return new LongCounter.LongCounterMean(aggregate, count);
+    }
+  }
+
+  /**
+   * A sum of {@code long}s that threads add to concurrently. It is a single
+   * cell until two threads contend on it, and then grows to a cell per stripe
+   * of threads, each on its own cache line.
+   */
+  private static class StripedLong {
+    // A cell's index in the array is its stripe times this, to put cells on
+    // different cache lines.
+    private static final int CELL_SPACING = 8;
+    private static final int NUM_STRIPES =
+        Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2,
+            64);
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+
+    public void add(long value) {
+      AtomicLongArray currentCells = cells;
+      if (currentCells == null) {
+        long current = base.get();
+        if (base.compareAndSet(current, current + value)) {
+          return;
+        }
+        currentCells = createCells();
+      }
+      currentCells.getAndAdd(stripe() * CELL_SPACING, value);
+    }
+
+    /**
+     * Returns the sum of the values added since the last call. Values added
+     * concurrently are either included or left for the next call.
+     */
+    public long sumThenReset() {
+      long sum = base.getAndSet(0L);
+      AtomicLongArray currentCells = cells;
+      if (currentCells != null) {
+        for (int i = 0; i < currentCells.length(); i += CELL_SPACING) {
+          sum += currentCells.getAndSet(i, 0L);
+        }
+      }
+      return sum;
+    }
+
+    private synchronized AtomicLongArray createCells() {
+      if (cells == null) {
+        cells = new AtomicLongArray(NUM_STRIPES * CELL_SPACING);
+      }
+      return cells;
+    }
+
+    private static int stripe() {
+      long id = Thread.currentThread().getId();
+      // Spread consecutive thread ids over the stripes.
+      int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      return (hash >>> 16) & (NUM_STRIPES - 1);
+    }
+  }
+
+  /**
+   * A mean of {@code long}s that threads add to concurrently, kept as a sum
+   * and a count per stripe of threads. A stripe's sum and count are updated
+   * and read together under the stripe's lock, which is rarely contended.
+   */
+  private static class StripedLongMean {
+    private final MeanCell[] cells = new MeanCell[StripedLong.NUM_STRIPES];
+
+    StripedLongMean() {
+      for (int i = 0; i < cells.length; i++) {
+        cells[i] = new MeanCell();
+      }
+    }
+
+    public void add(long value) {
+      MeanCell cell = cells[StripedLong.stripe()];
+      synchronized (cell) {
+        cell.sum += value;
+        cell.count++;
+      }
+    }
+
+    /**
+     * Returns the sum and count of the values added since the last call. A
+     * value added concurrently is either included with its count or left for
+     * the next call.
+     */
+    public CounterMean<Long> meanThenReset() {
+      long sum = 0;
+      long count = 0;
+      for (MeanCell cell : cells) {
+        synchronized (cell) {
+          sum += cell.sum;
+          count += cell.count;
+          cell.sum = 0;
+          cell.count = 0;
+        }
+      }
+      return new LongCounter.LongCounterMean(sum, count);
+    }
+
+    /** The sum and count of one stripe. */
+    @SuppressWarnings("unused")
+    private static final class MeanCell {
+      private long sum;
+      private long count;
+      // Keeps the cells of different stripes on different cache lines.
+      private long p1, p2, p3, p4, p5, p6;
+    }
+  }
+
   /**
    * Implements a {@link Counter} for {@link Double} values.
    */
@@ -79,6 +79,16 @@ public class MapTaskExecutor extends WorkExecutor {
     // TODO: support for success / failure ports?
   }
 
+  /**
+   * Returns the output counters, including the time sampled by the
+   * {@link StateSampler} so far.
+   */
+  @Override
+  public CounterSet getOutputCounters() {
+    stateSampler.flush();
+    return super.getOutputCounters();
+  }
+
   @Override
   public Reader.Progress getWorkerProgress() throws Exception {
     return getReadOperation().getProgress();
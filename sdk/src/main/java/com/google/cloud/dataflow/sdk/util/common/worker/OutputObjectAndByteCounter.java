@@ -60,7 +60,8 @@ public class OutputObjectAndByteCounter implements ElementCounter {
    * Count output objects.
    */
   public OutputObjectAndByteCounter countObject(String objectCounterName) {
-    objectCount = addCounterMutator.addCounter(Counter.longs(objectCounterName, SUM));
+    objectCount =
+        addCounterMutator.addCounter(Counter.stripedLongs(objectCounterName, SUM));
     return this;
   }
 
@@ -69,7 +70,8 @@ public class OutputObjectAndByteCounter implements ElementCounter {
    */
   public OutputObjectAndByteCounter countBytes(String bytesCounterName) {
     if (elementByteSizeObservable != null) {
-      byteCount = addCounterMutator.addCounter(Counter.longs(bytesCounterName, SUM));
+      byteCount =
+          addCounterMutator.addCounter(Counter.stripedLongs(bytesCounterName, SUM));
       byteCountObserver = new ElementByteSizeObserver(byteCount);
     }
     return this;
@@ -80,7 +82,8 @@ public class OutputObjectAndByteCounter implements ElementCounter {
    */
   public OutputObjectAndByteCounter countMeanByte(String meanByteCounterName) {
     if (elementByteSizeObservable != null) {
-      meanByteCount = addCounterMutator.addCounter(Counter.longs(meanByteCounterName, MEAN));
+      meanByteCount =
+          addCounterMutator.addCounter(Counter.stripedLongs(meanByteCounterName, MEAN));
       meanByteCountObserver = new ElementByteSizeObserver(meanByteCount);
     }
     return this;
@@ -16,14 +16,21 @@
 
 package com.google.cloud.dataflow.sdk.util.common.worker;
 
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.MEAN;
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+
+import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 /**
@@ -37,6 +44,17 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     public Object createGroupingKey(K key) throws Exception;
   }
 
+  /**
+   * Provides client-specific operations for encoding keys for grouping.
+   * Keys are grouped together exactly when their encodings are equal.
+   *
+   * <p> A PartialGroupByKeyOperation whose grouping key creator is a
+   * GroupingKeyEncoder groups keys in a {@link ByteKeyedGroupingTable}.
+   */
+  public static interface GroupingKeyEncoder<K> extends GroupingKeyCreator<K> {
+    public byte[] encodeGroupingKey(K key) throws Exception;
+  }
+
   /**
    * Provides client-specific operations for size estimates.
    */
@@ -64,6 +82,25 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     public OutputT extract(K key, AccumT accumulator);
   }
 
+  /**
+   * Decides which entries a grouping table flushes first when it is full.
+   * Entries with the lowest retention value are flushed first, and among
+   * those, the entries whose keys were least recently put.
+   */
+  public interface EvictionPolicy {
+    /**
+     * Records that a value was put into the table under a key with the
+     * given hash.
+     */
+    public void recordPut(int keyHash);
+
+    /**
+     * Returns how valuable it is to keep the entry of a key with the given
+     * hash in the table.
+     */
+    public long retentionValue(int keyHash);
+  }
+
   /**
    * A wrapper around a byte[] that uses structural, value-based
    * equality rather than byte[]'s normal object identity.
@@ -124,6 +161,22 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
    */
   static final int PER_KEY_OVERHEAD = 24 * BYTES_PER_JVM_WORD;
 
+  /**
+   * The number of bytes of overhead to store an entry in a
+   * {@link ByteKeyedGroupingTable}, ignoring the actual number of bytes in
+   * the keys and values, whose encoded keys are counted separately:
+   * <ul>
+   * <li> a slot in the index (half a word),
+   * <li> the cached hash, key offset and key length (1.5 words),
+   * <li> an entry array element (1 word),
+   * <li> a table entry (2 words),
+   * <li> an ArrayList (2 words),
+   * <li> a backing array (1 word),
+   * <li> per-object overhead (JVM-specific, guessed at 2 words * 4 objects).
+   * </ul>
+   */
+  static final int BYTE_KEYED_PER_KEY_OVERHEAD = 16 * BYTES_PER_JVM_WORD;
+
   final GroupingTable<Object, Object, Object> groupingTable;
 
   @SuppressWarnings("unchecked")
@@ -152,13 +205,23 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
       CounterSet.AddCounterMutator addCounterMutator,
       StateSampler stateSampler) {
     super(operationName, receivers, counterPrefix, addCounterMutator, stateSampler);
+    GroupingTable table;
     if (combineFn == null) {
-      groupingTable = new BufferingGroupingTable(DEFAULT_MAX_GROUPING_TABLE_BYTES,
+      table = new BufferingGroupingTable(DEFAULT_MAX_GROUPING_TABLE_BYTES,
           groupingKeyCreator, pairInfo, keySizeEstimator, valueSizeEstimator);
     } else {
-      groupingTable = new CombiningGroupingTable(DEFAULT_MAX_GROUPING_TABLE_BYTES,
+      table = new CombiningGroupingTable(DEFAULT_MAX_GROUPING_TABLE_BYTES,
           groupingKeyCreator, pairInfo, combineFn, keySizeEstimator, valueSizeEstimator);
     }
+    if (groupingKeyCreator instanceof GroupingKeyEncoder) {
+      table = new ByteKeyedGroupingTable(DEFAULT_MAX_GROUPING_TABLE_BYTES,
+          (GroupingKeyEncoder) groupingKeyCreator, pairInfo, table);
+    }
+    groupingTable = table;
+    groupingTable.flushCounter = addCounterMutator.addCounter(
+        Counter.longs(operationName + "-GroupingTableFlushes", SUM));
+    groupingTable.combineRatioCounter = addCounterMutator.addCounter(
+        Counter.longs(operationName + "-CombineRatio", MEAN));
   }
 
   @SuppressWarnings({"rawtypes", "unchecked"})
@@ -248,6 +311,15 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     groupingTable.maxSize = maxSize;
   }
 
+  /**
+   * Sets the policy that decides which entries are flushed when the grouping
+   * table is full, or null to flush them in the table's own order. Must be
+   * called while the grouping table is empty.
+   */
+  public void setGroupingTableEvictionPolicy(EvictionPolicy evictionPolicy) {
+    groupingTable.setEvictionPolicy(evictionPolicy);
+  }
+
   /**
    * Returns the amount of memory the grouping table currently consumes.
    */
@@ -270,18 +342,34 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     }
   }
 
-  private abstract static class GroupingTable<K, InputT, AccumT> {
+  abstract static class GroupingTable<K, InputT, AccumT> {
 
     // Keep the table relatively full to increase the chance of collisions.
     private static final double TARGET_LOAD = 0.9;
 
-    private long maxSize;
+    // The number of entries the eviction policy chooses among for each entry
+    // it flushes, taken from the front of the table, so that flushing does not
+    // need to rank every entry.
+    static final int EVICTION_SAMPLE_SIZE = 16;
+
+    long maxSize;
     private final GroupingKeyCreator<? super K> groupingKeyCreator;
     private final PairInfo pairInfo;
 
-    private long size = 0;
+    long size = 0;
     private Map<Object, GroupingTableEntry<K, InputT, AccumT>> table;
 
+    EvictionPolicy evictionPolicy = null;
+
+    // Counts the times the table was full, if set.
+    Counter<Long> flushCounter = null;
+
+    // Tracks the ratio of inputs to outputs, if set. The inputs put since
+    // the last output are added each time an entry is output, so the
+    // counter's mean is the number of inputs combined into each output.
+    Counter<Long> combineRatioCounter = null;
+    private long inputsSinceOutput = 0;
+
     public GroupingTable(long maxSize,
                           GroupingKeyCreator<? super K> groupingKeyCreator,
                           PairInfo pairInfo) {
@@ -300,12 +388,26 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
 
     public abstract GroupingTableEntry<K, InputT, AccumT> createTableEntry(K key) throws Exception;
 
+    /**
+     * Sets the policy that decides which entries are flushed when this table
+     * is full, or null to flush them in the table's own order.
+     */
+    void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+      Preconditions.checkState(size == 0, "eviction policy set on a non-empty grouping table");
+      this.evictionPolicy = evictionPolicy;
+      // An access-ordered map iterates from the least to the most recently put key.
+      table = evictionPolicy == null
+          ? new HashMap<Object, GroupingTableEntry<K, InputT, AccumT>>()
+          : new LinkedHashMap<Object, GroupingTableEntry<K, InputT, AccumT>>(16, 0.75f, true);
+    }
+
     /**
      * Adds a pair to this table, possibly flushing some entries to output
      * if the table is full.
      */
     @SuppressWarnings("unchecked")
     public void put(Object pair, Receiver receiver) throws Exception {
+      inputsSinceOutput++;
       put((K) pairInfo.getKeyFromInputPair(pair),
           (InputT) pairInfo.getValueFromInputPair(pair),
           receiver);
@@ -317,6 +419,9 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
      */
     public void put(K key, InputT value, Receiver receiver) throws Exception {
       Object groupingKey = groupingKeyCreator.createGroupingKey(key);
+      if (evictionPolicy != null) {
+        evictionPolicy.recordPut(groupingKey.hashCode());
+      }
       GroupingTableEntry<K, InputT, AccumT> entry = table.get(groupingKey);
       if (entry == null) {
         entry = createTableEntry(key);
@@ -330,6 +435,11 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
 
       if (size >= maxSize) {
         long targetSize = (long) (TARGET_LOAD * maxSize);
+        recordFlush();
+        if (evictionPolicy != null) {
+          flushByPolicy(targetSize, receiver);
+          return;
+        }
         Iterator<GroupingTableEntry<K, InputT, AccumT>> entries =
             table.values().iterator();
         while (size >= targetSize) {
@@ -346,12 +456,60 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
       }
     }
 
+    /**
+     * Flushes entries until this table's size is below the target, each one
+     * the entry the eviction policy values least among the
+     * {@link #EVICTION_SAMPLE_SIZE} least recently put entries left.
+     */
+    private void flushByPolicy(long targetSize, Receiver receiver) throws Exception {
+      PriorityQueue<EvictionCandidate<Map.Entry<Object, GroupingTableEntry<K, InputT, AccumT>>>>
+          candidates = new PriorityQueue<>(EVICTION_SAMPLE_SIZE);
+      Iterator<Map.Entry<Object, GroupingTableEntry<K, InputT, AccumT>>> entries =
+          table.entrySet().iterator();
+      List<Object> flushed = new ArrayList<>();
+      long recency = 0;
+      while (size >= targetSize) {
+        while (candidates.size() < EVICTION_SAMPLE_SIZE && entries.hasNext()) {
+          Map.Entry<Object, GroupingTableEntry<K, InputT, AccumT>> entry = entries.next();
+          candidates.add(new EvictionCandidate<>(
+              entry, evictionPolicy.retentionValue(entry.getKey().hashCode()), recency++));
+        }
+        if (candidates.isEmpty()) {
+          // Should never happen, but sizes may be estimates...
+          size = 0;
+          break;
+        }
+        Map.Entry<Object, GroupingTableEntry<K, InputT, AccumT>> toFlush = candidates.poll().item;
+        size -= toFlush.getValue().getSize() + PER_KEY_OVERHEAD;
+        output(toFlush.getValue(), receiver);
+        flushed.add(toFlush.getKey());
+      }
+      // Removed once iterating is done, since removing keys other than the
+      // iterator's last one would invalidate it.
+      for (Object groupingKey : flushed) {
+        table.remove(groupingKey);
+      }
+    }
+
+    /**
+     * Records that this table was full.
+     */
+    void recordFlush() {
+      if (flushCounter != null) {
+        flushCounter.addValue(1L);
+      }
+    }
+
     /**
      * Output the given entry. Does not actually remove it from the table or
      * update this table's size.
      */
-    private void output(GroupingTableEntry<K, InputT, AccumT> entry, Receiver receiver)
+    void output(GroupingTableEntry<K, InputT, AccumT> entry, Receiver receiver)
         throws Exception {
+      if (combineRatioCounter != null) {
+        combineRatioCounter.addValue(inputsSinceOutput);
+        inputsSinceOutput = 0;
+      }
       receiver.process(pairInfo.makeOutputPair(entry.getKey(), entry.getValue()));
     }
 
@@ -368,6 +526,28 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
 
   }
 
+  /**
+   * An item a grouping table may flush, ordered by how valuable it is to
+   * keep, then by how recently it was put.
+   */
+  private static class EvictionCandidate<T> implements Comparable<EvictionCandidate<T>> {
+    final T item;
+    final long retentionValue;
+    final long recency;
+
+    EvictionCandidate(T item, long retentionValue, long recency) {
+      this.item = item;
+      this.retentionValue = retentionValue;
+      this.recency = recency;
+    }
+
+    @Override
+    public int compareTo(EvictionCandidate<T> other) {
+      int result = Long.compare(retentionValue, other.retentionValue);
+      return result != 0 ? result : Long.compare(recency, other.recency);
+    }
+  }
+
   /**
    * A grouping table that simply buffers all inserted values in a list.
    */
@@ -469,6 +649,330 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     }
   }
 
+  /**
+   * A grouping table that groups keys by their encodings, using the entries
+   * of another grouping table to accumulate the values of each key.
+   *
+   * <p> Instead of a hash map of wrapped keys, the table stores the encoded
+   * keys in a single byte array, with their hashes cached alongside, and
+   * finds them by open addressing with linear probing. When the table is
+   * full, it flushes the keys in the order chosen by its eviction policy,
+   * or in the order they were first inserted if it has none.
+   */
+  public static class ByteKeyedGroupingTable<K, InputT, AccumT>
+      extends GroupingTable<K, InputT, AccumT> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Keep the index at most half full, so probe sequences stay short.
+    private static final double MAX_INDEX_LOAD = 0.5;
+
+    private final GroupingKeyEncoder<? super K> keyEncoder;
+    private final GroupingTable<K, InputT, AccumT> entryTable;
+
+    // Maps a slot to the index of its entry plus one, or zero if the slot is empty.
+    private int[] index = new int[2 * INITIAL_CAPACITY];
+
+    // The entries, in the order their keys were first inserted.
+    private int numEntries = 0;
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] keyOffsets = new int[INITIAL_CAPACITY];
+    private int[] keyLengths = new int[INITIAL_CAPACITY];
+    private long[] lastPuts = new long[INITIAL_CAPACITY];
+    private long putCount = 0;
+    private GroupingTableEntry<K, InputT, AccumT>[] entries = newEntries(INITIAL_CAPACITY);
+
+    // The encoded keys of the entries, stored back to back.
+    private byte[] keyBytes = new byte[16 * INITIAL_CAPACITY];
+    private int keyBytesSize = 0;
+
+    /**
+     * @param maxSize the number of bytes the table may consume before it is
+     *     partially flushed
+     * @param keyEncoder encodes the keys to group by
+     * @param pairInfo the operations on input and output pairs
+     * @param entryTable the table whose entries accumulate the values of a key
+     */
+    public ByteKeyedGroupingTable(long maxSize,
+                                  GroupingKeyEncoder<? super K> keyEncoder,
+                                  PairInfo pairInfo,
+                                  GroupingTable<K, InputT, AccumT> entryTable) {
+      super(maxSize, keyEncoder, pairInfo);
+      this.keyEncoder = keyEncoder;
+      this.entryTable = entryTable;
+    }
+
+    @Override
+    public GroupingTableEntry<K, InputT, AccumT> createTableEntry(K key) throws Exception {
+      return entryTable.createTableEntry(key);
+    }
+
+    @Override
+    public void put(K key, InputT value, Receiver receiver) throws Exception {
+      byte[] encodedKey = keyEncoder.encodeGroupingKey(key);
+      int hash = hash(encodedKey);
+      int mask = index.length - 1;
+      int slot = hash & mask;
+      int entryIndex;
+      while ((entryIndex = index[slot] - 1) >= 0 && !keyEquals(entryIndex, hash, encodedKey)) {
+        slot = (slot + 1) & mask;
+      }
+
+      GroupingTableEntry<K, InputT, AccumT> entry;
+      if (entryIndex < 0) {
+        entry = createTableEntry(key);
+        entryIndex = addEntry(slot, hash, encodedKey, entry);
+        size += BYTE_KEYED_PER_KEY_OVERHEAD + encodedKey.length;
+      } else {
+        entry = entries[entryIndex];
+        size -= entry.getSize();
+      }
+      entry.add(value);
+      size += entry.getSize();
+      lastPuts[entryIndex] = ++putCount;
+      if (evictionPolicy != null) {
+        evictionPolicy.recordPut(hash);
+      }
+
+      if (size >= maxSize) {
+        recordFlush();
+        flushUntil((long) (GroupingTable.TARGET_LOAD * maxSize), receiver);
+      }
+    }
+
+    @Override
+    void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+      Preconditions.checkState(size == 0, "eviction policy set on a non-empty grouping table");
+      this.evictionPolicy = evictionPolicy;
+    }
+
+    @Override
+    public void flush(Receiver output) throws Exception {
+      for (int i = 0; i < numEntries; i++) {
+        output(entries[i], output);
+      }
+      Arrays.fill(entries, 0, numEntries, null);
+      Arrays.fill(index, 0);
+      numEntries = 0;
+      keyBytesSize = 0;
+      size = 0;
+    }
+
+    /**
+     * Flushes entries until the table's size is below the target, then
+     * compacts the remaining entries. Without an eviction policy, entries are
+     * flushed in the order they were inserted; with one, each flushed entry
+     * is the one the policy values least among the
+     * {@link GroupingTable#EVICTION_SAMPLE_SIZE} earliest inserted entries
+     * left.
+     */
+    private void flushUntil(long targetSize, Receiver receiver) throws Exception {
+      int sampleSize = evictionPolicy == null ? 1 : GroupingTable.EVICTION_SAMPLE_SIZE;
+      PriorityQueue<EvictionCandidate<Integer>> candidates = new PriorityQueue<>(sampleSize);
+      int next = 0;
+      boolean[] flushed = new boolean[numEntries];
+      while (size >= targetSize) {
+        for (; candidates.size() < sampleSize && next < numEntries; next++) {
+          candidates.add(evictionPolicy == null
+              ? new EvictionCandidate<>(next, 0, next)
+              : new EvictionCandidate<>(
+                  next, evictionPolicy.retentionValue(hashes[next]), lastPuts[next]));
+        }
+        if (candidates.isEmpty()) {
+          // Should never happen, but sizes may be estimates...
+          size = 0;
+          break;
+        }
+        int i = candidates.poll().item;
+        size -= entries[i].getSize() + BYTE_KEYED_PER_KEY_OVERHEAD + keyLengths[i];
+        output(entries[i], receiver);
+        flushed[i] = true;
+      }
+
+      int remaining = 0;
+      int remainingKeyBytes = 0;
+      for (int i = 0; i < numEntries; i++) {
+        if (!flushed[i]) {
+          System.arraycopy(keyBytes, keyOffsets[i], keyBytes, remainingKeyBytes, keyLengths[i]);
+          hashes[remaining] = hashes[i];
+          keyOffsets[remaining] = remainingKeyBytes;
+          keyLengths[remaining] = keyLengths[i];
+          lastPuts[remaining] = lastPuts[i];
+          entries[remaining] = entries[i];
+          remainingKeyBytes += keyLengths[i];
+          remaining++;
+        }
+      }
+      Arrays.fill(entries, remaining, numEntries, null);
+      numEntries = remaining;
+      keyBytesSize = remainingKeyBytes;
+      rebuildIndex(index.length);
+    }
+
+    private int addEntry(int slot, int hash, byte[] encodedKey,
+                          GroupingTableEntry<K, InputT, AccumT> entry) {
+      if (numEntries == entries.length) {
+        int capacity = 2 * numEntries;
+        hashes = Arrays.copyOf(hashes, capacity);
+        keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+        keyLengths = Arrays.copyOf(keyLengths, capacity);
+        lastPuts = Arrays.copyOf(lastPuts, capacity);
+        entries = Arrays.copyOf(entries, capacity);
+      }
+      if (keyBytesSize + encodedKey.length > keyBytes.length) {
+        keyBytes = Arrays.copyOf(
+            keyBytes, Math.max(2 * keyBytes.length, keyBytesSize + encodedKey.length));
+      }
+      System.arraycopy(encodedKey, 0, keyBytes, keyBytesSize, encodedKey.length);
+      hashes[numEntries] = hash;
+      keyOffsets[numEntries] = keyBytesSize;
+      keyLengths[numEntries] = encodedKey.length;
+      entries[numEntries] = entry;
+      keyBytesSize += encodedKey.length;
+      numEntries++;
+      index[slot] = numEntries;
+      if (numEntries > MAX_INDEX_LOAD * index.length) {
+        rebuildIndex(2 * index.length);
+      }
+      return numEntries - 1;
+    }
+
+    private void rebuildIndex(int capacity) {
+      if (capacity == index.length) {
+        Arrays.fill(index, 0);
+      } else {
+        index = new int[capacity];
+      }
+      int mask = capacity - 1;
+      for (int i = 0; i < numEntries; i++) {
+        int slot = hashes[i] & mask;
+        while (index[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+      }
+    }
+
+    private boolean keyEquals(int entryIndex, int hash, byte[] encodedKey) {
+      if (hashes[entryIndex] != hash || keyLengths[entryIndex] != encodedKey.length) {
+        return false;
+      }
+      int offset = keyOffsets[entryIndex];
+      for (int i = 0; i < encodedKey.length; i++) {
+        if (keyBytes[offset + i] != encodedKey[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int hash(byte[] encodedKey) {
+      // Spread the bits of the hash, since slots are chosen by its low bits.
+      int hash = Arrays.hashCode(encodedKey) * 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, InputT, AccumT> GroupingTableEntry<K, InputT, AccumT>[] newEntries(
+        int capacity) {
+      return new GroupingTableEntry[capacity];
+    }
+  }
+
+
+  ////////////////////////////////////////////////////////////////////////////
+  // Eviction policies.
+
+  /**
+   * Flushes the entries whose keys were least recently put first.
+   */
+  public static class LruEvictionPolicy implements EvictionPolicy {
+    @Override
+    public void recordPut(int keyHash) {}
+
+    @Override
+    public long retentionValue(int keyHash) {
+      return 0;
+    }
+  }
+
+  /**
+   * Flushes the entries whose keys were least frequently put first, so that
+   * hot keys stay in the table and combine as much as possible.
+   *
+   * <p> As in TinyLFU, frequencies are estimated by a count-min sketch of
+   * small saturating counters, which are all halved once the number of puts
+   * reaches ten times the sketch's width, so the estimates favor recent
+   * history.
+   */
+  public static class TinyLfuEvictionPolicy implements EvictionPolicy {
+    public static final int DEFAULT_WIDTH = 1 << 16;
+
+    private static final int MAX_COUNT = 15;
+
+    // Odd multipliers, one per row of the sketch, to derive independent
+    // slots from a key hash.
+    private static final int[] ROW_SEEDS = {
+        0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final byte[][] counts;
+    private final int mask;
+    private final long resetThreshold;
+    private long puts = 0;
+
+    public TinyLfuEvictionPolicy() {
+      this(DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param width the number of counters per row of the sketch, which must
+     *     be a power of two
+     */
+    public TinyLfuEvictionPolicy(int width) {
+      Preconditions.checkArgument(width > 0 && Integer.bitCount(width) == 1,
+          "width must be a positive power of two, got %s", width);
+      this.counts = new byte[ROW_SEEDS.length][width];
+      this.mask = width - 1;
+      this.resetThreshold = 10L * width;
+    }
+
+    @Override
+    public void recordPut(int keyHash) {
+      for (int row = 0; row < counts.length; row++) {
+        int slot = slot(keyHash, row);
+        if (counts[row][slot] < MAX_COUNT) {
+          counts[row][slot]++;
+        }
+      }
+      if (++puts >= resetThreshold) {
+        halveCounts();
+      }
+    }
+
+    @Override
+    public long retentionValue(int keyHash) {
+      int estimate = MAX_COUNT;
+      for (int row = 0; row < counts.length; row++) {
+        estimate = Math.min(estimate, counts[row][slot(keyHash, row)]);
+      }
+      return estimate;
+    }
+
+    private int slot(int keyHash, int row) {
+      int hash = keyHash * ROW_SEEDS[row];
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void halveCounts() {
+      for (byte[] row : counts) {
+        for (int i = 0; i < row.length; i++) {
+          row[i] >>= 1;
+        }
+      }
+      puts /= 2;
+    }
+  }
+
 
   ////////////////////////////////////////////////////////////////////////////
   // Size sampling.
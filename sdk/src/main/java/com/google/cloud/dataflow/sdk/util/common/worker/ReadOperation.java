@@ -83,6 +83,8 @@ public class ReadOperation extends Operation {
         Counter.longs(bytesCounterName(counterPrefix, operationName), SUM));
     reader.addObserver(new ReaderObserver());
     reader.setStateSamplerAndOperationName(stateSampler, operationName);
+    reader.setAddCounterMutatorAndOperationName(
+        addCounterMutator, counterPrefix + operationName);
   }
 
   /** Invoked by tests. */
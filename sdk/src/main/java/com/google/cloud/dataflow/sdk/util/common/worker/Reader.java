@@ -16,6 +16,8 @@
 
 package com.google.cloud.dataflow.sdk.util.common.worker;
 
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+
 import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Observable;
@@ -57,6 +59,26 @@ public abstract class Reader<T> extends Observable {
     this.stateSamplerOperationName = stateSamplerOperationName;
   }
 
+  /**
+   * Mutator for readers that report counters of their own, or null if the reader is not read by
+   * an operation.
+   */
+  protected CounterSet.AddCounterMutator addCounterMutator = null;
+
+  /**
+   * Name to be used as a prefix of the names of counters added to {@code addCounterMutator}.
+   */
+  protected String counterOperationName = null;
+
+  /**
+   * Sets the mutator to add counters to and the operation name to prefix their names with.
+   */
+  public void setAddCounterMutatorAndOperationName(
+      CounterSet.AddCounterMutator addCounterMutator, String counterOperationName) {
+    this.addCounterMutator = addCounterMutator;
+    this.counterOperationName = counterOperationName;
+  }
+
   /**
    * Returns a ReaderIterator that allows reading from this source.
    */
@@ -19,13 +19,23 @@ package com.google.cloud.dataflow.sdk.util.common.worker;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
-
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -34,42 +44,82 @@ import javax.annotation.concurrent.ThreadSafe;
  * breakdown of the time spent by an execution context in various
  * states, as a fraction of the total time.  The sampling is taken at
  * regular intervals, with adjustment for scheduling delay.
+ *
+ * <p>All StateSamplers are sampled by a single shared daemon thread,
+ * which reads the state of each sampler from a volatile field and
+ * accumulates the sampled time locally, adding it to the counters only
+ * every few samples and when {@link #flush} or {@link #close} is
+ * called.
+ *
+ * <p>The sampling thread also records, for each state, a histogram of
+ * how long the state was held each time it was entered, which is
+ * shared by all samplers with the same counter prefix and printed by
+ * {@link #printHtml}. Durations are measured in whole sampling
+ * periods, so states held for less than a period are counted in the
+ * first bucket.
  */
 @ThreadSafe
-public class StateSampler extends TimerTask implements AutoCloseable {
+public class StateSampler implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(StateSampler.class);
+
   public static final long DEFAULT_SAMPLING_PERIOD_MS = 200;
 
+  /** The number of samples after which sampled time is added to the counters. */
+  private static final int SAMPLES_PER_FLUSH = 10;
+
   private final String prefix;
   private final CounterSet.AddCounterMutator counterSetMutator;
+  private final long samplingPeriodNs;
 
   /** Array of counters indexed by their state. */
-  private ArrayList<Counter<Long>> countersByState = new ArrayList<>();
+  private final ArrayList<Counter<Long>> countersByState = new ArrayList<>();
+
+  /** Array of histograms indexed by their state. */
+  private final ArrayList<Histogram> histogramsByState = new ArrayList<>();
 
   /** Map of state name to state. */
-  private HashMap<String, Integer> statesByName = new HashMap<>();
+  private final HashMap<String, Integer> statesByName = new HashMap<>();
 
-  /** The current state. */
-  private volatile int currentState;
+  /**
+   * Sampled time in nanoseconds that has not yet been added to the
+   * counters, indexed by state.
+   */
+  private long[] pendingNanosByState = new long[0];
 
-  /** Special value of {@code currentState} that means we do not sample. */
+  /**
+   * The current state in the low 32 bits, and the number of state
+   * transitions in the high 32 bits, so that the sampling thread can
+   * tell a state that was left and entered again from one that was
+   * held throughout.
+   */
+  private volatile long currentSlot;
+
+  /** The number of state transitions, only written by the executing thread. */
+  private int transitions;
+
+  /** Special value of the current state that means we do not sample. */
   private static final int DO_NOT_SAMPLE = -1;
 
+  private volatile boolean closed = false;
+
+  // The following fields are only accessed by the sampling thread.
+
   /**
    * The timestamp (in nanoseconds) corresponding to the last time the
    * state was sampled (and recorded).
    */
-  private long stateTimestampNs = 0;
+  private long stateTimestampNs;
 
-  /** Using a fixed number of timers for all StateSampler objects. */
-  private static final int NUM_TIMER_THREADS = 16;
+  /** The timestamp (in nanoseconds) at which this sampler is next sampled. */
+  private long nextSampleNs;
 
-  /** The timers are used for periodically sampling the states. */
-  private static Timer[] timers = new Timer[NUM_TIMER_THREADS];
-  static {
-    for (int i = 0; i < timers.length; ++i) {
-      timers[i] = new Timer("StateSampler_" + i, true /* is daemon */);
-    }
-  }
+  /** The slot observed by the last sample. */
+  private long lastSlot;
+
+  /** The timestamp (in nanoseconds) of the first sample that observed {@code lastSlot}. */
+  private long lastSlotTimestampNs;
+
+  private int samplesSinceFlush = 0;
 
   /**
    * Constructs a new {@link StateSampler} that can be used to obtain
@@ -86,12 +136,14 @@ public class StateSampler extends TimerTask implements AutoCloseable {
                       long samplingPeriodMs) {
     this.prefix = prefix;
     this.counterSetMutator = counterSetMutator;
-    currentState = DO_NOT_SAMPLE;
-    Random rand = new Random();
-    int initialDelay = rand.nextInt((int) samplingPeriodMs);
-    timers[rand.nextInt(NUM_TIMER_THREADS)].scheduleAtFixedRate(
-        this, initialDelay, samplingPeriodMs);
+    this.samplingPeriodNs = TimeUnit.MILLISECONDS.toNanos(samplingPeriodMs);
+    currentSlot = slot(0, DO_NOT_SAMPLE);
+    lastSlot = currentSlot;
     stateTimestampNs = System.nanoTime();
+    lastSlotTimestampNs = stateTimestampNs;
+    nextSampleNs = stateTimestampNs + new Random().nextInt((int) samplingPeriodMs)
+        * TimeUnit.MILLISECONDS.toNanos(1);
+    SamplingThread.register(this);
   }
 
   /**
@@ -108,22 +160,61 @@ public class StateSampler extends TimerTask implements AutoCloseable {
     this(prefix, counterSetMutator, DEFAULT_SAMPLING_PERIOD_MS);
   }
 
-  @Override
-  public void run() {
-    long startTimestampNs = System.nanoTime();
-    int state = currentState;
+  private static long slot(int transitions, int state) {
+    return ((long) transitions << 32) | (state & 0xFFFFFFFFL);
+  }
+
+  private static int stateOf(long slot) {
+    return (int) slot;
+  }
+
+  /**
+   * Attributes the time since the previous sample to the current
+   * state. Called by the sampling thread.
+   */
+  private synchronized void sample(long nowNs) {
+    long slot = currentSlot;
+    int state = stateOf(slot);
     if (state != DO_NOT_SAMPLE) {
-      synchronized (this) {
-        countersByState.get(state).addValue(
-            TimeUnit.NANOSECONDS.toMillis(startTimestampNs - stateTimestampNs));
+      pendingNanosByState[state] += nowNs - stateTimestampNs;
+    }
+    if (slot != lastSlot) {
+      int lastState = stateOf(lastSlot);
+      if (lastState != DO_NOT_SAMPLE) {
+        histogramsByState.get(lastState).record(
+            TimeUnit.NANOSECONDS.toMillis(stateTimestampNs - lastSlotTimestampNs));
       }
+      lastSlot = slot;
+      lastSlotTimestampNs = nowNs;
+    }
+    stateTimestampNs = nowNs;
+    if (++samplesSinceFlush >= SAMPLES_PER_FLUSH) {
+      flush();
     }
-    stateTimestampNs = startTimestampNs;
   }
 
+  /**
+   * Adds the time sampled so far to the counters of the states.
+   */
+  public synchronized void flush() {
+    long nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+    for (int state = 0; state < pendingNanosByState.length; state++) {
+      long millis = pendingNanosByState[state] / nanosPerMilli;
+      if (millis > 0) {
+        countersByState.get(state).addValue(millis);
+        pendingNanosByState[state] -= millis * nanosPerMilli;
+      }
+    }
+    samplesSinceFlush = 0;
+  }
+
+  /**
+   * Stops sampling, and adds the time sampled so far to the counters.
+   */
   @Override
   public void close() {
-    this.cancel();  // cancel the TimerTask
+    closed = true;
+    flush();
   }
 
   /**
@@ -139,15 +230,17 @@ public class StateSampler extends TimerTask implements AutoCloseable {
       return DO_NOT_SAMPLE;
     }
 
-    String counterName = prefix + name + "-msecs";
     synchronized (this) {
-      Integer state = statesByName.get(counterName);
+      Integer state = statesByName.get(name);
       if (state == null) {
+        String counterName = prefix + name + "-msecs";
         Counter<Long> counter = counterSetMutator.addCounter(
             Counter.longs(counterName, Counter.AggregationKind.SUM));
         state = countersByState.size();
         statesByName.put(name, state);
         countersByState.add(counter);
+        histogramsByState.add(Histogram.forState(prefix + name));
+        pendingNanosByState = Arrays.copyOf(pendingNanosByState, state + 1);
       }
       return state;
     }
@@ -160,8 +253,8 @@ public class StateSampler extends TimerTask implements AutoCloseable {
    * @return the previous state
    */
   public int setState(int state) {
-    int previousState = currentState;
-    currentState = state;
+    int previousState = stateOf(currentSlot);
+    currentSlot = slot(++transitions, state);
     return previousState;
   }
 
@@ -208,4 +301,148 @@ public class StateSampler extends TimerTask implements AutoCloseable {
       sampler.setState(previousState);
     }
   }
+
+  /**
+   * Prints the histograms of the time each state was held for, as
+   * sampled by all StateSamplers, as an HTML list.
+   */
+  public static void printHtml(PrintWriter writer) {
+    writer.println("State Durations (msecs): <ul>");
+    for (Map.Entry<String, Histogram> entry : new TreeMap<>(Histogram.BY_STATE).entrySet()) {
+      writer.print("<li>");
+      writer.print(entry.getKey());
+      writer.print(": ");
+      entry.getValue().print(writer);
+      writer.println("</li>");
+    }
+    writer.println("</ul>");
+  }
+
+  /**
+   * Returns the number of times the state with the given counter
+   * prefix and name was sampled to be held for at least
+   * {@code minMillis} milliseconds and less than twice that, or for
+   * less than a millisecond if {@code minMillis} is 0.
+   */
+  static long getDurationCount(String prefixedName, long minMillis) {
+    Histogram histogram = Histogram.BY_STATE.get(prefixedName);
+    return histogram == null ? 0 : histogram.buckets.get(Histogram.bucketFor(minMillis));
+  }
+
+  /**
+   * A histogram of durations in milliseconds, with a bucket for each
+   * power of two.
+   */
+  private static class Histogram {
+    private static final ConcurrentHashMap<String, Histogram> BY_STATE =
+        new ConcurrentHashMap<>();
+
+    private static final int NUM_BUCKETS = 32;
+
+    /**
+     * Bucket 0 counts durations of less than a millisecond, and bucket
+     * {@code i} those of at least {@code 2^(i-1)} and less than
+     * {@code 2^i} milliseconds.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    static Histogram forState(String prefixedName) {
+      Histogram histogram = BY_STATE.get(prefixedName);
+      if (histogram == null) {
+        Histogram newHistogram = new Histogram();
+        histogram = BY_STATE.putIfAbsent(prefixedName, newHistogram);
+        if (histogram == null) {
+          histogram = newHistogram;
+        }
+      }
+      return histogram;
+    }
+
+    static int bucketFor(long millis) {
+      return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    void record(long millis) {
+      buckets.incrementAndGet(bucketFor(millis));
+    }
+
+    void print(PrintWriter writer) {
+      String separator = "";
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        long count = buckets.get(i);
+        if (count > 0) {
+          writer.print(separator);
+          writer.print(i == 0 ? "<1" : ">=" + (1L << (i - 1)));
+          writer.print(": ");
+          writer.print(count);
+          separator = ", ";
+        }
+      }
+    }
+  }
+
+  /**
+   * The daemon thread that samples all StateSamplers that have not
+   * been closed or garbage collected.
+   */
+  private static class SamplingThread extends Thread {
+    private static final SamplingThread INSTANCE = new SamplingThread();
+    static {
+      INSTANCE.start();
+    }
+
+    /** The longest the thread sleeps for, so that it notices collected samplers. */
+    private static final long MAX_SLEEP_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentLinkedQueue<WeakReference<StateSampler>> newSamplers =
+        new ConcurrentLinkedQueue<>();
+
+    private SamplingThread() {
+      super("StateSampler");
+      setDaemon(true);
+    }
+
+    static void register(StateSampler sampler) {
+      INSTANCE.newSamplers.add(new WeakReference<>(sampler));
+      LockSupport.unpark(INSTANCE);
+    }
+
+    @Override
+    public void run() {
+      ArrayList<WeakReference<StateSampler>> samplers = new ArrayList<>();
+      while (true) {
+        for (WeakReference<StateSampler> ref = newSamplers.poll(); ref != null;
+            ref = newSamplers.poll()) {
+          samplers.add(ref);
+        }
+        long nowNs = System.nanoTime();
+        long wakeNs = nowNs + MAX_SLEEP_NS;
+        for (Iterator<WeakReference<StateSampler>> it = samplers.iterator(); it.hasNext();) {
+          StateSampler sampler = it.next().get();
+          if (sampler == null || sampler.closed) {
+            it.remove();
+            continue;
+          }
+          if (nowNs - sampler.nextSampleNs >= 0) {
+            try {
+              sampler.sample(nowNs);
+            } catch (RuntimeException e) {
+              LOG.warn("Failed to sample state, will stop sampling it: ", e);
+              it.remove();
+              continue;
+            }
+            sampler.nextSampleNs += sampler.samplingPeriodNs;
+            if (nowNs - sampler.nextSampleNs >= 0) {
+              // Skip the samples we fell behind on.
+              sampler.nextSampleNs = nowNs + sampler.samplingPeriodNs;
+            }
+          }
+          if (sampler.nextSampleNs - wakeNs < 0) {
+            wakeNs = sampler.nextSampleNs;
+          }
+        }
+        LockSupport.parkNanos(this, wakeNs - System.nanoTime());
+      }
+    }
+  }
 }
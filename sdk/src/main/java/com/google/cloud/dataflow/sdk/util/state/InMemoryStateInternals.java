@@ -19,8 +19,11 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.util.state.StateTag.StateBinder;
 
+import com.google.common.base.Preconditions;
+
 import org.joda.time.Instant;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,7 +35,11 @@ import java.util.Objects;
  */
 public class InMemoryStateInternals extends MergingStateInternals {
 
-  private interface InMemoryState {
+  /**
+   * Implemented by all states created by this class, so that tests can check that they have been
+   * cleared.
+   */
+  protected interface InMemoryState {
     boolean isEmptyForTesting();
   }
 
@@ -48,7 +55,7 @@ public class InMemoryStateInternals extends MergingStateInternals {
 
         @Override
         public <T> BagState<T> bindBag(final StateTag<BagState<T>> address, Coder<T> elemCoder) {
-          return new InMemoryBag<T>();
+          return createBag(elemCoder);
         }
 
         @Override
@@ -72,6 +79,13 @@ public class InMemoryStateInternals extends MergingStateInternals {
     inMemoryState.clear();
   }
 
+  /**
+   * Returns a new {@link BagState}, which must also implement {@link InMemoryState}.
+   */
+  protected <T> BagState<T> createBag(Coder<T> elemCoder) {
+    return new InMemoryBag<T>();
+  }
+
   /**
    * Return true if the given state is empty. This is used by the test framework to make sure
    * that the state has been properly cleaned up.
@@ -237,14 +251,35 @@ public class InMemoryStateInternals extends MergingStateInternals {
     }
   }
 
+  /**
+   * Returns a read-only view of the values in a list that values are only ever appended to. The
+   * view is not changed by values appended later, so it may be output instead of a copy.
+   */
+  static <T> List<T> appendedSoFar(final List<T> values) {
+    final int size = values.size();
+    return new AbstractList<T>() {
+      @Override
+      public T get(int index) {
+        Preconditions.checkElementIndex(index, size);
+        return values.get(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
   private static final class InMemoryBag<T> implements BagState<T>, InMemoryState {
-    private final List<T> contents = new ArrayList<>();
+    private List<T> contents = new ArrayList<>();
 
     @Override
     public void clear() {
       // Even though we're clearing we can't remove this from the in-memory state map, since
-      // other users may already have a handle on this Bag.
-      contents.clear();
+      // other users may already have a handle on this Bag. The contents are replaced rather than
+      // cleared, so that contents that have already been read, and possibly output, stay valid.
+      contents = new ArrayList<>();
     }
 
     @Override
@@ -252,7 +287,7 @@ public class InMemoryStateInternals extends MergingStateInternals {
       return new StateContents<Iterable<T>>() {
         @Override
         public Iterable<T> read() {
-          return contents;
+          return appendedSoFar(contents);
         }
       };
     }
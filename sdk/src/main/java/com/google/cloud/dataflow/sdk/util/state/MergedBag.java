@@ -61,6 +61,12 @@ class MergedBag<T> implements BagState<T> {
     return new StateContents<Iterable<T>>() {
       @Override
       public Iterable<T> read() {
+        if (futures.size() == 1
+            && Iterables.getOnlyElement(sources) instanceof InMemoryStateInternals.InMemoryState) {
+          // Nothing to merge, and in-memory contents stay the same once the bag changes, so they
+          // need not be copied.
+          return futures.get(0).read();
+        }
         // Can't use FluentIterables#toList because some values may be legitimately null.
         List<T> result = new ArrayList<>();
         for (StateContents<Iterable<T>> future : futures) {
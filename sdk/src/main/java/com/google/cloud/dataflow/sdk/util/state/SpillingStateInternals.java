@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.state;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.SpillFile;
+import com.google.cloud.dataflow.sdk.util.SpilledValues;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link InMemoryStateInternals} whose bags are written to temporary files once the values they
+ * buffer in memory exceed a memory budget, so that the state of a key may be larger than the
+ * available memory.
+ *
+ * <p>Values added to a bag are encoded immediately. Once more than the budget of encoded values
+ * is buffered, the bags buffering the most are appended to their own files until at most half of
+ * the budget is buffered. The values of a spilled bag are decoded from its file each time the bag
+ * is read, followed by the values still buffered. The contents returned by a read stay valid once
+ * the bag or this state is cleared, so that they may be output without being copied: the file of
+ * a cleared bag is only deleted once no contents read from it are reachable, see
+ * {@link SpillFile}.
+ */
+public class SpillingStateInternals extends InMemoryStateInternals {
+
+  /** Estimated memory overhead of one buffered value, beyond its encoded bytes. */
+  private static final long VALUE_OVERHEAD_BYTES = 32;
+
+  /** Bags buffering less than this, or a 16th of the budget if smaller, are never spilled. */
+  private static final long MIN_SPILL_BYTES = 64 << 10;
+
+  private static final Comparator<SpillingBag<?>> BY_BUFFERED_BYTES_DESCENDING =
+      new Comparator<SpillingBag<?>>() {
+        @Override
+        public int compare(SpillingBag<?> a, SpillingBag<?> b) {
+          return Long.compare(b.bagBufferedBytes, a.bagBufferedBytes);
+        }
+      };
+
+  private final long memoryBudgetBytes;
+  @Nullable private final File tempDirectory;
+
+  /** The bags that buffer or have spilled any values. */
+  private final Set<SpillingBag<?>> bags = new HashSet<>();
+  private long bufferedBytes = 0;
+
+  /**
+   * The buffered bytes above which to look for bags to spill again, so that many small bags
+   * that are not worth spilling are not sorted on every addition.
+   */
+  private long nextSpillCheckBytes;
+
+  private int numSpilledBags = 0;
+
+  /**
+   * Creates state that spills bags to files in {@code tempDirectory}, or the default temporary
+   * directory if it is null, once more than {@code memoryBudgetBytes} of encoded values are
+   * buffered.
+   */
+  public SpillingStateInternals(long memoryBudgetBytes, @Nullable File tempDirectory) {
+    Preconditions.checkArgument(memoryBudgetBytes > 0,
+        "memoryBudgetBytes must be positive, got %s", memoryBudgetBytes);
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.tempDirectory = tempDirectory;
+    this.nextSpillCheckBytes = memoryBudgetBytes;
+  }
+
+  /**
+   * Clears all state, deleting the files of spilled bags.
+   */
+  @Override
+  public void clear() {
+    for (SpillingBag<?> bag : new ArrayList<>(bags)) {
+      bag.clear();
+    }
+    super.clear();
+  }
+
+  @Override
+  protected <T> BagState<T> createBag(Coder<T> elemCoder) {
+    return new SpillingBag<>(elemCoder);
+  }
+
+  /**
+   * Returns whether the values of any bag are currently read from a file.
+   */
+  public boolean hasSpilledBags() {
+    for (SpillingBag<?> bag : bags) {
+      if (bag.file != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of times a bag has been written to a file.
+   */
+  public int getNumSpilledBags() {
+    return numSpilledBags;
+  }
+
+  private void spillIfNeeded() throws IOException {
+    if (bufferedBytes <= nextSpillCheckBytes) {
+      return;
+    }
+    List<SpillingBag<?>> largestFirst = new ArrayList<>(bags);
+    Collections.sort(largestFirst, BY_BUFFERED_BYTES_DESCENDING);
+    long minSpillBytes = Math.min(MIN_SPILL_BYTES, memoryBudgetBytes / 16);
+    for (SpillingBag<?> bag : largestFirst) {
+      if (bufferedBytes <= memoryBudgetBytes / 2 || bag.bagBufferedBytes < minSpillBytes) {
+        break;
+      }
+      bag.spill();
+    }
+    nextSpillCheckBytes = Math.max(memoryBudgetBytes, bufferedBytes + memoryBudgetBytes / 16);
+  }
+
+  private final class SpillingBag<T> implements BagState<T>, InMemoryState {
+    private final Coder<T> elemCoder;
+
+    // Replaced rather than cleared, so that contents that have already been read stay valid.
+    private List<byte[]> buffer = new ArrayList<>();
+    private long bagBufferedBytes = 0;
+
+    private SpillFile file;
+    private int numSpilledValues = 0;
+
+    private SpillingBag(Coder<T> elemCoder) {
+      this.elemCoder = elemCoder;
+    }
+
+    @Override
+    public void clear() {
+      buffer = new ArrayList<>();
+      bufferedBytes -= bagBufferedBytes;
+      bagBufferedBytes = 0;
+      if (file != null) {
+        file.release();
+        file = null;
+      }
+      numSpilledValues = 0;
+      bags.remove(this);
+    }
+
+    @Override
+    public StateContents<Iterable<T>> get() {
+      return new StateContents<Iterable<T>>() {
+        @Override
+        public Iterable<T> read() {
+          final List<T> buffered =
+              Lists.transform(appendedSoFar(buffer), new Function<byte[], T>() {
+                @Override
+                public T apply(byte[] encoded) {
+                  return decode(encoded);
+                }
+              });
+          if (file == null) {
+            return buffered;
+          }
+          // A collection, so that its size is known without iterating it, as for unspilled bags.
+          final SpilledValues<T> spilled =
+              new SpilledValues<>(elemCoder, file, 0, numSpilledValues);
+          return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+              return Iterables.concat(spilled, buffered).iterator();
+            }
+
+            @Override
+            public int size() {
+              return spilled.size() + buffered.size();
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public void add(T input) {
+      byte[] encoded;
+      try {
+        encoded = CoderUtils.encodeToByteArray(elemCoder, input);
+      } catch (CoderException e) {
+        throw new RuntimeException("Unable to encode value added to state", e);
+      }
+      if (buffer.isEmpty() && numSpilledValues == 0) {
+        bags.add(this);
+      }
+      buffer.add(encoded);
+      long size = encoded.length + VALUE_OVERHEAD_BYTES;
+      bagBufferedBytes += size;
+      bufferedBytes += size;
+      try {
+        spillIfNeeded();
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to spill state to disk", e);
+      }
+    }
+
+    @Override
+    public StateContents<Boolean> isEmpty() {
+      return new StateContents<Boolean>() {
+        @Override
+        public Boolean read() {
+          return isEmptyForTesting();
+        }
+      };
+    }
+
+    @Override
+    public boolean isEmptyForTesting() {
+      return buffer.isEmpty() && numSpilledValues == 0;
+    }
+
+    /**
+     * Appends the buffered values to the file of this bag.
+     */
+    private void spill() throws IOException {
+      if (file == null) {
+        file = SpillFile.create("state-", ".bag", tempDirectory);
+      }
+      try (OutputStream out =
+          new BufferedOutputStream(new FileOutputStream(file.getFile(), true))) {
+        for (byte[] encoded : buffer) {
+          SpilledValues.write(encoded, out);
+        }
+      }
+      numSpilledValues += buffer.size();
+      buffer = new ArrayList<>();
+      bufferedBytes -= bagBufferedBytes;
+      bagBufferedBytes = 0;
+      numSpilledBags++;
+    }
+
+    private T decode(byte[] encoded) {
+      try {
+        return CoderUtils.decodeFromByteArray(elemCoder, encoded);
+      } catch (CoderException e) {
+        throw new RuntimeException("Unable to decode value read from state", e);
+      }
+    }
+  }
+}
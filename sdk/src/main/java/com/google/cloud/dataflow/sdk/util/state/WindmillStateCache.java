@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.state;
+
+import com.google.cloud.dataflow.sdk.util.state.WindmillStateReader.StateTag;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+
+import org.joda.time.Instant;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A process-wide cache of the persistent state read from and written to Windmill, so
+ * that consecutive work items for a key do not need to fetch the same state again.
+ *
+ * <p>The state of a key is cached along with the cache token and work token of the work item
+ * that last wrote it. A later work item for the key may use the cached state only if Windmill
+ * gave it the same cache token, which guarantees that no other worker has modified the key's
+ * state since, and a larger work token. The whole state of a key is invalidated when a commit
+ * for the key fails.
+ *
+ * <p>Values are cached in a form that cannot be modified, so that the work items sharing them
+ * cannot change each other's state: values of value tags and the elements of list tags as their
+ * encoded {@link ByteString}s, which are decoded again on each hit, and watermark holds as
+ * {@link Instant}s.
+ *
+ * <p>The cache is bounded by the estimated size of the encoded state it holds.
+ */
+public class WindmillStateCache {
+  /** The estimated overhead of a cached key, beyond its encoded size. */
+  private static final int PER_KEY_OVERHEAD = 64;
+
+  /** The estimated overhead of a cached tag, beyond its encoded value. */
+  private static final int PER_TAG_OVERHEAD = 64;
+
+  private final Cache<ComputationKey, KeyState> cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxWeightBytes the maximum estimated size of the cached state
+   */
+  public WindmillStateCache(long maxWeightBytes) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxWeightBytes)
+        .weigher(new Weigher<ComputationKey, KeyState>() {
+          @Override
+          public int weigh(ComputationKey key, KeyState state) {
+            return (int) Math.min(
+                PER_KEY_OVERHEAD + key.key.size() + state.weight, Integer.MAX_VALUE);
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Returns the view of the cache for the given computation.
+   */
+  public ForComputation forComputation(String computation) {
+    return new ForComputation(computation);
+  }
+
+  /**
+   * Returns the number of lookups of cached state that found a value, and resets it.
+   */
+  public long getAndResetHits() {
+    return hits.getAndSet(0);
+  }
+
+  /**
+   * Returns the number of lookups of cached state that found no value, and resets it.
+   */
+  public long getAndResetMisses() {
+    return misses.getAndSet(0);
+  }
+
+  public void printHtml(PrintWriter writer) {
+    writer.println("State Cache:");
+    writer.println("  Keys: " + cache.size());
+  }
+
+  /**
+   * The view of the cache for one computation.
+   */
+  public class ForComputation {
+    private final String computation;
+
+    private ForComputation(String computation) {
+      this.computation = computation;
+    }
+
+    /**
+     * Returns the view of the cached state of a key for a work item with the given tokens.
+     */
+    public ForKey forKey(ByteString key, long cacheToken, long workToken) {
+      ComputationKey computationKey = new ComputationKey(computation, key);
+      KeyState state = cache.getIfPresent(computationKey);
+      if (state == null || state.cacheToken != cacheToken || state.workToken >= workToken) {
+        state = null;
+      }
+      return new ForKey(computationKey, cacheToken, workToken, state);
+    }
+
+    /**
+     * Discards all cached state of the key.
+     */
+    public void invalidate(ByteString key) {
+      cache.invalidate(new ComputationKey(computation, key));
+    }
+  }
+
+  /**
+   * The cached state of a key, as seen and modified by one work item.
+   *
+   * <p>Changes are only visible to later work items once {@link #persist} is called.
+   */
+  public class ForKey {
+    private final ComputationKey computationKey;
+    private final long cacheToken;
+    private final long workToken;
+    private final Map<StateTag, CachedValue> values;
+
+    // The tags whose cached values were set or invalidated by this work item, and so must not
+    // be replaced by values read from Windmill before this work item's changes are committed.
+    private final Set<StateTag> written = new HashSet<>();
+
+    private ForKey(ComputationKey computationKey, long cacheToken, long workToken,
+        @Nullable KeyState state) {
+      this.computationKey = computationKey;
+      this.cacheToken = cacheToken;
+      this.workToken = workToken;
+      this.values = state == null
+          ? new HashMap<StateTag, CachedValue>()
+          : new HashMap<>(state.values);
+    }
+
+    /**
+     * Returns the cached value of the tag, or null if it is not cached. Counts as a cache hit or
+     * miss.
+     *
+     * <p>Tags written by this work item are never returned, since Windmill rejects writes of
+     * state that the work item has not read from it.
+     */
+    @Nullable
+    synchronized CachedValue get(StateTag tag) {
+      if (written.contains(tag)) {
+        return null;
+      }
+      CachedValue value = values.get(tag);
+      (value == null ? misses : hits).incrementAndGet();
+      return value;
+    }
+
+    /**
+     * Returns the cached value of the tag, or null if it is not cached.
+     */
+    @Nullable
+    synchronized CachedValue peek(StateTag tag) {
+      return values.get(tag);
+    }
+
+    /**
+     * Caches a value read from Windmill, unless this work item has already written the tag.
+     */
+    synchronized void recordRead(StateTag tag, @Nullable Object value, long weight) {
+      if (!written.contains(tag)) {
+        values.put(tag, new CachedValue(value, weight));
+      }
+    }
+
+    /**
+     * Caches the value this work item writes to the tag.
+     */
+    synchronized void put(StateTag tag, @Nullable Object value, long weight) {
+      written.add(tag);
+      values.put(tag, new CachedValue(value, weight));
+    }
+
+    /**
+     * Discards the cached value of the tag, because this work item changes it in a way that
+     * cannot be cached.
+     */
+    synchronized void invalidate(StateTag tag) {
+      written.add(tag);
+      values.remove(tag);
+    }
+
+    /**
+     * Makes the cached state of the key, including this work item's changes, visible to later
+     * work items for the key. Called once this work item's state has been persisted.
+     */
+    public synchronized void persist() {
+      long weight = 0;
+      for (Map.Entry<StateTag, CachedValue> entry : values.entrySet()) {
+        weight += PER_TAG_OVERHEAD + entry.getKey().tag.size() + entry.getValue().weight;
+      }
+      cache.put(computationKey, new KeyState(
+          cacheToken, workToken, Collections.unmodifiableMap(values), weight));
+    }
+  }
+
+  /**
+   * A cached value and its estimated size.
+   */
+  static class CachedValue {
+    /**
+     * The value: a {@link ByteString} for a value tag, an {@link ImmutableList} of
+     * {@link ByteString}s for a list tag, or an {@link Instant} for a watermark tag.
+     */
+    @Nullable final Object value;
+    final long weight;
+
+    private CachedValue(@Nullable Object value, long weight) {
+      Preconditions.checkArgument(value == null || value instanceof ByteString
+          || value instanceof ImmutableList || value instanceof Instant,
+          "Cached values must be encoded, got %s", value);
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * The cached state of a key, as of the work item that persisted it.
+   */
+  private static class KeyState {
+    private final long cacheToken;
+    private final long workToken;
+    private final Map<StateTag, CachedValue> values;
+    private final long weight;
+
+    private KeyState(
+        long cacheToken, long workToken, Map<StateTag, CachedValue> values, long weight) {
+      this.cacheToken = cacheToken;
+      this.workToken = workToken;
+      this.values = values;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * A key of a computation.
+   */
+  static class ComputationKey {
+    private final String computation;
+    private final ByteString key;
+
+    ComputationKey(String computation, ByteString key) {
+      this.computation = computation;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ComputationKey)) {
+        return false;
+      }
+      ComputationKey that = (ComputationKey) obj;
+      return computation.equals(that.computation) && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(computation, key);
+    }
+  }
+}
@@ -19,6 +19,7 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.util.state.StateTag.StateBinder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Futures;
 import com.google.protobuf.ByteString;
@@ -34,6 +35,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * Implementation of {@link StateInternals} using Windmill to manage the underlying data.
  */
@@ -45,13 +48,15 @@ public class WindmillStateInternals extends MergingStateInternals {
       return new StateBinder() {
         @Override
         public <T> BagState<T> bindBag(StateTag<BagState<T>> address, Coder<T> elemCoder) {
-          return new WindmillBag<>(encodeKey(namespace, address), stateFamily, elemCoder, reader);
+          return new WindmillBag<>(
+              encodeKey(namespace, address), stateFamily, elemCoder, reader, cache);
         }
 
         @Override
         public <T> WatermarkStateInternal bindWatermark(
             StateTag<WatermarkStateInternal> address) {
-          return new WindmillWatermarkState(encodeKey(namespace, address), stateFamily, reader);
+          return new WindmillWatermarkState(
+              encodeKey(namespace, address), stateFamily, reader, cache);
         }
 
         @Override
@@ -60,12 +65,13 @@ public class WindmillStateInternals extends MergingStateInternals {
             StateTag<CombiningValueStateInternal<InputT, AccumT, OutputT>> address,
             Coder<AccumT> accumCoder, CombineFn<InputT, AccumT, OutputT> combineFn) {
           return new WindmillCombiningValue<>(
-              encodeKey(namespace, address), stateFamily, accumCoder, combineFn, reader);
+              encodeKey(namespace, address), stateFamily, accumCoder, combineFn, reader, cache);
         }
 
         @Override
         public <T> ValueState<T> bindValue(StateTag<ValueState<T>> address, Coder<T> coder) {
-          return new WindmillValue<>(encodeKey(namespace, address), stateFamily, coder, reader);
+          return new WindmillValue<>(
+              encodeKey(namespace, address), stateFamily, coder, reader, cache);
         }
       };
     }
@@ -74,10 +80,19 @@ public class WindmillStateInternals extends MergingStateInternals {
   private final String prefix;
   private final String stateFamily;
   private final WindmillStateReader reader;
+  @Nullable private final WindmillStateCache.ForKey cache;
   private final boolean useStateFamilies;
 
   public WindmillStateInternals(String prefix, boolean useStateFamilies,
       WindmillStateReader reader) {
+    this(prefix, useStateFamilies, reader, null);
+  }
+
+  /**
+   * Creates state internals that keep the given cache up to date with the state they persist.
+   */
+  public WindmillStateInternals(String prefix, boolean useStateFamilies,
+      WindmillStateReader reader, @Nullable WindmillStateCache.ForKey cache) {
     this.prefix = prefix;
     if (useStateFamilies) {
       this.stateFamily = prefix;
@@ -85,6 +100,7 @@ public class WindmillStateInternals extends MergingStateInternals {
       this.stateFamily = "";
     }
     this.reader = reader;
+    this.cache = cache;
     this.useStateFamilies = useStateFamilies;
   }
 
@@ -143,17 +159,19 @@ public class WindmillStateInternals extends MergingStateInternals {
     private final String stateFamily;
     private final Coder<T> coder;
     private final WindmillStateReader reader;
+    @Nullable private final WindmillStateCache.ForKey cache;
 
     /** Whether we've modified the value since creation of this state. */
     private boolean modified = false;
     private T modifiedValue;
 
     private WindmillValue(ByteString stateKey, String stateFamily, Coder<T> coder,
-        WindmillStateReader reader) {
+        WindmillStateReader reader, @Nullable WindmillStateCache.ForKey cache) {
       this.stateKey = stateKey;
       this.stateFamily = stateFamily;
       this.coder = coder;
       this.reader = reader;
+      this.cache = cache;
     }
 
     @Override
@@ -192,16 +210,22 @@ public class WindmillStateInternals extends MergingStateInternals {
         return;
       }
 
-      // We can't write without doing a read, so we need to kick off a read if we get here.
-      // Call reader.valueFuture directly, since our read() method will avoid actually reading from
-      // Windmill since the value is already inMemory.
-      reader.valueFuture(stateKey, stateFamily, coder);
-
       ByteString.Output stream = ByteString.newOutput();
       if (modifiedValue != null) {
         coder.encode(modifiedValue, stream, Coder.Context.OUTER);
       }
 
+      // Update the cache first, so that the read below is not served from it.
+      if (cache != null) {
+        cache.put(WindmillStateReader.StateTag.value(stateKey, stateFamily),
+            stream.toByteString(), stream.size());
+      }
+
+      // We can't write without doing a read, so we need to kick off a read if we get here.
+      // Call reader.valueFuture directly, since our read() method will avoid actually reading from
+      // Windmill since the value is already inMemory.
+      reader.valueFuture(stateKey, stateFamily, coder);
+
       commitBuilder
           .addValueUpdatesBuilder()
           .setTag(stateKey)
@@ -218,16 +242,18 @@ public class WindmillStateInternals extends MergingStateInternals {
     private final String stateFamily;
     private final Coder<T> elemCoder;
     private final WindmillStateReader reader;
+    @Nullable private final WindmillStateCache.ForKey cache;
 
     private boolean cleared = false;
     private final List<T> localAdditions = new ArrayList<>();
 
     private WindmillBag(ByteString stateKey, String stateFamily, Coder<T> elemCoder,
-        WindmillStateReader reader) {
+        WindmillStateReader reader, @Nullable WindmillStateCache.ForKey cache) {
       this.stateKey = stateKey;
       this.stateFamily = stateFamily;
       this.elemCoder = elemCoder;
       this.reader = reader;
+      this.cache = cache;
     }
 
     @Override
@@ -292,17 +318,14 @@ public class WindmillStateInternals extends MergingStateInternals {
     @Override
     public void persist(Windmill.WorkItemCommitRequest.Builder commitBuilder) throws IOException {
       if (cleared) {
-        // If we do a delete, we need to have done a read to prevent Windmill complaining about
-        // blind deletes. We use the underlying reader, because we normally skip the actual read
-        // if we've already cleared the state.
-        reader.listFuture(stateKey, stateFamily, elemCoder);
         commitBuilder.addListUpdatesBuilder()
             .setTag(stateKey)
             .setStateFamily(stateFamily)
             .setEndTimestamp(Long.MAX_VALUE);
       }
 
-
+      long additionsWeight = 0;
+      ImmutableList.Builder<ByteString> encodedAdditions = ImmutableList.builder();
       if (!localAdditions.isEmpty()) {
         byte[] zero = {0x0};
         Windmill.TagList.Builder listUpdatesBuilder =
@@ -316,11 +339,49 @@ public class WindmillStateInternals extends MergingStateInternals {
           // Encode the value
           elemCoder.encode(value, stream, Coder.Context.OUTER);
 
+          ByteString encoded = stream.toByteString();
           listUpdatesBuilder.addValuesBuilder()
-              .setData(stream.toByteString())
+              .setData(encoded)
               .setTimestamp(Long.MAX_VALUE);
+          encodedAdditions.add(encoded);
+          additionsWeight += stream.size();
         }
       }
+
+      // Update the cache first, so that the read below is not served from it.
+      updateCache(encodedAdditions.build(), additionsWeight);
+
+      if (cleared) {
+        // If we do a delete, we need to have done a read to prevent Windmill complaining about
+        // blind deletes. We use the underlying reader, because we normally skip the actual read
+        // if we've already cleared the state.
+        reader.listFuture(stateKey, stateFamily, elemCoder);
+      }
+    }
+
+    /**
+     * Caches the contents of the bag as of this work item, if they are known without reading.
+     */
+    private void updateCache(ImmutableList<ByteString> encodedAdditions, long additionsWeight) {
+      if (cache == null || (!cleared && encodedAdditions.isEmpty())) {
+        return;
+      }
+      WindmillStateReader.StateTag tag = WindmillStateReader.StateTag.list(stateKey, stateFamily);
+      if (cleared) {
+        cache.put(tag, encodedAdditions, additionsWeight);
+        return;
+      }
+      WindmillStateCache.CachedValue persisted = cache.peek(tag);
+      if (persisted == null) {
+        cache.invalidate(tag);
+        return;
+      }
+      @SuppressWarnings("unchecked")
+      List<ByteString> persistedValues = (List<ByteString>) persisted.value;
+      cache.put(tag,
+          ImmutableList.<ByteString>builder().addAll(persistedValues).addAll(encodedAdditions)
+              .build(),
+          persisted.weight + additionsWeight);
     }
   }
 
@@ -329,15 +390,17 @@ public class WindmillStateInternals extends MergingStateInternals {
     private final ByteString stateKey;
     private final String stateFamily;
     private final WindmillStateReader reader;
+    @Nullable private final WindmillStateCache.ForKey cache;
 
     private boolean cleared = false;
     private Instant localAdditions = null;
 
     private WindmillWatermarkState(ByteString stateKey, String stateFamily,
-        WindmillStateReader reader) {
+        WindmillStateReader reader, @Nullable WindmillStateCache.ForKey cache) {
       this.stateKey = stateKey;
       this.stateFamily = stateFamily;
       this.reader = reader;
+      this.cache = cache;
     }
 
     @Override
@@ -404,9 +467,7 @@ public class WindmillStateInternals extends MergingStateInternals {
 
     @Override
     public void persist(Windmill.WorkItemCommitRequest.Builder commitBuilder) {
-      // If we do a delete, we need to have done a read
       if (cleared) {
-        reader.watermarkFuture(stateKey, stateFamily);
         commitBuilder.addWatermarkHoldsBuilder()
             .setTag(stateKey)
             .setStateFamily(stateFamily)
@@ -419,6 +480,36 @@ public class WindmillStateInternals extends MergingStateInternals {
             .setStateFamily(stateFamily)
             .addTimestamps(TimeUnit.MILLISECONDS.toMicros(localAdditions.getMillis()));
       }
+
+      // Update the cache first, so that the read below is not served from it.
+      updateCache();
+
+      // If we do a delete, we need to have done a read
+      if (cleared) {
+        reader.watermarkFuture(stateKey, stateFamily);
+      }
+    }
+
+    /**
+     * Caches the hold as of this work item, if it is known without reading.
+     */
+    private void updateCache() {
+      if (cache == null || (!cleared && localAdditions == null)) {
+        return;
+      }
+      WindmillStateReader.StateTag tag =
+          WindmillStateReader.StateTag.watermark(stateKey, stateFamily);
+      if (cleared) {
+        cache.put(tag, localAdditions, 8);
+        return;
+      }
+      WindmillStateCache.CachedValue persisted = cache.peek(tag);
+      if (persisted == null) {
+        cache.invalidate(tag);
+        return;
+      }
+      Instant hold = (Instant) persisted.value;
+      cache.put(tag, hold != null && hold.isBefore(localAdditions) ? hold : localAdditions, 8);
     }
   }
 
@@ -438,8 +529,8 @@ public class WindmillStateInternals extends MergingStateInternals {
     private WindmillCombiningValue(ByteString stateKey, String stateFamily,
         Coder<AccumT> accumCoder,
         CombineFn<InputT, AccumT, OutputT> combineFn,
-        WindmillStateReader reader) {
-      this.bag = new WindmillBag<>(stateKey, stateFamily, accumCoder, reader);
+        WindmillStateReader reader, @Nullable WindmillStateCache.ForKey cache) {
+      this.bag = new WindmillBag<>(stateKey, stateFamily, accumCoder, reader, cache);
       this.combineFn = combineFn;
       this.localAdditionsAccum = combineFn.createAccumulator();
     }
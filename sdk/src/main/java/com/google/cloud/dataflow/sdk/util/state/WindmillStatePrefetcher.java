@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.state;
+
+import com.google.cloud.dataflow.sdk.runners.worker.MetricTrackingWindmillServerStub;
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.cloud.dataflow.sdk.util.state.WindmillStateCache.ComputationKey;
+import com.google.cloud.dataflow.sdk.util.state.WindmillStateReader.StateTag;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+/**
+ * Prefetches the persistent state of work items from Windmill while earlier work items are still
+ * executing, so that the latency of reading state overlaps with processing.
+ *
+ * <p>The tags a work item will read are not known until it runs, so the prefetcher predicts
+ * them from the tags the previous work item for the same key read from Windmill. These are
+ * typically the same, such as the watermark holds, trigger state and pane info of the key's
+ * active windows. The state of all the work items of a {@link Batch} is read with a single
+ * GetData request.
+ *
+ * <p>State may only be prefetched for a work item once all earlier work items for its key have
+ * committed, since the prefetched state would otherwise miss their changes.
+ */
+public class WindmillStatePrefetcher {
+  private static final Logger LOG = LoggerFactory.getLogger(WindmillStatePrefetcher.class);
+
+  /** The number of keys whose tags are remembered for prediction. */
+  private static final int MAX_KEYS = 100000;
+
+  private final MetricTrackingWindmillServerStub server;
+  private final Executor executor;
+  private final Cache<ComputationKey, Set<StateTag>> fetchedTags =
+      CacheBuilder.newBuilder().maximumSize(MAX_KEYS).build();
+
+  /**
+   * @param server the server to read state from
+   * @param executor the executor that sends the GetData requests of batches
+   */
+  public WindmillStatePrefetcher(MetricTrackingWindmillServerStub server, Executor executor) {
+    this.server = server;
+    this.executor = executor;
+  }
+
+  /**
+   * Remembers the tags that a work item read from Windmill, as the prediction of the tags the
+   * next work item for the key will read.
+   */
+  public void recordFetchedTags(WindmillStateReader reader) {
+    ComputationKey key = new ComputationKey(reader.getComputation(), reader.getKey());
+    Set<StateTag> tags = reader.getFetchedTags();
+    if (tags.isEmpty()) {
+      fetchedTags.invalidate(key);
+    } else {
+      fetchedTags.put(key, ImmutableSet.copyOf(tags));
+    }
+  }
+
+  /**
+   * Returns a new batch of work items to prefetch state for.
+   */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /**
+   * A set of work items whose state is read by a single request.
+   */
+  public class Batch {
+    private final Map<String, List<Prefetch>> prefetches = new LinkedHashMap<>();
+    private boolean started = false;
+
+    private Batch() {}
+
+    /**
+     * Adds a work item to the batch, returning its prefetch, or null if there is nothing to
+     * prefetch for it.
+     */
+    @Nullable
+    public Prefetch add(String computation, Windmill.WorkItem workItem) {
+      Set<StateTag> tags =
+          fetchedTags.getIfPresent(new ComputationKey(computation, workItem.getKey()));
+      if (tags == null) {
+        return null;
+      }
+      Prefetch prefetch = new Prefetch(workItem.getKey(), workItem.getWorkToken(), tags);
+      List<Prefetch> computationPrefetches = prefetches.get(computation);
+      if (computationPrefetches == null) {
+        computationPrefetches = new ArrayList<>();
+        prefetches.put(computation, computationPrefetches);
+      }
+      computationPrefetches.add(prefetch);
+      return prefetch;
+    }
+
+    /**
+     * Sends the request for the state of all the work items added and not cancelled.
+     */
+    public void start() {
+      if (started) {
+        return;
+      }
+      started = true;
+      final Windmill.GetDataRequest.Builder request = Windmill.GetDataRequest.newBuilder();
+      final Map<ComputationKey, Prefetch> requested = new HashMap<>();
+      for (Map.Entry<String, List<Prefetch>> entry : prefetches.entrySet()) {
+        Windmill.ComputationGetDataRequest.Builder computationRequest = null;
+        for (Prefetch prefetch : entry.getValue()) {
+          if (prefetch.isCancelled()) {
+            continue;
+          }
+          if (computationRequest == null) {
+            computationRequest = request.addRequestsBuilder().setComputationId(entry.getKey());
+          }
+          WindmillStateReader.addTagsToFetch(
+              computationRequest.addRequestsBuilder()
+                  .setKey(prefetch.key)
+                  .setWorkToken(prefetch.workToken),
+              prefetch.tags);
+          requested.put(new ComputationKey(entry.getKey(), prefetch.key), prefetch);
+        }
+      }
+      if (requested.isEmpty()) {
+        return;
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Windmill.GetDataResponse response = server.getStateData(request.build());
+            for (Windmill.ComputationGetDataResponse computationResponse
+                : response.getDataList()) {
+              for (Windmill.KeyedGetDataResponse keyedResponse
+                  : computationResponse.getDataList()) {
+                Prefetch prefetch = requested.remove(new ComputationKey(
+                    computationResponse.getComputationId(), keyedResponse.getKey()));
+                if (prefetch != null) {
+                  prefetch.response.set(keyedResponse);
+                }
+              }
+            }
+          } catch (RuntimeException e) {
+            LOG.warn("Failed to prefetch state, reading it when needed instead: ", e);
+          } finally {
+            // Work items without a response read all their state from Windmill.
+            for (Prefetch prefetch : requested.values()) {
+              prefetch.response.set(null);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * The prefetched state of one work item.
+   */
+  public static class Prefetch {
+    private final ByteString key;
+    private final long workToken;
+    private final Set<StateTag> tags;
+    private final SettableFuture<Windmill.KeyedGetDataResponse> response = SettableFuture.create();
+    private volatile boolean cancelled = false;
+
+    private Prefetch(ByteString key, long workToken, Set<StateTag> tags) {
+      this.key = key;
+      this.workToken = workToken;
+      this.tags = tags;
+    }
+
+    /**
+     * Excludes the work item from its batch, because it may not run before other work items for
+     * its key. The work item then reads all its state from Windmill.
+     */
+    public void cancel() {
+      cancelled = true;
+      response.set(null);
+    }
+
+    boolean isCancelled() {
+      return cancelled;
+    }
+
+    Set<StateTag> getTags() {
+      return tags;
+    }
+
+    /**
+     * Waits for and returns the prefetched state, or returns null if it was not prefetched.
+     */
+    @Nullable
+    Windmill.KeyedGetDataResponse getResponse() {
+      try {
+        return response.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -24,7 +24,9 @@ import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill.TagValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ForwardingFuture;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
 
@@ -36,8 +38,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -46,6 +51,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 /**
  * Reads persistent state from {@link Windmill}. Returns {@code Future}s containing the data that
  * has been read. Will not initiate a read until {@link Future#get} is called, at which point all
@@ -53,16 +60,20 @@ import java.util.concurrent.TimeoutException;
  */
 public class WindmillStateReader {
 
-  private static class StateTag {
-    private enum Kind {
+  /**
+   * The address of a piece of state read from Windmill, which also identifies it in the
+   * {@link WindmillStateCache}.
+   */
+  static class StateTag {
+    enum Kind {
       VALUE,
       LIST,
       WATERMARK;
     }
 
-    private final Kind kind;
-    private final ByteString tag;
-    private final String stateFamily;
+    final Kind kind;
+    final ByteString tag;
+    final String stateFamily;
 
     private StateTag(Kind kind, ByteString tag, String stateFamily) {
       this.kind = kind;
@@ -70,6 +81,18 @@ public class WindmillStateReader {
       this.stateFamily = Preconditions.checkNotNull(stateFamily);
     }
 
+    static StateTag value(ByteString tag, String stateFamily) {
+      return new StateTag(Kind.VALUE, tag, stateFamily);
+    }
+
+    static StateTag list(ByteString tag, String stateFamily) {
+      return new StateTag(Kind.LIST, tag, stateFamily);
+    }
+
+    static StateTag watermark(ByteString tag, String stateFamily) {
+      return new StateTag(Kind.WATERMARK, tag, stateFamily);
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (this == obj) {
@@ -104,14 +127,67 @@ public class WindmillStateReader {
   private final long workToken;
 
   private final MetricTrackingWindmillServerStub metrics;
+  @Nullable private final WindmillStateCache.ForKey cache;
+  @Nullable private final WindmillStatePrefetcher.Prefetch prefetch;
+
+  // The prefetched state that has not been requested yet, or null until the prefetch is used.
+  private Map<StateTag, Object> prefetched;
 
   public WindmillStateReader(
       MetricTrackingWindmillServerStub metrics,
       String computation, ByteString key, long workToken) {
+    this(metrics, computation, key, workToken, null, null);
+  }
+
+  /**
+   * Creates a reader that serves reads from the given cache when possible, and records the state
+   * it reads from Windmill in it.
+   */
+  public WindmillStateReader(
+      MetricTrackingWindmillServerStub metrics,
+      String computation, ByteString key, long workToken,
+      @Nullable WindmillStateCache.ForKey cache) {
+    this(metrics, computation, key, workToken, cache, null);
+  }
+
+  /**
+   * Creates a reader that serves reads from the given cache when possible, and then from the
+   * given prefetched state, before reading from Windmill.
+   */
+  public WindmillStateReader(
+      MetricTrackingWindmillServerStub metrics,
+      String computation, ByteString key, long workToken,
+      @Nullable WindmillStateCache.ForKey cache,
+      @Nullable WindmillStatePrefetcher.Prefetch prefetch) {
     this.metrics = metrics;
     this.computation = computation;
     this.key = key;
     this.workToken = workToken;
+    this.cache = cache;
+    this.prefetch = prefetch;
+  }
+
+  String getComputation() {
+    return computation;
+  }
+
+  ByteString getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the tags this reader has read from Windmill, rather than from the cache.
+   */
+  Set<StateTag> getFetchedTags() {
+    return Collections.unmodifiableSet(futures.keySet());
+  }
+
+  /**
+   * Returns the cached state of the key being read, or null if state is not cached.
+   */
+  @Nullable
+  public WindmillStateCache.ForKey getCache() {
+    return cache;
   }
 
   @VisibleForTesting ConcurrentLinkedQueue<StateTag> pendingLookups = new ConcurrentLinkedQueue<>();
@@ -121,6 +197,14 @@ public class WindmillStateReader {
 
   private <T> Future<T> stateFuture(StateTag tag, Coder<?> coder) {
     SettableFuture<?> wildcardFuture = futures.get(tag);
+    if (wildcardFuture == null && cache != null) {
+      WindmillStateCache.CachedValue cached = cache.get(tag);
+      if (cached != null) {
+        @SuppressWarnings("unchecked")
+        T value = (T) decodeCached(tag, coder, cached.value);
+        return Futures.immediateFuture(value);
+      }
+    }
     if (wildcardFuture == null) {
       // If we don't yet have a future, try to create one.
       wildcardFuture = SettableFuture.<T>create();
@@ -144,18 +228,19 @@ public class WindmillStateReader {
   }
 
   public Future<Instant> watermarkFuture(ByteString encodedTag, String stateFamily) {
-    return stateFuture(new StateTag(StateTag.Kind.WATERMARK, encodedTag, stateFamily), null);
+    return stateFuture(StateTag.watermark(encodedTag, stateFamily), null);
   }
 
   public <T> Future<T> valueFuture(ByteString encodedTag, String stateFamily, Coder<T> coder) {
-    return stateFuture(new StateTag(StateTag.Kind.VALUE, encodedTag, stateFamily), coder);
+    return stateFuture(StateTag.value(encodedTag, stateFamily), coder);
   }
 
   public <T> Future<Iterable<T>> listFuture(ByteString encodedTag, String stateFamily,
       Coder<T> elemCoder) {
-    return stateFuture(new StateTag(StateTag.Kind.LIST, encodedTag, stateFamily), elemCoder);
+    return stateFuture(StateTag.list(encodedTag, stateFamily), elemCoder);
   }
 
+
   private <T> Future<T> wrappedFuture(final Future<T> future) {
     // If the underlying lookup is already complete, we don't need to create the wrapper.
     if (future.isDone()) {
@@ -201,6 +286,9 @@ public class WindmillStateReader {
       }
     }
 
+    // Serve what we can from the prefetched state, which is usually already in memory.
+    consumePrefetched(toFetch);
+
     // If we failed to drain anything, some other thread pulled it off the queue. We have no work
     // to do.
     if (toFetch.isEmpty()) {
@@ -222,7 +310,15 @@ public class WindmillStateReader {
     Windmill.KeyedGetDataRequest.Builder keyedDataBuilder = request
         .addRequestsBuilder().setComputationId(computation)
         .addRequestsBuilder().setKey(key).setWorkToken(workToken);
+    addTagsToFetch(keyedDataBuilder, toFetch);
+    return request.build();
+  }
 
+  /**
+   * Adds fetches of the given tags to a request for the state of a key.
+   */
+  static void addTagsToFetch(
+      Windmill.KeyedGetDataRequest.Builder keyedDataBuilder, Iterable<StateTag> toFetch) {
     for (StateTag tag : toFetch) {
       switch (tag.kind) {
         case LIST:
@@ -251,8 +347,63 @@ public class WindmillStateReader {
           throw new RuntimeException("Unknown kind of tag requested: " + tag.kind);
       }
     }
+  }
 
-    return request.build();
+  /**
+   * Consumes the tags that were prefetched, removing them from {@code toFetch}. Does nothing if
+   * there is no usable prefetch, in which case all the tags are read from Windmill.
+   */
+  private synchronized void consumePrefetched(Set<StateTag> toFetch) {
+    if (prefetch == null || toFetch.isEmpty()) {
+      return;
+    }
+    if (prefetched == null) {
+      prefetched = new HashMap<>();
+      Windmill.KeyedGetDataResponse response = prefetch.getResponse();
+      if (response == null) {
+        return;
+      }
+      if (!key.equals(response.getKey())) {
+        LOG.warn("Ignoring prefetched state for key {} while reading key {}",
+            response.getKey().toStringUtf8(), key.toStringUtf8());
+        return;
+      }
+      if (response.getFailed()) {
+        // Fail the prefetched tags the way a failed read would.
+        for (StateTag stateTag : prefetch.getTags()) {
+          prefetched.put(stateTag, response);
+        }
+      }
+      for (Windmill.TagList list : response.getListsList()) {
+        prefetched.put(StateTag.list(list.getTag(), list.getStateFamily()), list);
+      }
+      for (Windmill.WatermarkHold hold : response.getWatermarkHoldsList()) {
+        prefetched.put(StateTag.watermark(hold.getTag(), hold.getStateFamily()), hold);
+      }
+      for (Windmill.TagValue value : response.getValuesList()) {
+        prefetched.put(StateTag.value(value.getTag(), value.getStateFamily()), value);
+      }
+    }
+
+    Iterator<StateTag> iterator = toFetch.iterator();
+    while (iterator.hasNext()) {
+      StateTag stateTag = iterator.next();
+      Object data = prefetched.remove(stateTag);
+      if (data == null) {
+        continue;
+      }
+      iterator.remove();
+      if (data instanceof Windmill.KeyedGetDataResponse) {
+        futures.get(stateTag).setException(
+            new StreamingDataflowWorker.KeyTokenInvalidException(key.toStringUtf8()));
+      } else if (data instanceof Windmill.TagList) {
+        consumeTagList((Windmill.TagList) data, stateTag);
+      } else if (data instanceof Windmill.WatermarkHold) {
+        consumeWatermark((Windmill.WatermarkHold) data, stateTag);
+      } else {
+        consumeTagValue((Windmill.TagValue) data, stateTag);
+      }
+    }
   }
 
   private void consumeResponse(Windmill.GetDataRequest request,
@@ -300,8 +451,7 @@ public class WindmillStateReader {
 
 
     for (Windmill.TagList list : response.getListsList()) {
-      StateTag stateTag = new StateTag(
-          StateTag.Kind.LIST, list.getTag(), list.getStateFamily());
+      StateTag stateTag = StateTag.list(list.getTag(), list.getStateFamily());
       if (!toFetch.remove(stateTag)) {
         throw new IllegalStateException(
             "Received response for unrequested tag " + stateTag + ". Pending tags: " + toFetch);
@@ -310,8 +460,7 @@ public class WindmillStateReader {
     }
 
     for (Windmill.WatermarkHold hold : response.getWatermarkHoldsList()) {
-      StateTag stateTag = new StateTag(
-          StateTag.Kind.WATERMARK, hold.getTag(), hold.getStateFamily());
+      StateTag stateTag = StateTag.watermark(hold.getTag(), hold.getStateFamily());
       if (!toFetch.remove(stateTag)) {
         throw new IllegalStateException(
             "Received response for unrequested tag " + stateTag + ". Pending tags: " + toFetch);
@@ -320,8 +469,7 @@ public class WindmillStateReader {
     }
 
     for (Windmill.TagValue value : response.getValuesList()) {
-      StateTag stateTag = new StateTag(
-          StateTag.Kind.VALUE, value.getTag(), value.getStateFamily());
+      StateTag stateTag = StateTag.value(value.getTag(), value.getStateFamily());
       if (!toFetch.remove(stateTag)) {
         throw new IllegalStateException(
             "Received response for unrequested tag " + stateTag + ". Pending tags: " + toFetch);
@@ -345,6 +493,7 @@ public class WindmillStateReader {
     }
 
     if (list.getValuesCount() == 0) {
+      recordRead(stateTag, ImmutableList.<ByteString>of(), 0);
       future.set(Collections.<T>emptyList());
       return;
     }
@@ -356,20 +505,17 @@ public class WindmillStateReader {
     }
 
     List<T> valueList = new ArrayList<>(list.getValuesCount());
+    ImmutableList.Builder<ByteString> encoded = ImmutableList.builder();
+    long weight = 0;
     for (Windmill.Value value : list.getValuesList()) {
       if (value.hasData() && !value.getData().isEmpty()) {
-        // Drop the first byte of the data; it's the zero byte we prependend to avoid writing
-        // empty data.
-        InputStream inputStream = value.getData().substring(1).newInput();
-        try {
-          valueList.add(elemCoder.decode(inputStream, Coder.Context.OUTER));
-        } catch (IOException e) {
-          throw new IllegalStateException(
-              "Unable to decode tag list using " + elemCoder, e);
-        }
+        weight += value.getData().size();
+        encoded.add(value.getData());
+        valueList.add(decodeListElement(elemCoder, value.getData()));
       }
     }
 
+    recordRead(stateTag, encoded.build(), weight);
     future.set(Collections.unmodifiableList(valueList));
   }
 
@@ -390,6 +536,7 @@ public class WindmillStateReader {
       }
     }
 
+    recordRead(stateTag, hold, 8);
     future.set(hold);
   }
 
@@ -408,18 +555,71 @@ public class WindmillStateReader {
       throw new IllegalStateException("Missing coder for " + stateTag);
     }
 
-    if (tagValue.hasValue()
-        && tagValue.getValue().hasData()
-        && !tagValue.getValue().getData().isEmpty()) {
-      InputStream inputStream = tagValue.getValue().getData().newInput();
-      try {
-        T value = coder.decode(inputStream, Coder.Context.OUTER);
-        future.set(value);
-      } catch (IOException e) {
-        throw new IllegalStateException("Unable to decode value using " + coder, e);
-      }
+    if (tagValue.hasValue() && tagValue.getValue().hasData()) {
+      ByteString data = tagValue.getValue().getData();
+      T value = decodeValue(coder, data);
+      recordRead(stateTag, data, data.size());
+      future.set(value);
     } else {
+      recordRead(stateTag, null, 0);
       future.set(null);
     }
   }
+
+  /**
+   * Decodes the value of a value tag, which is null if there is no data.
+   */
+  @Nullable
+  private static <T> T decodeValue(Coder<T> coder, @Nullable ByteString data) {
+    if (data == null || data.isEmpty()) {
+      return null;
+    }
+    try {
+      return coder.decode(data.newInput(), Coder.Context.OUTER);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to decode value using " + coder, e);
+    }
+  }
+
+  /**
+   * Decodes an element of a list tag.
+   */
+  private static <T> T decodeListElement(Coder<T> elemCoder, ByteString data) {
+    // Drop the first byte of the data; it's the zero byte we prependend to avoid writing
+    // empty data.
+    InputStream inputStream = data.substring(1).newInput();
+    try {
+      return elemCoder.decode(inputStream, Coder.Context.OUTER);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to decode tag list using " + elemCoder, e);
+    }
+  }
+
+  /**
+   * Decodes a value cached in the form described by {@link WindmillStateCache}.
+   */
+  @Nullable
+  private static Object decodeCached(StateTag tag, Coder<?> coder, @Nullable Object cached) {
+    switch (tag.kind) {
+      case VALUE:
+        return decodeValue(coder, (ByteString) cached);
+      case LIST: {
+        @SuppressWarnings("unchecked")
+        List<ByteString> encoded = (List<ByteString>) cached;
+        List<Object> values = new ArrayList<>(encoded.size());
+        for (ByteString data : encoded) {
+          values.add(decodeListElement(coder, data));
+        }
+        return Collections.unmodifiableList(values);
+      }
+      default:
+        return cached;
+    }
+  }
+
+  private void recordRead(StateTag stateTag, Object value, long weight) {
+    if (cache != null) {
+      cache.recordRead(stateTag, value, weight);
+    }
+  }
 }
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.io;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -169,6 +170,73 @@ public class AvroSourceTest {
     SourceTestUtils.assertSplitAtFractionExhaustive(source, null);
   }
 
+  @Test
+  public void testReadAheadWithDifferentCodecs() throws Exception {
+    String codecs[] = {DataFileConstants.NULL_CODEC, DataFileConstants.BZIP2_CODEC,
+        DataFileConstants.DEFLATE_CODEC, DataFileConstants.SNAPPY_CODEC,
+        DataFileConstants.XZ_CODEC};
+    List<Bird> expected = createRandomRecords(DEFAULT_RECORD_COUNT);
+
+    for (String codec : codecs) {
+      String filename = generateTestFile(codec, expected, SyncBehavior.SYNC_RANDOM,
+          100/* max records/block */, AvroCoder.of(Bird.class), codec);
+      AvroSource<Bird> source = AvroSource.from(filename).withSchema(Bird.class);
+      AvroSource<Bird> readAheadSource = source.withReadAhead(3);
+      assertEquals(expected, SourceTestUtils.readFromSource(readAheadSource, null));
+
+      // Reading ahead does not change the progress reported after each record.
+      try (BoundedSource.BoundedReader<Bird> reader = source.createReader(null);
+          BoundedSource.BoundedReader<Bird> readAheadReader =
+              readAheadSource.createReader(null)) {
+        boolean more = reader.start();
+        assertEquals(more, readAheadReader.start());
+        while (more) {
+          assertEquals(reader.getCurrent(), readAheadReader.getCurrent());
+          assertEquals(reader.getFractionConsumed(), readAheadReader.getFractionConsumed());
+          more = reader.advance();
+          assertEquals(more, readAheadReader.advance());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReadAheadSplitAtFractionExhaustive() throws Exception {
+    List<FixedRecord> expected = createFixedRecords(100);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_REGULAR, 5,
+        AvroCoder.of(FixedRecord.class), DataFileConstants.DEFLATE_CODEC);
+
+    AvroSource<FixedRecord> source =
+        AvroSource.from(filename).withSchema(FixedRecord.class).withReadAhead(2);
+    SourceTestUtils.assertSplitAtFractionExhaustive(source, null);
+  }
+
+  @Test
+  public void testObjectReuse() throws Exception {
+    List<Bird> expected = createRandomRecords(DEFAULT_RECORD_COUNT);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_REGULAR,
+        10/* max records/block */, AvroCoder.of(Bird.class), DataFileConstants.DEFLATE_CODEC);
+    AvroSource<Bird> source = AvroSource.from(filename).withSchema(Bird.class).withObjectReuse();
+
+    List<Bird> actual = new ArrayList<>();
+    // Create a reader for the whole file directly to use its getCurrentCopy().
+    AvroSource<Bird> fileSource =
+        source.createForSubrangeOfFile(filename, 0, new File(filename).length());
+    try (AvroReader<Bird> reader = fileSource.createSingleFileReader(null)) {
+      assertTrue(reader.start());
+      Bird first = reader.getCurrent();
+      actual.add(reader.getCurrentCopy());
+      // The second record of the block is decoded into the object of the first.
+      assertTrue(reader.advance());
+      assertSame(first, reader.getCurrent());
+      actual.add(reader.getCurrentCopy());
+      while (reader.advance()) {
+        actual.add(reader.getCurrentCopy());
+      }
+    }
+    assertEquals(expected, actual);
+  }
+
   @Test
   public void testSplitsWithSmallBlocks() throws Exception {
     PipelineOptions options = PipelineOptionsFactory.create();
@@ -17,7 +17,10 @@
 package com.google.cloud.dataflow.sdk.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
 
 import com.google.api.client.util.Data;
 import com.google.api.services.bigquery.model.TableReference;
@@ -26,6 +29,9 @@ import com.google.api.services.bigquery.model.TableSchema;
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.TableRowJsonCoder;
+import com.google.cloud.dataflow.sdk.io.BigQueryIO.StreamingWriteFn;
+import com.google.cloud.dataflow.sdk.io.BigQueryIO.TagWithUniqueIdsAndTable;
+import com.google.cloud.dataflow.sdk.io.BigQueryIO.TagWithUniqueIdsAndTable.TableRate;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.CreateDisposition;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.WriteDisposition;
 import com.google.cloud.dataflow.sdk.options.BigQueryOptions;
@@ -33,6 +39,8 @@ import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.transforms.Create;
+import com.google.cloud.dataflow.sdk.transforms.DoFnTester;
+import com.google.cloud.dataflow.sdk.util.BigQueryInsertLimits;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 
 import org.hamcrest.Matchers;
@@ -45,6 +53,8 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.Arrays;
+
 /**
  * Tests for BigQueryIO.
  */
@@ -427,4 +437,62 @@ public class BigQueryIOTest {
     assertEquals("ReadMyTable", BigQueryIO.Read.named("ReadMyTable").getName());
     assertEquals("WriteMyTable", BigQueryIO.Write.named("WriteMyTable").getName());
   }
+
+  @Test
+  public void testStreamingShardsFollowHighRates() {
+    // Low rates, as each instance measures them, do not drop below the minimum.
+    assertEquals(TagWithUniqueIdsAndTable.MIN_NUM_SHARDS,
+        TagWithUniqueIdsAndTable.numShardsForRate(0));
+    assertEquals(TagWithUniqueIdsAndTable.MIN_NUM_SHARDS,
+        TagWithUniqueIdsAndTable.numShardsForRate(1000));
+    assertEquals(100, TagWithUniqueIdsAndTable.numShardsForRate(20000));
+    assertEquals(TagWithUniqueIdsAndTable.MAX_NUM_SHARDS,
+        TagWithUniqueIdsAndTable.numShardsForRate(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testStreamingShardRateIsMeasuredOverPeriods() {
+    TableRate rate = new TableRate(0);
+    // Rows counted in bundles shorter than the period add up to the rate of the period.
+    for (long bundleStartMillis = 0; bundleStartMillis < 10000; bundleStartMillis += 1000) {
+      for (int i = 0; i < 15000; i++) {
+        assertEquals(TagWithUniqueIdsAndTable.MIN_NUM_SHARDS, rate.countRow(bundleStartMillis));
+      }
+    }
+    assertEquals(75, rate.countRow(TagWithUniqueIdsAndTable.RATE_PERIOD_MILLIS));
+    // The next period starts from no rows.
+    assertEquals(TagWithUniqueIdsAndTable.MIN_NUM_SHARDS,
+        rate.countRow(2 * TagWithUniqueIdsAndTable.RATE_PERIOD_MILLIS));
+  }
+
+  @Test
+  public void testStreamingShardRateSurvivesBundles() {
+    BigQueryOptions options = PipelineOptionsFactory.as(BigQueryOptions.class);
+    TableReference table = BigQueryIO.parseTableSpec("project:dataset.rate_survives_bundles");
+    String tableSpec = BigQueryIO.toTableSpec(table);
+    DoFnTester<TableRow, ?> tester =
+        DoFnTester.of(new TagWithUniqueIdsAndTable(options, table, null));
+    TableRow[] rows = new TableRow[50000];
+    Arrays.fill(rows, new TableRow());
+    // Each bundle runs a fresh instance of the fn, and alone is too slow for more shards.
+    for (int i = 0; i < 3; i++) {
+      tester.processBatch(rows);
+    }
+    assertThat(TagWithUniqueIdsAndTable.getTableRate(tableSpec).countRow(
+            System.currentTimeMillis() + TagWithUniqueIdsAndTable.RATE_PERIOD_MILLIS),
+        Matchers.greaterThan(TagWithUniqueIdsAndTable.MIN_NUM_SHARDS));
+  }
+
+  @Test
+  public void testStreamingInsertLimitsAreKeyedOnOptions() {
+    BigQueryOptions options = PipelineOptionsFactory.as(BigQueryOptions.class);
+    options.setBigQueryMaxConcurrentInsertsPerTable(5);
+    BigQueryOptions otherOptions = PipelineOptionsFactory.as(BigQueryOptions.class);
+    otherOptions.setBigQueryMaxConcurrentInsertsPerTable(10);
+    String tableSpec = "project:dataset.limits_keyed_on_options";
+
+    BigQueryInsertLimits limits = StreamingWriteFn.getInsertLimits(options, tableSpec);
+    assertSame(limits, StreamingWriteFn.getInsertLimits(options, tableSpec));
+    assertNotSame(limits, StreamingWriteFn.getInsertLimits(otherOptions, tableSpec));
+  }
 }
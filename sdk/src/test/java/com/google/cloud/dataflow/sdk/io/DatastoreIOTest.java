@@ -17,12 +17,14 @@
 package com.google.cloud.dataflow.sdk.io;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -30,14 +32,22 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.services.datastore.DatastoreV1;
+import com.google.api.services.datastore.DatastoreV1.CommitRequest;
+import com.google.api.services.datastore.DatastoreV1.CommitResponse;
 import com.google.api.services.datastore.DatastoreV1.Entity;
+import com.google.api.services.datastore.DatastoreV1.EntityResult;
 import com.google.api.services.datastore.DatastoreV1.Key;
 import com.google.api.services.datastore.DatastoreV1.Query;
+import com.google.api.services.datastore.DatastoreV1.QueryResultBatch;
+import com.google.api.services.datastore.DatastoreV1.RunQueryRequest;
+import com.google.api.services.datastore.DatastoreV1.RunQueryResponse;
 import com.google.api.services.datastore.client.Datastore;
+import com.google.api.services.datastore.client.DatastoreException;
 import com.google.api.services.datastore.client.DatastoreHelper;
 import com.google.api.services.datastore.client.QuerySplitter;
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.EntityCoder;
+import com.google.cloud.dataflow.sdk.io.DatastoreIO.DatastoreReader;
 import com.google.cloud.dataflow.sdk.io.DatastoreIO.DatastoreWriter;
 import com.google.cloud.dataflow.sdk.options.DataflowPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
@@ -47,6 +57,7 @@ import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.Write;
 import com.google.cloud.dataflow.sdk.util.TestCredential;
 import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -54,12 +65,17 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for DatastoreIO Read and Write transforms.
@@ -436,4 +452,151 @@ public class DatastoreIOTest {
     assertEquals(expected.size(), writer.entities.size());
     assertThat(writer.entities, containsInAnyOrder(expected.toArray()));
   }
+
+  /**
+   * Returns entities named by their index, which the Datastore returned by
+   * {@link #fakeQueryDatastore} returns in batches of up to {@code limit} entities, with the
+   * index of the next entity as the end cursor.
+   */
+  private static List<Entity> makeEntities(int numEntities) {
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < numEntities; i++) {
+      entities.add(Entity.newBuilder()
+          .setKey(DatastoreHelper.makeKey("shakespeare", "line" + i).build()).build());
+    }
+    return entities;
+  }
+
+  private void fakeQueryDatastore(final List<Entity> entities) throws Exception {
+    doAnswer(
+        new Answer<RunQueryResponse>() {
+          @Override
+          public RunQueryResponse answer(InvocationOnMock invocation) {
+            Query query = ((RunQueryRequest) invocation.getArguments()[0]).getQuery();
+            int start = query.hasStartCursor()
+                ? Integer.parseInt(query.getStartCursor().toStringUtf8()) : 0;
+            int end = Math.min(entities.size(), start + query.getLimit());
+            QueryResultBatch.Builder batch = QueryResultBatch.newBuilder()
+                .setEntityResultType(EntityResult.ResultType.FULL)
+                .setEndCursor(ByteString.copyFromUtf8(Integer.toString(end)))
+                .setMoreResults(end < entities.size()
+                    ? QueryResultBatch.MoreResultsType.MORE_RESULTS_AFTER_LIMIT
+                    : QueryResultBatch.MoreResultsType.NO_MORE_RESULTS);
+            for (Entity entity : entities.subList(start, end)) {
+              batch.addEntityResult(EntityResult.newBuilder().setEntity(entity));
+            }
+            return RunQueryResponse.newBuilder().setBatch(batch).build();
+          }
+        }).when(mockDatastore).runQuery(any(RunQueryRequest.class));
+  }
+
+  private List<Entity> readAll(DatastoreIO.Source source) throws Exception {
+    List<Entity> read = new ArrayList<>();
+    try (DatastoreReader reader = new DatastoreReader(source, mockDatastore)) {
+      for (boolean more = reader.start(); more; more = reader.advance()) {
+        read.add(reader.getCurrent());
+      }
+      assertFalse(reader.advance());
+    }
+    return read;
+  }
+
+  /**
+   * Test that the reader reads all batches of results in order, with and without read-ahead.
+   */
+  @Test
+  public void testReadBatches() throws Exception {
+    for (int numEntities : new int[] {0, 10, 500, 1234}) {
+      List<Entity> entities = makeEntities(numEntities);
+      fakeQueryDatastore(entities);
+      DatastoreIO.Source source = DatastoreIO.read().withDataset(datasetId).withQuery(query);
+      assertEquals(entities, readAll(source));
+      assertEquals(entities, readAll(source.withReadAhead(1)));
+      assertEquals(entities, readAll(source.withReadAhead(3)));
+    }
+  }
+
+  /**
+   * Test that a failed query ahead of the reader fails the reader once it gets there.
+   */
+  @Test
+  public void testReadAheadFailure() throws Exception {
+    Entity entity = makeEntities(1).get(0);
+    DatastoreIO.Source source = DatastoreIO.read()
+        .withDataset(datasetId).withQuery(query).withReadAhead(2);
+    when(mockDatastore.runQuery(any(RunQueryRequest.class)))
+        .thenReturn(RunQueryResponse.newBuilder().setBatch(QueryResultBatch.newBuilder()
+            .setEntityResultType(EntityResult.ResultType.FULL)
+            .setEndCursor(ByteString.copyFromUtf8("500"))
+            .setMoreResults(QueryResultBatch.MoreResultsType.NOT_FINISHED)
+            .addAllEntityResult(Collections.nCopies(
+                500, EntityResult.newBuilder().setEntity(entity).build())))
+            .build())
+        .thenThrow(new DatastoreException("runQuery", 500, "unavailable", null));
+
+    int numRead = 0;
+    try (DatastoreReader reader = new DatastoreReader(source, mockDatastore)) {
+      for (boolean more = reader.start(); more; more = reader.advance()) {
+        numRead++;
+      }
+      throw new AssertionError("Expected the reader to fail");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof DatastoreException);
+    }
+    assertEquals(500, numRead);
+  }
+
+  /**
+   * Test that a writer with concurrent commits commits every batch, with more than one at once.
+   */
+  @Test
+  public void testConcurrentCommits() throws Exception {
+    final CountDownLatch twoCommitsStarted = new CountDownLatch(2);
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final List<Entity> committed = Collections.synchronizedList(new ArrayList<Entity>());
+    when(mockDatastore.commit(any(CommitRequest.class))).thenAnswer(
+        new Answer<CommitResponse>() {
+          @Override
+          public CommitResponse answer(InvocationOnMock invocation) throws Exception {
+            int current = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+              maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            twoCommitsStarted.countDown();
+            twoCommitsStarted.await(10, TimeUnit.SECONDS);
+            CommitRequest request = (CommitRequest) invocation.getArguments()[0];
+            committed.addAll(request.getMutation().getUpsertList());
+            inFlight.decrementAndGet();
+            return CommitResponse.getDefaultInstance();
+          }
+        });
+
+    List<Entity> entities = makeEntities(2 * DatastoreIO.DATASTORE_BATCH_UPDATE_LIMIT + 10);
+    DatastoreWriter writer = new DatastoreIO.DatastoreWriter(null, mockDatastore, 3);
+    writer.open("test_id");
+    for (Entity entity : entities) {
+      writer.write(entity);
+    }
+    writer.close();
+
+    assertThat(committed, containsInAnyOrder(entities.toArray()));
+    assertThat(maxInFlight.get(), greaterThan(1));
+  }
+
+  /**
+   * Test that a failed concurrent commit fails the writer.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testConcurrentCommitFailure() throws Exception {
+    when(mockDatastore.commit(any(CommitRequest.class)))
+        .thenThrow(new IllegalStateException("commit failed"));
+
+    DatastoreWriter writer = new DatastoreIO.DatastoreWriter(null, mockDatastore, 2);
+    writer.open("test_id");
+    for (Entity entity : makeEntities(DatastoreIO.DATASTORE_BATCH_UPDATE_LIMIT + 10)) {
+      writer.write(entity);
+    }
+    writer.close();
+  }
 }
@@ -307,6 +307,32 @@ public class FileBasedSinkTest {
     }
   }
 
+  /**
+   * Output files are renamed to the destination location with the correct names and contents.
+   */
+  @Test
+  public void testRenameToOutputFiles() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    SimpleSink.SimpleWriteOperation writeOp = buildWriteOperation();
+
+    int numFiles = 50;
+    List<String> inputFilePaths = new ArrayList<>();
+    for (int i = 0; i < numFiles; i++) {
+      File inputTmpFile = tmpFolder.newFile(String.format("input-%02d", i));
+      writeFile(Arrays.asList("" + i), inputTmpFile);
+      inputFilePaths.add(inputTmpFile.toString());
+    }
+
+    List<String> actual = writeOp.renameToOutputFiles(inputFilePaths, options);
+
+    // Input files are renamed in sorted order.
+    assertEquals(numFiles, actual.size());
+    for (int i = 0; i < numFiles; i++) {
+      assertFalse(new File(inputFilePaths.get(i)).exists());
+      assertFileContains(Arrays.asList("" + i), actual.get(i));
+    }
+  }
+
   /**
    * Output filenames use the supplied naming template.
    */
@@ -16,14 +16,62 @@
 
 package com.google.cloud.dataflow.sdk.io;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.pubsub.model.AcknowledgeRequest;
+import com.google.api.services.pubsub.model.PublishRequest;
+import com.google.api.services.pubsub.model.PublishResponse;
+import com.google.api.services.pubsub.model.PubsubMessage;
+import com.google.api.services.pubsub.model.PullRequest;
+import com.google.api.services.pubsub.model.PullResponse;
+import com.google.api.services.pubsub.model.ReceivedMessage;
+import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineOptions;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.Create;
+import com.google.cloud.dataflow.sdk.util.TestCredential;
+import com.google.cloud.dataflow.sdk.util.Transport;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
 /**
  * Tests for PubsubIO Read and Write transforms.
  */
@@ -32,6 +80,21 @@ public class PubsubIOTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  private static final String TOPIC = "projects/my-project/topics/my-topic";
+  private static final String SUBSCRIPTION = "projects/my-project/subscriptions/my-subscription";
+
+  private FakePubsub fakePubsub;
+
+  @Before
+  public void setUp() throws IOException {
+    fakePubsub = new FakePubsub();
+  }
+
+  @After
+  public void tearDown() {
+    fakePubsub.stop();
+  }
+
   @Test
   public void testPubsubIOGetName() {
     assertEquals("PubsubIO.Read",
@@ -73,4 +136,216 @@ public class PubsubIOTest {
         .append("1111111111111111111111111111111111111111111111111111111111111111111111111111")
         .toString());
   }
+
+  private Pipeline createPipeline() {
+    Pipeline p = TestPipeline.create();
+    DataflowPipelineOptions options = p.getOptions().as(DataflowPipelineOptions.class);
+    options.setPubsubRootUrl(fakePubsub.getRootUrl());
+    options.setGcpCredential(new TestCredential());
+    return p;
+  }
+
+  @Test
+  public void testWriteBatchesConcurrentPublishes() throws Exception {
+    // Two publish requests are held until both are in flight.
+    fakePubsub.holdPublishesUntilConcurrent(2);
+    List<String> elements = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      elements.add("m" + i);
+    }
+
+    Pipeline p = createPipeline();
+    p.apply(Create.of(elements))
+        .apply(PubsubIO.Write.topic(TOPIC).maxConcurrentPublishes(2));
+    p.run();
+
+    List<String> published = new ArrayList<>();
+    for (PubsubMessage message : fakePubsub.published) {
+      published.add(new String(message.decodeData(), StandardCharsets.UTF_8));
+    }
+    Collections.sort(elements);
+    Collections.sort(published);
+    assertEquals(elements, published);
+    assertTrue("publish requests were not sent concurrently", fakePubsub.publishesWereConcurrent);
+    for (int size : fakePubsub.publishSizes) {
+      assertThat(size, lessThanOrEqualTo(1000));
+    }
+  }
+
+  @Test
+  public void testWriteBatchesBySize() throws Exception {
+    List<String> elements = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      elements.add(Strings.repeat(String.valueOf(i), 300 * 1024));
+    }
+
+    Pipeline p = createPipeline();
+    p.apply(Create.of(elements))
+        .apply(PubsubIO.Write.topic(TOPIC));
+    p.run();
+
+    assertEquals(10, fakePubsub.published.size());
+    // Each message takes 400 KB once base64 encoded, so a request holds at most 3 of them.
+    assertThat(fakePubsub.publishSizes.size(), greaterThanOrEqualTo(4));
+    for (int size : fakePubsub.publishSizes) {
+      assertThat(size, lessThanOrEqualTo(3));
+    }
+  }
+
+  @Test
+  public void testReadWithConcurrentPulls() throws Exception {
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      fakePubsub.undelivered.add(new PubsubMessage()
+          .encodeData(("m" + i).getBytes(StandardCharsets.UTF_8)));
+      if (i < 2500) {
+        expected.add("m" + i);
+      }
+    }
+
+    Pipeline p = createPipeline();
+    PCollection<String> output = p.apply(PubsubIO.Read.subscription(SUBSCRIPTION)
+        .maxNumRecords(2500)
+        .pullParallelism(3));
+    DataflowAssert.that(output).containsInAnyOrder(expected);
+    p.run();
+
+    // No more messages are pulled, and acknowledged, than were requested.
+    assertEquals(2500, fakePubsub.acked.size());
+    assertEquals(500, fakePubsub.undelivered.size());
+  }
+
+  @Test
+  public void testReadFailsOnFirstFailedPull() throws Exception {
+    // The first pull never returns, and the others fail.
+    fakePubsub.holdFirstPullAndFailOthers();
+
+    Pipeline p = createPipeline();
+    p.apply(PubsubIO.Read.subscription(SUBSCRIPTION)
+        .maxNumRecords(2000)
+        .pullParallelism(2));
+    try {
+      p.run();
+      fail("Expected the read to fail");
+    } catch (RuntimeException e) {
+      assertThat(Throwables.getStackTraceAsString(e),
+          containsString("Unexpected exception while reading from Pubsub"));
+    }
+  }
+
+  /**
+   * A local stand-in for the Pubsub service, which records published messages and serves pulls
+   * from a queue of undelivered messages.
+   */
+  private static class FakePubsub implements HttpHandler {
+    private static final JsonFactory JSON_FACTORY = Transport.getJsonFactory();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    final Queue<PubsubMessage> published = new ConcurrentLinkedQueue<>();
+    final Queue<Integer> publishSizes = new ConcurrentLinkedQueue<>();
+    final Queue<PubsubMessage> undelivered = new ConcurrentLinkedQueue<>();
+    final Queue<String> acked = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextAckId = new AtomicInteger();
+
+    private volatile CountDownLatch concurrentPublishes = new CountDownLatch(0);
+    private final CountDownLatch releaseHeldPull = new CountDownLatch(1);
+    private final AtomicInteger numPulls = new AtomicInteger();
+    private volatile boolean holdFirstPullAndFailOthers = false;
+    volatile boolean publishesWereConcurrent = false;
+
+    FakePubsub() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", this);
+      server.setExecutor(executor);
+      server.start();
+    }
+
+    String getRootUrl() {
+      return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    void holdPublishesUntilConcurrent(int numPublishes) {
+      concurrentPublishes = new CountDownLatch(numPublishes);
+    }
+
+    void holdFirstPullAndFailOthers() {
+      holdFirstPullAndFailOthers = true;
+    }
+
+    void stop() {
+      releaseHeldPull.countDown();
+      server.stop(0);
+      executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String path = exchange.getRequestURI().getPath();
+      Object response;
+      // The client compresses the content of its requests.
+      try (InputStream in = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+          ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+        if (path.endsWith(TOPIC + ":publish")) {
+          response = publish(JSON_FACTORY.fromInputStream(in, PublishRequest.class));
+        } else if (path.endsWith(SUBSCRIPTION + ":pull")) {
+          if (holdFirstPullAndFailOthers) {
+            if (numPulls.getAndIncrement() == 0) {
+              releaseHeldPull.await();
+            }
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+          }
+          response = pull(JSON_FACTORY.fromInputStream(in, PullRequest.class));
+        } else if (path.endsWith(SUBSCRIPTION + ":acknowledge")) {
+          acked.addAll(JSON_FACTORY.fromInputStream(in, AcknowledgeRequest.class).getAckIds());
+          response = Collections.emptyMap();
+        } else {
+          exchange.sendResponseHeaders(404, -1);
+          exchange.close();
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        exchange.sendResponseHeaders(500, -1);
+        exchange.close();
+        return;
+      }
+      byte[] content = JSON_FACTORY.toByteArray(response);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      exchange.sendResponseHeaders(200, content.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(content);
+      }
+    }
+
+    private PublishResponse publish(PublishRequest request) throws InterruptedException {
+      CountDownLatch latch = concurrentPublishes;
+      latch.countDown();
+      if (latch.await(10, TimeUnit.SECONDS) && latch.getCount() == 0
+          && concurrentPublishes == latch && publishSizes.isEmpty()) {
+        publishesWereConcurrent = true;
+      }
+      List<String> messageIds = new ArrayList<>();
+      for (PubsubMessage message : request.getMessages()) {
+        published.add(message);
+        messageIds.add(String.valueOf(published.size()));
+      }
+      publishSizes.add(request.getMessages().size());
+      return new PublishResponse().setMessageIds(messageIds);
+    }
+
+    private PullResponse pull(PullRequest request) {
+      List<ReceivedMessage> received = new ArrayList<>();
+      PubsubMessage message;
+      while (received.size() < request.getMaxMessages() && (message = undelivered.poll()) != null) {
+        received.add(new ReceivedMessage()
+            .setAckId("ack" + nextAckId.getAndIncrement())
+            .setMessage(message));
+      }
+      return new PullResponse().setReceivedMessages(received);
+    }
+  }
 }
@@ -25,9 +25,15 @@ import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.Sum;
+import com.google.cloud.dataflow.sdk.util.UserCodeException;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -38,6 +44,8 @@ import org.junit.runners.JUnit4;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Tests for {@link DirectPipelineRunner}. */
 @RunWith(JUnit4.class)
@@ -97,5 +105,83 @@ public class DirectPipelineRunnerTest implements Serializable {
   public void testDirectPipelineOptions() {
     DirectPipelineOptions options = PipelineOptionsFactory.create().as(DirectPipelineOptions.class);
     assertNull(options.getDirectPipelineRunnerRandomSeed());
+    assertEquals(1, (int) options.getDirectPipelineRunnerParallelism());
+  }
+
+  private static DirectPipeline createParallelPipeline(int parallelism) {
+    DirectPipeline pipeline = DirectPipeline.createForTest();
+    pipeline.getOptions().as(DirectPipelineOptions.class)
+        .setDirectPipelineRunnerParallelism(parallelism);
+    return pipeline;
+  }
+
+  @Test
+  public void testParallelEvaluation() {
+    DirectPipeline pipeline = createParallelPipeline(4);
+
+    List<Integer> ints = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      ints.add(i);
+    }
+    PCollection<Integer> input = pipeline.apply("Create", Create.of(ints));
+
+    PCollection<KV<Integer, Integer>> sumsByKey = input
+        .apply("KeyByRemainder", ParDo.of(new DoFn<Integer, KV<Integer, Integer>>() {
+          private static final long serialVersionUID = 0L;
+
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(KV.of(c.element() % 3, c.element()));
+          }
+        }))
+        .apply("Group", GroupByKey.<Integer, Integer>create())
+        .apply("SumValues", ParDo.of(
+            new DoFn<KV<Integer, Iterable<Integer>>, KV<Integer, Integer>>() {
+          private static final long serialVersionUID = 0L;
+
+          @Override
+          public void processElement(ProcessContext c) {
+            int sum = 0;
+            for (int value : c.element().getValue()) {
+              sum += value;
+            }
+            c.output(KV.of(c.element().getKey(), sum));
+          }
+        }));
+    PCollection<Integer> total = input.apply("Total", Sum.integersGlobally());
+
+    DataflowAssert.that(sumsByKey).containsInAnyOrder(
+        KV.of(0, 166833), KV.of(1, 166167), KV.of(2, 166500));
+    DataflowAssert.thatSingleton(total).isEqualTo(499500);
+
+    pipeline.run();
+  }
+
+  @Test
+  public void testParallelEvaluationFailure() {
+    DirectPipeline pipeline = createParallelPipeline(4);
+
+    PCollection<Integer> input = pipeline.apply("Create", Create.of(1, 2, 3, 4, 5, 6, 7, 8));
+    input
+        .apply("Crash", ParDo.of(new DoFn<Integer, Integer>() {
+          private static final long serialVersionUID = 0L;
+
+          @Override
+          public void processElement(ProcessContext c) {
+            throw new IllegalStateException("Crashed on " + c.element());
+          }
+        }))
+        .apply("Downstream", ParDo.of(new DoFn<Integer, Integer>() {
+          private static final long serialVersionUID = 0L;
+
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(c.element());
+          }
+        }));
+
+    expectedException.expect(UserCodeException.class);
+    expectedException.expectCause(isA(IllegalStateException.class));
+    pipeline.getRunner().run(pipeline);
   }
 }
@@ -40,6 +40,7 @@ class FakeWindmillServer extends WindmillServerStub {
   private Queue<Windmill.GetWorkResponse> workToOffer;
   private Queue<Windmill.GetDataResponse> dataToOffer;
   private Map<Long, WorkItemCommitRequest> commitsReceived;
+  private Queue<Windmill.CommitWorkRequest> commitRequestsReceived;
   private LinkedBlockingQueue<Windmill.Exception> exceptions;
   private int commitsRequested = 0;
   private AtomicInteger expectedExceptionCount;
@@ -47,6 +48,7 @@ class FakeWindmillServer extends WindmillServerStub {
     workToOffer = new ConcurrentLinkedQueue<GetWorkResponse>();
     dataToOffer = new ConcurrentLinkedQueue<GetDataResponse>();
     commitsReceived = new ConcurrentHashMap<Long, WorkItemCommitRequest>();
+    commitRequestsReceived = new ConcurrentLinkedQueue<Windmill.CommitWorkRequest>();
     exceptions = new LinkedBlockingQueue<>();
     expectedExceptionCount = new AtomicInteger();
   }
@@ -79,6 +81,7 @@ class FakeWindmillServer extends WindmillServerStub {
 
   @Override
   public CommitWorkResponse commitWork(Windmill.CommitWorkRequest request) {
+    commitRequestsReceived.add(request);
     for (ComputationCommitWorkRequest computationRequest : request.getRequestsList()) {
       for (WorkItemCommitRequest commit : computationRequest.getRequestsList()) {
         commitsReceived.put(commit.getWorkToken(), commit);
@@ -135,6 +138,13 @@ class FakeWindmillServer extends WindmillServerStub {
     return commitsReceived;
   }
 
+  /**
+   * Returns the commit requests received so far, each of which may commit several work items.
+   */
+  public Queue<Windmill.CommitWorkRequest> getCommitRequests() {
+    return commitRequestsReceived;
+  }
+
   public void setExpectedExceptionCount(int i) {
     expectedExceptionCount.getAndAdd(i);
   }
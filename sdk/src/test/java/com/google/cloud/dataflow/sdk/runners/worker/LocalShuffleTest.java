@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.util.common.worker.ShuffleBatchReader;
+import com.google.cloud.dataflow.sdk.util.common.worker.ShuffleEntry;
+import com.google.cloud.dataflow.sdk.util.common.worker.ShufflePosition;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tests for {@link LocalShuffle}, {@link LocalShuffleReader} and {@link LocalShuffleWriter}. */
+@RunWith(JUnit4.class)
+public class LocalShuffleTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(UTF_8);
+  }
+
+  private static String string(byte[] bytes) {
+    return new String(bytes, UTF_8);
+  }
+
+  private static void write(ChunkingShuffleEntryWriter writer, String key, String secondaryKey,
+      String value) throws Exception {
+    writer.put(new ShuffleEntry(bytes(key), bytes(secondaryKey), bytes(value)));
+  }
+
+  /** Reads all entries in the range, one batch at a time, and returns them. */
+  private static List<ShuffleEntry> readAll(ShuffleBatchReader reader,
+      ShufflePosition start, ShufflePosition end) throws Exception {
+    List<ShuffleEntry> entries = new ArrayList<>();
+    ShufflePosition position = start;
+    do {
+      ShuffleBatchReader.Batch batch = reader.read(position, end);
+      entries.addAll(batch.entries);
+      position = batch.nextStartPosition;
+    } while (position != null);
+    return entries;
+  }
+
+  @Test
+  public void testConfig() throws Exception {
+    File directory = tmpFolder.newFolder("dataset");
+    byte[] config = LocalShuffle.createConfig(directory);
+    assertTrue(LocalShuffle.isLocalConfig(config));
+    assertEquals(directory.getAbsoluteFile(), LocalShuffle.getDatasetDirectory(config));
+    assertFalse(LocalShuffle.isLocalConfig(bytes("appliance")));
+    assertTrue(LocalShuffle.createReader(config) instanceof LocalShuffleReader);
+  }
+
+  @Test
+  public void testReadsSortedEntriesOfAllSegments() throws Exception {
+    File directory = tmpFolder.newFolder("dataset");
+    // A tiny buffer writes a segment for every chunk.
+    try (ChunkingShuffleEntryWriter writer =
+        new ChunkingShuffleEntryWriter(new LocalShuffleWriter(directory, 1))) {
+      write(writer, "b", "2", "b2");
+      write(writer, "a", "1", "a1");
+    }
+    try (ChunkingShuffleEntryWriter writer =
+        new ChunkingShuffleEntryWriter(new LocalShuffleWriter(directory, 1 << 20))) {
+      write(writer, "b", "1", "b1");
+      write(writer, "a", "1", "a1-again");
+    }
+
+    List<ShuffleEntry> entries = readAll(
+        new ChunkingShuffleBatchReader(new LocalShuffleReader(directory)), null, null);
+
+    assertEquals(4, entries.size());
+    String[][] expected = {
+        {"a", "1", "a1"}, {"a", "1", "a1-again"}, {"b", "1", "b1"}, {"b", "2", "b2"}};
+    for (int i = 0; i < expected.length; i++) {
+      ShuffleEntry entry = entries.get(i);
+      assertEquals(expected[i][0], string(entry.getKey()));
+      assertEquals(expected[i][1], string(entry.getSecondaryKey()));
+      assertEquals(expected[i][2], string(entry.getValue()));
+      assertNotNull(entry.getPosition());
+    }
+  }
+
+  @Test
+  public void testReadsPositionRangeInChunks() throws Exception {
+    File directory = tmpFolder.newFolder("dataset");
+    byte[] value = new byte[1000];
+    int numEntries = 3 * LocalShuffleReader.MAX_CHUNK_BYTES / value.length;
+    try (ChunkingShuffleEntryWriter writer =
+        new ChunkingShuffleEntryWriter(new LocalShuffleWriter(directory, 1 << 20))) {
+      for (int i = 0; i < numEntries; i++) {
+        writer.put(new ShuffleEntry(bytes(String.format("%06d", i)), bytes(""), value));
+      }
+    }
+    ShuffleBatchReader reader =
+        new ChunkingShuffleBatchReader(new LocalShuffleReader(directory));
+
+    ShuffleBatchReader.Batch first = reader.read(null, null);
+    assertTrue(first.entries.size() < numEntries);
+    assertNotNull(first.nextStartPosition);
+    List<ShuffleEntry> all = readAll(reader, null, null);
+    assertEquals(numEntries, all.size());
+
+    // Reading between the positions of two entries returns exactly the entries in between.
+    ShufflePosition start = ByteArrayShufflePosition.of(all.get(10).getPosition());
+    ShufflePosition end = ByteArrayShufflePosition.of(all.get(2000).getPosition());
+    List<ShuffleEntry> range = readAll(reader, start, end);
+    assertEquals(1990, range.size());
+    assertArrayEquals(all.get(10).getKey(), range.get(0).getKey());
+    assertArrayEquals(all.get(1999).getKey(), range.get(range.size() - 1).getKey());
+  }
+}
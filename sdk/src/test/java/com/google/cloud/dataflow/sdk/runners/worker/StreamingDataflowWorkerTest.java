@@ -58,10 +58,10 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo.Timing;
-import com.google.cloud.dataflow.sdk.util.BoundedQueueExecutor;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.DoFnInfo;
+import com.google.cloud.dataflow.sdk.util.KeyAffineExecutor;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
 import com.google.cloud.dataflow.sdk.util.StringUtils;
@@ -976,7 +976,7 @@ public class StreamingDataflowWorkerTest {
 
   private static class MockWork extends StreamingDataflowWorker.Work {
     public MockWork(long workToken) {
-      super(workToken);
+      super(ByteString.EMPTY, workToken);
     }
     @Override
     public void run() {}
@@ -984,7 +984,7 @@ public class StreamingDataflowWorkerTest {
 
   @Test
   public void testActiveWork() throws Exception {
-    BoundedQueueExecutor mockExecutor = Mockito.mock(BoundedQueueExecutor.class);
+    KeyAffineExecutor mockExecutor = Mockito.mock(KeyAffineExecutor.class);
     StreamingDataflowWorker.ActiveWorkForComputation activeWork =
         new StreamingDataflowWorker.ActiveWorkForComputation(mockExecutor);
 
@@ -1002,13 +1002,77 @@ public class StreamingDataflowWorkerTest {
     Mockito.verifyNoMoreInteractions(mockExecutor);
 
     activeWork.completeWork(key1);
-    Mockito.verify(mockExecutor).forceExecute(Mockito.<Runnable>any());
+    Mockito.verify(mockExecutor).forceExecute(Mockito.eq(key1), Mockito.<Runnable>any());
     activeWork.completeWork(key1);
 
     assertEquals(true, activeWork.activateWork(key1, new MockWork(1)));
     activeWork.completeWork(key1);
   }
 
+  @Test
+  public void testCommitBatchSizer() throws Exception {
+    StreamingDataflowWorker.CommitBatchSizer sizer =
+        new StreamingDataflowWorker.CommitBatchSizer(100, 1000, 10);
+    assertEquals(1000, sizer.getMaxCommitBytes());
+
+    // Slow commits shrink the limit, down to the minimum.
+    sizer.recordCommit(1000, 20);
+    assertEquals(500, sizer.getMaxCommitBytes());
+    for (int i = 0; i < 10; i++) {
+      sizer.recordCommit(500, 20);
+    }
+    assertEquals(100, sizer.getMaxCommitBytes());
+
+    // Fast commits only grow it if they were limited by it.
+    sizer.recordCommit(10, 1);
+    assertEquals(100, sizer.getMaxCommitBytes());
+    sizer.recordCommit(100, 1);
+    assertEquals(125, sizer.getMaxCommitBytes());
+    for (int i = 0; i < 20; i++) {
+      sizer.recordCommit(sizer.getMaxCommitBytes(), 1);
+    }
+    assertEquals(1000, sizer.getMaxCommitBytes());
+  }
+
+  @Test
+  public void testCommitsAreLimitedByCommitBatchSizer() throws Exception {
+    List<ParallelInstruction> instructions = Arrays.asList(
+        makeSourceInstruction(StringUtf8Coder.of()),
+        makeSinkInstruction(StringUtf8Coder.of(), 0));
+
+    FakeWindmillServer server = new FakeWindmillServer();
+    StreamingDataflowWorker worker = new StreamingDataflowWorker(
+        Arrays.asList(defaultMapTask(instructions)), server, createTestingPipelineOptions());
+    // Allows a few work items per commit, whatever the latency of the commits.
+    long maxCommitBytes = 3 * makeExpectedOutput(0, 0).build().getSerializedSize();
+    worker.setCommitBatchSizer(
+        new StreamingDataflowWorker.CommitBatchSizer(maxCommitBytes, maxCommitBytes, 1000));
+    worker.start();
+
+    final int numIters = 200;
+    for (int i = 0; i < numIters; ++i) {
+      server.addWorkToOffer(makeInput(i, TimeUnit.MILLISECONDS.toMicros(i)));
+    }
+
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(numIters);
+    worker.stop();
+
+    assertEquals(numIters, result.size());
+    int numCommittedItems = 0;
+    for (Windmill.CommitWorkRequest commit : server.getCommitRequests()) {
+      // A commit takes work items until they reach the limit, so all but its last are below it.
+      long bytesBeforeItem = 0;
+      for (Windmill.ComputationCommitWorkRequest computationCommit : commit.getRequestsList()) {
+        for (Windmill.WorkItemCommitRequest item : computationCommit.getRequestsList()) {
+          assertThat(bytesBeforeItem, Matchers.lessThan(maxCommitBytes));
+          bytesBeforeItem += item.getSerializedSize();
+          numCommittedItems++;
+        }
+      }
+    }
+    assertEquals(numIters, numCommittedItems);
+  }
+
   @Test
   public void testPushback() throws Exception {
     Runtime r = Mockito.mock(Runtime.class);
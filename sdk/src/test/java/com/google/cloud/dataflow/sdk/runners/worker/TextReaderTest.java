@@ -623,6 +623,75 @@ public class TextReaderTest {
     assertEquals(readWithoutSplit, readWithSplit1 + readWithSplit2);
   }
 
+  @Test
+  public void testMappedFileReadsSameAsStream() throws Exception {
+    // Lines longer than the mapped windows, empty lines and all kinds of separators, so that
+    // lines and "\r\n" separators cross window boundaries for some start offsets.
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      content.append("<line ").append(i).append(">");
+      for (int j = 0; j < i * i % 37; j++) {
+        content.append("<padding>");
+      }
+      content.append(i % 3 == 0 ? "\n" : i % 3 == 1 ? "\r\n" : "\r");
+      if (i % 7 == 0) {
+        content.append("\n");
+      }
+    }
+    content.append("<last line>");
+    File tmpFile = tmpFolder.newFile();
+    try (FileOutputStream output = new FileOutputStream(tmpFile)) {
+      output.write(content.toString().getBytes());
+    }
+
+    long length = content.length();
+    for (boolean stripNewlines : new boolean[] {true, false}) {
+      for (long start = 0; start <= length; start += 3) {
+        for (Long end : new Long[] {null, start + 1, start + 250, start + 1000}) {
+          TextReader<String> streamReader = new TextReader<>(tmpFile.getPath(), stripNewlines,
+              start, end, StringUtf8Coder.of(), false, CompressionType.UNCOMPRESSED, false);
+          TextReader<String> mappedReader = new TextReader<>(tmpFile.getPath(), stripNewlines,
+              start, end, StringUtf8Coder.of(), false, CompressionType.UNCOMPRESSED, true);
+          try (Reader.ReaderIterator<String> streamIterator = streamReader.iterator();
+              Reader.ReaderIterator<String> mappedIterator = mappedReader.iterator()) {
+            assertTrue(mappedIterator instanceof TextReader.MappedTextFileIterator);
+            assertSameElementsAndProgress(streamIterator, mappedIterator, start + 100);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads both iterators to the end, splitting both at the given offset after the first element.
+   */
+  private void assertSameElementsAndProgress(Reader.ReaderIterator<String> expected,
+      Reader.ReaderIterator<String> actual, long splitOffset) throws Exception {
+    boolean first = true;
+    while (true) {
+      assertEquals(readerProgressToCloudProgress(expected.getProgress()),
+          readerProgressToCloudProgress(actual.getProgress()));
+      boolean hasNext = expected.hasNext();
+      assertEquals(hasNext, actual.hasNext());
+      if (!hasNext) {
+        return;
+      }
+      assertEquals(expected.next(), actual.next());
+      if (first) {
+        Reader.DynamicSplitResult expectedSplit =
+            expected.requestDynamicSplit(splitRequestAtByteOffset(splitOffset));
+        Reader.DynamicSplitResult actualSplit =
+            actual.requestDynamicSplit(splitRequestAtByteOffset(splitOffset));
+        assertEquals(expectedSplit == null, actualSplit == null);
+        if (expectedSplit != null) {
+          assertEquals(
+              positionFromSplitResult(expectedSplit), positionFromSplitResult(actualSplit));
+        }
+        first = false;
+      }
+    }
+  }
+
   private OutputStream getOutputStreamForCompressionType(
       OutputStream stream, CompressionType compressionType) throws IOException {
     switch (compressionType) {
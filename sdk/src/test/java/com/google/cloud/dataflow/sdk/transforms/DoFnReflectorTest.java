@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -25,6 +26,7 @@ import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ExtraContextFact
 import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ProcessContext;
 import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ProcessElement;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.util.UserCodeException;
 import com.google.cloud.dataflow.sdk.util.WindowingInternals;
 
 import org.junit.Before;
@@ -208,6 +210,45 @@ public class DoFnReflectorTest {
     checkInvokeProcessElementWorks(reflector);
   }
 
+  @Test
+  public void testDoFnWithWindowAndWindowingInternals() throws Exception {
+    DoFnReflector reflector = underTest(new DoFnWithContext<String, String>() {
+
+      private static final long serialVersionUID = 0;
+
+      @ProcessElement
+      public void processElement(ProcessContext c, BoundedWindow w,
+          WindowingInternals<String, String> i) throws Exception {
+        wasProcessElementInvoked = true;
+        assertSame(c, mockContext);
+        assertSame(w, mockWindow);
+        assertSame(i, mockWindowingInternals);
+      }
+    });
+
+    assertTrue(reflector.usesSingleWindow());
+
+    checkInvokeProcessElementWorks(reflector);
+  }
+
+  @Test
+  public void testProcessElementException() throws Exception {
+    final Exception exception = new Exception("processing failed");
+    DoFnReflector reflector = underTest(new DoFnWithContext<String, String>() {
+
+      private static final long serialVersionUID = 0;
+
+      @ProcessElement
+      public void processElement(ProcessContext c) throws Exception {
+        throw exception;
+      }
+    });
+
+    thrown.expect(UserCodeException.class);
+    thrown.expectCause(sameInstance(exception));
+    reflector.invokeProcessElement(fn, mockContext, extraContextFactory);
+  }
+
   @Test
   public void testDoFnWithStartBundle() throws Exception {
     DoFnReflector reflector = underTest(new DoFnWithContext<String, String>() {
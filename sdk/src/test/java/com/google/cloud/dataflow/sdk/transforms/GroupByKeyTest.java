@@ -30,6 +30,7 @@ import com.google.cloud.dataflow.sdk.options.DataflowPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.runners.DataflowPipelineRunner;
+import com.google.cloud.dataflow.sdk.runners.DirectPipeline;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
@@ -53,6 +54,7 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -173,6 +175,42 @@ public class GroupByKeyTest {
     p.run();
   }
 
+  @Test
+  public void testGroupByKeySpillingToDisk() {
+    DirectPipeline p = DirectPipeline.createForTest();
+    p.getOptions().as(DirectPipelineOptions.class).setDirectPipelineRunnerGroupByKeyMemoryMb(1);
+
+    List<KV<Integer, Integer>> ungroupedPairs = new ArrayList<>();
+    for (int i = 0; i < 30000; i++) {
+      ungroupedPairs.add(KV.of(i % 3, i));
+    }
+
+    PCollection<KV<Integer, Integer>> input =
+        p.apply(Create.of(ungroupedPairs)
+            .withCoder(KvCoder.of(BigEndianIntegerCoder.of(), BigEndianIntegerCoder.of())));
+
+    PCollection<KV<Integer, Long>> output = input
+        .apply(GroupByKey.<Integer, Integer>create())
+        .apply(ParDo.of(new CountValuesFn()));
+
+    DataflowAssert.that(output)
+        .containsInAnyOrder(KV.of(0, 10000L), KV.of(1, 10000L), KV.of(2, 10000L));
+
+    p.run();
+  }
+
+  private static class CountValuesFn
+      extends DoFn<KV<Integer, Iterable<Integer>>, KV<Integer, Long>> {
+    @Override
+    public void processElement(ProcessContext c) {
+      long count = 0;
+      for (int unused : c.element().getValue()) {
+        count++;
+      }
+      c.output(KV.of(c.element().getKey(), count));
+    }
+  }
+
   @Test
   public void testGroupByKeyNonDeterministic() throws Exception {
 
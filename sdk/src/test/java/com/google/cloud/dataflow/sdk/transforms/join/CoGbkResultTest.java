@@ -21,6 +21,8 @@ import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
 import com.google.cloud.dataflow.sdk.util.common.Reiterable;
 import com.google.cloud.dataflow.sdk.util.common.Reiterator;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
@@ -60,6 +62,73 @@ public class CoGbkResultTest {
     assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 2, 4));
   }
 
+  @Test
+  public void testEncodedResults() {
+    runEncodedResult(0, 1L << 20);
+    runEncodedResult(3, 1L << 20);
+    runEncodedResult(10, 1L << 20);
+  }
+
+  public void runEncodedResult(int cacheSize, long memoryBudgetBytes) {
+    TestUnionValues values = new TestUnionValues(0, 1, 0, 3, 0, 3, 3);
+    CoGbkResult result = new CoGbkResult(
+        createSchema(5), values, createUnionCoder(5), cacheSize, memoryBudgetBytes);
+    // All values are read in a single pass.
+    assertThat(values.maxPos(), equalTo(7));
+    assertThat(values.numIterators(), equalTo(1));
+    assertThat(result.getNumSpilledTags(), equalTo(0));
+    assertResult(result);
+    assertThat(values.numIterators(), equalTo(1));
+  }
+
+  @Test
+  public void testEncodedResultsOverMemoryBudget() {
+    // A budget this small spills the buffer of each tag as soon as a value is added to it.
+    int[] numSpilledTags = {3, 2};
+    int[] cacheSizes = {0, 3};
+    for (int i = 0; i < cacheSizes.length; i++) {
+      TestUnionValues values = new TestUnionValues(0, 1, 0, 3, 0, 3, 3);
+      CoGbkResult result = new CoGbkResult(
+          createSchema(5), values, createUnionCoder(5), cacheSizes[i], 1);
+      assertThat(result.getNumSpilledTags(), equalTo(numSpilledTags[i]));
+      // The spilled values are read from their files, not by reiterating.
+      assertResult(result);
+      assertResult(result);
+      assertThat(values.numIterators(), equalTo(1));
+    }
+  }
+
+  private void assertResult(CoGbkResult result) {
+    assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 2, 4));
+    assertThat(result.getAll(new TupleTag<Integer>("tag3")), contains(3, 5, 6));
+    assertThat(result.getAll(new TupleTag<Integer>("tag2")), emptyIterable());
+    assertThat(result.getOnly(new TupleTag<Integer>("tag1")), equalTo(1));
+    assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 2, 4));
+  }
+
+  @Test
+  public void testEncodedResultsOfIterable() {
+    List<RawUnionValue> values = new ArrayList<>();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(new RawUnionValue(i % 2, i));
+      if (i % 2 == 1) {
+        expected.add(i);
+      }
+    }
+    CoGbkResult result = new CoGbkResult(createSchema(2), values, createUnionCoder(2), 10, 100);
+    assertThat(result.getAll(new TupleTag<Integer>("tag1")), contains(expected.toArray()));
+    assertThat(result.getAll(new TupleTag<Integer>("tag1")), contains(expected.toArray()));
+  }
+
+  private UnionCoder createUnionCoder(int size) {
+    List<Coder<?>> coders = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      coders.add(VarIntCoder.of());
+    }
+    return UnionCoder.of(coders);
+  }
+
   private CoGbkResultSchema createSchema(int size) {
     List<TupleTag<?>> tags = new ArrayList<>();
     for (int i = 0; i < size; i++) {
@@ -72,6 +141,7 @@ public class CoGbkResultTest {
 
     final int[] tags;
     int maxPos = 0;
+    int numIterators = 0;
 
     /**
      * This will create a list of RawUnionValues whose tags are as given and
@@ -89,12 +159,20 @@ public class CoGbkResultTest {
       return maxPos;
     }
 
+    /**
+     * Returns the number of iterators and copies of iterators created so far.
+     */
+    public int numIterators() {
+      return numIterators;
+    }
+
     @Override
     public Reiterator<RawUnionValue> iterator() {
       return iterator(0);
     }
 
     public Reiterator<RawUnionValue> iterator(final int start) {
+      numIterators++;
       return new Reiterator<RawUnionValue>() {
         int pos = start;
 
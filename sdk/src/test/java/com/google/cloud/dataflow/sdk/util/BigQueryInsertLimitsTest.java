@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link BigQueryInsertLimits}.
+ */
+@RunWith(JUnit4.class)
+public class BigQueryInsertLimitsTest {
+
+  @Test
+  public void testBatchSizeGrowsWhileInsertsAreFast() {
+    BigQueryInsertLimits limits = new BigQueryInsertLimits(1);
+    assertEquals(BigQueryInsertLimits.INITIAL_BATCH_SIZE_BYTES, limits.getBatchSizeBytes());
+    assertEquals(500, limits.getBatchSizeRows(500));
+
+    limits.recordInsert(10);
+    assertTrue(limits.getBatchSizeBytes() > BigQueryInsertLimits.INITIAL_BATCH_SIZE_BYTES);
+    // The number of rows never exceeds the maximum.
+    assertEquals(500, limits.getBatchSizeRows(500));
+
+    for (int i = 0; i < 1000; i++) {
+      limits.recordInsert(10);
+    }
+    assertEquals(BigQueryInsertLimits.MAX_BATCH_SIZE_BYTES, limits.getBatchSizeBytes());
+  }
+
+  @Test
+  public void testBatchSizeHalvesOnSlowOrFailedInserts() {
+    BigQueryInsertLimits limits = new BigQueryInsertLimits(1);
+    long initial = BigQueryInsertLimits.INITIAL_BATCH_SIZE_BYTES;
+
+    limits.recordInsert(BigQueryInsertLimits.TARGET_LATENCY_MILLIS + 1);
+    assertEquals(initial / 2, limits.getBatchSizeBytes());
+    assertEquals(250, limits.getBatchSizeRows(500));
+
+    limits.recordInsert(BigQueryInsertLimits.TARGET_LATENCY_MILLIS + 1);
+    assertEquals(initial / 4, limits.getBatchSizeBytes());
+
+    limits.recordFailedInsert();
+    assertEquals(initial / 8, limits.getBatchSizeBytes());
+
+    for (int i = 0; i < 100; i++) {
+      limits.recordFailedInsert();
+    }
+    assertEquals(BigQueryInsertLimits.MIN_BATCH_SIZE_BYTES, limits.getBatchSizeBytes());
+    assertEquals(1, limits.getBatchSizeRows(5));
+  }
+
+  @Test
+  public void testConcurrentInsertsAreBounded() throws Exception {
+    final BigQueryInsertLimits limits = new BigQueryInsertLimits(2);
+    limits.acquireInsert();
+    limits.acquireInsert();
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          limits.acquireInsert();
+          acquired.countDown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    thread.start();
+
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    limits.releaseInsert();
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    thread.join();
+  }
+}
@@ -37,6 +37,10 @@ import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO;
+import com.google.cloud.dataflow.sdk.options.BigQueryOptions;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
 
@@ -310,6 +314,91 @@ public class BigQueryUtilTest {
     }
   }
 
+  @Test
+  public void testReadMultiPageWithPrefetch() throws IOException {
+    onTableGet(basicTableSchema());
+
+    TableDataList page1 = rawDataList(rawRow("Row1", 1), rawRow("Row2", 2))
+        .setPageToken("page2");
+    TableDataList page2 = rawDataList(rawRow("Row3", 3))
+        .setPageToken("page3");
+    TableDataList page3 = rawDataList(rawRow("Row4", 4))
+        .setTotalRows(4L);
+
+    when(mockClient.tabledata())
+        .thenReturn(mockTabledata);
+    when(mockTabledata.list(anyString(), anyString(), anyString()))
+        .thenReturn(mockTabledataList);
+    when(mockTabledataList.execute())
+        .thenReturn(page1)
+        .thenReturn(page2)
+        .thenReturn(page3);
+
+    CounterSet counters = new CounterSet();
+    try (BigQueryTableRowIterator iterator = new BigQueryTableRowIterator(
+        mockClient,
+        BigQueryIO.parseTableSpec("project:dataset.table"))
+        .withPrefetch(1)
+        .withLazyRowDecoding(false)
+        .withCounters(counters.getAddCounterMutator(), "read")) {
+
+      List<String> names = new LinkedList<>();
+      List<Object> answers = new LinkedList<>();
+      while (iterator.hasNext()) {
+        TableRow row = iterator.next();
+        names.add((String) row.get("name"));
+        answers.add(row.get("answer"));
+      }
+
+      Assert.assertEquals(Arrays.asList("Row1", "Row2", "Row3", "Row4"), names);
+      Assert.assertEquals(Arrays.<Object>asList(1, 2, 3, 4), answers);
+
+      @SuppressWarnings("unchecked")
+      Counter<Long> pageLatency =
+          (Counter<Long>) counters.getExistingCounter("read-BigQueryPageLatencyMillis");
+      Assert.assertEquals(3, pageLatency.getMean().getCount());
+      Assert.assertNotNull(counters.getExistingCounter("read-BigQueryRowConversionMicros"));
+
+      verifyTableGet();
+      verifyTabledataList();
+      verify(mockTabledataList).setPageToken("page2");
+      verify(mockTabledataList).setPageToken("page3");
+    }
+  }
+
+  @Test
+  public void testReadPrefetchFailure() throws IOException {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("Service unavailable");
+
+    onTableGet(basicTableSchema());
+
+    TableDataList page1 = rawDataList(rawRow("Row1", 1))
+        .setPageToken("page2");
+
+    when(mockClient.tabledata())
+        .thenReturn(mockTabledata);
+    when(mockTabledata.list(anyString(), anyString(), anyString()))
+        .thenReturn(mockTabledataList);
+    when(mockTabledataList.execute())
+        .thenReturn(page1)
+        .thenThrow(new IllegalStateException("Service unavailable"));
+
+    try (BigQueryTableRowIterator iterator = new BigQueryTableRowIterator(
+        mockClient,
+        BigQueryIO.parseTableSpec("project:dataset.table"))
+        .withPrefetch(2)) {
+      try {
+        Assert.assertEquals("Row1", iterator.next().get("name"));
+        iterator.hasNext();  // throws.
+      } finally {
+        verifyTableGet();
+        verifyTabledataList();
+        verify(mockTabledataList).setPageToken("page2");
+      }
+    }
+  }
+
   @Test
   public void testReadOpenFailure() throws IOException {
     thrown.expect(RuntimeException.class);
@@ -420,4 +509,39 @@ public class BigQueryUtilTest {
       verifyInsertAll(5);
     }
   }
+
+  @Test
+  public void testInsertAllKeepsBatchesOnRejectedRows() throws Exception {
+    when(mockClient.tabledata())
+        .thenReturn(mockTabledata);
+    when(mockTabledata.insertAll(
+        anyString(), anyString(), anyString(), any(TableDataInsertAllRequest.class)))
+        .thenReturn(mockInsertAll);
+    TableDataInsertAllResponse rejected = new TableDataInsertAllResponse()
+        .setInsertErrors(Arrays.asList(new TableDataInsertAllResponse.InsertErrors().setIndex(0L)));
+    when(mockInsertAll.execute())
+        .thenReturn(rejected)
+        .thenReturn(new TableDataInsertAllResponse());
+
+    TableReference ref = BigQueryIO
+        .parseTableSpec("project:dataset.table");
+    BigQueryOptions options = PipelineOptionsFactory.as(BigQueryOptions.class);
+    BigQueryInsertLimits limits = new BigQueryInsertLimits(1);
+    BigQueryTableInserter inserter =
+        new BigQueryTableInserter(mockClient, ref, options, limits);
+
+    // The first batch of 500 rows has a row rejected, which is retried in a batch of its own.
+    List<TableRow> rows = new ArrayList<>();
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 500; ++i) {
+      rows.add(new TableRow());
+      ids.add("id" + i);
+    }
+    inserter.insertAll(rows, ids);
+    verifyInsertAll(2);
+    // Rejected rows do not mean the service is overloaded, so the batch size has only grown.
+    Assert.assertThat(limits.getBatchSizeBytes(),
+        Matchers.greaterThan(BigQueryInsertLimits.INITIAL_BATCH_SIZE_BYTES));
+    Assert.assertEquals(500, limits.getBatchSizeRows(500));
+  }
 }
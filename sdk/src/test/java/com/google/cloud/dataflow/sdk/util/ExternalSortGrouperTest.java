@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/** Tests for {@link ExternalSortGrouper}. */
+@RunWith(JUnit4.class)
+public class ExternalSortGrouperTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private ExternalSortGrouper<String, Integer> createGrouper(long memoryBudgetBytes) {
+    return new ExternalSortGrouper<>(
+        StringUtf8Coder.of(), VarIntCoder.of(), memoryBudgetBytes, tmpFolder.getRoot());
+  }
+
+  @Test
+  public void testGroupInMemory() throws Exception {
+    ExternalSortGrouper<String, Integer> grouper = createGrouper(1 << 20);
+    grouper.add("b", 1);
+    grouper.add("a", 2);
+    grouper.add("b", 3);
+
+    List<KV<String, Iterable<Integer>>> groups = grouper.groupByKey();
+
+    assertEquals(0, grouper.getNumSpilledRuns());
+    assertEquals(2, groups.size());
+    assertEquals("a", groups.get(0).getKey());
+    assertThat(groups.get(0).getValue(), contains(2));
+    assertEquals("b", groups.get(1).getKey());
+    assertThat(groups.get(1).getValue(), contains(1, 3));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertThat(createGrouper(1).groupByKey(), emptyIterable());
+  }
+
+  @Test
+  public void testGroupSpilledRuns() throws Exception {
+    // Each record exceeds this budget, so every record is spilled in a run of its own.
+    ExternalSortGrouper<String, Integer> grouper = createGrouper(1);
+    List<Integer> expectedEven = new ArrayList<>();
+    List<Integer> expectedOdd = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      grouper.add(i % 2 == 0 ? "even" : "odd", i);
+      (i % 2 == 0 ? expectedEven : expectedOdd).add(i);
+    }
+    assertThat(grouper.getNumSpilledRuns(), greaterThan(1));
+
+    List<KV<String, Iterable<Integer>>> groups = grouper.groupByKey();
+
+    assertEquals(2, groups.size());
+    assertEquals("even", groups.get(0).getKey());
+    assertEquals("odd", groups.get(1).getKey());
+    // Values keep the order they were added in, and can be iterated more than once.
+    for (int i = 0; i < 2; i++) {
+      assertThat(groups.get(0).getValue(), contains(expectedEven.toArray()));
+      assertThat(groups.get(1).getValue(), contains(expectedOdd.toArray()));
+    }
+    grouper.close();
+  }
+
+  @Test
+  public void testGroupSpilledAndBufferedRecords() throws Exception {
+    ExternalSortGrouper<String, Integer> grouper = createGrouper(1000);
+    for (int i = 0; i < 1000; i++) {
+      grouper.add("key" + (i % 10), i);
+    }
+    assertThat(grouper.getNumSpilledRuns(), greaterThan(1));
+
+    List<KV<String, Iterable<Integer>>> groups = grouper.groupByKey();
+
+    assertEquals(10, groups.size());
+    for (int k = 0; k < 10; k++) {
+      assertEquals("key" + k, groups.get(k).getKey());
+      int expected = k;
+      for (int value : groups.get(k).getValue()) {
+        assertEquals(expected, value);
+        expected += 10;
+      }
+      assertEquals(1000 + k, expected);
+    }
+    grouper.close();
+  }
+
+  @Test
+  public void testMergeMoreRunsThanFanIn() throws Exception {
+    ExternalSortGrouper<String, Integer> grouper = createGrouper(1);
+    int numValues = ExternalSortGrouper.MAX_MERGE_FAN_IN * 3 + 1;
+    for (int i = 0; i < numValues; i++) {
+      grouper.add("key" + (i % 3), i);
+    }
+    assertThat(grouper.getNumSpilledRuns(), greaterThan(ExternalSortGrouper.MAX_MERGE_FAN_IN));
+
+    List<KV<String, Iterable<Integer>>> groups = grouper.groupByKey();
+
+    assertEquals(3, groups.size());
+    for (int k = 0; k < 3; k++) {
+      int expected = k;
+      for (int value : groups.get(k).getValue()) {
+        assertEquals(expected, value);
+        expected += 3;
+      }
+      assertThat(expected, greaterThan(numValues - 1));
+    }
+    grouper.close();
+  }
+
+  @Test
+  public void testCloseDeletesTemporaryFiles() throws Exception {
+    ExternalSortGrouper<String, Integer> grouper = createGrouper(1);
+    for (int i = 0; i < 100; i++) {
+      grouper.add("key", i);
+    }
+    List<KV<String, Iterable<Integer>>> groups = grouper.groupByKey();
+    // An iterator that is not exhausted does not keep the file open.
+    Iterator<Integer> values = groups.get(0).getValue().iterator();
+    assertEquals(0, (int) values.next());
+
+    grouper.close();
+
+    assertEquals(0, tmpFolder.getRoot().list().length);
+  }
+}
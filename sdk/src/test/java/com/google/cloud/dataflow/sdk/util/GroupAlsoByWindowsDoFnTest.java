@@ -37,6 +37,8 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.SlidingWindows;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
 
 import org.hamcrest.Matchers;
 import org.joda.time.Duration;
@@ -279,6 +281,35 @@ public class GroupAlsoByWindowsDoFnTest {
         Matchers.contains(window(1, 5)));
   }
 
+  @Test public void testSessionsLargerThanMemoryBudget() throws Exception {
+    TupleTag<KV<String, Iterable<String>>> outputTag = new TupleTag<>();
+    DoFnRunner.ListOutputManager outputManager = new DoFnRunner.ListOutputManager();
+    DoFnRunner<KV<String, Iterable<WindowedValue<String>>>, KV<String, Iterable<String>>> runner =
+        makeRunner(
+            outputTag,
+            outputManager,
+            WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10))));
+
+    // Enough values to spill the session past the 32MB memory budget of the key.
+    String value = Strings.repeat("v", 32 << 10);
+    int numValues = 1100;
+    List<WindowedValue<String>> values = new ArrayList<>();
+    for (int i = 0; i < numValues; i++) {
+      values.add(WindowedValue.of(
+          value, new Instant(0), Arrays.asList(window(0, 10)), PaneInfo.NO_FIRING));
+    }
+
+    runner.startBundle();
+    runner.processElement(WindowedValue.valueInEmptyWindows(
+        KV.of("k", (Iterable<WindowedValue<String>>) values)));
+    runner.finishBundle();
+
+    // The output is read after the state of the key has been cleared.
+    List<WindowedValue<KV<String, Iterable<String>>>> result = outputManager.getOutput(outputTag);
+    assertEquals(1, result.size());
+    assertEquals(numValues, Iterables.size(result.get(0).getValue().getValue()));
+  }
+
   @Test public void testSessions() throws Exception {
     TupleTag<KV<String, Iterable<String>>> outputTag = new TupleTag<>();
     DoFnRunner.ListOutputManager outputManager = new DoFnRunner.ListOutputManager();
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link KeyAffineExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class KeyAffineExecutorTest {
+  private KeyAffineExecutor executor;
+
+  @Before
+  public void setUp() {
+    executor = new KeyAffineExecutor(4, 1, TimeUnit.MINUTES, 100, Executors.defaultThreadFactory());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTasksForKeyRunOnSameThread() throws Exception {
+    final Set<Integer> threads = Collections.synchronizedSet(new HashSet<Integer>());
+    for (int i = 0; i < 20; i++) {
+      final CountDownLatch done = new CountDownLatch(1);
+      executor.execute("key", new Runnable() {
+        @Override
+        public void run() {
+          threads.add(executor.getCurrentThreadIndex());
+          done.countDown();
+        }
+      });
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      // Wait for the task to return, so that the next one is not stolen from a busy thread.
+      while (executor.getActiveCount() > 0) {
+        Thread.sleep(1);
+      }
+    }
+    assertEquals(1, threads.size());
+    assertEquals(-1, executor.getCurrentThreadIndex());
+  }
+
+  @Test
+  public void testIdleThreadsStealFromBusyThread() throws Exception {
+    final CountDownLatch started = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    // Both tasks hash to the same thread, so the second only runs if another thread steals it.
+    executor.execute("key", blocking);
+    executor.execute("key", blocking);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(2, executor.getActiveCount());
+    assertEquals(0, executor.getQueuedCount());
+    release.countDown();
+  }
+
+  @Test
+  public void testIdleThreadsStealAllQueuedTasks() throws Exception {
+    final CountDownLatch started = new CountDownLatch(4);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    // The owner is busy with the first task, so each of the others needs a different thief.
+    for (int i = 0; i < 4; i++) {
+      executor.execute("key", blocking);
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertEquals(4, executor.getActiveCount());
+    release.countDown();
+  }
+
+  @Test
+  public void testStealsOldestTask() throws Exception {
+    KeyAffineExecutor pair =
+        new KeyAffineExecutor(2, 1, TimeUnit.MINUTES, 100, Executors.defaultThreadFactory());
+    final CountDownLatch started = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    final CountDownLatch releaseOwner = new CountDownLatch(1);
+    pair.execute("key", new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          releaseOwner.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    pair.execute("key", blocking);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    // Both threads are busy, so these wait in the owner's deque until the thief is released.
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(3);
+    for (int i = 0; i < 3; i++) {
+      final int task = i;
+      pair.execute("key", new Runnable() {
+        @Override
+        public void run() {
+          order.add(task);
+          done.countDown();
+        }
+      });
+    }
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertThat(order, contains(0, 1, 2));
+    releaseOwner.countDown();
+    pair.shutdown();
+    assertTrue(pair.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testIdleThreadsEnd() throws Exception {
+    KeyAffineExecutor expiring = new KeyAffineExecutor(
+        2, 10, TimeUnit.MILLISECONDS, 100, Executors.defaultThreadFactory());
+    final CountDownLatch done = new CountDownLatch(2);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    };
+    expiring.execute("key", task);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (expiring.getPoolSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, expiring.getPoolSize());
+
+    // A thread is started again for the next task.
+    expiring.execute("key", task);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    expiring.shutdown();
+    assertTrue(expiring.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testForceExecuteIgnoresQueueLimit() throws Exception {
+    KeyAffineExecutor bounded =
+        new KeyAffineExecutor(1, 1, TimeUnit.MINUTES, 1, Executors.defaultThreadFactory());
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      }
+    };
+    bounded.execute(task);
+    bounded.forceExecute("key", task);
+    bounded.forceExecute(task);
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    bounded.shutdown();
+    assertTrue(bounded.awaitTermination(10, TimeUnit.SECONDS));
+  }
+}
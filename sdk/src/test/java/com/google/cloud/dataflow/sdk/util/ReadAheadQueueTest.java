@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Tests for {@link ReadAheadQueue}. */
+@RunWith(JUnit4.class)
+public class ReadAheadQueueTest {
+
+  @Test
+  public void testTakesElementsInOrder() throws Exception {
+    try (ReadAheadQueue<Integer> queue =
+        ReadAheadQueue.start(2, "ReadAheadQueueTest-%d", new CountingProducer(10))) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Integer.valueOf(i), queue.take());
+      }
+      assertNull(queue.take());
+      assertNull(queue.take());
+    }
+  }
+
+  @Test
+  public void testFailureIsThrownByEveryLaterTake() throws Exception {
+    final IOException failure = new IOException("Failed to produce");
+    try (ReadAheadQueue<String> queue = ReadAheadQueue.start(
+        2, "ReadAheadQueueTest-%d", new ReadAheadQueue.Producer<String>() {
+          private boolean producedFirst = false;
+
+          @Override
+          public String next() throws IOException {
+            if (!producedFirst) {
+              producedFirst = true;
+              return "first";
+            }
+            throw failure;
+          }
+        })) {
+      assertEquals("first", queue.take());
+      for (int i = 0; i < 2; i++) {
+        try {
+          queue.take();
+          fail("Expected the failure to produce the second element");
+        } catch (IOException e) {
+          assertSame(failure, e);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testWrapsCheckedFailures() throws Exception {
+    final Exception failure = new Exception("Failed to produce");
+    try (ReadAheadQueue<String> queue = ReadAheadQueue.start(
+        1, "ReadAheadQueueTest-%d", new ReadAheadQueue.Producer<String>() {
+          @Override
+          public String next() throws Exception {
+            throw failure;
+          }
+        })) {
+      queue.take();
+      fail("Expected the failure to produce the first element");
+    } catch (IOException e) {
+      assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test
+  public void testHandsOverErrors() throws Exception {
+    final Error failure = new StackOverflowError();
+    try (ReadAheadQueue<String> queue = ReadAheadQueue.start(
+        1, "ReadAheadQueueTest-%d", new ReadAheadQueue.Producer<String>() {
+          @Override
+          public String next() {
+            throw failure;
+          }
+        })) {
+      for (int i = 0; i < 2; i++) {
+        try {
+          queue.take();
+          fail("Expected the error thrown while producing the first element");
+        } catch (StackOverflowError e) {
+          assertSame(failure, e);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCloseWaitsForProducer() throws Exception {
+    final CountDownLatch producing = new CountDownLatch(1);
+    final AtomicBoolean produced = new AtomicBoolean();
+    ReadAheadQueue<String> queue = ReadAheadQueue.start(
+        1, "ReadAheadQueueTest-%d", new ReadAheadQueue.Producer<String>() {
+          @Override
+          public String next() {
+            producing.countDown();
+            // Ignores the interrupt from close(), like a blocking read of a channel would.
+            Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+            produced.set(true);
+            return "element";
+          }
+        });
+    producing.await();
+    queue.close();
+    assertTrue(produced.get());
+  }
+
+  @Test
+  public void testCloseStopsProducerBlockedOnFullQueue() throws Exception {
+    CountingProducer producer = new CountingProducer(Integer.MAX_VALUE);
+    ReadAheadQueue<Integer> queue = ReadAheadQueue.start(1, "ReadAheadQueueTest-%d", producer);
+    assertEquals(Integer.valueOf(0), queue.take());
+    queue.close();
+    assertTrue(producer.count <= 3);
+  }
+
+  /** Produces the integers from 0 up to a limit. */
+  private static class CountingProducer implements ReadAheadQueue.Producer<Integer> {
+    private final int limit;
+    private volatile int count = 0;
+
+    CountingProducer(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public Integer next() {
+      return count < limit ? count++ : null;
+    }
+  }
+}
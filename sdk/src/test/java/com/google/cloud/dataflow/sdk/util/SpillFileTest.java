@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/** Tests for {@link SpillFile}. */
+@RunWith(JUnit4.class)
+public class SpillFileTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testReleaseDeletesUnreadFile() throws Exception {
+    SpillFile spillFile = SpillFile.create("test-", ".spill", tmpFolder.getRoot());
+    File file = spillFile.getFile();
+    assertTrue(file.exists());
+
+    spillFile.release();
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testReleasedFileIsKeptWhileRead() throws Exception {
+    SpillFile spillFile = SpillFile.create("test-", ".spill", tmpFolder.getRoot());
+    File file = spillFile.getFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (String value : new String[] {"a", "b"}) {
+        SpilledValues.write(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), value), out);
+      }
+    }
+    SpilledValues<String> values = new SpilledValues<>(StringUtf8Coder.of(), spillFile, 0, 2);
+
+    spillFile.release();
+    spillFile = null;
+    assertThat(values, contains("a", "b"));
+    assertTrue(file.exists());
+
+    values = null;
+    for (int i = 0; i < 100 && file.exists(); i++) {
+      System.gc();
+      Thread.sleep(10);
+      // Releasing another file deletes those that are no longer reachable.
+      SpillFile.create("other-", ".spill", tmpFolder.getRoot()).release();
+    }
+    assertFalse(file.exists());
+  }
+}
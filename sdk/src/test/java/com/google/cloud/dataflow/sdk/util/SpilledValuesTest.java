@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/** Tests for {@link SpilledValues}. */
+@RunWith(JUnit4.class)
+public class SpilledValuesTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testReadRange() throws Exception {
+    File file = tmpFolder.newFile();
+    long start;
+    try (OutputStream out = new FileOutputStream(file)) {
+      start = SpilledValues.write(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), "a"), out);
+      for (String value : new String[] {"b", "c"}) {
+        SpilledValues.write(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), value), out);
+      }
+    }
+
+    assertThat(new SpilledValues<>(StringUtf8Coder.of(), file, start, 2), contains("b", "c"));
+    assertThat(new SpilledValues<>(StringUtf8Coder.of(), file, 0, 0), emptyIterable());
+  }
+
+  @Test
+  public void testReadManyBatches() throws Exception {
+    File file = tmpFolder.newFile();
+    String value = Strings.repeat("x", 1000);
+    int size = 3 * SpilledValues.READ_BATCH_BYTES / value.length();
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int i = 0; i < size; i++) {
+        SpilledValues.write(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), value + i), out);
+      }
+    }
+
+    SpilledValues<String> values = new SpilledValues<>(StringUtf8Coder.of(), file, 0, size);
+    // Values can be iterated more than once.
+    for (int pass = 0; pass < 2; pass++) {
+      int i = 0;
+      for (String read : values) {
+        assertEquals(value + i++, read);
+      }
+      assertEquals(size, i);
+    }
+    assertEquals(size, Iterables.size(values));
+  }
+}
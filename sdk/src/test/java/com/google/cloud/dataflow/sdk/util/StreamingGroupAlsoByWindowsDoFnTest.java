@@ -27,13 +27,16 @@ import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.transforms.windowing.AfterPane;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Repeatedly;
 import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
 import com.google.cloud.dataflow.sdk.transforms.windowing.SlidingWindows;
 import com.google.cloud.dataflow.sdk.util.TimerInternals.TimerData;
+import com.google.cloud.dataflow.sdk.util.WindowingStrategy.AccumulationMode;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.state.StateNamespace;
 import com.google.cloud.dataflow.sdk.util.state.StateNamespaces;
@@ -164,6 +167,38 @@ public class StreamingGroupAlsoByWindowsDoFnTest {
     assertThat(item1.getWindows(), Matchers.<BoundedWindow>contains(window(10, 20)));
   }
 
+  @Test public void testElementCountTriggerFiresWithinBundle() throws Exception {
+    TupleTag<KV<String, Iterable<String>>> outputTag = new TupleTag<>();
+    DoFnRunner.ListOutputManager outputManager = new DoFnRunner.ListOutputManager();
+    DoFnRunner<TimerOrElement<KV<String, String>>, KV<String, Iterable<String>>> runner =
+        makeRunner(
+            outputTag,
+            outputManager,
+            WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
+                .withTrigger(Repeatedly.forever(AfterPane.elementCountAtLeast(2)))
+                .withMode(AccumulationMode.DISCARDING_FIRED_PANES));
+
+    runner.startBundle();
+    when(mockTimerInternals.currentWatermarkTime()).thenReturn(new Instant(0));
+
+    // The values of a bundle are processed together, but the trigger still sees each of them.
+    for (int i = 0; i < 5; i++) {
+      runner.processElement(WindowedValue.of(
+          TimerOrElement.element(KV.of("k", "v" + i)),
+          new Instant(i),
+          Arrays.asList(window(0, 10)),
+          PaneInfo.NO_FIRING));
+    }
+
+    runner.finishBundle();
+
+    List<WindowedValue<KV<String, Iterable<String>>>> result = outputManager.getOutput(outputTag);
+
+    assertEquals(2, result.size());
+    assertThat(result.get(0).getValue().getValue(), Matchers.containsInAnyOrder("v0", "v1"));
+    assertThat(result.get(1).getValue().getValue(), Matchers.containsInAnyOrder("v2", "v3"));
+  }
+
   @Test public void testSlidingWindows() throws Exception {
     TupleTag<KV<String, Iterable<String>>> outputTag = new TupleTag<>();
     DoFnRunner.ListOutputManager outputManager = new DoFnRunner.ListOutputManager();
@@ -32,6 +32,7 @@ import static org.junit.Assert.assertTrue;
 import com.google.api.services.dataflow.model.MetricUpdate;
 import com.google.cloud.dataflow.sdk.util.CloudCounterUtils;
 import com.google.cloud.dataflow.sdk.util.common.Counter.CounterMean;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -40,6 +41,7 @@ import org.junit.runners.JUnit4;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Unit tests for the {@link Counter} API.
@@ -185,7 +187,15 @@ public class CounterTest {
 
   @Test
   public void testSumLong() {
-    Counter<Long> c = Counter.longs("sum-long", SUM);
+    checkSumLong(Counter.longs("sum-long", SUM));
+  }
+
+  @Test
+  public void testStripedSumLong() {
+    checkSumLong(Counter.stripedLongs("sum-long", SUM));
+  }
+
+  private void checkSumLong(Counter<Long> c) {
     long expectedTotal = 0;
     long expectedDelta = 0;
     assertOK(expectedTotal, expectedDelta, c);
@@ -385,7 +395,15 @@ public class CounterTest {
 
   @Test
   public void testMeanLong() {
-    Counter<Long> c = Counter.longs("mean-long", MEAN);
+    checkMeanLong(Counter.longs("mean-long", MEAN));
+  }
+
+  @Test
+  public void testStripedMeanLong() {
+    checkMeanLong(Counter.stripedLongs("mean-long", MEAN));
+  }
+
+  private void checkMeanLong(Counter<Long> c) {
     long expTotal = 0;
     long expDelta = 0;
     long expCountTotal = 0;
@@ -532,6 +550,116 @@ public class CounterTest {
 
   // Incompatibility tests.
 
+  @Test
+  public void testStripedLongsEqualLongs() {
+    Counter<Long> striped = Counter.stripedLongs("c", SUM).addValue(3L);
+    Counter<Long> unstriped = Counter.longs("c", SUM).addValue(3L);
+    assertTrue(striped.isCompatibleWith(unstriped));
+    assertEquals(unstriped, striped);
+    assertEquals(striped, unstriped);
+    assertEquals(unstriped.hashCode(), striped.hashCode());
+    assertEquals(unstriped.toString(), striped.toString());
+  }
+
+  @Test
+  public void testStripedSumLongConcurrent() throws Exception {
+    final Counter<Long> c = Counter.stripedLongs("sum-long", SUM);
+    final int numThreads = 8;
+    final int numValues = 100000;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < numValues; j++) {
+            c.addValue(1L);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    long delta = 0;
+    for (Thread thread : threads) {
+      delta += c.getAndResetDelta();
+      thread.join();
+    }
+    delta += c.getAndResetDelta();
+    assertEquals(numThreads * numValues, delta);
+    assertEquals(numThreads * numValues, c.getAggregate().longValue());
+  }
+
+  @Test
+  public void testStripedMeanLongConcurrent() throws Exception {
+    final Counter<Long> c = Counter.stripedLongs("mean-long", MEAN);
+    final int numThreads = 8;
+    final int numValues = 100000;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < numValues; j++) {
+            c.addValue(2L);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    long count = 0;
+    for (Thread thread : threads) {
+      // Each delta must pair a sum with the count of the values in it.
+      CounterMean<Long> delta = c.getAndResetMeanDelta();
+      assertEquals(2 * delta.getCount(), delta.getAggregate().longValue());
+      count += delta.getCount();
+      thread.join();
+    }
+    count += c.getAndResetMeanDelta().getCount();
+    assertEquals(numThreads * numValues, count);
+  }
+
+  @Test
+  public void testStripedMeanLongContended() throws Exception {
+    final Counter<Long> c = Counter.stripedLongs("mean-long", MEAN);
+    final int numThreads = 16;
+    final int numValues = 50000;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Uninterruptibles.awaitUninterruptibly(start);
+          for (int j = 0; j < numValues; j++) {
+            c.addValue(3L);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    long lastCount = 0;
+    boolean adding = true;
+    while (adding) {
+      adding = false;
+      for (Thread thread : threads) {
+        adding |= thread.isAlive();
+      }
+      // Reads while every thread adds must see whole values and never lose any.
+      CounterMean<Long> mean = c.getMean();
+      assertEquals(3 * mean.getCount(), mean.getAggregate().longValue());
+      assertTrue(mean.getCount() >= lastCount);
+      lastCount = mean.getCount();
+    }
+    CounterMean<Long> mean = c.getMean();
+    assertEquals(numThreads * numValues, mean.getCount());
+    assertEquals(3L * numThreads * numValues, mean.getAggregate().longValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStripedMaxLong() {
+    Counter.stripedLongs("max-long", MAX);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testSumBool() {
     Counter.booleans("counter", SUM);
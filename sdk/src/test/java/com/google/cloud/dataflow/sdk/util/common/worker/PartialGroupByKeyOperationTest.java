@@ -20,10 +20,13 @@ import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
 import static com.google.cloud.dataflow.sdk.util.common.worker.TestOutputReceiver.TestOutputCounter.getMeanByteCounterName;
 import static com.google.cloud.dataflow.sdk.util.common.worker.TestOutputReceiver.TestOutputCounter.getObjectCounterName;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.isIn;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
@@ -41,11 +44,16 @@ import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.BufferingGroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.ByteKeyedGroupingTable;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.Combiner;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.CombiningGroupingTable;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyEncoder;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.LruEvictionPolicy;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SamplingSizeEstimator;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SizeEstimator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.TinyLfuEvictionPolicy;
 import com.google.cloud.dataflow.sdk.values.KV;
 
 import org.hamcrest.Description;
@@ -56,7 +64,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -124,7 +134,11 @@ public class PartialGroupByKeyOperationTest {
                     "test-PartialGroupByKeyOperation-finish-msecs")).getAggregate()),
             Counter.longs(getObjectCounterName("test_receiver_out"), SUM).resetToValue(3L),
             Counter.longs(getMeanByteCounterName("test_receiver_out"), MEAN)
-                .resetMeanToValue(3, 49L)),
+                .resetMeanToValue(3, 49L),
+            Counter.longs("PartialGroupByKeyOperation-GroupingTableFlushes", SUM)
+                .resetToValue(0L),
+            Counter.longs("PartialGroupByKeyOperation-CombineRatio", MEAN)
+                .resetMeanToValue(3, 6L)),
         counterSet);
   }
 
@@ -214,7 +228,11 @@ public class PartialGroupByKeyOperationTest {
                     "test-PartialGroupByKeyOperation-finish-msecs")).getAggregate()),
             Counter.longs(getObjectCounterName("test_receiver_out"), SUM).resetToValue(3L),
             Counter.longs(getMeanByteCounterName("test_receiver_out"), MEAN)
-                .resetMeanToValue(3, 25L)),
+                .resetMeanToValue(3, 25L),
+            Counter.longs("PartialGroupByKeyOperation-GroupingTableFlushes", SUM)
+                .resetToValue(0L),
+            Counter.longs("PartialGroupByKeyOperation-CombineRatio", MEAN)
+                .resetMeanToValue(3, 6L)),
         counterSet);
   }
 
@@ -233,6 +251,21 @@ public class PartialGroupByKeyOperationTest {
     }
   }
 
+  /**
+   * Encode the key as the UTF-8 bytes of its string form.
+   */
+  public static class StringGroupingKeyEncoder implements GroupingKeyEncoder<Object> {
+    @Override
+    public byte[] encodeGroupingKey(Object key) {
+      return key.toString().getBytes(UTF_8);
+    }
+
+    @Override
+    public Object createGroupingKey(Object key) {
+      return key;
+    }
+  }
+
   /**
    * "Estimate" the size of longs by looking at their value.
    */
@@ -362,6 +395,210 @@ public class PartialGroupByKeyOperationTest {
                    KV.of("DDDD", 6L)));
   }
 
+  @Test
+  public void testByteKeyedGroupingTableFlushesOldestKeys() throws Exception {
+    // Each key has a one-byte encoding and an entry of size 10 + 8 + 10, so
+    // the table holds three keys.
+    long entrySize = PartialGroupByKeyOperation.BYTE_KEYED_PER_KEY_OVERHEAD + 1 + 28;
+    BufferingGroupingTable<String, String> entries =
+        new BufferingGroupingTable<>(
+            Long.MAX_VALUE, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+            new StringPowerSizeEstimator(), new StringPowerSizeEstimator());
+    ByteKeyedGroupingTable<String, String, List<String>> table =
+        new ByteKeyedGroupingTable<>(
+            3 * entrySize + 1, new StringGroupingKeyEncoder(), new KvPairInfo(), entries);
+    TestOutputReceiver receiver = new TestOutputReceiver(
+        KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+
+    table.put("A", "a", receiver);
+    table.put("B", "b", receiver);
+    table.put("C", "c", receiver);
+    assertThat(receiver.outputElems, empty());
+
+    // The fourth key fills the table, which flushes the oldest keys.
+    table.put("D", "d", receiver);
+    assertThat(receiver.outputElems, contains(
+        (Object) KV.of("A", Arrays.asList("a")),
+        KV.of("B", Arrays.asList("b"))));
+
+    // The remaining keys are still found after the table is compacted.
+    table.put("C", "e", receiver);
+    table.put("A", "f", receiver);
+    table.flush(receiver);
+    assertThat(receiver.outputElems, contains(
+        (Object) KV.of("A", Arrays.asList("a")),
+        KV.of("B", Arrays.asList("b")),
+        KV.of("C", Arrays.asList("c", "e")),
+        KV.of("D", Arrays.asList("d")),
+        KV.of("A", Arrays.asList("f"))));
+  }
+
+  @Test
+  public void testByteKeyedGroupingTableManyKeys() throws Exception {
+    ByteKeyedGroupingTable<String, Long, Long> table =
+        new ByteKeyedGroupingTable<>(
+            Long.MAX_VALUE, new StringGroupingKeyEncoder(), new KvPairInfo(),
+            new CombiningGroupingTable<String, Long, Long>(
+                Long.MAX_VALUE, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+                new SummingLongCombiner(), new StringPowerSizeEstimator(),
+                new IdentitySizeEstimator()));
+    TestOutputReceiver receiver = new TestOutputReceiver(
+        KvCoder.of(StringUtf8Coder.of(), BigEndianLongCoder.of()));
+
+    // Enough keys to grow the table several times.
+    for (int i = 0; i < 20000; i++) {
+      table.put("key" + (i % 5000), 1L, receiver);
+    }
+    assertThat(receiver.outputElems, empty());
+    table.flush(receiver);
+
+    assertEquals(5000, receiver.outputElems.size());
+    Map<Object, Object> counts = new HashMap<>();
+    for (Object elem : receiver.outputElems) {
+      KV<?, ?> kv = (KV<?, ?>) elem;
+      counts.put(kv.getKey(), kv.getValue());
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(4L, counts.get("key" + i));
+    }
+  }
+
+  @Test
+  public void testLruEvictionPolicy() throws Exception {
+    // Each key has a one-byte encoding and an entry of size 10 + 8 + 10 per
+    // value, so the table holds three keys, one of them with two values.
+    long entrySize = PartialGroupByKeyOperation.BYTE_KEYED_PER_KEY_OVERHEAD + 1 + 28;
+    ByteKeyedGroupingTable<String, String, List<String>> table =
+        new ByteKeyedGroupingTable<>(
+            3 * entrySize + 19, new StringGroupingKeyEncoder(), new KvPairInfo(),
+            new BufferingGroupingTable<String, String>(
+                Long.MAX_VALUE, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+                new StringPowerSizeEstimator(), new StringPowerSizeEstimator()));
+    table.setEvictionPolicy(new LruEvictionPolicy());
+    TestOutputReceiver receiver = new TestOutputReceiver(
+        KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+
+    table.put("A", "a", receiver);
+    table.put("B", "b", receiver);
+    table.put("C", "c", receiver);
+    table.put("A", "e", receiver);
+    assertThat(receiver.outputElems, empty());
+
+    table.put("D", "d", receiver);
+    assertThat(receiver.outputElems, contains(
+        (Object) KV.of("B", Arrays.asList("b")),
+        KV.of("C", Arrays.asList("c"))));
+  }
+
+  @Test
+  public void testLruEvictionPolicyBeyondSampleSize() throws Exception {
+    int numKeys = 4 * PartialGroupByKeyOperation.GroupingTable.EVICTION_SAMPLE_SIZE;
+    long entrySize = PartialGroupByKeyOperation.BYTE_KEYED_PER_KEY_OVERHEAD + 1 + 28;
+    ByteKeyedGroupingTable<String, String, List<String>> table =
+        new ByteKeyedGroupingTable<>(
+            numKeys * entrySize + 19, new StringGroupingKeyEncoder(), new KvPairInfo(),
+            new BufferingGroupingTable<String, String>(
+                Long.MAX_VALUE, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+                new StringPowerSizeEstimator(), new StringPowerSizeEstimator()));
+    table.setEvictionPolicy(new LruEvictionPolicy());
+    TestOutputReceiver receiver = new TestOutputReceiver(
+        KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+
+    for (int i = 0; i < numKeys; i++) {
+      table.put(key(i), "v", receiver);
+    }
+    table.put(key(0), "v", receiver);
+    table.put(key(numKeys), "v", receiver);
+
+    // Candidates are sampled, but the least recently used keys still go first.
+    assertThat(receiver.outputElems, not(empty()));
+    for (int i = 0; i < receiver.outputElems.size(); i++) {
+      assertEquals(
+          KV.of(key(i + 1), Arrays.asList("v")),
+          receiver.outputElems.get(i));
+    }
+  }
+
+  /** Returns a distinct one-character key, so that every key has the same size. */
+  private static String key(int i) {
+    return String.valueOf((char) ('0' + i));
+  }
+
+  @Test
+  public void testTinyLfuEvictionPolicy() throws Exception {
+    // Accumulators of zero have size zero, so each entry has a constant size
+    // and the tables hold three keys.
+    long entrySize = PartialGroupByKeyOperation.PER_KEY_OVERHEAD + 10;
+    CombiningGroupingTable<String, Long, Long> hashTable =
+        new CombiningGroupingTable<String, Long, Long>(
+            3 * entrySize + 1, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+            new SummingLongCombiner(), new StringPowerSizeEstimator(),
+            new IdentitySizeEstimator());
+    assertHotKeyIsKept(hashTable);
+
+    long byteKeyedEntrySize = PartialGroupByKeyOperation.BYTE_KEYED_PER_KEY_OVERHEAD + 1 + 10;
+    ByteKeyedGroupingTable<String, Long, Long> byteKeyedTable =
+        new ByteKeyedGroupingTable<>(
+            3 * byteKeyedEntrySize + 1, new StringGroupingKeyEncoder(), new KvPairInfo(),
+            new CombiningGroupingTable<String, Long, Long>(
+                Long.MAX_VALUE, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+                new SummingLongCombiner(), new StringPowerSizeEstimator(),
+                new IdentitySizeEstimator()));
+    assertHotKeyIsKept(byteKeyedTable);
+  }
+
+  /**
+   * Puts a frequent key followed by three infrequent ones into a table that
+   * holds three keys, and checks that the infrequent keys are flushed even
+   * though the frequent key was put least recently.
+   */
+  private void assertHotKeyIsKept(GroupingTable<String, Long, Long> table) throws Exception {
+    table.setEvictionPolicy(new TinyLfuEvictionPolicy(1024));
+    table.flushCounter = Counter.longs("flushes", SUM);
+    TestOutputReceiver receiver = new TestOutputReceiver(
+        KvCoder.of(StringUtf8Coder.of(), BigEndianLongCoder.of()));
+
+    for (int i = 0; i < 4; i++) {
+      table.put("A", 0L, receiver);
+    }
+    table.put("B", 0L, receiver);
+    table.put("C", 0L, receiver);
+    assertThat(receiver.outputElems, empty());
+
+    table.put("D", 0L, receiver);
+    assertThat(receiver.outputElems, contains((Object) KV.of("B", 0L), KV.of("C", 0L)));
+    assertEquals(1L, (long) table.flushCounter.getAggregate());
+  }
+
+  /**
+   * Sums long values.
+   */
+  private static class SummingLongCombiner implements Combiner<Object, Long, Long, Long> {
+    @Override
+    public Long createAccumulator(Object key) {
+      return 0L;
+    }
+
+    @Override
+    public Long add(Object key, Long accumulator, Long value) {
+      return accumulator + value;
+    }
+
+    @Override
+    public Long merge(Object key, Iterable<Long> accumulators) {
+      long sum = 0;
+      for (Long part : accumulators) {
+        sum += part;
+      }
+      return sum;
+    }
+
+    @Override
+    public Long extract(Object key, Long accumulator) {
+      return accumulator;
+    }
+  }
+
 
   ////////////////////////////////////////////////////////////////////////////
   // Tests for the sampling size estimator.
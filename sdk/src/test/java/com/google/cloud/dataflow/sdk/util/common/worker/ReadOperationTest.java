@@ -108,6 +108,7 @@ public class ReadOperationTest {
     assertCounterKind(counterSet, "test-ReadOperation-start-msecs", SUM);
     assertCounterKind(counterSet, "test-ReadOperation-process-msecs", SUM);
     assertCounterKind(counterSet, "test-ReadOperation-finish-msecs", SUM);
+    assertThat(reader.counterOperationName, equalTo("test-ReadOperation"));
   }
 
   @Test
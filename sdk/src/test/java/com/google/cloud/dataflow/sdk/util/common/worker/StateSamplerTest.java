@@ -16,6 +16,9 @@
 
 package com.google.cloud.dataflow.sdk.util.common.worker;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.dataflow.sdk.util.common.Counter;
@@ -25,6 +28,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Unit tests for the {@link Counter} API.
  */
@@ -58,6 +66,7 @@ public class StateSamplerTest {
         Thread.sleep(3 * periodMs);
       }
 
+      stateSampler.flush();
       long s1 = getCounterLongValue(counters, "test-1-msecs");
       long s2 = getCounterLongValue(counters, "test-2-msecs");
 
@@ -98,6 +107,7 @@ public class StateSamplerTest {
         Thread.sleep(periodMs);
       }
 
+      stateSampler.flush();
       long s1 = getCounterLongValue(counters, "test-1-msecs");
       long s2 = getCounterLongValue(counters, "test-2-msecs");
       long s3 = getCounterLongValue(counters, "test-3-msecs");
@@ -119,6 +129,7 @@ public class StateSamplerTest {
       int previousState = stateSampler.setState(state1);
       Thread.sleep(2 * periodMs);
       stateSampler.setState(previousState);
+      stateSampler.flush();
       long tolerance = periodMs;
       long s = getCounterLongValue(counters, "test-1-msecs");
 
@@ -126,4 +137,55 @@ public class StateSamplerTest {
       assertTrue(s <= 4 * periodMs + tolerance);
     }
   }
+
+  @Test
+  public void testSamplersShareOneThread() throws InterruptedException {
+    CounterSet counters = new CounterSet();
+    List<StateSampler> samplers = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      StateSampler stateSampler = new StateSampler("test-", counters.getAddCounterMutator(), 10);
+      stateSampler.setState("shared");
+      samplers.add(stateSampler);
+    }
+    Thread.sleep(100);
+    int samplingThreads = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("StateSampler")) {
+        samplingThreads++;
+      }
+    }
+    assertEquals(1, samplingThreads);
+    for (StateSampler stateSampler : samplers) {
+      stateSampler.close();
+    }
+    assertTrue(getCounterLongValue(counters, "test-shared-msecs") > 0);
+  }
+
+  @Test
+  public void testDurationHistogram() throws InterruptedException {
+    CounterSet counters = new CounterSet();
+    long periodMs = 10;
+    try (StateSampler stateSampler =
+        new StateSampler("histogram-", counters.getAddCounterMutator(), periodMs)) {
+      int state = stateSampler.stateForName("long");
+      for (int i = 0; i < 3; i++) {
+        try (StateSampler.ScopedState s = stateSampler.scopedState(state)) {
+          assert s != null;
+          Thread.sleep(30 * periodMs);
+        }
+        Thread.sleep(5 * periodMs);
+      }
+    }
+
+    // Each 300ms held is sampled as at least 128ms and at most 512ms.
+    long count = 0;
+    for (long minMillis = 128; minMillis <= 256; minMillis *= 2) {
+      count += StateSampler.getDurationCount("histogram-long", minMillis);
+    }
+    assertEquals(3, count);
+
+    StringWriter html = new StringWriter();
+    StateSampler.printHtml(new PrintWriter(html));
+    assertThat(html.toString(), containsString("histogram-long: "));
+  }
 }
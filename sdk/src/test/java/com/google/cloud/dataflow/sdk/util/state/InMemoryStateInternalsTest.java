@@ -97,6 +97,24 @@ public class InMemoryStateInternalsTest {
     assertThat(underTest.state(NAMESPACE_1, STRING_BAG_ADDR), Matchers.sameInstance(value));
   }
 
+  @Test
+  public void testBagContentsStayValid() throws Exception {
+    BagState<String> value = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
+    BagState<String> merged = underTest.mergedState(
+        Arrays.asList(NAMESPACE_1), NAMESPACE_1, STRING_BAG_ADDR);
+    value.add("hello");
+
+    // Contents that have been read, for example to be output, are not changed by later writes.
+    Iterable<String> contents = value.get().read();
+    Iterable<String> mergedContents = merged.get().read();
+    value.add("world");
+    assertThat(contents, Matchers.contains("hello"));
+    assertThat(mergedContents, Matchers.contains("hello"));
+    value.clear();
+    assertThat(contents, Matchers.contains("hello"));
+    assertThat(mergedContents, Matchers.contains("hello"));
+  }
+
   @Test
   public void testBagIsEmpty() throws Exception {
     BagState<String> value = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tests for {@link SpillingStateInternals}.
+ */
+@RunWith(JUnit4.class)
+public class SpillingStateInternalsTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static final StateNamespace NAMESPACE_1 = new StateNamespaceForTest("ns1");
+  private static final StateNamespace NAMESPACE_2 = new StateNamespaceForTest("ns2");
+
+  private static final StateTag<BagState<String>> STRING_BAG_ADDR =
+      StateTags.bag("stringBag", StringUtf8Coder.of());
+
+  @Test
+  public void testBagSpillsPastBudget() throws Exception {
+    File tempDirectory = tmpFolder.newFolder();
+    SpillingStateInternals underTest = new SpillingStateInternals(1024, tempDirectory);
+    BagState<String> bag = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
+    BagState<String> small = underTest.state(NAMESPACE_2, STRING_BAG_ADDR);
+    small.add("small");
+
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      String value = "value" + i;
+      bag.add(value);
+      expected.add(value);
+    }
+
+    assertTrue(underTest.getNumSpilledBags() > 0);
+    assertTrue(underTest.hasSpilledBags());
+    assertEquals(1, tempDirectory.list().length);
+    assertFalse(bag.isEmpty().read());
+    assertThat(bag.get().read(), Matchers.contains(expected.toArray()));
+    // Sized like an unspilled bag, so that it is encoded the same way when output.
+    assertEquals(expected.size(), ((Collection<?>) bag.get().read()).size());
+    // Iterating again reads the spilled values from the file again.
+    assertThat(bag.get().read(), Matchers.contains(expected.toArray()));
+    assertThat(small.get().read(), Matchers.contains("small"));
+
+    Iterable<String> contents = bag.get().read();
+    bag.clear();
+    assertTrue(bag.isEmpty().read());
+    assertThat(bag.get().read(), Matchers.emptyIterable());
+    assertFalse(underTest.hasSpilledBags());
+    // Contents read before the bag was cleared keep its file until they are unreachable.
+    assertEquals(1, tempDirectory.list().length);
+    assertThat(contents, Matchers.contains(expected.toArray()));
+
+    bag.add("again");
+    assertThat(bag.get().read(), Matchers.contains("again"));
+  }
+
+  @Test
+  public void testClearDeletesSpilledBags() throws Exception {
+    File tempDirectory = tmpFolder.newFolder();
+    SpillingStateInternals underTest = new SpillingStateInternals(1024, tempDirectory);
+    for (StateNamespace namespace : new StateNamespace[] {NAMESPACE_1, NAMESPACE_2}) {
+      BagState<String> bag = underTest.state(namespace, STRING_BAG_ADDR);
+      for (int i = 0; i < 500; i++) {
+        bag.add("value" + i);
+      }
+    }
+    assertEquals(2, tempDirectory.list().length);
+
+    underTest.clear();
+    assertEquals(0, tempDirectory.list().length);
+    assertThat(underTest.state(NAMESPACE_1, STRING_BAG_ADDR).get().read(),
+        Matchers.emptyIterable());
+  }
+
+  @Test
+  public void testUnderBudgetStaysInMemory() throws Exception {
+    File tempDirectory = tmpFolder.newFolder();
+    SpillingStateInternals underTest = new SpillingStateInternals(1 << 20, tempDirectory);
+    BagState<String> bag = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
+    for (int i = 0; i < 100; i++) {
+      bag.add("value" + i);
+    }
+    assertEquals(0, underTest.getNumSpilledBags());
+    assertFalse(underTest.hasSpilledBags());
+    assertEquals(0, tempDirectory.list().length);
+    assertThat(bag.get().read(), Matchers.<String>iterableWithSize(100));
+  }
+}
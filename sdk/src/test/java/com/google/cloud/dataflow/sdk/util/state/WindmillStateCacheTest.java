@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.ListCoder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.runners.worker.MetricTrackingWindmillServerStub;
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.cloud.dataflow.sdk.util.state.WindmillStateReader.StateTag;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link WindmillStateCache}.
+ */
+@RunWith(JUnit4.class)
+public class WindmillStateCacheTest {
+
+  private static final String COMPUTATION = "computation";
+  private static final ByteString KEY = ByteString.copyFromUtf8("key");
+  private static final ByteString STATE_KEY = ByteString.copyFromUtf8("state");
+  private static final String STATE_FAMILY = "family";
+  private static final StateTag TAG = StateTag.value(STATE_KEY, STATE_FAMILY);
+  private static final ByteString VALUE = ByteString.copyFromUtf8("value");
+  private static final ByteString WRITTEN = ByteString.copyFromUtf8("written");
+  private static final ByteString READ = ByteString.copyFromUtf8("read");
+
+  @Mock
+  private MetricTrackingWindmillServerStub mockWindmill;
+
+  private WindmillStateCache cache;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    cache = new WindmillStateCache(1 << 20);
+  }
+
+  private WindmillStateCache.ForKey keyCache(long cacheToken, long workToken) {
+    return cache.forComputation(COMPUTATION).forKey(KEY, cacheToken, workToken);
+  }
+
+  @Test
+  public void testStateIsVisibleOnlyAfterPersist() {
+    WindmillStateCache.ForKey first = keyCache(1, 1);
+    first.put(TAG, VALUE, 5);
+    assertEquals(VALUE, first.peek(TAG).value);
+    // Tags written by a work item are always read from Windmill.
+    assertNull(first.get(TAG));
+    assertNull(keyCache(1, 2).get(TAG));
+
+    first.persist();
+    assertEquals(VALUE, keyCache(1, 2).get(TAG).value);
+    assertEquals(1, cache.getAndResetHits());
+    assertEquals(1, cache.getAndResetMisses());
+    assertEquals(0, cache.getAndResetHits());
+  }
+
+  @Test
+  public void testStateIsValidatedByTokens() {
+    WindmillStateCache.ForKey first = keyCache(1, 5);
+    first.put(TAG, VALUE, 5);
+    first.persist();
+
+    // Another cache token means the key's state may have been modified elsewhere.
+    assertNull(keyCache(2, 6).get(TAG));
+    // A work token that is not newer than the persisting work item's may be a retry of it.
+    assertNull(keyCache(1, 5).get(TAG));
+    assertEquals(VALUE, keyCache(1, 6).get(TAG).value);
+    // Other computations and keys have their own state.
+    assertNull(cache.forComputation("other").forKey(KEY, 1, 6).get(TAG));
+  }
+
+  @Test
+  public void testInvalidate() {
+    WindmillStateCache.ForKey first = keyCache(1, 1);
+    first.put(TAG, VALUE, 5);
+    first.persist();
+
+    cache.forComputation(COMPUTATION).invalidate(KEY);
+    assertNull(keyCache(1, 2).get(TAG));
+  }
+
+  @Test
+  public void testReadsDoNotReplaceWrites() {
+    WindmillStateCache.ForKey keyCache = keyCache(1, 1);
+    keyCache.put(TAG, WRITTEN, 7);
+    keyCache.recordRead(TAG, READ, 4);
+    assertEquals(WRITTEN, keyCache.peek(TAG).value);
+
+    keyCache.invalidate(TAG);
+    keyCache.recordRead(TAG, READ, 4);
+    assertNull(keyCache.peek(TAG));
+  }
+
+  @Test
+  public void testReaderUsesCache() throws Exception {
+    VarIntCoder coder = VarIntCoder.of();
+    ByteString.Output data = ByteString.newOutput();
+    coder.encode(42, data, Coder.Context.OUTER);
+
+    Windmill.GetDataResponse.Builder response = Windmill.GetDataResponse.newBuilder();
+    response
+        .addDataBuilder().setComputationId(COMPUTATION)
+        .addDataBuilder().setKey(KEY)
+        .addValues(Windmill.TagValue.newBuilder()
+            .setTag(STATE_KEY)
+            .setStateFamily(STATE_FAMILY)
+            .setValue(Windmill.Value.newBuilder()
+                .setData(data.toByteString())
+                .setTimestamp(Long.MAX_VALUE)));
+    Mockito.when(mockWindmill.getStateData(Mockito.any(Windmill.GetDataRequest.class)))
+        .thenReturn(response.build());
+
+    WindmillStateCache.ForKey firstCache = keyCache(1, 1);
+    WindmillStateReader first =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY, 1, firstCache);
+    assertEquals(42, (int) first.valueFuture(STATE_KEY, STATE_FAMILY, coder).get());
+    firstCache.persist();
+    Mockito.verify(mockWindmill).getStateData(Mockito.any(Windmill.GetDataRequest.class));
+
+    WindmillStateReader second =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY, 2, keyCache(1, 2));
+    assertEquals(42, (int) second.valueFuture(STATE_KEY, STATE_FAMILY, coder).get());
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+  }
+
+  @Test
+  public void testCachedValuesAreNotShared() throws Exception {
+    ListCoder<Integer> coder = ListCoder.of(VarIntCoder.of());
+    List<Integer> value = new ArrayList<>(Arrays.asList(1, 2));
+    ByteString.Output data = ByteString.newOutput();
+    coder.encode(value, data, Coder.Context.OUTER);
+    WindmillStateCache.ForKey firstCache = keyCache(1, 1);
+    firstCache.put(TAG, data.toByteString(), data.size());
+    firstCache.persist();
+
+    // A work item modifying the value it read does not modify the value read by the next one.
+    WindmillStateReader first =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY, 2, keyCache(1, 2));
+    List<Integer> firstValue = first.valueFuture(STATE_KEY, STATE_FAMILY, coder).get();
+    assertEquals(value, firstValue);
+    firstValue.add(3);
+
+    WindmillStateReader second =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY, 3, keyCache(1, 3));
+    assertEquals(value, second.valueFuture(STATE_KEY, STATE_FAMILY, coder).get());
+    Mockito.verifyZeroInteractions(mockWindmill);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodedValuesAreNotCached() {
+    keyCache(1, 1).put(TAG, new ArrayList<Integer>(), 0);
+  }
+}
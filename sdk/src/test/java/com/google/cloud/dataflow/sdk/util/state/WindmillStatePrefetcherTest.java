@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.runners.worker.MetricTrackingWindmillServerStub;
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link WindmillStatePrefetcher}.
+ */
+@RunWith(JUnit4.class)
+public class WindmillStatePrefetcherTest {
+
+  private static final VarIntCoder INT_CODER = VarIntCoder.of();
+
+  private static final String COMPUTATION = "computation";
+  private static final ByteString KEY_1 = ByteString.copyFromUtf8("key1");
+  private static final ByteString KEY_2 = ByteString.copyFromUtf8("key2");
+  private static final ByteString STATE_KEY = ByteString.copyFromUtf8("state");
+  private static final String STATE_FAMILY = "family";
+
+  @Mock
+  private MetricTrackingWindmillServerStub mockWindmill;
+
+  private WindmillStatePrefetcher prefetcher;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    prefetcher = new WindmillStatePrefetcher(mockWindmill, MoreExecutors.directExecutor());
+  }
+
+  private static Windmill.KeyedGetDataResponse keyedResponse(ByteString key, int value)
+      throws IOException {
+    ByteString.Output data = ByteString.newOutput();
+    INT_CODER.encode(value, data, Coder.Context.OUTER);
+    return Windmill.KeyedGetDataResponse.newBuilder()
+        .setKey(key)
+        .addValues(Windmill.TagValue.newBuilder()
+            .setTag(STATE_KEY)
+            .setStateFamily(STATE_FAMILY)
+            .setValue(Windmill.Value.newBuilder()
+                .setData(data.toByteString())
+                .setTimestamp(Long.MAX_VALUE)))
+        .build();
+  }
+
+  private static Windmill.GetDataResponse response(Windmill.KeyedGetDataResponse... keyed) {
+    Windmill.GetDataResponse.Builder response = Windmill.GetDataResponse.newBuilder();
+    Windmill.ComputationGetDataResponse.Builder computationResponse =
+        response.addDataBuilder().setComputationId(COMPUTATION);
+    for (Windmill.KeyedGetDataResponse keyedResponse : keyed) {
+      computationResponse.addData(keyedResponse);
+    }
+    return response.build();
+  }
+
+  private static Windmill.WorkItem workItem(ByteString key, long workToken) {
+    return Windmill.WorkItem.newBuilder().setKey(key).setWorkToken(workToken).build();
+  }
+
+  /** Reads the state of a key as a work item would, and records the tags it read. */
+  private void readAndRecord(ByteString key, long workToken, int expected) throws Exception {
+    Mockito.when(mockWindmill.getStateData(Mockito.any(Windmill.GetDataRequest.class)))
+        .thenReturn(response(keyedResponse(key, expected)));
+    WindmillStateReader reader =
+        new WindmillStateReader(mockWindmill, COMPUTATION, key, workToken);
+    assertEquals(expected, (int) reader.valueFuture(STATE_KEY, STATE_FAMILY, INT_CODER).get());
+    prefetcher.recordFetchedTags(reader);
+  }
+
+  @Test
+  public void testPrefetchesStateOfAllKeysInOneRequest() throws Exception {
+    readAndRecord(KEY_1, 1, 10);
+    readAndRecord(KEY_2, 2, 20);
+    Mockito.reset(mockWindmill);
+    Mockito.when(mockWindmill.getStateData(Mockito.any(Windmill.GetDataRequest.class)))
+        .thenReturn(response(keyedResponse(KEY_1, 11), keyedResponse(KEY_2, 21)));
+
+    WindmillStatePrefetcher.Batch batch = prefetcher.newBatch();
+    WindmillStatePrefetcher.Prefetch prefetch1 = batch.add(COMPUTATION, workItem(KEY_1, 3));
+    WindmillStatePrefetcher.Prefetch prefetch2 = batch.add(COMPUTATION, workItem(KEY_2, 4));
+    assertNull(batch.add(COMPUTATION, workItem(ByteString.copyFromUtf8("unknown"), 5)));
+    batch.start();
+
+    ArgumentCaptor<Windmill.GetDataRequest> request =
+        ArgumentCaptor.forClass(Windmill.GetDataRequest.class);
+    Mockito.verify(mockWindmill).getStateData(request.capture());
+    assertEquals(1, request.getValue().getRequestsCount());
+    assertEquals(2, request.getValue().getRequests(0).getRequestsCount());
+    assertEquals(3, request.getValue().getRequests(0).getRequests(0).getWorkToken());
+
+    WindmillStateReader reader1 =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY_1, 3, null, prefetch1);
+    WindmillStateReader reader2 =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY_2, 4, null, prefetch2);
+    assertEquals(11, (int) reader1.valueFuture(STATE_KEY, STATE_FAMILY, INT_CODER).get());
+    assertEquals(21, (int) reader2.valueFuture(STATE_KEY, STATE_FAMILY, INT_CODER).get());
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+  }
+
+  @Test
+  public void testCancelledPrefetchReadsFromWindmill() throws Exception {
+    readAndRecord(KEY_1, 1, 10);
+    Mockito.reset(mockWindmill);
+
+    WindmillStatePrefetcher.Batch batch = prefetcher.newBatch();
+    WindmillStatePrefetcher.Prefetch prefetch = batch.add(COMPUTATION, workItem(KEY_1, 2));
+    assertNotNull(prefetch);
+    prefetch.cancel();
+    batch.start();
+    Mockito.verifyZeroInteractions(mockWindmill);
+
+    Mockito.when(mockWindmill.getStateData(Mockito.any(Windmill.GetDataRequest.class)))
+        .thenReturn(response(keyedResponse(KEY_1, 12)));
+    WindmillStateReader reader =
+        new WindmillStateReader(mockWindmill, COMPUTATION, KEY_1, 2, null, prefetch);
+    assertEquals(12, (int) reader.valueFuture(STATE_KEY, STATE_FAMILY, INT_CODER).get());
+    Mockito.verify(mockWindmill).getStateData(Mockito.any(Windmill.GetDataRequest.class));
+  }
+}